@@ -199,6 +199,38 @@ JNIEXPORT void JNICALL Java_Vdb_Native_setup_1jni_1context
 JNIEXPORT jstring JNICALL Java_Vdb_Native_get_1one_1set_1statistics
   (JNIEnv *, jclass, jint, jlongArray, jlongArray);
 
+/*
+ * Class:     Vdb_Native
+ * Method:    get_statistics_snapshot
+ * Signature: ([II[J)V
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_get_1statistics_1snapshot
+  (JNIEnv *, jclass, jintArray, jint, jlongArray);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    peek_statistics_snapshot
+ * Signature: ([II[J)V
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_peek_1statistics_1snapshot
+  (JNIEnv *, jclass, jintArray, jint, jlongArray);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    setup_hdr_histogram
+ * Signature: (III)V
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_setup_1hdr_1histogram
+  (JNIEnv *, jclass, jint, jint, jint);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    get_hdr_histogram
+ * Signature: (I[J[J)V
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_get_1hdr_1histogram
+  (JNIEnv *, jclass, jint, jlongArray, jlongArray);
+
 /*
  * Class:     Vdb_Native
  * Method:    alloc_jni_shared_memory
@@ -239,6 +271,22 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyReadAndValidate
 JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFillAndWrite
   (JNIEnv *, jclass, jlong, jlong, jint, jlong, jlong, jint, jlong, jint, jlong, jint, jintArray, jlongArray, jlongArray, jstring, jint);
 
+/*
+ * Class:     Vdb_Native
+ * Method:    multiKeyFill
+ * Signature: (JJIJJIJIJI[I[J[JLjava/lang/String;)J
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFill
+  (JNIEnv *, jclass, jlong, jlong, jint, jlong, jlong, jint, jlong, jint, jlong, jint, jintArray, jlongArray, jlongArray, jstring);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    getDirectBufferAddress
+ * Signature: (Ljava/nio/ByteBuffer;)J
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_getDirectBufferAddress
+  (JNIEnv *, jclass, jobject);
+
 /*
  * Class:     Vdb_Native
  * Method:    fillLfsrArray
@@ -295,6 +343,38 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_getTickCount
 JNIEXPORT jlong JNICALL Java_Vdb_Native_truncateFile
   (JNIEnv *, jclass, jlong, jlong);
 
+/*
+ * Class:     Vdb_Native
+ * Method:    asyncSetup
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_asyncSetup
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    asyncSubmit
+ * Signature: (JIJJJJII)J
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_asyncSubmit
+  (JNIEnv *, jclass, jlong, jint, jlong, jlong, jlong, jlong, jint, jint);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    asyncReap
+ * Signature: (JI[I[J)I
+ */
+JNIEXPORT jint JNICALL Java_Vdb_Native_asyncReap
+  (JNIEnv *, jclass, jlong, jint, jintArray, jlongArray);
+
+/*
+ * Class:     Vdb_Native
+ * Method:    asyncDestroy
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_asyncDestroy
+  (JNIEnv *, jclass, jlong);
+
 #ifdef __cplusplus
 }
 #endif
@@ -84,6 +84,18 @@ JNIEXPORT void JNICALL Java_Vdb_Native_buffer_1to_1array(JNIEnv *env,
 
 
 
+/**
+ * Java call to obtain the native address of a direct ByteBuffer
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_getDirectBufferAddress(JNIEnv *env,
+                                                               jclass  this,
+                                                               jobject buffer)
+{
+  return (jlong) (uintptr_t) (*env)->GetDirectBufferAddress(env, buffer);
+}
+
+
+
 /**
  * Java call to obtain timestamp
  */
@@ -143,6 +155,49 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_fsync(JNIEnv *env,
 #endif
 
 
+/**
+ * Count leading zeros of a non-zero 64-bit value.
+ */
+static int clz64(jlong value)
+{
+#if defined(__GNUC__)
+  return __builtin_clzll((unsigned long long) value);
+#else
+  int count = 0;
+  if ((value >> 32) == 0) { count += 32; value <<= 32; }
+  if ((value >> 48) == 0) { count += 16; value <<= 16; }
+  if ((value >> 56) == 0) { count +=  8; value <<=  8; }
+  if ((value >> 60) == 0) { count +=  4; value <<=  4; }
+  if ((value >> 62) == 0) { count +=  2; value <<=  2; }
+  if ((value >> 63) == 0) { count +=  1; }
+  return count;
+#endif
+}
+
+
+/**
+ * Count response time in the log-linear percentile histogram.
+ * This must be kept in sync with HdrHistogram.countsIndex().
+ */
+#define HDR_HIGHEST ((jlong) 3600 * 1000000)
+static void updateHdr(jlong *counts, struct Workload *wkl, jlong response)
+{
+  int   half_mag = wkl->hdr_half_magnitude;
+  jlong sub_mask = ((jlong) 1 << (half_mag + 1)) - 1;
+  int   bucket;
+  int   index;
+
+  if (response > HDR_HIGHEST)
+    response = HDR_HIGHEST;
+
+  bucket = (64 - half_mag - 1) - clz64(response | sub_mask);
+  index  = ((bucket + 1) << half_mag) + (int) ((response >> bucket) - ((jlong) 1 << half_mag));
+
+  if (index >= 0 && index < wkl->hdr_length)
+    counts[index]++;
+}
+
+
 /**
  * Place response time in the proper histogram bucket.
  */
@@ -289,6 +344,15 @@ extern void update_workload_stats(JNIEnv *env,
   }
 
   MUTEX_LOCK(wkl->stat_lock);
+  STAT_WRITE_BEGIN(wkl);
+
+  /* A statistics snapshot started a new interval for the maximums: */
+  if (wkl->max_epoch != shared_mem->stat_epoch)
+  {
+    wkl->max_epoch = shared_mem->stat_epoch;
+    wkl->r_max     = 0;
+    wkl->w_max     = 0;
+  }
 
   if (read_flag )
   {
@@ -299,6 +363,8 @@ extern void update_workload_stats(JNIEnv *env,
     wkl->reads++;
     if (rc != 0 ) wkl->r_errors++;
     updateHistogram(env, &wkl->read_hist, response);
+    if (wkl->hdr_read != NULL)
+      updateHdr(wkl->hdr_read, wkl, response);
   }
   else
   {
@@ -309,6 +375,8 @@ extern void update_workload_stats(JNIEnv *env,
     wkl->writes++;
     if (rc != 0 ) wkl->w_errors++;
     updateHistogram(env, &wkl->write_hist, response);
+    if (wkl->hdr_write != NULL)
+      updateHdr(wkl->hdr_write, wkl, response);
   }
 
   /* kstat_runq_exit */
@@ -318,6 +386,7 @@ extern void update_workload_stats(JNIEnv *env,
   wkl->rlentime    += delta * rcnt;
   wkl->rtime       += delta;
 
+  STAT_WRITE_END(wkl);
   MUTEX_UNLOCK(wkl->stat_lock);
 }
 
@@ -334,6 +403,7 @@ extern jlong start_workload_stats(JNIEnv          *env,
 
   /* kstat_runq_enter */
   MUTEX_LOCK(wkl->stat_lock);
+  STAT_WRITE_BEGIN(wkl);
   delta            = tod - wkl->rlastupdate;
   wkl->rlastupdate = tod;
   rcnt             = wkl->q_depth++;
@@ -342,6 +412,7 @@ extern jlong start_workload_stats(JNIEnv          *env,
     wkl->rlentime += delta * rcnt;
     wkl->rtime    += delta;
   }
+  STAT_WRITE_END(wkl);
   MUTEX_UNLOCK(wkl->stat_lock);
 
   return tod;
@@ -357,6 +428,7 @@ extern void close_workload_interval(JNIEnv          *env,
   jlong tod = GET_SIMPLE_TOD();
 
   /* Mutexes are already locked upon entry. */
+  STAT_WRITE_BEGIN(wkl);
   delta            = tod - wkl->rlastupdate;
   wkl->rlastupdate = tod;
   rcnt             = wkl->q_depth;
@@ -365,6 +437,7 @@ extern void close_workload_interval(JNIEnv          *env,
     wkl->rlentime += delta * rcnt;
     wkl->rtime    += delta;
   }
+  STAT_WRITE_END(wkl);
 }
 
 
@@ -377,6 +450,7 @@ JNIEXPORT void JNICALL Java_Vdb_Native_alloc_1jni_1shared_1memory(JNIEnv *env,
                                                                   jclass  this,
                                                                   jlong   pid)
 {
+  int i;
 
 #ifdef SOLARIS
 
@@ -401,6 +475,11 @@ JNIEXPORT void JNICALL Java_Vdb_Native_alloc_1jni_1shared_1memory(JNIEnv *env,
 #endif
 
   /* Erase all workload data from previous run: */
+  for (i = 0; i < SHARED_WORKLOADS; i++)
+  {
+    if (shared_mem->workload[i].hdr_read  != NULL) free(shared_mem->workload[i].hdr_read);
+    if (shared_mem->workload[i].hdr_write != NULL) free(shared_mem->workload[i].hdr_write);
+  }
   shared_mem->max_workload = 0;
   memset(shared_mem->workload, 0, sizeof(struct Workload) * SHARED_WORKLOADS);
 }
@@ -530,8 +609,10 @@ JNIEXPORT jstring JNICALL Java_Vdb_Native_get_1one_1set_1statistics(JNIEnv     *
           wkl->rtime,
           wkl->rlentime);
 
+  STAT_WRITE_BEGIN(wkl);
   wkl->r_max = 0;
   wkl->w_max = 0;
+  STAT_WRITE_END(wkl);
   //PTOD(long_line);
 
   /* Copy the accumulated histogram data: */
@@ -549,6 +630,153 @@ JNIEXPORT jstring JNICALL Java_Vdb_Native_get_1one_1set_1statistics(JNIEnv     *
 
 
 
+/**
+ * Java call to get the statistics of a list of workloads in one call,
+ * SNAPSHOT_LONGS longs per workload, in the order used by WG_stats.java.
+ *
+ * No locks are taken and nothing is changed in the workloads: each copy is
+ * repeated until it was made while no update was in progress. Closing off
+ * the queue depth interval is left to Java, using rlastupdate and q_depth.
+ * r_max and w_max are only returned if they were set after the previous
+ * snapshot; incrementing stat_epoch tells update_workload_stats() to start
+ * new maximums.
+ *
+ * Histograms are not copied; they are only needed at the end of a run and
+ * are then obtained using get_one_set_statistics().
+ */
+static void copy_statistics_snapshot(JNIEnv     *env,
+                                     jintArray  jni_indexes,
+                                     jint       count,
+                                     jlongArray snapshot,
+                                     int        new_interval)
+{
+  jlong  epoch = shared_mem->stat_epoch;
+  jint  *index = (jint*)  (*env)->GetPrimitiveArrayCritical(env, jni_indexes, NULL);
+  jlong *out   = (jlong*) (*env)->GetPrimitiveArrayCritical(env, snapshot,    NULL);
+  jlong  seq;
+  int    i;
+
+  for (i = 0; i < count; i++)
+  {
+    struct Workload *wkl = (struct Workload*) &shared_mem->workload[index[i]];
+    jlong           *o   = &out[i * SNAPSHOT_LONGS];
+
+    do
+    {
+      seq = wkl->stat_seq;
+      STAT_BARRIER();
+
+      o[0]  = wkl->reads;
+      o[1]  = wkl->r_resptime;
+      o[2]  = wkl->r_resptime2;
+      o[3]  = (wkl->max_epoch == epoch) ? wkl->r_max : 0;
+      o[4]  = wkl->r_bytes;
+      o[5]  = wkl->r_errors;
+      o[6]  = wkl->writes;
+      o[7]  = wkl->w_resptime;
+      o[8]  = wkl->w_resptime2;
+      o[9]  = (wkl->max_epoch == epoch) ? wkl->w_max : 0;
+      o[10] = wkl->w_bytes;
+      o[11] = wkl->w_errors;
+      o[12] = wkl->rtime;
+      o[13] = wkl->rlentime;
+      o[14] = wkl->rlastupdate;
+      o[15] = wkl->q_depth;
+
+      STAT_BARRIER();
+    } while ((seq & 1) != 0 || seq != wkl->stat_seq);
+  }
+
+  /* From now on new maximums: */
+  if (new_interval)
+    shared_mem->stat_epoch = epoch + 1;
+
+  (*env)->ReleasePrimitiveArrayCritical(env, snapshot,    out,   0);
+  (*env)->ReleasePrimitiveArrayCritical(env, jni_indexes, index, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL Java_Vdb_Native_get_1statistics_1snapshot(JNIEnv     *env,
+                                                                 jclass     this,
+                                                                 jintArray  jni_indexes,
+                                                                 jint       count,
+                                                                 jlongArray snapshot)
+{
+  copy_statistics_snapshot(env, jni_indexes, count, snapshot, 1);
+}
+
+
+/**
+ * Same as get_statistics_snapshot(), but without starting new maximums.
+ * Used by MetricsSampler.java, which samples more often than the reporting
+ * interval and must not disturb it.
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_peek_1statistics_1snapshot(JNIEnv     *env,
+                                                                  jclass     this,
+                                                                  jintArray  jni_indexes,
+                                                                  jint       count,
+                                                                  jlongArray snapshot)
+{
+  copy_statistics_snapshot(env, jni_indexes, count, snapshot, 0);
+}
+
+
+
+/**
+ * Java call to allocate the percentile histograms for ONE workload.
+ * The layout is determined by HdrHistogram.java; we only need to know the
+ * amount of counters and the size of the sub buckets.
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_setup_1hdr_1histogram(JNIEnv *env,
+                                                             jclass  this,
+                                                             jint    jni_index,
+                                                             jint    half_magnitude,
+                                                             jint    length)
+{
+  struct Workload *wkl = (struct Workload*) &shared_mem->workload[jni_index];
+
+  MUTEX_LOCK(wkl->stat_lock);
+
+  if (wkl->hdr_read  != NULL) free(wkl->hdr_read);
+  if (wkl->hdr_write != NULL) free(wkl->hdr_write);
+
+  wkl->hdr_read           = (jlong*) calloc(length, sizeof(jlong));
+  wkl->hdr_write          = (jlong*) calloc(length, sizeof(jlong));
+  if (wkl->hdr_read == NULL || wkl->hdr_write == NULL)
+    ABORT("calloc for percentile histogram failed", strerror(errno));
+  wkl->hdr_length         = length;
+  wkl->hdr_half_magnitude = half_magnitude;
+
+  MUTEX_UNLOCK(wkl->stat_lock);
+}
+
+
+/**
+ * Java call to get the accumulated percentile histograms for ONE workload.
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_get_1hdr_1histogram(JNIEnv     *env,
+                                                           jclass     this,
+                                                           jint       jni_index,
+                                                           jlongArray read_counts,
+                                                           jlongArray write_counts)
+{
+  struct Workload *wkl = (struct Workload*) &shared_mem->workload[jni_index];
+  jint   len;
+
+  if (wkl->hdr_read == NULL)
+    return;
+
+  len = (*env)->GetArrayLength(env, read_counts);
+  if (len > wkl->hdr_length)
+    len = wkl->hdr_length;
+
+  MUTEX_LOCK(wkl->stat_lock);
+  (*env)->SetLongArrayRegion(env, read_counts,  0, len, wkl->hdr_read);
+  (*env)->SetLongArrayRegion(env, write_counts, 0, len, wkl->hdr_write);
+  MUTEX_UNLOCK(wkl->stat_lock);
+}
+
+
+
 JNIEXPORT jstring JNICALL Java_Vdb_Native_getErrorText(JNIEnv *env,
                                                        jclass this,
                                                        jint   msg_no)
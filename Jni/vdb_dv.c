@@ -1016,34 +1016,29 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyReadAndValidate(JNIEnv     *env,
 /**
  * Data Validation.
  *
- * Fill and write the whole block.
+ * Fill all key blocks of the whole block.
+ * Returns the address of the first byte to be written.
  *
  * file_start_lba: the offset of this block within this FSD (zero for SD)
  * file_lba:       the offset of this block within the file/SD
  */
-JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFillAndWrite(JNIEnv     *env,
-                                                             jclass     this,
-                                                             jlong      handle,
-                                                             jlong      tod,
-                                                             jint       d_flag,
-                                                             jlong      f_start_lba,
-                                                             jlong      f_lba,
-                                                             jint       d_length,
-                                                             jlong      p_lba,
-                                                             jint       p_length,
-                                                             jlong      buffer,
-                                                             jint       key_count,
-                                                             jintArray  keys,
-                                                             jlongArray compressions,
-                                                             jlongArray dedup_sets,
-                                                             jstring    dv_text_in,
-                                                             jint       jni_index)
+static jlong multi_key_fill(JNIEnv         *env,
+                            struct Request *req,
+                            jlong          tod,
+                            jint           d_flag,
+                            jlong          f_start_lba,
+                            jlong          f_lba,
+                            jint           d_length,
+                            jlong          p_lba,
+                            jint           p_length,
+                            jlong          buffer,
+                            jint           key_count,
+                            jintArray      keys,
+                            jlongArray     compressions,
+                            jlongArray     dedup_sets,
+                            jstring        dv_text_in)
 {
   int i;
-  jlong  rc, tod1;
-  struct Request request;
-  struct Request *req  = &request;
-  struct Workload *wkl = (jni_index < 0) ? 0 : &shared_mem->workload[jni_index];
   char*  dv_text       = (char*) (*env)->GetStringUTFChars(env, dv_text_in, 0);
   jint*  key_array     = (*env)->GetIntArrayElements(env, keys, 0);
   jlong* cmp_array     = (*env)->GetLongArrayElements(env, compressions, 0);
@@ -1069,8 +1064,7 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFillAndWrite(JNIEnv     *env,
 
   if (debug) PTOD("start multiKey FillAndWrite");
 
-  /* Copy the fixed portion of the info: */
-  req->fhandle        = handle;
+  /* Copy the fixed portion of the info (req->fhandle is set by caller): */
   req->data_length    = d_length;
   req->pattern_length = p_length;
   req->key_blksize    = p_length / key_count;
@@ -1139,6 +1133,48 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFillAndWrite(JNIEnv     *env,
   if (req->data_flag & FLAG_DEDUP && req->file_lba % req->key_blksize)
     req->buffer += req->file_lba % req->key_blksize;
 
+  return req->buffer;
+}
+
+
+/**
+ * Data Validation.
+ *
+ * Fill and write the whole block.
+ *
+ * file_start_lba: the offset of this block within this FSD (zero for SD)
+ * file_lba:       the offset of this block within the file/SD
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFillAndWrite(JNIEnv     *env,
+                                                             jclass     this,
+                                                             jlong      handle,
+                                                             jlong      tod,
+                                                             jint       d_flag,
+                                                             jlong      f_start_lba,
+                                                             jlong      f_lba,
+                                                             jint       d_length,
+                                                             jlong      p_lba,
+                                                             jint       p_length,
+                                                             jlong      buffer,
+                                                             jint       key_count,
+                                                             jintArray  keys,
+                                                             jlongArray compressions,
+                                                             jlongArray dedup_sets,
+                                                             jstring    dv_text_in,
+                                                             jint       jni_index)
+{
+  jlong  rc, tod1;
+  struct Request request;
+  struct Request *req  = &request;
+  struct Workload *wkl = (jni_index < 0) ? 0 : &shared_mem->workload[jni_index];
+
+  int debugw = 0;
+
+  req->fhandle = handle;
+  multi_key_fill(env, req, tod, d_flag, f_start_lba, f_lba, d_length,
+                 p_lba, p_length, buffer, key_count,
+                 keys, compressions, dedup_sets, dv_text_in);
+
   if (debugw) PTOD("debugw 7");
   if (debugw) PTOD2("buffer: %08llx file_lba: %08llx", req->buffer, req->file_lba);
 
@@ -1163,6 +1199,44 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFillAndWrite(JNIEnv     *env,
 }
 
 
+/**
+ * Data Validation.
+ *
+ * Fill the whole block without writing it; used by the pure java i/o
+ * backend (JavaIO) that does its own write.
+ * Returns the offset within 'buffer' of the first byte to be written.
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_multiKeyFill(JNIEnv     *env,
+                                                     jclass     this,
+                                                     jlong      handle,
+                                                     jlong      tod,
+                                                     jint       d_flag,
+                                                     jlong      f_start_lba,
+                                                     jlong      f_lba,
+                                                     jint       d_length,
+                                                     jlong      p_lba,
+                                                     jint       p_length,
+                                                     jlong      buffer,
+                                                     jint       key_count,
+                                                     jintArray  keys,
+                                                     jlongArray compressions,
+                                                     jlongArray dedup_sets,
+                                                     jstring    dv_text_in)
+{
+  struct Request request;
+  struct Request *req  = &request;
+
+  /* The shared pattern buffer can not be written by JavaIO: */
+  if (buffer == 0)
+    ABORT("multiKeyFill(): a buffer address is required", "");
+
+  req->fhandle = handle;
+  return multi_key_fill(env, req, tod, d_flag, f_start_lba, f_lba, d_length,
+                        p_lba, p_length, buffer, key_count,
+                        keys, compressions, dedup_sets, dv_text_in) - buffer;
+}
+
+
 /**
  * Call to Java to report i/o error or Data Validation error.
  * For Data Validation this is only called once per data block.
@@ -84,6 +84,27 @@
 #endif
 
 
+/* Statistics are updated under stat_lock, but are read without it by      */
+/* get_statistics_snapshot(). The writer makes stat_seq odd during updates */
+/* and the reader retries when stat_seq was odd or changed while copying.  */
+#if defined(__GNUC__)
+  #define STAT_BARRIER() __sync_synchronize();
+#elif defined(_WIN32)
+  #define STAT_BARRIER() MemoryBarrier();
+#elif defined(SOLARIS)
+  #include <atomic.h>
+  #define STAT_BARRIER() membar_producer(); membar_consumer();
+#else
+  #define STAT_BARRIER() ;
+#endif
+
+#define STAT_WRITE_BEGIN(wkl) wkl->stat_seq++; STAT_BARRIER();
+#define STAT_WRITE_END(wkl)   STAT_BARRIER(); wkl->stat_seq++;
+
+/* Make sure you synchronize this with WG_stats.java!!! */
+#define SNAPSHOT_LONGS 16
+
+
 #define uint   unsigned int
 #define uchar  unsigned char
 #define ushort unsigned short
@@ -150,6 +171,8 @@ struct Workload                   /* One per workload                         */
 {
   char*  sdname;
   MUTEX  stat_lock;               /* Lock for statistics                      */
+  volatile jlong stat_seq;        /* Odd while statistics are being updated   */
+  volatile jlong max_epoch;       /* stat_epoch that r_max and w_max are for  */
 
   jlong  reads;                  /* Statistics per workload                   */
   jlong  r_resptime;
@@ -172,6 +195,12 @@ struct Workload                   /* One per workload                         */
 
   struct Histogram read_hist;
   struct Histogram write_hist;
+
+  /* Only with 'misc=(percentiles=n)'. See HdrHistogram.java: */
+  jlong *hdr_read;                /* malloc'ed log-linear counters            */
+  jlong *hdr_write;
+  int    hdr_length;              /* Amount of counters in each               */
+  int    hdr_half_magnitude;      /* log2 of half the sub bucket count        */
 };
 
 /* Make sure you synchronize this with JniIndex.java!!! */
@@ -190,6 +219,8 @@ struct Shared_memory
                                   /* Linux especially.                        */
   MUTEX hash_lock;
 
+  volatile jlong stat_epoch;      /* Interval count for r_max and w_max       */
+
   int max_workload;
   struct Workload workload[SHARED_WORKLOADS];
 };
@@ -25,6 +25,9 @@
 #include <sys/stat.h>
 #include <sys/mman.h>
 #include <features.h>
+#include <unistd.h>
+#include <sys/syscall.h>
+#include <linux/aio_abi.h>
 
 #include <stdint.h>
 #include <string.h>
@@ -313,3 +316,212 @@ JNIEXPORT jlong JNICALL Java_Vdb_Native_truncateFile(JNIEnv *env,
   return 0;
 }
 
+
+
+/*
+ * Asynchronous i/o for 'ioengine=async'.
+ *
+ * One context is created per async IO_task. Each context has 'depth' slots;
+ * Java picks a free slot, submits the i/o, and later harvests completions in
+ * batches. The slot number travels with the iocb so that Java knows which
+ * Cmd_entry completed.
+ *
+ * Raw io_setup/io_submit/io_getevents system calls are used so that no
+ * libaio package is needed on the build or target system.
+ *
+ * Statistics are accumulated exactly like the synchronous path: the start
+ * timestamp is taken at submit, and update_workload_stats() is called at
+ * completion for the jni_index that came with the request.
+ */
+struct AsyncSlot
+{
+  struct iocb iocb;
+  jlong  fhandle;
+  jlong  seek;
+  jlong  length;
+  jlong  buffer;
+  jlong  tod1;
+  jint   read_flag;
+  jint   jni_index;
+};
+
+struct AsyncContext
+{
+  aio_context_t     ctx;
+  int               depth;
+  struct AsyncSlot *slots;
+  struct io_event  *events;
+};
+
+
+/**
+ * Java call to create an async i/o context with room for 'depth' requests.
+ * Returns zero if the kernel refuses.
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_asyncSetup(JNIEnv *env,
+                                                   jclass  this,
+                                                   jint    depth)
+{
+  struct AsyncContext *actx = (struct AsyncContext*) calloc(1, sizeof(struct AsyncContext));
+  if (actx == NULL)
+    return 0;
+
+  actx->depth  = depth;
+  actx->slots  = (struct AsyncSlot*) calloc(depth, sizeof(struct AsyncSlot));
+  actx->events = (struct io_event*)  calloc(depth, sizeof(struct io_event));
+  if (actx->slots == NULL || actx->events == NULL ||
+      syscall(__NR_io_setup, depth, &actx->ctx) != 0)
+  {
+    PTOD1("asyncSetup(): io_setup for depth %d failed", depth);
+    PTOD1("error: %d", errno);
+    free(actx->slots);
+    free(actx->events);
+    free(actx);
+    return 0;
+  }
+
+  return(jlong) actx;
+}
+
+
+/**
+ * Java call to start a read or write in the given slot.
+ * A zero return means the request is now in flight. Any other value is an
+ * errno; the error has then already been reported and counted.
+ */
+JNIEXPORT jlong JNICALL Java_Vdb_Native_asyncSubmit(JNIEnv *env,
+                                                    jclass  this,
+                                                    jlong   context,
+                                                    jint    slot_no,
+                                                    jlong   fhandle,
+                                                    jlong   seek,
+                                                    jlong   length,
+                                                    jlong   buffer,
+                                                    jint    read_flag,
+                                                    jint    jni_index)
+{
+  struct AsyncContext *actx = (struct AsyncContext*) context;
+  struct AsyncSlot    *slot = &actx->slots[slot_no];
+  struct Workload     *wkl  = (jni_index < 0) ? 0 : &shared_mem->workload[jni_index];
+  struct iocb         *iocbp;
+  jlong  rc;
+
+  slot->fhandle   = fhandle;
+  slot->seek      = seek;
+  slot->length    = length;
+  slot->buffer    = buffer;
+  slot->read_flag = read_flag;
+  slot->jni_index = jni_index;
+
+  memset(&slot->iocb, 0, sizeof(struct iocb));
+  slot->iocb.aio_data       = (__u64) slot_no;
+  slot->iocb.aio_lio_opcode = (read_flag) ? IOCB_CMD_PREAD : IOCB_CMD_PWRITE;
+  slot->iocb.aio_fildes     = (__u32) fhandle;
+  slot->iocb.aio_buf        = (__u64) buffer;
+  slot->iocb.aio_nbytes     = (__u64) length;
+  slot->iocb.aio_offset     = (__s64) seek;
+
+  if (read_flag)
+    prepare_read_buffer(env, buffer, length);
+
+  slot->tod1 = START_WORKLOAD_STATS(env, wkl);
+
+  iocbp = &slot->iocb;
+  if (syscall(__NR_io_submit, actx->ctx, 1, &iocbp) == 1)
+    return 0;
+
+  rc = (errno == 0) ? 799 : errno;
+  report_io_error(env, read_flag, fhandle, seek, length, rc, buffer);
+  UPDATE_WORKLOAD_STATS(env, wkl, read_flag, (jint) length, slot->tod1, rc);
+
+  return rc;
+}
+
+
+/**
+ * Java call to harvest completed requests.
+ * Waits for at least 'min_nr' completions, but never longer than one second
+ * so that the caller can check for end of run.
+ * The slot number and return code of each completion are stored in 'slots'
+ * and 'rcs'; the return value is the number of completions.
+ */
+JNIEXPORT jint JNICALL Java_Vdb_Native_asyncReap(JNIEnv    *env,
+                                                 jclass     this,
+                                                 jlong      context,
+                                                 jint       min_nr,
+                                                 jintArray  slots,
+                                                 jlongArray rcs)
+{
+  struct AsyncContext *actx = (struct AsyncContext*) context;
+  struct timespec timeout;
+  jint  *slot_a;
+  jlong *rc_a;
+  int    i, count;
+
+  timeout.tv_sec  = 1;
+  timeout.tv_nsec = 0;
+
+  count = syscall(__NR_io_getevents, actx->ctx, (long) min_nr, (long) actx->depth,
+                  actx->events, &timeout);
+  if (count < 0)
+  {
+    if (errno == EINTR)
+      return 0;
+    ABORT("asyncReap(): io_getevents failed", strerror(errno));
+  }
+  if (count == 0)
+    return 0;
+
+  slot_a = (*env)->GetIntArrayElements(env,  slots, NULL);
+  rc_a   = (*env)->GetLongArrayElements(env, rcs,   NULL);
+
+  for (i = 0; i < count; i++)
+  {
+    struct io_event  *event = &actx->events[i];
+    struct AsyncSlot *slot  = &actx->slots[(int) event->data];
+    struct Workload  *wkl   = (slot->jni_index < 0) ? 0 : &shared_mem->workload[slot->jni_index];
+    jlong  rc = 0;
+
+    if (event->res < 0)
+      rc = -event->res;
+
+    else if (event->res != slot->length)
+    {
+      PTOD1("Invalid byte count. Expecting %lld", slot->length);
+      PTOD1("but transferred only %lld bytes.", (jlong) event->res);
+      rc = 798;
+    }
+
+    else if (slot->read_flag)
+      rc = check_read_buffer(env, slot->buffer, slot->length);
+
+    if (rc != 0)
+      report_io_error(env, slot->read_flag, slot->fhandle, slot->seek,
+                      slot->length, rc, slot->buffer);
+    UPDATE_WORKLOAD_STATS(env, wkl, slot->read_flag, (jint) slot->length, slot->tod1, rc);
+
+    slot_a[i] = (jint) event->data;
+    rc_a[i]   = rc;
+  }
+
+  (*env)->ReleaseIntArrayElements(env,  slots, slot_a, 0);
+  (*env)->ReleaseLongArrayElements(env, rcs,   rc_a,   0);
+
+  return count;
+}
+
+
+/**
+ * Java call to destroy an async context. All i/o must have been harvested.
+ */
+JNIEXPORT void JNICALL Java_Vdb_Native_asyncDestroy(JNIEnv *env,
+                                                    jclass  this,
+                                                    jlong   context)
+{
+  struct AsyncContext *actx = (struct AsyncContext*) context;
+
+  syscall(__NR_io_destroy, actx->ctx);
+  free(actx->slots);
+  free(actx->events);
+  free(actx);
+}
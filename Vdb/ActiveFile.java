@@ -66,7 +66,7 @@ class ActiveFile
     fe                  = fe_in;
     anchor              = fe.getAnchor();
     active_fwg          = fwg_in;
-    calling_thread      = (FwgThread) Thread.currentThread();
+    calling_thread      = FwgThread.current();
     active_stats        = calling_thread.per_thread_stats;
     full_name           = fe.getFullName();
     file_start_lba      = fe.getFileStartLba();
@@ -307,8 +307,8 @@ class ActiveFile
       if (!doesBlockOrShorterBlockFit())
       {
         /* At eof after pending writes, clear the flag: */
-        if (fe.pending_writes)
-          fe.pending_writes = false;
+        if (fe.hasPendingWrites())
+          fe.setPendingWrites(false);
 
         return false;
       }
@@ -331,7 +331,7 @@ class ActiveFile
       /* If this file has pending writes from journal recovery           */
       /* read the blocks as found in the pending map:                    */
       /* BadDataBlock then will decide whether this block is good or bad */
-      if (fe.pending_writes)
+      if (fe.hasPendingWrites())
       {
         HashMap pending_lbas = anchor.pending_file_lba_map.get(fe);
 
@@ -755,7 +755,7 @@ class ActiveFile
 
     if (Validate.isRealValidate())
     {
-      if (fe.pending_writes)
+      if (fe.hasPendingWrites())
         readAndValidate(Validate.FLAG_PENDING_READ);
       else
         readAndValidate(Validate.FLAG_NORMAL_READ);
@@ -0,0 +1,167 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+
+/**
+ * Binary min-heap of WG_entry instances, ordered by the start time of their
+ * pending Cmd_entry, used by WT_task with 'misc=(waiter=heap)'.
+ *
+ * Finding the next i/o to start is O(1), and replacing it with that
+ * WG_entry's next pending command is O(log n), instead of the two full scans
+ * of all WG_entry instances per i/o done by WT_task.getLowestOne().
+ *
+ * WG_entries with the same start time are returned in the order in which
+ * they were added, replacing the round-robin index that getLowestOne() uses
+ * to prevent one input fifo from being favored.
+ *
+ * The heap is owned by one WT_task thread and is not synchronized.
+ */
+public class ArrivalHeap
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private WG_entry[] wgs;
+  private long[]     tods;
+  private long[]     seqnos;
+  private int        size  = 0;
+  private long       seqno = 0;
+
+
+  public ArrivalHeap(int capacity)
+  {
+    capacity = Math.max(capacity, 16);
+    wgs      = new WG_entry[capacity];
+    tods     = new long[capacity];
+    seqnos   = new long[capacity];
+  }
+
+
+  public int size()
+  {
+    return size;
+  }
+
+  public void clear()
+  {
+    for (int i = 0; i < size; i++)
+      wgs[i] = null;
+    size = 0;
+  }
+
+
+  /**
+   * Add a WG_entry, using the delta_tod of its current pending_cmd.
+   */
+  public void add(WG_entry wg)
+  {
+    if (size == wgs.length)
+      grow();
+
+    int pos = size++;
+    wgs[pos]    = wg;
+    tods[pos]   = wg.pending_cmd.delta_tod;
+    seqnos[pos] = seqno++;
+    siftUp(pos);
+  }
+
+
+  /**
+   * The WG_entry whose pending command must start first.
+   */
+  public WG_entry peek()
+  {
+    return (size == 0) ? null : wgs[0];
+  }
+
+  public WG_entry poll()
+  {
+    if (size == 0)
+      return null;
+
+    WG_entry top = wgs[0];
+    size--;
+    if (size > 0)
+    {
+      move(size, 0);
+      wgs[size] = null;
+      siftDown(0);
+    }
+    else
+      wgs[0] = null;
+
+    return top;
+  }
+
+
+  private boolean less(int a, int b)
+  {
+    if (tods[a] != tods[b])
+      return tods[a] < tods[b];
+    return seqnos[a] < seqnos[b];
+  }
+
+  private void move(int from, int to)
+  {
+    wgs[to]    = wgs[from];
+    tods[to]   = tods[from];
+    seqnos[to] = seqnos[from];
+  }
+
+  private void swap(int a, int b)
+  {
+    WG_entry wg  = wgs[a];    wgs[a]    = wgs[b];    wgs[b]    = wg;
+    long     tod = tods[a];   tods[a]   = tods[b];   tods[b]   = tod;
+    long     seq = seqnos[a]; seqnos[a] = seqnos[b]; seqnos[b] = seq;
+  }
+
+  private void siftUp(int pos)
+  {
+    while (pos > 0)
+    {
+      int parent = (pos - 1) >>> 1;
+      if (!less(pos, parent))
+        break;
+      swap(pos, parent);
+      pos = parent;
+    }
+  }
+
+  private void siftDown(int pos)
+  {
+    while (true)
+    {
+      int left  = pos * 2 + 1;
+      if (left >= size)
+        break;
+
+      int right = left + 1;
+      int low   = (right < size && less(right, left)) ? right : left;
+      if (!less(low, pos))
+        break;
+      swap(pos, low);
+      pos = low;
+    }
+  }
+
+  private void grow()
+  {
+    int len = wgs.length * 2;
+    WG_entry[] nwgs  = new WG_entry[len];
+    long[]     ntods = new long[len];
+    long[]     nseqs = new long[len];
+    System.arraycopy(wgs,    0, nwgs,  0, size);
+    System.arraycopy(tods,   0, ntods, 0, size);
+    System.arraycopy(seqnos, 0, nseqs, 0, size);
+    wgs    = nwgs;
+    tods   = ntods;
+    seqnos = nseqs;
+  }
+}
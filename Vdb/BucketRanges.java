@@ -139,13 +139,23 @@ public class BucketRanges implements java.io.Serializable, Cloneable
     return ranges;
   }
 
-  // This should be in Histogram where we then can use an MRU list.
+  /**
+   * The ranges are in ascending order and contiguous, starting at zero and
+   * ending at Long.MAX_VALUE, so a binary search will find the bucket.
+   */
   public int findBucket(long resp)
   {
-    for (int i = 0; i < ranges.length; i++)
+    int low  = 0;
+    int high = ranges.length - 1;
+    while (low <= high)
     {
-      BucketRange br = ranges[i];
-      if (resp >= br.min && resp < br.max)
+      int mid = (low + high) >>> 1;
+      BucketRange br = ranges[mid];
+      if (resp < br.min)
+        high = mid - 1;
+      else if (resp >= br.max)
+        low = mid + 1;
+      else
         return br.which;
     }
 
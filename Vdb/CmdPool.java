@@ -0,0 +1,73 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+
+/**
+ * Pool of recycled Cmd_entry instances, one per WG_task.
+ *
+ * The WG_task takes entries from the pool, and each IO_task hands them back
+ * with Cmd_entry.release() once the i/o has completed. Once the pool has
+ * grown to cover everything that is in flight, the i/o path no longer
+ * allocates any Cmd_entry instances.
+ *
+ * The free list is a RingBuffer, so returning an entry is lock-free even
+ * with many IO_tasks. If the ring is full the entry is left for GC.
+ *
+ * Requested using 'misc=(cmdbatch=nn)', see WG_task.
+ */
+public class CmdPool
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private RingBuffer free_list;
+
+  private long allocated = 0;
+  private long reused    = 0;
+
+  public CmdPool(int size)
+  {
+    free_list = new RingBuffer(size, RingBuffer.SPIN);
+  }
+
+
+  /**
+   * Get a clean Cmd_entry, either a recycled one or a new one.
+   * Only called by the owning WG_task.
+   */
+  public Cmd_entry take()
+  {
+    Cmd_entry cmd = (Cmd_entry) free_list.poll();
+    if (cmd == null)
+    {
+      cmd = new Cmd_entry();
+      allocated++;
+    }
+    else
+    {
+      cmd.clear();
+      reused++;
+    }
+
+    cmd.pool = this;
+    return cmd;
+  }
+
+
+  public void release(Cmd_entry cmd)
+  {
+    free_list.offer(cmd);
+  }
+
+  public String toString()
+  {
+    return String.format("CmdPool: allocated: %,d; reused: %,d", allocated, reused);
+  }
+}
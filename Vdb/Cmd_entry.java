@@ -41,6 +41,8 @@ public class Cmd_entry
 
   public int      type_of_dv_read;   /* identifying read/pre-read/read_immed      */
 
+  CmdPool         pool;          /* Where to return this after completion     */
+
   private static boolean preallocated = false;
 
 
@@ -94,6 +96,37 @@ public class Cmd_entry
 
 
 
+  /**
+   * Return this Cmd_entry to the pool it came from, if any.
+   * No references to this instance may be kept after this call.
+   */
+  public void release()
+  {
+    if (pool != null)
+      pool.release(this);
+  }
+
+
+  /**
+   * Reset all fields before a recycled Cmd_entry is reused.
+   */
+  void clear()
+  {
+    delta_tod       = 0;
+    cmd_lba         = 0;
+    cmd_xfersize    = 0;
+    sd_ptr          = null;
+    concat_sd       = null;
+    concat_lba      = 0;
+    cmd_wg          = null;
+    jni_index       = 0;
+    cmd_read_flag   = false;
+    cmd_hit         = false;
+    cmd_rand        = false;
+    type_of_dv_read = 0;
+  }
+
+
   /**
    * Note: for sequential the real next LBA is determined in JNI code.
    */
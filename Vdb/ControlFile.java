@@ -9,6 +9,8 @@ package Vdb;
  */
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import Utils.Fget;
@@ -35,7 +37,12 @@ import Utils.Fput;
  * It was decided 3/9/2015 that it was not worth the effort and the risk to fix
  * it since this problem has been out there for already 4+ years!
  *
+ * With 'misc=(controlfile=incremental)' the changes of a run are appended to
+ * a ControlFileLog instead of rewriting this file at the start and at the end
+ * of each run.
  *
+ * The directory and file status is loaded from a memory mapped copy of the
+ * file, without creating a String for each line.
  */
 class ControlFile
 {
@@ -45,6 +52,7 @@ class ControlFile
   private FileAnchor anchor;
   private boolean[]  directory_status;
   private long[]     file_status;
+  private ControlFileLog change_log;
 
   public  static String CONTROL_FILE = "vdb_control.file";
 
@@ -52,7 +60,8 @@ class ControlFile
 
   public ControlFile(FileAnchor an)
   {
-    anchor = an;
+    anchor     = an;
+    change_log = new ControlFileLog(an);
   }
 
 
@@ -68,6 +77,22 @@ class ControlFile
   }
 
 
+  /**
+   * 'misc=(controlfile=incremental)': if the directory and file status of
+   * the control file (plus its log) were usable for this run, just mark the
+   * start of the run in the log instead of rewriting the control file.
+   */
+  public boolean startChangeLog(boolean shared)
+  {
+    if (shared || !ControlFileLog.isRequested() || !hasDirStatus() || !hasFileStatus())
+      return false;
+
+    common.ptod("Starting control file log for anchor=" + anchor.getAnchorName());
+    change_log.begin();
+    return true;
+  }
+
+
   /**
    * Remember for the next run what the file structure is.
    *
@@ -86,11 +111,24 @@ class ControlFile
     String deb = "";
     //preserveOldControlFile();
 
+    /* Append this run's changes unless the log has grown too large: */
+    if (!start && !shared && change_log.isActive())
+    {
+      if (!change_log.compactionNeeded(new File(anchor.getAnchorName(), CONTROL_FILE)))
+      {
+        change_log.end();
+        reportCompletion(start);
+        return;
+      }
+      common.ptod("Compacting control file log for anchor=" + anchor.getAnchorName());
+    }
+
+    /* A full control file replaces the log: */
+    change_log.delete();
+
     common.ptod("Writing control file for anchor=" +
                 anchor.getAnchorName() + " at " +
                 ((start) ? "start" : "end") + " of run.");
-    int existing_files = 0;
-    int existing_dirs = 0;
 
     Fput fp = new Fput(anchor.getAnchorName(), CONTROL_FILE);
 
@@ -115,44 +153,25 @@ class ControlFile
 
         if (debug) deb =  " " + i + " " + dir.getFullName();
         if (dir.exist())
-        {
-          existing_dirs++;
           fp.println("y" + deb);
-        }
         else
           fp.println("n" + deb);
       }
 
       /* Write the file status: */
-      Vector files          = anchor.getFileList();
+      FileList files        = anchor.getFileList();
       int    sizes          = files.size();
-      int    files_opened   = 0;
-      long   existing_bytes = 0;
-      long   total_req      = 0;
-      long   size_opened    = 0;
 
       fp.println("file status " + sizes);
       for (int i = 0; i < sizes; i++)
       {
-        FileEntry fe = (FileEntry) files.elementAt(i);
+        FileEntry fe = files.elementAt(i);
 
         //common.ptod("ControlFile.writeControlFile: %s %4b %8d %8d %4b",
         //            fe.getFullName(), fe.exists(), fe.getReqSize(), fe.getCurrentSize(),
         //            Fget.file_exists(fe.getFullName()));
 
         writeFileStatus(fp, fe, i, (i == sizes - 1));
-
-        total_req += fe.getReqSize();
-        if (fe.exists())
-        {
-          existing_files++;
-          existing_bytes += fe.getCurrentSize();
-          if (fe.getOpened())
-          {
-            files_opened++;
-            size_opened += fe.getCurrentSize();
-          }
-        }
       }
 
       fp.close();
@@ -170,19 +189,59 @@ class ControlFile
       fp.println("checksum: %d ", checksum);
       fp.close();
 
-      common.ptod("Completed control file for anchor=" +
-                  anchor.getAnchorName() + " at " +
-                  ((start) ? "start" : "end") + " of run. " +
-                  " dirs: " + dirs.size() + "/" + existing_dirs +
-                  (true ? (" files: " + sizes + "/" + existing_files +
-                           " sizes: " + FileAnchor.whatSize(total_req) + "/" +
-                           FileAnchor.whatSize(existing_bytes)) : "") +
-                  "/" + files_opened + "/" + FileAnchor.whatSize(size_opened));
-
-      anchor.reportSizes(existing_files, existing_dirs, existing_bytes,
-                         files_opened, size_opened);
+      reportCompletion(start);
+    }
+
+  }
+
+
+  /**
+   * Report the status of the anchor as it now is known for the next run.
+   */
+  private void reportCompletion(boolean start)
+  {
+    Vector <Directory> dirs = anchor.getDirList();
+    FileList           files = anchor.getFileList();
+    int    existing_dirs  = 0;
+    int    existing_files = 0;
+    int    files_opened   = 0;
+    long   existing_bytes = 0;
+    long   total_req      = 0;
+    long   size_opened    = 0;
+    int    sizes          = files.size();
+
+    for (Directory dir : dirs)
+    {
+      if (dir.exist())
+        existing_dirs++;
+    }
+
+    for (FileEntry fe : files)
+    {
+      total_req += fe.getReqSize();
+      if (fe.exists())
+      {
+        existing_files++;
+        existing_bytes += fe.getCurrentSize();
+        if (fe.getOpened())
+        {
+          files_opened++;
+          size_opened += fe.getCurrentSize();
+        }
+      }
     }
 
+    common.ptod("Completed control file for anchor=" +
+                anchor.getAnchorName() + " at " +
+                ((start) ? "start" : "end") + " of run. " +
+                " dirs: " + dirs.size() + "/" + existing_dirs +
+                (true ? (" files: " + sizes + "/" + existing_files +
+                         " sizes: " + FileAnchor.whatSize(total_req) + "/" +
+                         FileAnchor.whatSize(existing_bytes)) : "") +
+                "/" + files_opened + "/" + FileAnchor.whatSize(size_opened));
+
+    anchor.reportSizes(existing_files, existing_dirs, existing_bytes,
+                       files_opened, size_opened);
   }
 
 
@@ -301,27 +360,34 @@ class ControlFile
     common.ptod("Reading control file for anchor=" + anchor.getAnchorName());
 
     /* Start with reading and verifying checksum: */
-    long checksum = 0;
-    boolean checksum_found = false;
-
+    MappedByteBuffer map = mapControlFile();
+    if (map != null)
+      verifyChecksum(map);
 
-    for (String line : Fget.readFileToArray(anchor.getAnchorName(), CONTROL_FILE))
+    else
     {
-      if (line.startsWith("checksum:"))
+      long checksum = 0;
+      boolean checksum_found = false;
+
+
+      for (String line : Fget.readFileToArray(anchor.getAnchorName(), CONTROL_FILE))
       {
-        long old_check = Long.parseLong(line.split(" +")[1]);
-        if (checksum != old_check)
-          common.failure(" Corruption in control file '%s' Checksums: %d/%d",
-                         anchor.getAnchorName(), old_check, checksum);
-        else
-          checksum_found = true;
+        if (line.startsWith("checksum:"))
+        {
+          long old_check = Long.parseLong(line.split(" +")[1]);
+          if (checksum != old_check)
+            common.failure(" Corruption in control file '%s' Checksums: %d/%d",
+                           anchor.getAnchorName(), old_check, checksum);
+          else
+            checksum_found = true;
+        }
+        for (int i = 0; i < line.length(); i++)
+          checksum += line.charAt(i);
       }
-      for (int i = 0; i < line.length(); i++)
-        checksum += line.charAt(i);
-    }
 
-    if (!checksum_found)
-      common.failure("No checksum found in control file for %s", anchor.getAnchorName());
+      if (!checksum_found)
+        common.failure("No checksum found in control file for %s", anchor.getAnchorName());
+    }
 
 
     Fget fg = new Fget(anchor.getAnchorName(), CONTROL_FILE);
@@ -403,60 +469,267 @@ class ControlFile
     /* Ignore the rest of the CF when shared: */
     if (!fwg.shared)
     {
-      /* Read the directory info: */
-      directory_status = new boolean[ Integer.parseInt(split[2]) ];
-      int dir_index = 0;
-      while ((line = fg.get()) != null)
+      if (map != null)
       {
-        if (line.startsWith("file"))
-          break;
-        directory_status[dir_index++] = line.startsWith("y");
+        fg.close();
+        readMappedStatus(map);
       }
 
-      if (dir_index != directory_status.length)
-        common.failure("Control file directory error. Expecting " +
-                       directory_status.length + " but receiving " + dir_index);
+      else
+      {
+        /* Read the directory info: */
+        directory_status = new boolean[ Integer.parseInt(split[2]) ];
+        int dir_index = 0;
+        while ((line = fg.get()) != null)
+        {
+          if (line.startsWith("file"))
+            break;
+          directory_status[dir_index++] = line.startsWith("y");
+        }
 
+        if (dir_index != directory_status.length)
+          common.failure("Control file directory error. Expecting " +
+                         directory_status.length + " but receiving " + dir_index);
 
-      /* Read the file info: */
-      split = line.split(" +");
-      file_status = new long[ Integer.parseInt(split[2]) ];
-      int file_index = 0;
-      long last_status = -1;
 
-      while ((line = fg.get()) != null)
-      {
-        //common.ptod("line: " + file_index + " " + line);
-        /* Duplicates? If so, repeat the last status: */
-        if (line.startsWith("="))
+        /* Read the file info: */
+        split = line.split(" +");
+        file_status = new long[ Integer.parseInt(split[2]) ];
+        int file_index = 0;
+        long last_status = -1;
+
+        while ((line = fg.get()) != null)
         {
-          split = line.split(" +");
-          int dups = Integer.parseInt(split[1]);
-          for (int i = 0; i < dups; i++)
-            file_status[file_index++] = last_status;
-          continue;
+          //common.ptod("line: " + file_index + " " + line);
+          /* Duplicates? If so, repeat the last status: */
+          if (line.startsWith("="))
+          {
+            split = line.split(" +");
+            int dups = Integer.parseInt(split[1]);
+            for (int i = 0; i < dups; i++)
+              file_status[file_index++] = last_status;
+            continue;
+          }
+
+          else if (line.startsWith("n"))
+            last_status = -1;
+          else if (line.startsWith("f"))
+            last_status = -2;
+          else if (line.startsWith("checksum:"))
+            continue;
+          else
+            last_status = Long.parseLong(line.trim().split(" +")[0]);
+
+          /* Update the status: */
+          file_status[file_index++] = last_status;
         }
+        fg.close();
 
-        else if (line.startsWith("n"))
-          last_status = -1;
-        else if (line.startsWith("f"))
-          last_status = -2;
-        else if (line.startsWith("checksum:"))
-          continue;
-        else
-          last_status = Long.parseLong(line.trim().split(" +")[0]);
+        if (file_index != file_status.length)
+          common.failure("Control file file error. Expecting " +
+                         file_status.length + " but receiving " + file_index);
+      }
 
-        /* Update the status: */
-        file_status[file_index++] = last_status;
+      /* 'misc=(controlfile=incremental)': add what changed since: */
+      if (change_log.exists() && !change_log.replay(directory_status, file_status))
+      {
+        common.ptod("Anchor=" + anchor.getAnchorName() + ": Previous run did not "+
+                    "complete. control file directory and file content will not be used");
+        clearStatus();
       }
-      fg.close();
+    }
 
-      if (file_index != file_status.length)
+    common.ptod("Completed reading control file.");
+  }
+
+
+  private MappedByteBuffer mapControlFile()
+  {
+    File file = new File(anchor.getAnchorName(), CONTROL_FILE);
+    if (file.length() >= Integer.MAX_VALUE)
+      return null;
+
+    try
+    {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+      raf.close();
+      return map;
+    }
+    catch (IOException e)
+    {
+      common.ptod("Unable to map control file, reading it instead: " + e.toString());
+      return null;
+    }
+  }
+
+
+  /**
+   * Same checksum as calculated by writeControlFile(): the sum of all the
+   * characters of all the lines, excluding line terminators.
+   */
+  private void verifyChecksum(MappedByteBuffer map)
+  {
+    long checksum = 0;
+    int  limit    = map.limit();
+    int  pos      = 0;
+
+    while (pos < limit)
+    {
+      if (startsWith(map, pos, "checksum:"))
+      {
+        long old_check = parseNumber(map, pos + "checksum:".length());
+        if (checksum != old_check)
+          common.failure(" Corruption in control file '%s' Checksums: %d/%d",
+                         anchor.getAnchorName(), old_check, checksum);
+        return;
+      }
+
+      for (; pos < limit; pos++)
+      {
+        byte b = map.get(pos);
+        if (b == '\n')
+          break;
+        if (b != '\r')
+          checksum += b & 0xff;
+      }
+      pos++;
+    }
+
+    common.failure("No checksum found in control file for %s", anchor.getAnchorName());
+  }
+
+
+  /**
+   * Load directory and file status from the mapped control file.
+   * Except for the two section headers no Strings are created.
+   */
+  private void readMappedStatus(MappedByteBuffer map)
+  {
+    int limit = map.limit();
+    int pos   = 0;
+
+    /* Skip the structure information: */
+    while (pos < limit && !startsWith(map, pos, "directory"))
+      pos = nextLine(map, pos);
+
+    /* Read the directory info: */
+    String[] split = getLine(map, pos).split(" +");
+    directory_status = new boolean[ Integer.parseInt(split[2]) ];
+    int dir_index = 0;
+    for (pos = nextLine(map, pos); pos < limit && map.get(pos) != 'f'; pos = nextLine(map, pos))
+    {
+      if (dir_index == directory_status.length)
+        break;
+      directory_status[dir_index++] = map.get(pos) == 'y';
+    }
+
+    if (dir_index != directory_status.length || pos >= limit || map.get(pos) != 'f')
+      common.failure("Control file directory error. Expecting " +
+                     directory_status.length + " but receiving " + dir_index);
+
+
+    /* Read the file info: */
+    split = getLine(map, pos).split(" +");
+    file_status = new long[ Integer.parseInt(split[2]) ];
+    int  file_index  = 0;
+    long last_status = -1;
+
+    for (pos = nextLine(map, pos); pos < limit; pos = nextLine(map, pos))
+    {
+      byte b = map.get(pos);
+
+      /* Duplicates? If so, repeat the last status: */
+      int count = 1;
+      if (b == '=')
+        count = (int) parseNumber(map, pos + 1);
+      else if (b == 'n')
+        last_status = -1;
+      else if (b == 'f')
+        last_status = -2;
+      else if (b == 'c')
+        continue;
+      else
+        last_status = parseNumber(map, pos);
+
+      if (file_index + count > file_status.length)
         common.failure("Control file file error. Expecting " +
-                       file_status.length + " but receiving " + file_index);
+                       file_status.length + " but receiving more");
+
+      /* Update the status: */
+      for (int i = 0; i < count; i++)
+        file_status[file_index++] = last_status;
     }
 
-    common.ptod("Completed reading control file.");
+    if (file_index != file_status.length)
+      common.failure("Control file file error. Expecting " +
+                     file_status.length + " but receiving " + file_index);
+  }
+
+
+  private static boolean startsWith(MappedByteBuffer map, int pos, String text)
+  {
+    if (pos + text.length() > map.limit())
+      return false;
+    for (int i = 0; i < text.length(); i++)
+    {
+      if (map.get(pos + i) != text.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  private static int nextLine(MappedByteBuffer map, int pos)
+  {
+    int limit = map.limit();
+    while (pos < limit && map.get(pos) != '\n')
+      pos++;
+    return pos + 1;
+  }
+
+  private static String getLine(MappedByteBuffer map, int pos)
+  {
+    StringBuilder line = new StringBuilder(32);
+    for (int i = pos; i < map.limit(); i++)
+    {
+      char ch = (char) (map.get(i) & 0xff);
+      if (ch == '\n' || ch == '\r')
+        break;
+      line.append(ch);
+    }
+    return line.toString();
+  }
+
+  /**
+   * Parse a (possibly negative) number, skipping leading blanks.
+   */
+  private static long parseNumber(MappedByteBuffer map, int pos)
+  {
+    int limit = map.limit();
+    while (pos < limit && map.get(pos) == ' ')
+      pos++;
+
+    boolean negative = false;
+    if (pos < limit && map.get(pos) == '-')
+    {
+      negative = true;
+      pos++;
+    }
+
+    long number = 0;
+    int  digits = 0;
+    for (; pos < limit; pos++, digits++)
+    {
+      byte b = map.get(pos);
+      if (b < '0' || b > '9')
+        break;
+      number = number * 10 + (b - '0');
+    }
+
+    if (digits == 0)
+      common.failure("Control file: numeric value expected: " + getLine(map, pos));
+
+    return (negative) ? -number : number;
   }
 
 
@@ -0,0 +1,336 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.util.Vector;
+
+
+/**
+ * Append-only change log next to the control file, requested using
+ * 'misc=(controlfile=incremental)'.
+ *
+ * Without it the complete directory and file status of an anchor is
+ * rewritten at the start and at the end of each run. With it, as long as
+ * the control file's directory and file status could be used at the start
+ * of the run, only a BEGIN record is appended at the start, and at the end
+ * of the run the status of only those files whose existence or size changed
+ * during the run is appended, followed by the (small) directory bitmap and
+ * an END record.
+ *
+ * When reading the control file the log is replayed on top of it. A log
+ * that does not end with an END record means that the previous run did not
+ * complete, which is handled the same way as a control file written at the
+ * 'start' of a run: the directory and file status is not used.
+ *
+ * Compaction: once the log gets larger than the control file itself, the
+ * end of the run rewrites the complete control file instead, and the log is
+ * deleted. Any full rewrite of the control file deletes the log.
+ *
+ * Records:
+ * - 'B' tod
+ * - 'F' file_index status  (status: -1 not there, -2 full, else size)
+ * - 'D' count bitmap       (one bit per directory)
+ * - 'E' file_records
+ */
+class ControlFileLog
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private FileAnchor anchor;
+  private File       log_file;
+  private boolean    active = false;
+  private FileOutputStream fos = null;
+
+  public  static String CONTROL_LOG = "vdb_control.log";
+
+  private static final int  MAGIC = 0x7664626c;
+  private static final byte BEGIN = 'B';
+  private static final byte FILE  = 'F';
+  private static final byte DIRS  = 'D';
+  private static final byte END   = 'E';
+
+  private static final int  FILE_RECORD_SIZE = 1 + 4 + 8;
+
+
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("controlfile");
+    if (parm == null)
+      return false;
+    if (parm.equalsIgnoreCase("incremental"))
+      return true;
+    if (!parm.equalsIgnoreCase("full"))
+      common.failure("misc=(controlfile=%s): only 'incremental' or 'full' allowed", parm);
+    return false;
+  }
+
+
+  public ControlFileLog(FileAnchor an)
+  {
+    anchor   = an;
+    log_file = new File(anchor.getAnchorName(), CONTROL_LOG);
+  }
+
+  public boolean exists()
+  {
+    return log_file.exists();
+  }
+
+  public boolean isActive()
+  {
+    return active;
+  }
+
+  public void delete()
+  {
+    active = false;
+    if (log_file.exists() && !log_file.delete())
+      common.failure("Unable to delete control file log: " + log_file.getAbsolutePath());
+  }
+
+
+  /**
+   * Replay the log on top of the status obtained from the control file.
+   *
+   * Returns false when the log does not end with an END record, in which
+   * case the status may not be used.
+   */
+  public boolean replay(boolean[] directory_status, long[] file_status)
+  {
+    int     segments = 0;
+    long    records  = 0;
+    boolean open     = false;
+
+    DataInputStream in = null;
+    try
+    {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(log_file), 1024*1024));
+      if (in.readInt() != MAGIC)
+        common.failure("Invalid control file log: " + log_file.getAbsolutePath());
+
+      while (true)
+      {
+        int type = in.read();
+        if (type == -1)
+          break;
+
+        /* Assume the worst until the END has been read: */
+        open = true;
+
+        if (type == BEGIN)
+        {
+          in.readLong();
+          records = 0;
+        }
+
+        else if (type == FILE)
+        {
+          int  index  = in.readInt();
+          long status = in.readLong();
+          if (index < 0 || index >= file_status.length)
+            common.failure("Control file log: file index %d out of range", index);
+          file_status[index] = status;
+          records++;
+        }
+
+        else if (type == DIRS)
+        {
+          int count = in.readInt();
+          if (count != directory_status.length)
+            common.failure("Control file log: expecting %d directories, not %d",
+                           directory_status.length, count);
+          byte[] bitmap = new byte[(count + 7) / 8];
+          in.readFully(bitmap);
+          for (int i = 0; i < count; i++)
+            directory_status[i] = (bitmap[i / 8] & (1 << (i % 8))) != 0;
+        }
+
+        else if (type == END)
+        {
+          if (in.readLong() != records)
+            common.failure("Control file log: record count mismatch");
+          open = false;
+          segments++;
+        }
+
+        else
+          common.failure("Control file log: invalid record type: " + type);
+      }
+    }
+
+    /* A run that died while writing the log: */
+    catch (EOFException e)
+    {
+      open = true;
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+    finally
+    {
+      try
+      {
+        if (in != null)
+          in.close();
+      }
+      catch (IOException e)
+      {
+      }
+    }
+
+    common.ptod("Replayed control file log for anchor=%s: %d runs%s", anchor.getAnchorName(),
+                segments, (open) ? "; last run did not complete." : "");
+
+    return !open;
+  }
+
+
+  /**
+   * Start of run: the control file plus log are valid, and from now on
+   * only a BEGIN record marks that this run has not completed yet.
+   */
+  public void begin()
+  {
+    DataOutputStream out = open();
+    try
+    {
+      out.writeByte(BEGIN);
+      out.writeLong(System.currentTimeMillis());
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+    close(out);
+    active = true;
+  }
+
+
+  /**
+   * Should the end of this run rewrite the control file instead of
+   * appending to the log?
+   */
+  public boolean compactionNeeded(File control_file)
+  {
+    long changes = 0;
+    for (FileEntry fe : anchor.getFileList())
+    {
+      if (fe.isChanged())
+        changes++;
+    }
+
+    long log_size = log_file.length() + changes * FILE_RECORD_SIZE;
+    return log_size > control_file.length();
+  }
+
+
+  /**
+   * End of run: append all changed files, the directory status, and END.
+   */
+  public void end()
+  {
+    FileList           files = anchor.getFileList();
+    Vector <Directory> dirs  = anchor.getDirList();
+    long               count = 0;
+
+    DataOutputStream out = open();
+    try
+    {
+      for (int i = 0; i < files.size(); i++)
+      {
+        FileEntry fe = files.elementAt(i);
+        if (!fe.isChanged())
+          continue;
+
+        out.writeByte(FILE);
+        out.writeInt(i);
+        out.writeLong(getStatus(fe));
+        fe.clearChanged();
+        count++;
+      }
+
+      byte[] bitmap = new byte[(dirs.size() + 7) / 8];
+      for (int i = 0; i < dirs.size(); i++)
+      {
+        if (dirs.elementAt(i).exist())
+          bitmap[i / 8] |= 1 << (i % 8);
+      }
+      out.writeByte(DIRS);
+      out.writeInt(dirs.size());
+      out.write(bitmap);
+
+      out.writeByte(END);
+      out.writeLong(count);
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+    close(out);
+    active = false;
+
+    common.ptod("Appended %d file status changes to control file log for anchor=%s",
+                count, anchor.getAnchorName());
+  }
+
+
+  /**
+   * Same values as used by ControlFile.readControlFile().
+   */
+  private static long getStatus(FileEntry fe)
+  {
+    if (!fe.exists())
+      return -1;
+    else if (fe.isFull())
+      return -2;
+    else
+      return fe.getCurrentSize();
+  }
+
+
+  private DataOutputStream open()
+  {
+    try
+    {
+      boolean fresh = !log_file.exists();
+      fos = new FileOutputStream(log_file, true);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024*1024));
+      if (fresh)
+        out.writeInt(MAGIC);
+      return out;
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+      return null;
+    }
+  }
+
+
+  /**
+   * Flush and force to disk: the END record must be there before we claim
+   * that the run completed.
+   */
+  private void close(DataOutputStream out)
+  {
+    try
+    {
+      out.flush();
+      fos.getFD().sync();
+      out.close();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+}
@@ -11,6 +11,7 @@ package Vdb;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 import Utils.*;
 
@@ -53,6 +54,15 @@ public class DV_map
 
   int  map_busy = 0;           /* # of consecutive 'busy' returns             */
 
+  /* The map is no longer locked as a whole. Each lock covers a range of      */
+  /* 2**STRIPE_SHIFT consecutive key blocks, so that the key blocks of one    */
+  /* data block normally need only one lock.                                  */
+  /* The flipflop map is shared by all stripes; DedupBitMap updates it using  */
+  /* compare-and-set on each 64-bit word, so it does not need these locks.    */
+  private static final int STRIPE_SHIFT = 6;
+  private static final int STRIPE_COUNT = 256;
+  private final ReentrantLock[] stripe_locks = new ReentrantLock[STRIPE_COUNT];
+
   public static final int DV_ERROR      = 0x7f; // 127;
 
   /* These flags for journal recovery. Busy flag not needed, so 0x80 is OK: */
@@ -113,6 +123,8 @@ public class DV_map
 
     key_blksize = xfersize;
     key_blocks = entries;
+    for (int i = 0; i < STRIPE_COUNT; i++)
+      stripe_locks[i] = new ReentrantLock();
     map_length  = (key_blocks + 3) & ~3;
 
     //common.ptod("map_blksize: %,16d", map_blksize);
@@ -143,7 +155,7 @@ public class DV_map
 
     /* Create timestamp map? */
     if (Validate.isStoreTime())
-      timestamp_map = new Timestamp(map_length);
+      timestamp_map = new Timestamp(jnl_dir_name, map_name, map_length);
 
     if (Validate.isRealValidate())
       ErrorLog.plog("Allocating Data Validation map: %,d one-byte entries for each %,d-byte block.",
@@ -178,48 +190,98 @@ public class DV_map
     }
     else
       flipflop_bitmap = null;
+
+    /* The timestamp map lives in the same kind of map files: */
+    if (timestamp_map != null)
+    {
+      timestamp_map.deleteMapFiles();
+      timestamp_map = null;
+    }
   }
 
   /**
-   * Get entry from DV map.
+   * Which lock protects the key block for this lba?
    */
-  public synchronized int dv_get(long lba)
+  private int stripeFor(long lba)
   {
-    //common.ptod("dv_get: %08x ", lba);
-
-    int key = 0;
-    if (byte_maps != null)
-    {
-      long block     = lba / key_blksize;
-      int  map       = (int) (block >> MapFile.BYTE_SHIFT);
-      int  remainder = (int) (block  & MapFile.BYTE_AND);
+    return (int) ((lba / key_blksize) >> STRIPE_SHIFT) & (STRIPE_COUNT - 1);
+  }
 
-      //common.ptod("block    : %,16d", block    );
-      //common.ptod("map      : %,16d", map      );
-      //common.ptod("remainder: %,16d", remainder);
 
-      key            = byte_maps[ map ].get( remainder );
+  /**
+   * Lock the key blocks from 'first_lba' through 'last_lba'.
+   * This is used by KeyMap to handle all key blocks of one data block as one
+   * unit. The locks are always obtained in ascending order, the same order
+   * used by lockAllStripes(), so there is no risk of a deadlock.
+   */
+  public void lockRange(long first_lba, long last_lba)
+  {
+    int[] range = stripeRange(first_lba, last_lba);
+    for (int i = 0; i < range.length; i += 2)
+    {
+      for (int j = range[i]; j <= range[i+1]; j++)
+        stripe_locks[j].lock();
     }
-
-    else
+  }
+  public void unlockRange(long first_lba, long last_lba)
+  {
+    int[] range = stripeRange(first_lba, last_lba);
+    for (int i = range.length - 2; i >= 0; i -= 2)
     {
-      //common.ptod("lba:               %,16d", lba);
-      //common.ptod("map_blksize:       %,16d", map_blksize);
-      //common.ptod("lba / map_blksize: %,16d", lba / map_blksize);
-      boolean bit_set = flipflop_bitmap.getBit(lba / key_blksize);
-      if (bit_set)
-        key = 1;
-      else
-        key = 0;
+      for (int j = range[i+1]; j >= range[i]; j--)
+        stripe_locks[j].unlock();
     }
+  }
 
-    //if (lba == 32768)
-    //{
-    //  common.ptod("dv_get: %08x %02x", lba, key);
-    //  common.where(4);
-    //}
+  /**
+   * Return one or two ascending (first,last) pairs of stripe numbers.
+   * Two pairs are needed when the stripe number wraps around.
+   */
+  private int[] stripeRange(long first_lba, long last_lba)
+  {
+    long blocks = (last_lba / key_blksize >> STRIPE_SHIFT) - (first_lba / key_blksize >> STRIPE_SHIFT);
+    if (blocks >= STRIPE_COUNT - 1)
+      return new int[] { 0, STRIPE_COUNT - 1};
+
+    int first = stripeFor(first_lba);
+    int last  = stripeFor(last_lba);
+    if (first <= last)
+      return new int[] { first, last};
+    else
+      return new int[] { 0, last, first, STRIPE_COUNT - 1};
+  }
 
-    return key;
+
+  /**
+   * Lock the whole map, e.g. while it is being written to the journal.
+   */
+  public void lockAllStripes()
+  {
+    for (int i = 0; i < STRIPE_COUNT; i++)
+      stripe_locks[i].lock();
+  }
+  public void unlockAllStripes()
+  {
+    for (int i = STRIPE_COUNT - 1; i >= 0; i--)
+      stripe_locks[i].unlock();
+  }
+
+
+  /**
+   * Get entry from DV map.
+   */
+  public int dv_get(long lba)
+  {
+    ReentrantLock lock = stripe_locks[ stripeFor(lba) ];
+    lock.lock();
+    try
+    {
+      return dv_get_nolock(lba);
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   public int dv_get_nolock(long lba)
@@ -252,46 +314,30 @@ public class DV_map
   /**
    * Set entry in DV map
    */
-  public synchronized void dv_set(long lba, int key)
+  public void dv_set(long lba, int key)
   {
-    //common.ptod("dv_set: %08x ", lba);
-
     /* Make sure we don't get more than what we want: */
     if (key >>> 8 != 0)
       common.failure("Data validation key larger than 8 bits: %08x", key);
 
-    //if (lba == 32768)
-    //{
-    //  common.ptod("dv_set: %08x %02x", lba, key);
-    //  common.where(4);
-    //}
-
-    if (byte_maps != null)
+    ReentrantLock lock = stripe_locks[ stripeFor(lba) ];
+    lock.lock();
+    try
     {
-      long block     = lba / key_blksize;
-      int  map       = (int) (block >> MapFile.BYTE_SHIFT);
-      int  remainder = (int) (block  & MapFile.BYTE_AND);
-      int  oldkey    = byte_maps[ map ].get( remainder );
-
-      byte_maps[ map ].put( remainder, key);
-
-      if (key == DV_ERROR)
-        blocks_in_error++;
+      dv_set_nolock(lba, key);
+    }
+    finally
+    {
+      lock.unlock();
     }
 
-    else
+    /* Errors are rare, so the counter can use the map's own monitor: */
+    if (key == DV_ERROR && byte_maps != null)
     {
-      /* Store the current value, whether it changed or not: */
-      if (key == 0)
-        flipflop_bitmap.setBit(lba / key_blksize, false);
-      else
+      synchronized (this)
       {
-        //common.where(8);
-        flipflop_bitmap.setBit(lba / key_blksize, true);
+        blocks_in_error++;
       }
-      //common.failure("what's this?");
-      //common.where();
-      //flipflop_bitmap.setBit(lba / map_blksize, !bit_set);
     }
   }
 
@@ -461,7 +507,7 @@ public class DV_map
     * The data transfer sizes for all operations against an SD that has data
     * validation activated must be identical, also across RDs.
     */
-  public synchronized int getKeyAndSetBusy(long lba)
+  public int getKeyAndSetBusy(long lba)
   {
     /* A specific check for when/why an lba is locked: */
     //if (lba == 0x00016000)
@@ -470,8 +516,22 @@ public class DV_map
     //  common.where(8);
     //}
 
+    /* Test and set the busy flag as one step, under the lock of this block: */
+    int key;
+    ReentrantLock lock = stripe_locks[ stripeFor(lba) ];
+    lock.lock();
+    try
+    {
+      key = dv_get_nolock(lba);
+      if ( (key & 0x7f) != DV_map.DV_ERROR && (key & 0x80) == 0)
+        dv_set_nolock(lba, key | 0x80);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
     /* Value 127 means block in error: */
-    int key = dv_get(lba);
     if ( (key & 0x7f) == DV_map.DV_ERROR)
     {
       map_busy = 0;
@@ -479,19 +539,18 @@ public class DV_map
       return -1;
     }
 
-    /* Test busy flag. If not busy, set and return key: */
+    /* If it was not busy, we just set it and return the key: */
     if ( (key & 0x80) == 0)
     {
-      key |= 0x80;
-      dv_set(lba, key);
       map_busy = 0;
-
       return key & 0x7f;
     }
 
     /* Aborting after n busy attempts does not appear to be a decent solution */
     /* so let's try to sleep for a while to let some ios complete:            */
     /* Should not have an impact on performance too much!                     */
+    /* (map_busy is no longer protected by a lock; it is only a heuristic,    */
+    /* and any successful call resets it anyway)                              */
     if (++map_busy > 100)
     {
       //common.ptod("sleeping map_busy: " + map_busy);
@@ -531,11 +590,24 @@ public class DV_map
    * Reset all busy flags.
    * While we're at it, also count blocks in error, saving us a trip later on.
    */
-  public synchronized void setAllUnBusy()
+  public void setAllUnBusy()
   {
     if (byte_maps == null)
       return;
 
+    lockAllStripes();
+    try
+    {
+      setAllUnBusyLocked();
+    }
+    finally
+    {
+      unlockAllStripes();
+    }
+  }
+
+  private synchronized void setAllUnBusyLocked()
+  {
     Elapsed elapsed = new Elapsed("DV_map.setAllUnbusy");
 
     /* Start one async thread for each MapFile: */
@@ -614,10 +686,13 @@ public class DV_map
    * - if it is a two we again return 1'.'
    *
    */
-  public synchronized int flipflop(int key)
+  public int flipflop(int key)
   {
     //common.failure("there should not be any incrementing here");
-    dedup.flipflops++;
+    synchronized (dedup)
+    {
+      dedup.flipflops++;
+    }
     //common.where(8);
     if (key == 0)
       return 1;
@@ -681,7 +756,20 @@ public class DV_map
   /**
    * Mark block of data 'not in use'.
    */
-  public synchronized void dv_set_unbusy(long lba, int key) throws Exception
+  public void dv_set_unbusy(long lba, int key) throws Exception
+  {
+    ReentrantLock lock = stripe_locks[ stripeFor(lba) ];
+    lock.lock();
+    try
+    {
+      dv_set_unbusy_locked(lba, key);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  private void dv_set_unbusy_locked(long lba, int key) throws Exception
   {
     //common.ptod("dv_set_ubsy: 0x%08x %2d", lba, key);
 
@@ -722,7 +810,20 @@ public class DV_map
   /**
    * Mark block as no longer busy, without changing the key.
    */
-  public synchronized void setUnbusy(long lba) throws Exception
+  public void setUnbusy(long lba) throws Exception
+  {
+    ReentrantLock lock = stripe_locks[ stripeFor(lba) ];
+    lock.lock();
+    try
+    {
+      setUnbusy_locked(lba);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  private void setUnbusy_locked(long lba) throws Exception
   {
     //common.ptod("dv_set_ubsy: 0x%08x %2d", lba, key);
 
@@ -10,6 +10,7 @@ package Vdb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 import Utils.*;
 
 
@@ -20,13 +21,20 @@ import Utils.*;
  *
  * Technically is should be OK to have just ONE bitmap for the whole Dedup
  * instace,  works....
+ *
+ * The flipflop map is changed concurrently by IO_tasks that each hold a
+ * different DV_map stripe lock. BitSet can not be used for that: next to the
+ * word containing the bit, set() and clear() also update the BitSet's shared
+ * 'wordsInUse' field. The flipflop map therefore uses AtomicLongArrays, with
+ * each bit changed using compare-and-set on its own 64-bit word.
  */
 public class DedupBitMap
 {
   private final static String c =
   "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private BitSet[] bitsets = null;
+  private BitSet[]          bitsets      = null;  /* Uniques, set up front */
+  private AtomicLongArray[] atomic_words = null;  /* Flipflop               */
   private long     bits_needed;
   private long     bits_allocated;
 
@@ -174,11 +182,11 @@ public class DedupBitMap
     /* Accommodate multiple bitsets so that we can handle more than 2**31 entries: */
     int  sets = (int) ((bits_allocated + MAX_BITS - 1) / MAX_BITS);
 
-    bitsets = new BitSet[ sets ];
+    atomic_words = new AtomicLongArray[ sets ];
     for (int i = 0; i < sets; i++)
     {
-      bitsets [ i ]  = new BitSet( (int) Math.min(bits_allocated - i * MAX_BITS, MAX_BITS) );
-      //common.ptod("bitsets [ i ]: " + bitsets [ i ].size());
+      long in_set = Math.min(bits_allocated - i * MAX_BITS, MAX_BITS);
+      atomic_words [ i ] = new AtomicLongArray( (int) ((in_set + 63) >> 6) );
     }
 
     common.ptod("Created flipflop bitmap for %s. %d bitmaps for a total of %,d bits.",
@@ -191,13 +199,32 @@ public class DedupBitMap
   {
     int set       = (int) (bit >> BIT_SHIFT);
     int remainder = (int) (bit  & BIT_AND);
-    bitsets[ set ].set(remainder, bool);
+
+    if (atomic_words == null)
+    {
+      bitsets[ set ].set(remainder, bool);
+      return;
+    }
+
+    AtomicLongArray words = atomic_words[ set ];
+    int  index = remainder >> 6;
+    long mask  = 1l << (remainder & 63);
+    long old;
+    do
+    {
+      old = words.get(index);
+    } while (!words.compareAndSet(index, old, (bool) ? old | mask : old & ~mask));
   }
+
   public boolean getBit(long bit)
   {
     int set       = (int) (bit >> BIT_SHIFT);
     int remainder = (int) (bit  & BIT_AND);
-    return bitsets[ set ].get( remainder );
+
+    if (atomic_words == null)
+      return bitsets[ set ].get( remainder );
+
+    return (atomic_words[ set ].get(remainder >> 6) & (1l << (remainder & 63))) != 0;
   }
 
   public boolean isUnique(long bit)
@@ -368,12 +368,12 @@ class Directory implements Serializable, Comparable
     //common.ptod("createDir1: " + getFullName() + " " + ((FwgThread) Thread.currentThread()).tn.task_number);
 
     File      dir_ptr = getDirPtr();
-    FwgThread fwt     = ((FwgThread) Thread.currentThread());
+    FwgThread fwt     = FwgThread.current();
 
     if (dir_exists)
       common.failure("Creating directory that already exists: " +
                      dir_ptr.exists() + " " + getFullName() + " " +
-                     ((FwgThread) Thread.currentThread()).tn.task_number);
+                     fwt.tn.task_number);
 
     /* For shared, before we even try to create directory, see if someone else did: */
     if (fwt.fwg.shared && dir_ptr.exists())
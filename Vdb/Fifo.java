@@ -22,26 +22,27 @@ public class Fifo
   private final static String c =
   "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private long      entries;
-  private long      entries_low;
+  long              entries;
+  long              entries_low;
   public  long      entries_high;
-  private String    label;
+  String            label;
 
   /* Only access the next fields while locking Fifo */
   private Object[]  list;
   private long      last_get_index;
   private long      last_put_index;
-  private int       threads = 1;
+  int               threads = 1;
 
-  private ArrayList  waiting_list = new ArrayList (64);
+  private ArrayList  waiting_list;
 
+  /* These stay null for a RingFifo, which has its own queue: */
   public  Semaphore free_entries;
   private Semaphore avail_entries;
-  public  Semaphore wait_for_room = new Semaphore(0);
+  public  Semaphore wait_for_room;
 
-  private long    getw = 0;
-  private long    gets = 0;
-  private long    puts = 0;
+  long            getw = 0;
+  long            gets = 0;
+  long            puts = 0;
   private long    xfers = 0;  // put that never went in the queue but were give to waiters
   private long    try1 = 0;
   private long    try2 = 0;
@@ -76,17 +77,52 @@ public class Fifo
    * 30%, after which puts again are honored until 90% full.
    */
   public Fifo(String lbl, int count)
+  {
+    this(lbl, count, true);
+  }
+
+  /**
+   * A subclass that keeps its own queue (RingFifo) passes 'allocate=false' so
+   * that the list, the semaphores and the waiting list are never created.
+   * Such a subclass must override every method that uses them.
+   */
+  protected Fifo(String lbl, int count, boolean allocate)
   {
     label         = lbl;
-    list          = new Object[count];
     entries       = count;
     entries_low   = count * 30 / 100;
     entries_high  = count * 90 / 100;
-    free_entries  = new Semaphore(count);
-    avail_entries = new Semaphore(0);
+    if (allocate)
+    {
+      list          = new Object[count];
+      waiting_list  = new ArrayList (64);
+      free_entries  = new Semaphore(count);
+      avail_entries = new Semaphore(0);
+      wait_for_room = new Semaphore(0);
+    }
     active_fifos.add(this);
   }
 
+  /**
+   * Create a Fifo of the type requested using 'misc=(fifotype=xxx)':
+   * - semaphore: the default semaphore-based Fifo.
+   * - ring:      lock-free RingFifo, parking when there is nothing to do.
+   * - ringspin:  lock-free RingFifo, yielding the cpu when there is nothing to do.
+   */
+  public static Fifo createFifo(String lbl, int count)
+  {
+    String type = findFifoType();
+    if (type == null || type.equals("semaphore"))
+      return new Fifo(lbl, count);
+    else if (type.equals("ring"))
+      return new RingFifo(lbl, count, RingBuffer.PARK);
+    else if (type.equals("ringspin"))
+      return new RingFifo(lbl, count, RingBuffer.SPIN);
+
+    common.failure("Invalid 'fifotype=%s'; expecting 'semaphore', 'ring' or 'ringspin'", type);
+    return null;
+  }
+
   public static void clearFifoVector()
   {
     active_fifos.removeAllElements();
@@ -151,6 +187,70 @@ public class Fifo
   }
 
 
+  /**
+   * Put 'count' entries from an array, the same as 'count' put() calls, but
+   * with one acquire of the free entries, one Fifo lock, and one release of
+   * the available entries.
+   * A batch larger than the fifo is done in pieces of at most the fifo size.
+   */
+  public void putBatch(Object[] array, int count) throws InterruptedException
+  {
+    for (int done = 0; done < count; )
+    {
+      int pieces = (int) Math.min(count - done, entries);
+      putPieces(array, done, pieces);
+      done += pieces;
+    }
+  }
+
+  private void putPieces(Object[] array, int first, int count) throws InterruptedException
+  {
+    while (true)
+    {
+      boolean rc = free_entries.tryAcquire(count, 1000, TimeUnit.MILLISECONDS);
+      if (rc)
+        break;
+      if (SlaveJvm.isWorkloadDone())
+        throw new InterruptedException();
+    }
+
+    synchronized (this)
+    {
+      int stored = 0;
+      for (int i = first; i < first + count; i++)
+      {
+        /* If someone's waiting, don't bother to store: */
+        int size = waiting_list.size();
+        if (size > 0)
+        {
+          FifoGetWaiter waiter = (FifoGetWaiter) waiting_list.remove(size - 1);
+          waiter.obj = array[i];
+          waiter.sema_waiting.release();
+          nowaits++;
+          xfers++;
+          continue;
+        }
+
+        list[ (int) (last_put_index++ % entries) ] = array[i];
+        stored++;
+      }
+
+      /* Entries given to a waiter don't use a free entry: */
+      if (stored < count)
+        free_entries.release(count - stored);
+
+      if (stored > 0)
+      {
+        avail_entries.release(stored);
+        int avail = avail_entries.availablePermits();
+        puts          += stored;
+        put_queue_sum += (long) avail * stored;
+        put_queue_max  = Math.max(put_queue_max, avail);
+      }
+    }
+  }
+
+
   public void putQ(ArrayList queue) throws InterruptedException
   {
     /* We can now store this entry: */
@@ -583,14 +683,14 @@ public class Fifo
                       fifo.getw    - fifo.old_getw,         // w
                       fifo.nowaits - fifo.old_nowaits,      // nw
 
-                      fifo.free_entries.availablePermits(),
-                      fifo.avail_entries.availablePermits(),
-                      fifo.wait_for_room.availablePermits(),
-                      fifo.wait_for_room.getQueueLength(),
+                      fifo.entries - fifo.getQueueDepth(),
+                      fifo.getQueueDepth(),
+                      (fifo.wait_for_room == null) ? 0 : fifo.wait_for_room.availablePermits(),
+                      (fifo.wait_for_room == null) ? 0 : fifo.wait_for_room.getQueueLength(),
 
                       fifo.room_waits   - fifo.old_room_waits,    // rwt
                       fifo.room_release - fifo.old_room_release,  // rwl
-                      fifo.waiting_list.size(),
+                      (fifo.waiting_list == null) ? 0 : fifo.waiting_list.size(),
 
                       sleeping,
                       sleep_count,
@@ -662,6 +762,12 @@ public class Fifo
     return 0;
   }
 
+  private static String findFifoType()
+  {
+    String type = MiscParms.getMiscValue("fifotype");
+    return (type == null) ? null : type.toLowerCase();
+  }
+
   public static void main(String[] args)  throws Exception
   {
     int loop = Integer.parseInt(args[0]) * 1000000;
@@ -33,7 +33,7 @@ public class FifoList
     fifo_length = size;
     fifos       = new Fifo[ prios ];
     for (int i = 0; i < prios; i++)
-      fifos[i] = new Fifo(name + "_prio_" + i, size);
+      fifos[i] = Fifo.createFifo(name + "_prio_" + i, size);
   }
 
   /**
@@ -159,6 +159,22 @@ public class FifoList
     return 0;
   }
 
+  /**
+   * Same as getArray(), but never waits when there is no work.
+   * Used by 'ioengine=async' which can not block while it has i/o outstanding.
+   */
+  public int getArrayNoWait(Object[] array) throws InterruptedException
+  {
+    for (int i = 0; i < fifos.length; i++)
+    {
+      int burst = fifos[i].getArray(array, false);
+      if (burst != 0)
+        return burst;
+    }
+
+    return 0;
+  }
+
   public void printStats(SD_entry sd)
   {
     synchronized (common.ptod_lock)
@@ -174,6 +190,10 @@ public class FifoList
     //            fifos[prio].getQueueDepth(),
     //            fifos[prio].entries_high  );
   }
+  public void putBatch(Object[] array, int count, int prio) throws InterruptedException
+  {
+    fifos[prio].putBatch(array, count);
+  }
   public void putQ(ArrayList queue, int prio) throws InterruptedException
   {
     fifos[prio].putQ(queue);
@@ -12,6 +12,9 @@ import java.io.*;
 import java.lang.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import Utils.*;
 
@@ -66,21 +69,26 @@ public class FileAnchor extends Directory implements Serializable
   private int    full_file_count    = 0;  /* Amount of files that are full    */
 
 
-  private int    round_robin_files = 0;
+  /* getFile() is not synchronized; the file selection state is atomic: */
+  private AtomicInteger   round_robin_files    = new AtomicInteger(0);
+  private AtomicInteger   random_files_touched = new AtomicInteger(0);
+  private AtomicLongArray selected_files       = null; /* fileselect=once   */
   private int    round_robin_dirs = 0;
 
   private Vector dir_list  = null;        /* List of Directory instances      */
 
-  // Maybe some day change these to ArrayList?
-  private Vector <FileEntry> file_list = null; /* List of FileEntry instances */
-  private Vector use_list  = null;             /* List of (totalsize=)        */
-  private Vector wss_list  = null;             /* Same, only for active WSS   */
+  /* The file information is kept in a FileEntryStore, not in FileEntrys: */
+  private FileEntryStore file_store = null;
+  private FileList file_list = null;           /* All files                   */
+  private FileList use_list  = null;           /* List of (totalsize=)        */
+  private FileList wss_list  = null;           /* Same, only for active WSS   */
 
   public  long   bytes_in_file_list = 0;  /* What we have in file_list        */
   private long   bytes_in_use_list  = 0;  /* What we have in use_list         */
   private long   bytes_in_wss_list  = 0;  /* What we have in wss_list         */
 
-  private Random file_select_randomizer = new Random();
+  private Random file_select_randomizer = new Random();  /* Only for fixed seed */
+  private boolean fixed_seed            = false;
   private Random dir_select_randomizer  = new Random();
 
   public  Vector  devxlate_list = null;   /* list of disks for this anchor    */
@@ -94,8 +102,7 @@ public class FileAnchor extends Directory implements Serializable
 
   public  FormatCounter mkdir_threads_running;
   public  FormatCounter create_threads_running;
-
-  public  int    random_files_touched = 0;
+  public  FormatEngine  format_engine = null;   /* 'misc=(formatengine=yes)' */
 
   public  int    last_format_pct = -1;
 
@@ -127,6 +134,7 @@ public class FileAnchor extends Directory implements Serializable
     {
       file_select_randomizer = new Random(0);
       dir_select_randomizer  = new Random(0);
+      fixed_seed             = true;
     }
   };
 
@@ -195,7 +203,7 @@ public class FileAnchor extends Directory implements Serializable
 
     //matchFileAndXfersizes();
 
-    random_files_touched = 0;
+    random_files_touched.set(0);
 
     /* Store the working set size:                                      */
     /* (Can it happen that different FSDs using the same anchor can use */
@@ -297,12 +305,16 @@ public class FileAnchor extends Directory implements Serializable
     //common.ptod("SlaveWorker.work.keep_controlfile: " + SlaveWorker.work.keep_controlfile);
     if (!fwg.shared)
     {
-      /* If we don't do deletes or creates, keep the current control file content: */
-      if (!SlaveWorker.work.keep_controlfile)
-        control_file.writeControlFile(fwg.shared, true);
-      else
+      /* 'misc=(controlfile=incremental)' only marks the start of the run: */
+      if (!control_file.startChangeLog(fwg.shared))
       {
-        common.ptod("No deletes and creates. Control file not cleared.");
+        /* If we don't do deletes or creates, keep the current control file content: */
+        if (!SlaveWorker.work.keep_controlfile)
+          control_file.writeControlFile(fwg.shared, true);
+        else
+        {
+          common.ptod("No deletes and creates. Control file not cleared.");
+        }
       }
     }
 
@@ -444,15 +456,20 @@ public class FileAnchor extends Directory implements Serializable
   private void createFileList(FileAnchor anchor, Vector dirlist, FwgEntry fwg)
   {
     /* For very large structures, clean up memory BEFORE: */
-    file_list = null;
+    file_list  = null;
+    file_store = null;
     //GcTracker.gc();
 
     Signal signal = new Signal(2);
-    file_list     = new Vector(maximum_file_count);
     int     created_file_count  = 0;
     int     relative_file_count = 0;
     int     slave_number        = SlaveWorker.work.slave_number;
     int     slave_count         = SlaveWorker.work.slave_count;
+
+    /* On a shared FSD each slave gets only every n-th file: */
+    file_store = new FileEntryStore((fwg.shared) ? maximum_file_count / slave_count + 1
+                                                 : maximum_file_count);
+    file_list  = new FileList(file_store);
     int     dedupunit           = Dedup.getDedupUnit();
     boolean dedup               = Dedup.isDedup();
 
@@ -481,12 +498,11 @@ public class FileAnchor extends Directory implements Serializable
         if (fwg.shared && relative_file_count++ % slave_count != slave_number)
           continue;
 
-        /* Create the FileEntry: */
+        /* Create the FileEntry; this adds it to file_store: */
         FileEntry fe = new FileEntry(dir, j+1, file_size,
                                      (dedup) ? bytes_in_file_list : bytes_in_file_list,
                                      file_list.size());
         //common.ptod("fe: " + fe.getFullName() + " " + file_size);
-        file_list.add(fe);
         created_file_count++;
 
         if (created_file_count % (10 * 1000 * 1000l) == 0) // && signal.go())
@@ -515,6 +531,9 @@ public class FileAnchor extends Directory implements Serializable
       common.failure("No files available for this slave. Did you ask for more " +
                      "slaves than files?");
 
+    /* One bit per file, indexed by FileEntry.getFileNoInList(): */
+    selected_files = new AtomicLongArray((file_list.size() + 63) / 64);
+
     if (common.get_debug(common.CREATE_FILE_LIST))
     {
       int maxlen = 0;
@@ -564,7 +583,7 @@ public class FileAnchor extends Directory implements Serializable
     // obsolete
     for (int i = Integer.MAX_VALUE; i < file_list.size(); i++)
     {
-      FileEntry fe = (FileEntry) file_list.elementAt(i);
+      FileEntry fe = file_list.elementAt(i);
       if (fe.isBusy())
         common.failure("still files busy: " + fe.getFullName());
     }
@@ -580,7 +599,7 @@ public class FileAnchor extends Directory implements Serializable
     while (bytes_in_use_list < total_size)
     {
       int number = (int) (subset_random.nextDouble() * file_list.size());
-      FileEntry fe = (FileEntry) file_list.elementAt(number);
+      FileEntry fe = file_list.elementAt(number);
       if (fe == null)
         common.failure("Unable to create a totalsize= subset for anchor=" + getAnchorName());
 
@@ -607,16 +626,16 @@ public class FileAnchor extends Directory implements Serializable
         full_file_count++;
     }
 
-    /* Allocate an estimated Vector size: */
+    /* Allocate an estimated list size: */
     int list_size = (int) (total_size / bytes_in_file_list * file_list.size());
-    Vector subset_list = new Vector(list_size);
+    FileList subset_list = new FileList(file_store, list_size);
 
     /* Now pick up any busy FileEntry and put it in the new list. */
     /* (This eliminates the need to do a sort on the file names), */
     /* (the original list is already in the proper order)         */
     for (int i = 0; i < file_list.size(); i++)
     {
-      FileEntry fe = (FileEntry) file_list.elementAt(i);
+      FileEntry fe = file_list.elementAt(i);
       if (fe.isBusy())
       {
         fe.setUnBusy();
@@ -626,7 +645,7 @@ public class FileAnchor extends Directory implements Serializable
 
     for (int i = Integer.MAX_VALUE; i < subset_list.size(); i++)
     {
-      FileEntry fe = (FileEntry) subset_list.elementAt(i);
+      FileEntry fe = subset_list.elementAt(i);
       common.ptod("fe2: " + fe.getFullName());
     }
 
@@ -660,7 +679,7 @@ public class FileAnchor extends Directory implements Serializable
     if (working_set == 0)// || SlaveWorker.work.format_run)
       return;
 
-    Vector list_to_use   = (use_list == null) ? file_list : use_list;
+    FileList list_to_use = (use_list == null) ? file_list : use_list;
     long   bytes_in_list = (use_list == null) ? bytes_in_file_list : bytes_in_use_list;
 
     if (working_set > bytes_in_list)
@@ -678,7 +697,7 @@ public class FileAnchor extends Directory implements Serializable
     while (bytes_in_wss_list < working_set)
     {
       int number = (int) (subset_random.nextDouble() * list_to_use.size());
-      FileEntry fe = (FileEntry) list_to_use.elementAt(number);
+      FileEntry fe = list_to_use.elementAt(number);
       if (fe == null)
         common.failure("Unable to create a working set size (wss) subset.");
 
@@ -702,16 +721,16 @@ public class FileAnchor extends Directory implements Serializable
         full_file_count++;
     }
 
-    /* Allocate an estimated Vector size: */
+    /* Allocate an estimated list size: */
     int list_size = (int) (working_set / bytes_in_list * list_to_use.size());
-    Vector subset_list = new Vector(list_size);
+    FileList subset_list = new FileList(file_store, list_size);
 
 
     /* Now pick up any busy FileEntry and put it in the new list. */
     /* (This eliminates the need to do a sort on the file names)  */
     for (int i = 0; i < list_to_use.size(); i++)
     {
-      FileEntry fe = (FileEntry) list_to_use.elementAt(i);
+      FileEntry fe = list_to_use.elementAt(i);
       if (fe.isBusy())
       {
         fe.setUnBusy();
@@ -738,7 +757,7 @@ public class FileAnchor extends Directory implements Serializable
 
     for (int i = Integer.MAX_VALUE; i < wss_list.size(); i++)
     {
-      FileEntry fe = (FileEntry) wss_list.elementAt(i);
+      FileEntry fe = wss_list.elementAt(i);
       common.ptod("fe3: " + fe.getFullName());
     }
   }
@@ -746,7 +765,7 @@ public class FileAnchor extends Directory implements Serializable
 
   public void startRoundRobin()
   {
-    round_robin_files =
+    round_robin_files.set(0);
     round_robin_dirs  = 0;
   }
 
@@ -988,6 +1007,7 @@ public class FileAnchor extends Directory implements Serializable
       if (!fptr.delete())
         common.failure("Unable to delete control file: " + fptr.getAbsolutePath());
     }
+    new ControlFileLog(this).delete();
 
     existing_dirs = 0;
   }
@@ -999,16 +1019,24 @@ public class FileAnchor extends Directory implements Serializable
    * Just pick any file, whether it is busy or idle.
    *
    * Even a busy file can be returned because the caller may decide he
-   * wants to wait for something, and we can't do that inside of the
-   * synchronized lock.
+   * wants to wait for something, and we can't do that while blocking the
+   * other threads.
+   *
+   * This method is not synchronized: with many threads and many small files
+   * the anchor lock was where all threads ended up waiting.
+   * - random selection uses a thread-local randomizer, unless a fixed seed
+   *   is requested, which then requires the old shared randomizer.
+   * - sequential selection uses an atomic round-robin cursor.
+   * - fileselect=once uses an atomic bit map to claim each file only once.
+   * The file lists are not synchronized, see FileList.
    */
   private int[] select_counters = null;
-  public synchronized FileEntry getFile(FwgEntry fwg)
+  public FileEntry getFile(FwgEntry fwg)
   {
     boolean debug2 = false;
 
     if (debug2) common.ptod("getFile0 start: ");
-    Vector list_to_use;
+    FileList list_to_use;
     if (wss_list != null)
       list_to_use = wss_list;
     else if (use_list != null)
@@ -1019,34 +1047,15 @@ public class FileAnchor extends Directory implements Serializable
     /* During journal recovery we first have to read all pending blocks: */
     if (Validate.isJournalRecovery() && pending_files != null )
     {
-      if (pending_files.size() > 0)
+      FileEntry fe = getPendingFile();
+      if (fe != null)
       {
-        FileEntry fe = pending_files.get(0);
-
-        /* 'pending_writes' flag will be reset at seq eof: */
-        fe.pending_writes = true;
-
-        /* Remove this file from 'pending files to read': */
-        pending_files.remove(fe);
         if (debug2) common.ptod("getFile1: " + fe);
-        common.ptod("this file has pending writes: " + fe);
         return fe;
       }
-
-
-      /* When the last file has been picked up, either by this thread      */
-      /* or by an other thread, clear the pending_files map.               */
-      /* The pending lba map must stick around, since we can have an other */
-      /* thread still needing it.                                          */
-      if (pending_files.size() == 0)
-      {
-        /* Not completely 'complete', an other thread may still be reading. */
-        ErrorLog.plog("Verifying of pending writes for fsd=%s complete", fsd_name_active);
-        pending_files        = null;
-        //pending_file_lba_map = null;
-      }
     }
 
+    FileList files = list_to_use;
 
     if (fwg.select_random)
     {
@@ -1056,7 +1065,7 @@ public class FileAnchor extends Directory implements Serializable
       {
         while (true)
         {
-          if (random_files_touched >= getFileCount())
+          if (random_files_touched.get() >= getFileCount())
           {
             if (!once_message_sent)
               SlaveJvm.sendMessageToSummary("Reached 'fileselect=once' for anchor %s", anchor_name);
@@ -1068,12 +1077,11 @@ public class FileAnchor extends Directory implements Serializable
           }
 
           /* distPoisson() is NEVER used for 'once': */
-          int file_number = file_select_randomizer.nextInt(list_to_use.size());
-          FileEntry fe = (FileEntry) list_to_use.elementAt(file_number);
-          if (!fe.isSelected())
+          int file_number = nextFileNumber(files.size());
+          FileEntry fe = files.get(file_number);
+          if (claimFile(fe))
           {
-            fe.setSelected();
-            random_files_touched ++;
+            random_files_touched.incrementAndGet();
             if (debug2) common.ptod("getFile3: " + fe);
             return fe;
           }
@@ -1083,79 +1091,166 @@ public class FileAnchor extends Directory implements Serializable
       /* Normal random or skewed file selection: */
       int file_number;
       if (fwg.poisson_skew == 0)
-        file_number = file_select_randomizer.nextInt(list_to_use.size());
+        file_number = nextFileNumber(files.size());
+      else if (fixed_seed)
+        file_number = (int) ownmath.distPoisson(files.size(), fwg.poisson_skew);
       else
-        file_number = (int) ownmath.distPoisson(list_to_use.size(), fwg.poisson_skew);
+        file_number = (int) ownmath.distPoisson(files.size(), fwg.poisson_skew,
+                                                ThreadLocalRandom.current());
 
       // Don't remove
       // debugging: creation a simple distribution chart of selected files.
       if (false)
       {
         if (select_counters == null)
-          select_counters = new int[ list_to_use.size() ];
+          select_counters = new int[ files.size() ];
 
         if (select_counters != null)
           select_counters[ file_number ]++;
       }
 
 
-      FileEntry fe = (FileEntry) list_to_use.get(file_number);
+      FileEntry fe = files.get(file_number);
       if (debug2) common.ptod("getFile4: " + fe);
 
       return fe;
     }
 
-    /* Did we pass through roundrobin for journal recovery? */
-    //common.ptod("round_robin_files: " + list_to_use.size() + " " + round_robin_files );
-    if (round_robin_files >= list_to_use.size())
+    /* Sequential scanning of the file list: */
+    /* Round-robin over the whole list: */
+    while (true)
     {
-      if (Validate.isJournalRecoveryActive())
-      {
-        if (debug2) common.ptod("getFile5: null");
-        return null;
-      }
-      if (SlaveWorker.work.format_run)
+      int next = round_robin_files.get();
+
+      /* Did we pass through roundrobin for journal recovery? */
+      //common.ptod("round_robin_files: " + files.size() + " " + next );
+      if (next >= files.size())
       {
-        if (debug2) common.ptod("getFile6: null");
-        return null;
+        if (Validate.isJournalRecoveryActive())
+        {
+          if (debug2) common.ptod("getFile5: null");
+          return null;
+        }
+        if (SlaveWorker.work.format_run)
+        {
+          if (debug2) common.ptod("getFile6: null");
+          return null;
+        }
+
+        if (fwg.select_once)
+        {
+          if (!once_message_sent)
+            SlaveJvm.sendMessageToSummary("Reached 'fileselect=once' for anchor %s", anchor_name);
+          once_message_sent = true;
+
+          /* There is NO check as there is with SDs that when there are other */
+          /* workloads besides 'once', we still terminate after the last of   */
+          /* the 'once' runs are done.                                        */
+          /* That is OK with me.                                              */
+          /* Also see Task_num.checkAllInTermination()                        */
+
+          if (debug2) common.ptod("getFile7: null");
+          return null;
+        }
+
+        /* Start over. Whoever wins the wrap also takes the first file: */
+        if (!round_robin_files.compareAndSet(next, 1))
+          continue;
+        next = 0;
       }
+
+      else if (!round_robin_files.compareAndSet(next, next + 1))
+        continue;
+
+      FileEntry fe = files.get(next);
+      if (debug2) common.ptod("getFile8: " + fe);
+      return fe;
     }
+  }
 
-    /* Sequential scanning of the file list: */
-    /* Round-robin over the whole list: */
-    if (round_robin_files >= list_to_use.size())
+
+  /**
+   * Journal recovery: hand out the files that have pending writes first.
+   * This is only done once, at the start of a recovery run, so a lock is OK.
+   */
+  private synchronized FileEntry getPendingFile()
+  {
+    if (pending_files == null)
+      return null;
+
+    if (pending_files.size() > 0)
     {
-      if (fwg.select_once)
+      FileEntry fe = pending_files.get(0);
+
+      /* 'pending_writes' flag will be reset at seq eof: */
+      fe.setPendingWrites(true);
+
+      /* Remove this file from 'pending files to read': */
+      pending_files.remove(fe);
+      common.ptod("this file has pending writes: " + fe);
+      return fe;
+    }
+
+
+    /* When the last file has been picked up, either by this thread      */
+    /* or by an other thread, clear the pending_files map.               */
+    /* The pending lba map must stick around, since we can have an other */
+    /* thread still needing it.                                          */
+    /* Not completely 'complete', an other thread may still be reading. */
+    ErrorLog.plog("Verifying of pending writes for fsd=%s complete", fsd_name_active);
+    pending_files        = null;
+    //pending_file_lba_map = null;
+
+    return null;
+  }
+
+
+  private int nextFileNumber(int count)
+  {
+    if (!fixed_seed)
+      return ThreadLocalRandom.current().nextInt(count);
+
+    synchronized (file_select_randomizer)
+    {
+      return file_select_randomizer.nextInt(count);
+    }
+  }
+
+
+  /**
+   * fileselect=once: atomically set this file's bit.
+   * Returns false if an other thread (or an earlier call) already had it.
+   */
+  private boolean claimFile(FileEntry fe)
+  {
+    int  index = fe.getFileNoInList();
+    int  word  = index >> 6;
+    long bit   = 1L << (index & 63);
+    while (true)
+    {
+      long old = selected_files.get(word);
+      if ((old & bit) != 0)
+        return false;
+      if (selected_files.compareAndSet(word, old, old | bit))
       {
-        if (!once_message_sent)
-          SlaveJvm.sendMessageToSummary("Reached 'fileselect=once' for anchor %s", anchor_name);
-        once_message_sent = true;
-
-        /* There is NO check as there is with SDs that when there are other */
-        /* workloads besides 'once', we still terminate after the last of   */
-        /* the 'once' runs are done.                                        */
-        /* That is OK with me.                                              */
-        /* Also see Task_num.checkAllInTermination()                        */
-
-        if (debug2) common.ptod("getFile7: null");
-        return null;
+        fe.setSelected();
+        return true;
       }
-      round_robin_files = 0;
     }
-
-    FileEntry fe = (FileEntry) list_to_use.elementAt(round_robin_files++);
-    if (debug2) common.ptod("getFile8: " + fe);
-    return fe;
   }
 
 
   /**
    * See if we have to reached the end of going through our list of files in
    * round-robin mode. This signifies 'done with format' Ugly!
+   *
+   * Not synchronized: this is called after every formatted file by every
+   * thread, the lists are not replaced while formatting, and the
+   * round-robin counter is atomic.
    */
-  public synchronized boolean anyFilesToFormat()
+  public boolean anyFilesToFormat()
   {
-    Vector list_to_use;
+    FileList list_to_use;
     if (wss_list != null)
       list_to_use = wss_list;
     else if (use_list != null)
@@ -1164,7 +1259,7 @@ public class FileAnchor extends Directory implements Serializable
       list_to_use = file_list;
 
     /* Did we pass through roundrobin? */
-    if (round_robin_files >= list_to_use.size())
+    if (round_robin_files.get() >= list_to_use.size())
       return false;
     else
       return true;
@@ -1544,13 +1639,17 @@ public class FileAnchor extends Directory implements Serializable
     //}
   }
 
-  public Vector <FileEntry> getFileList()
+  public FileList getFileList()
   {
     return file_list;
   }
+  public FileEntryStore getFileStore()
+  {
+    return file_store;
+  }
   public int getFileCount()
   {
-    Vector list_to_use;
+    FileList list_to_use;
     if (wss_list != null)
       list_to_use = wss_list;
     else if (use_list != null)
@@ -1575,7 +1674,7 @@ public class FileAnchor extends Directory implements Serializable
 
   public FileEntry getRelativeFile(int no)
   {
-    return(FileEntry) file_list.elementAt(no);
+    return file_list.elementAt(no);
   }
 
 
@@ -1958,7 +2057,7 @@ public class FileAnchor extends Directory implements Serializable
    */
   private void checkMemory()
   {
-    int ESTIMATED_FILENTRY_SIZE = 100;
+    int ESTIMATED_FILENTRY_SIZE = 72;
     int CHUNK = 1 * 1024 * 1024;
     int loop  = (int) ( total_directories + maximum_file_count) / CHUNK;
     byte[][] arrays = new byte[loop][];
@@ -2371,13 +2470,3 @@ public class FileAnchor extends Directory implements Serializable
   }
 }
 
-
-
-
-
-
-
-
-
-
-
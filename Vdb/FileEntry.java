@@ -15,37 +15,33 @@ import Utils.Format;
 import Utils.Fput;
 
 /**
- * This class contains all data needed for a specific file name
+ * This class contains all data needed for a specific file name.
+ *
+ * The data itself lives in the anchor's FileEntryStore; a FileEntry is only
+ * a handle to it, created when needed. Two FileEntry instances for the same
+ * file are equal(), and share the same lock.
  */
 public class FileEntry implements Comparable
 {
   private final static String c =
   "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private Directory parent          = null;
-  private long      req_file_size   = 0;       /* Requested file size      */
-  private long      cur_file_size   = 0;       /* Current file size        */
-  private int       file_no         = 0;
-  private int       file_no_in_list = 0;       /* Used for copy/move       */
-  private int       use_count       = 0;
-  private boolean   file_opened     = false;
-  private boolean   file_selected   = false;
+  private FileEntryStore store = null;
+  private int            index = 0;           /* Relative file# in file_list */
 
-  private boolean   file_exists     = false;
-  private boolean   file_busy       = false;
-  private boolean   bad_file        = false;   /* Any i/o error occurred   */
-  private boolean   format_complete = false;
-  private boolean   marked_busy     = false;
-  private boolean   parent_busy     = false;
-  private boolean   file_copied     = false;
-
-  public  boolean   pending_writes  = false;   /* During journal recovery  */
-
-  private long      file_start_lba  = 0;       /* Used for Data Validation */
-  private int       bad_bytes       = 0;
-  private char      bad_blocks      = 0;
-
-  private long      last_lba_used   = 0;
+  /* An FSD can have many millions of files, so all the status booleans are */
+  /* kept in one 'short'. Changes are made under the FileEntry lock.        */
+  private static final short OPENED          = 0x0001;
+  private static final short SELECTED        = 0x0002;
+  private static final short EXISTS          = 0x0004;
+  private static final short BUSY            = 0x0008;
+  private static final short BAD_FILE        = 0x0010;  /* Any i/o error occurred  */
+  private static final short FORMAT_COMPLETE = 0x0020;
+  private static final short MARKED_BUSY     = 0x0040;
+  private static final short PARENT_BUSY     = 0x0080;
+  private static final short COPIED          = 0x0100;
+  private static final short PENDING_WRITES  = 0x0200;  /* During journal recovery */
+  private static final short CHANGED         = 0x0400;  /* Status not in control file */
 
 
   private static boolean debug = common.get_debug(common.FILEENTRY_SET_BUSY);
@@ -57,6 +53,12 @@ public class FileEntry implements Comparable
   {
   }
 
+  FileEntry(FileEntryStore store, int index)
+  {
+    this.store = store;
+    this.index = index;
+  }
+
   /**
   * - parent: Parent Directory
   * - no:     relative file# within directory, starting with one.
@@ -66,11 +68,10 @@ public class FileEntry implements Comparable
   */
   public FileEntry(Directory parent_dir, int no, long size, long lba, int seqno)
   {
-    parent          = parent_dir;
-    file_no         = no;
-    req_file_size   = size;
-    file_start_lba  = lba;
-    file_no_in_list = seqno;
+    store = parent_dir.getAnchor().getFileStore();
+    index = store.add(parent_dir, no, size, lba);
+    if (index != seqno)
+      common.failure("FileEntry: file %,d stored as %,d", seqno, index);
 
     /* When we have a delete pending in a format run we don't need to */
     /* really understand the current status of the files since they */
@@ -81,7 +82,7 @@ public class FileEntry implements Comparable
     /* We need to know if the file is already there:                      */
     /* This is needed so that we can make the proper decision to know if */
     /* either all files are there, or they are all gone.                  */
-    if (parent.exist())
+    if (parent_dir.exist())
     {
       /* Can we take a shortcut? */
       if (getAnchor().getControlFile().hasFileStatus())
@@ -91,33 +92,33 @@ public class FileEntry implements Comparable
          * -2: file exists and is full
          * nn: file exists with length 'nn'
          */
-        long control_size = getAnchor().getControlFile().getFileSize(file_no_in_list, req_file_size);
+        long control_size = getAnchor().getControlFile().getFileSize(index, size);
         //common.ptod("cur_file_size: " + cur_file_size + " " + file_no_in_list);
 
         /* Does file exist? */
         if (control_size != -1)
         {
-          file_exists = true;
-          parent.countFiles(+1, this);
-          cur_file_size = control_size;
-          if (cur_file_size == req_file_size)
+          setFlag(EXISTS, true);
+          parent_dir.countFiles(+1, this);
+          store.cur_size[index] = control_size;
+          if (control_size == size)
             getAnchor().countFullFiles(+1, this);
         }
       }
 
       else if (getAnchor().format_complete_used)
       {
-        file_exists   = true;
-        cur_file_size = req_file_size;
+        setFlag(EXISTS, true);
+        store.cur_size[index] = size;
         getAnchor().countFullFiles(+1, this);
-        parent.countFiles(+1, this);
+        parent_dir.countFiles(+1, this);
       }
 
       /* there is no shortcut from ControlFile: use the file system to get status: */
       else
       {
         File file_ptr = new File(getFullName());
-        file_exists   = parent.hasFile(getShortName());
+        setFlag(EXISTS, parent_dir.hasFile(getShortName()));
         if (++queries % 1000000 == 0)
         {
           common.ptod("FileEntry queries: " + queries + " " + found + " " +
@@ -127,14 +128,14 @@ public class FileEntry implements Comparable
           // Would it be advisible to do a File.list() to avoid overhead?
         }
 
-        if (file_exists)
+        if (isSet(EXISTS))
         {
           /* Can not use setCurrentSize() for the first call: */
-          cur_file_size = file_ptr.length();
-          if (cur_file_size == req_file_size)
+          store.cur_size[index] = file_ptr.length();
+          if (store.cur_size[index] == size)
             getAnchor().countFullFiles(+1, this);
 
-          parent.countFiles(+1, this);
+          parent_dir.countFiles(+1, this);
           found++;
         }
       }
@@ -148,26 +149,66 @@ public class FileEntry implements Comparable
 
 
   /**
-   * Set file busy. If already busy, return false.
+   * The lock replacing the old 'synchronized' FileEntry methods.
    */
-  public synchronized boolean setFileBusy()
+  private Object lock()
   {
-    if (debug)
-      common.ptod("setFileBusy: " + getFullName() + " " + file_busy);
+    return store.getLock(index);
+  }
 
-    /* The old fashioned way: just one user: */
-    if (!getAnchor().fileSharing())
+  private boolean isSet(short flag)
+  {
+    return (store.flags[index] & flag) != 0;
+  }
+  private void setFlag(short flag, boolean bool)
+  {
+    synchronized (lock())
     {
-      if (file_busy)
-        return false;
-      file_busy = true;
-      return true;
+      if (bool)
+        store.flags[index] |= flag;
+      else
+        store.flags[index] &= ~flag;
     }
+  }
+  private FileEntryCounts getCounts()
+  {
+    return store.getCounts(index);
+  }
 
-    /* Sharing files, keep track of use count: */
-    use_count++;
-    file_busy = true;
-    return true;
+  public boolean hasPendingWrites()
+  {
+    return isSet(PENDING_WRITES);
+  }
+  public void setPendingWrites(boolean bool)
+  {
+    setFlag(PENDING_WRITES, bool);
+  }
+
+
+  /**
+   * Set file busy. If already busy, return false.
+   */
+  public boolean setFileBusy()
+  {
+    synchronized (lock())
+    {
+      if (debug)
+        common.ptod("setFileBusy: " + getFullName() + " " + isSet(BUSY));
+
+      /* The old fashioned way: just one user: */
+      if (!getAnchor().fileSharing())
+      {
+        if (isSet(BUSY))
+          return false;
+        setFlag(BUSY, true);
+        return true;
+      }
+
+      /* Sharing files, keep track of use count: */
+      getCounts().use_count++;
+      setFlag(BUSY, true);
+      return true;
+    }
   }
 
   /**
@@ -179,138 +220,171 @@ public class FileEntry implements Comparable
    * Should technically work, but is rediculous.
    * Oh well, the user asks for it.
    */
-  public synchronized boolean setFileBusyExc()
+  public boolean setFileBusyExc()
   {
-    if (debug)
-      common.ptod("setFileBusyExc: " + getFullName() + " " + file_busy);
-    //common.ptod("getAnchor().fileSharing(): " + getAnchor().fileSharing());
+    synchronized (lock())
+    {
+      if (debug)
+        common.ptod("setFileBusyExc: " + getFullName() + " " + isSet(BUSY));
+      //common.ptod("getAnchor().fileSharing(): " + getAnchor().fileSharing());
 
-    if (file_busy)
-      return false;
-    file_busy = true;
-    use_count = 1;
-    return true;
+      if (isSet(BUSY))
+        return false;
+      setFlag(BUSY, true);
+      if (getAnchor().fileSharing())
+        getCounts().use_count = 1;
+      return true;
+    }
   }
 
-  public synchronized void setUnBusy()
+  public void setUnBusy()
   {
-    if (debug)
-      common.ptod("setUnBusy:   " + getFullName() + " " + file_busy);
+    synchronized (lock())
+    {
+      if (debug)
+        common.ptod("setUnBusy:   " + getFullName() + " " + isSet(BUSY));
 
-    if (!file_busy)
-      common.failure("setUnBusy(false): entry not busy: " + getFullName());
+      if (!isSet(BUSY))
+        common.failure("setUnBusy(false): entry not busy: " + getFullName());
 
-    /* The old fashioned way: just one user: */
-    if (!getAnchor().fileSharing())
-    {
-      file_busy = false;
-      if (parent_busy)
+      /* The old fashioned way: just one user: */
+      if (!getAnchor().fileSharing())
       {
-        parent.setBusy(false);
-        parent_busy = false;
+        setFlag(BUSY, false);
+        if (isSet(PARENT_BUSY))
+        {
+          getParent().setBusy(false);
+          setFlag(PARENT_BUSY, false);
+        }
       }
-    }
 
-    else
-    {
-      /* Sharing file, keep track of use count: */
-      if (--use_count == 0)
+      else
       {
-        file_busy = false;
-        if (parent_busy)
+        /* Sharing file, keep track of use count: */
+        if (--getCounts().use_count == 0)
         {
-          parent.setBusy(false);
-          parent_busy = false;
+          setFlag(BUSY, false);
+          if (isSet(PARENT_BUSY))
+          {
+            getParent().setBusy(false);
+            setFlag(PARENT_BUSY, false);
+          }
         }
       }
     }
   }
 
-  private synchronized boolean obsolete_setBusy(boolean bool)
+  private boolean obsolete_setBusy(boolean bool)
   {
-    if (debug)
-      common.ptod("FileEntry.setBusy: " + getFullName() + " " + file_busy + " ===> " + bool);
+    synchronized (lock())
+    {
+      if (debug)
+        common.ptod("FileEntry.setBusy: " + getFullName() + " " + isSet(BUSY) + " ===> " + bool);
 
-    if (bool && file_busy)
-      return false;
+      if (bool && isSet(BUSY))
+        return false;
 
-    else if (!bool && !file_busy)
-      common.failure("FileEntry.setBusy(false): entry not busy: " + getFullName());
+      else if (!bool && !isSet(BUSY))
+        common.failure("FileEntry.setBusy(false): entry not busy: " + getFullName());
 
-    file_busy   = bool;
-    marked_busy = bool;
+      setFlag(BUSY, bool);
+      setFlag(MARKED_BUSY, bool);
 
-    return true;
+      return true;
+    }
   }
-  public synchronized boolean setParentBusy(boolean bool)
+  public boolean setParentBusy(boolean bool)
   {
-    boolean rc = parent.setBusy(bool);
-    if (rc)
-      parent_busy = bool;
+    synchronized (lock())
+    {
+      boolean rc = getParent().setBusy(bool);
+      if (rc)
+        setFlag(PARENT_BUSY, bool);
 
-    return rc;
+      return rc;
+    }
   }
 
-  public synchronized void cleanup()
+  public void cleanup()
   {
-    // 4/8/11: 'marked_busy' is clearly obsolete!
-    //if (marked_busy)
-    setUnBusy();
-    if (parent_busy)
+    synchronized (lock())
     {
-      parent.setBusy(false);
-      parent_busy = false;
+      // 4/8/11: 'marked_busy' is clearly obsolete!
+      //if (marked_busy)
+      setUnBusy();
+      if (isSet(PARENT_BUSY))
+      {
+        getParent().setBusy(false);
+        setFlag(PARENT_BUSY, false);
+      }
     }
   }
 
   public boolean isBusy()
   {
-    return file_busy;
+    return isSet(BUSY);
   }
 
   public boolean exists()
   {
-    return file_exists;
+    return isSet(EXISTS);
   }
   public void setExists(boolean bool)
   {
-    if (bool && file_exists)
+    if (bool && isSet(EXISTS))
       common.failure("setExists(): file already exists: " + getFullName());
-    if (!bool && !file_exists)
+    if (!bool && !isSet(EXISTS))
       common.failure("setExists(): file already does not exist: " + getFullName());
 
-    file_exists = bool;
+    setFlag(EXISTS, bool);
+    setFlag(CHANGED, true);
+  }
+
+  /**
+   * Status changed since it was taken from the control file?
+   * See ControlFileLog.
+   */
+  public boolean isChanged()
+  {
+    return isSet(CHANGED);
+  }
+  public void clearChanged()
+  {
+    setFlag(CHANGED, false);
   }
 
   public boolean isFull()
   {
-    boolean rc = req_file_size == cur_file_size;
+    boolean rc = store.req_size[index] == store.cur_size[index];
     //common.ptod("isFull(): " + getName() + " " + rc);
     return rc;
   }
 
   public void setOpened()
   {
-    file_opened = true;
+    setFlag(OPENED, true);
   }
 
   public boolean getOpened()
   {
-    return file_opened;
+    return isSet(OPENED);
   }
 
   public void setSelected()
   {
-    file_selected = true;
+    setFlag(SELECTED, true);
   }
 
   public boolean isSelected()
   {
-    return file_selected;
+    return isSet(SELECTED);
   }
 
   public void setCurrentSize(long size)
   {
+    long cur_file_size = store.cur_size[index];
+    long req_file_size = store.req_size[index];
+
     /* If the size stays unchanged, just leave: */
     if (size == cur_file_size)
       return;
@@ -323,30 +397,35 @@ public class FileEntry implements Comparable
     else if (cur_file_size == req_file_size)
       getAnchor().countFullFiles(-1, this);
 
-    cur_file_size = size;
+    store.cur_size[index] = size;
+
+    /* The lock is only needed for the first change: */
+    if (!isSet(CHANGED))
+      setFlag(CHANGED, true);
   }
   public long getCurrentSize()
   {
-    return cur_file_size;
+    return store.cur_size[index];
   }
 
   public void setBlockBad(int xfersize)
   {
-    bad_bytes += xfersize;
-    bad_blocks++;
-    //common.ptod("bad_bytes: " + bad_bytes + " " + bad_blocks);
+    FileEntryCounts cnt = getCounts();
+    cnt.bad_bytes += xfersize;
+    cnt.bad_blocks++;
+    //common.ptod("bad_bytes: " + cnt.bad_bytes + " " + cnt.bad_blocks);
 
-    if (bad_file)
+    if (isSet(BAD_FILE))
       return;
 
-    if (bad_bytes > getReqSize() / 100)
+    if (cnt.bad_bytes > getReqSize() / 100)
     {
       String txt = "setBlockBad(): more than 1%% of the file is marked bad. "+
                    "File no longer will be used: " + getFullName();
       ErrorLog.ptod(txt);
       setBadFile();
     }
-    else if (bad_blocks > 100)
+    else if (cnt.bad_blocks > 100)
     {
       String txt = "setBlockBad(): more than 100 bad blocks in the file are marked bad. "+
                    "File no longer will be used: " + getFullName();
@@ -356,37 +435,37 @@ public class FileEntry implements Comparable
   }
   private void setBadFile()
   {
-    bad_file = true;
+    setFlag(BAD_FILE, true);
     ErrorLog.ptod("File marked bad: " + getFullName());
   }
   public boolean isBadFile()
   {
     //common.ptod("isBadFile: " + bad_file + " " + getName());
-    return bad_file;
+    return isSet(BAD_FILE);
   }
 
   public long getReqSize()
   {
-    return req_file_size;
+    return store.req_size[index];
   }
   public int getFileNoInList()
   {
-    return file_no_in_list;
+    return index;
   }
 
   public void setFormatComplete(boolean bool)
   {
-    format_complete = bool;
+    setFlag(FORMAT_COMPLETE, bool);
   }
   public boolean isFormatComplete()
   {
-    return format_complete;
+    return isSet(FORMAT_COMPLETE);
   }
 
   private static long count = 0;
   public String getFullName()
   {
-    return parent.getFullName() + getShortName();
+    return getParent().getFullName() + getShortName();
   }
 
 
@@ -394,9 +473,9 @@ public class FileEntry implements Comparable
   {
     String name;
     if (!common.get_debug(common.LONGER_FILENAME))
-      name = String.format("vdb_f%04d.file", file_no);
+      name = String.format("vdb_f%04d.file", store.file_no[index]);
     else
-      name = String.format("vdb_f%04d.%04d.file", file_no, file_no_in_list);
+      name = String.format("vdb_f%04d.%04d.file", store.file_no[index], index);
 
     //common.ptod("name: " + name);
     return name;
@@ -404,11 +483,11 @@ public class FileEntry implements Comparable
 
   public Directory getParent()
   {
-    return parent;
+    return store.getParent(index);
   }
   public String getParentName()
   {
-    return parent.getFullName();
+    return getParent().getFullName();
   }
   public FileAnchor getAnchor()
   {
@@ -416,25 +495,25 @@ public class FileEntry implements Comparable
   }
   public long getFileStartLba()
   {
-    return file_start_lba;
+    return store.start_lba[index];
   }
 
   public void setLastLba(long lba)
   {
-    last_lba_used = lba;
+    store.last_lba[index] = lba;
   }
   public long getLastLba()
   {
-    return last_lba_used;
+    return store.last_lba[index];
   }
 
   public boolean hasBeenCopied()
   {
-    return file_copied;
+    return isSet(COPIED);
   }
   public void setCopied(boolean bool)
   {
-    file_copied = bool;
+    setFlag(COPIED, bool);
   }
 
 
@@ -460,7 +539,7 @@ public class FileEntry implements Comparable
     //if (common.onWindows())
     //  common.sleep_some(5);
 
-    parent.countFiles(-1, this);
+    getParent().countFiles(-1, this);
     setExists(false);
     setCurrentSize(0);
 
@@ -468,12 +547,24 @@ public class FileEntry implements Comparable
     getAnchor().countExistingFiles(-1, this);
 
     if (Validate.isValidate())
-      getAnchor().allocateKeyMap(file_start_lba).clearMapForFile(req_file_size);
+      getAnchor().allocateKeyMap(getFileStartLba()).clearMapForFile(getReqSize());
     if (debug)
       common.ptod("deleted: " + getFullName());
   }
 
 
+  public boolean equals(Object obj)
+  {
+    if (!(obj instanceof FileEntry))
+      return false;
+    FileEntry fe = (FileEntry) obj;
+    return fe.store == store && fe.index == index;
+  }
+  public int hashCode()
+  {
+    return index;
+  }
+
   public int compareTo(Object obj)
   {
     FileEntry fe = (FileEntry) obj;
@@ -496,3 +587,4 @@ public class FileEntry implements Comparable
 
   }
 }
+
@@ -0,0 +1,24 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+
+/**
+ * The FileEntry fields that most files never need, kept by FileEntryStore
+ * only for the files that use them.
+ */
+class FileEntryCounts
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  int  use_count  = 0;
+  int  bad_bytes  = 0;
+  char bad_blocks = 0;
+}
@@ -0,0 +1,143 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.*;
+
+
+/**
+ * Columnar storage of all file information for one FileAnchor.
+ *
+ * An anchor can have 100 million files or more. Instead of one FileEntry
+ * instance per file, each with its own object header, references and
+ * monitor, all file information is kept in parallel primitive arrays indexed
+ * by the file's relative number in the anchor's file list. FileEntry only is
+ * a small (store, index) handle that is created when needed.
+ *
+ * Per file this uses 42 bytes, and for the garbage collector an anchor is
+ * only a handful of large arrays.
+ *
+ * The fields that most files never need (file sharing use count and bad
+ * block counters) are kept in a small HashMap.
+ *
+ * Per-file locking is done using one of LOCKS lock objects, selected by the
+ * file's index.
+ */
+public class FileEntryStore
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private Directory[] dirs      = new Directory[64];
+  private int         dir_count = 0;
+
+  /* The columns. Package access, used directly by FileEntry: */
+  int[]   parent;        /* Index in dirs[]                          */
+  int[]   file_no;       /* Relative file# within directory          */
+  long[]  req_size;      /* Requested file size                      */
+  long[]  cur_size;      /* Current file size                        */
+  long[]  start_lba;     /* Used for Data Validation                 */
+  long[]  last_lba;
+  short[] flags;         /* See FileEntry                            */
+
+  private int count = 0;
+
+  private HashMap <Integer, FileEntryCounts> counts = new HashMap(64);
+
+  private static final int LOCKS = 1024;
+  private Object[] locks = new Object[LOCKS];
+
+
+  public FileEntryStore(int capacity)
+  {
+    capacity  = Math.max(capacity, 16);
+    parent    = new int  [ capacity ];
+    file_no   = new int  [ capacity ];
+    req_size  = new long [ capacity ];
+    cur_size  = new long [ capacity ];
+    start_lba = new long [ capacity ];
+    last_lba  = new long [ capacity ];
+    flags     = new short[ capacity ];
+
+    for (int i = 0; i < LOCKS; i++)
+      locks[i] = new Object();
+  }
+
+
+  /**
+   * Add a file, returning its index.
+   * Files are only added while the file list is created, by one thread, in
+   * directory order.
+   */
+  public int add(Directory dir, int no, long size, long lba)
+  {
+    if (dir_count == 0 || dirs[dir_count - 1] != dir)
+    {
+      if (dir_count == dirs.length)
+        dirs = Arrays.copyOf(dirs, dirs.length * 2);
+      dirs[dir_count++] = dir;
+    }
+
+    if (count == parent.length)
+      grow();
+
+    parent    [count] = dir_count - 1;
+    file_no   [count] = no;
+    req_size  [count] = size;
+    start_lba [count] = lba;
+    return count++;
+  }
+
+
+  private void grow()
+  {
+    if (count == Integer.MAX_VALUE)
+      common.failure("FileEntryStore: more than %,d files", Integer.MAX_VALUE);
+
+    int capacity = (int) Math.min(Integer.MAX_VALUE, count + (count >> 1) + 1024l);
+    parent    = Arrays.copyOf(parent,    capacity);
+    file_no   = Arrays.copyOf(file_no,   capacity);
+    req_size  = Arrays.copyOf(req_size,  capacity);
+    cur_size  = Arrays.copyOf(cur_size,  capacity);
+    start_lba = Arrays.copyOf(start_lba, capacity);
+    last_lba  = Arrays.copyOf(last_lba,  capacity);
+    flags     = Arrays.copyOf(flags,     capacity);
+  }
+
+
+  public int size()
+  {
+    return count;
+  }
+
+  public FileEntry get(int index)
+  {
+    if (index < 0 || index >= count)
+      common.failure("FileEntryStore: requesting file %,d of %,d", index, count);
+    return new FileEntry(this, index);
+  }
+
+  Directory getParent(int index)
+  {
+    return dirs[ parent[index] ];
+  }
+
+  Object getLock(int index)
+  {
+    return locks[ index & (LOCKS - 1) ];
+  }
+
+  synchronized FileEntryCounts getCounts(int index)
+  {
+    FileEntryCounts cnt = counts.get(index);
+    if (cnt == null)
+      counts.put(index, cnt = new FileEntryCounts());
+    return cnt;
+  }
+}
@@ -0,0 +1,88 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.*;
+
+
+/**
+ * A list of files of one FileAnchor: either all files in its FileEntryStore
+ * (the file list), or a subset of them (the 'totalsize=' and 'workingset='
+ * lists) kept as an int[] of file numbers.
+ * No FileEntry instances are kept; they are created by get().
+ *
+ * A subset list is not changed anymore once it has been created, and the
+ * file list only grows while it is being created, so there is no locking.
+ */
+public class FileList extends AbstractList <FileEntry> implements RandomAccess
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private FileEntryStore store;
+  private int[]          subset = null;
+  private int            count  = 0;
+
+
+  /**
+   * All files in the store.
+   */
+  public FileList(FileEntryStore store)
+  {
+    this.store = store;
+  }
+
+
+  /**
+   * An empty subset of the files in the store.
+   */
+  public FileList(FileEntryStore store, int capacity)
+  {
+    this.store  = store;
+    this.subset = new int[ Math.max(capacity, 16) ];
+  }
+
+
+  public FileEntry get(int i)
+  {
+    if (subset == null)
+      return store.get(i);
+
+    if (i < 0 || i >= count)
+      throw new IndexOutOfBoundsException(i + " >= " + count);
+    return store.get(subset[i]);
+  }
+
+  public FileEntry elementAt(int i)
+  {
+    return get(i);
+  }
+
+  public int size()
+  {
+    if (subset == null)
+      return store.size();
+    return count;
+  }
+
+
+  /**
+   * Add a file to a subset.
+   */
+  public boolean add(FileEntry fe)
+  {
+    if (subset == null)
+      common.failure("FileList.add(): only allowed for a subset list");
+
+    if (count == subset.length)
+      subset = Arrays.copyOf(subset, (int) Math.min(Integer.MAX_VALUE, count * 2l));
+    subset[count++] = fe.getFileNoInList();
+    return true;
+  }
+}
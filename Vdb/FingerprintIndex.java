@@ -0,0 +1,451 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Dedup fingerprint index used by dsim.
+ *
+ * Each MD5 fingerprint is kept as two longs plus a reference count in a
+ * fixed size slot of an open-addressing hash table that lives outside of the
+ * java heap. That costs 24 bytes per unique block instead of the couple of
+ * hundred bytes needed for a hex String, a boxed Long and two HashMap entries.
+ *
+ * The table never grows beyond the memory budget (dsim '-m nnn'). When it
+ * gets too full its contents are appended to one of PARTITIONS spill files,
+ * selected by the top byte of the fingerprint, and the table is cleared.
+ * Since a fingerprint always lands in the same partition, at the end each
+ * partition can be merged independently: the merges run in parallel, each
+ * with its own (smaller) table, and their results are simply added up.
+ *
+ * All methods are synchronized; the caller (DsimHash) already serializes
+ * its updates, so this costs nothing extra.
+ */
+public class FingerprintIndex
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int PARTITIONS = 256;
+
+  private long               budget;
+  private String             spill_dir;
+  private FingerprintTable   table;
+  private DataOutputStream[] spill_out = null;
+  private long[]             spill_records = new long[PARTITIONS];
+  private long               spilled = 0;
+  private int                spills  = 0;
+  private Results            results = null;
+
+
+  /**
+   * Results of the final merge.
+   */
+  public static class Results
+  {
+    public long distinct         = 0;
+    public long dedup_sets       = 0;
+    public long duplicate_blocks = 0;
+    public long max_collisions   = 0;
+
+    private synchronized void accum(Results res)
+    {
+      distinct         += res.distinct;
+      dedup_sets       += res.dedup_sets;
+      duplicate_blocks += res.duplicate_blocks;
+      max_collisions    = Math.max(max_collisions, res.max_collisions);
+    }
+  }
+
+
+  public FingerprintIndex(long budget, String spill_dir)
+  {
+    this.budget    = budget;
+    this.spill_dir = spill_dir;
+    table          = new FingerprintTable(budget);
+  }
+
+
+  public long getCapacity()
+  {
+    return table.capacity();
+  }
+
+
+  /**
+   * Count one more reference to this MD5 digest.
+   */
+  public synchronized void add(byte[] digest)
+  {
+    long hi = ByteBuffer.wrap(digest, 0, 8).getLong();
+    long lo = ByteBuffer.wrap(digest, 8, 8).getLong();
+
+    if (table.isFull())
+      spill();
+    table.add(hi, lo, 1);
+  }
+
+
+  /**
+   * Amount of unique fingerprints, used for the progress reports.
+   * Once something has been spilled this is an upper limit until finish()
+   * has been done: the same fingerprint may be in more than one spill.
+   */
+  public synchronized long getDistinct()
+  {
+    if (results != null)
+      return results.distinct;
+    return table.size() + spilled;
+  }
+
+
+  /**
+   * Write the current table contents to the partition files and clear it.
+   */
+  private void spill()
+  {
+    try
+    {
+      if (spill_out == null)
+      {
+        spill_out = new DataOutputStream[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++)
+          spill_out[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillName(i)), 65536));
+        common.ptod("FingerprintIndex: memory budget of %s reached; spilling to %s",
+                    FileAnchor.whatSize(budget), spill_dir);
+      }
+
+      long  count = table.size();
+      long[] slot = new long[3];
+      for (long idx = 0; idx < table.capacity(); idx++)
+      {
+        if (!table.get(idx, slot))
+          continue;
+        int part = (int) (slot[0] >>> 56);
+        spill_out[part].writeLong(slot[0]);
+        spill_out[part].writeLong(slot[1]);
+        spill_out[part].writeLong(slot[2]);
+        spill_records[part]++;
+      }
+
+      table.clear();
+      spilled += count;
+      spills++;
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  private String spillName(int part)
+  {
+    return new File(spill_dir, String.format("dsim.spill.%03d.tmp", part)).getAbsolutePath();
+  }
+
+
+  /**
+   * Count unique fingerprints, duplicate sets, duplicate blocks and maximum
+   * collisions. If nothing was spilled that is just a scan of the table;
+   * otherwise each partition is merged separately, using 'threads' threads
+   * that each get an equal part of the memory budget.
+   */
+  public synchronized Results finish(int threads)
+  {
+    if (results != null)
+      return results;
+
+    results = new Results();
+    if (spill_out == null)
+    {
+      results.accum(table.scan());
+      return results;
+    }
+
+    /* Flush what we still have, and free the big table: */
+    spill();
+    table = null;
+    try
+    {
+      for (int i = 0; i < PARTITIONS; i++)
+        spill_out[i].close();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+
+    common.ptod("FingerprintIndex: merging %,d fingerprints from %d spills using %d threads",
+                spilled, spills, threads);
+
+    final int[] next_part = new int[1];
+    Thread[]    mergers   = new Thread[Math.max(1, Math.min(threads, PARTITIONS))];
+    final long  part_budget = budget / mergers.length;
+    for (int t = 0; t < mergers.length; t++)
+    {
+      mergers[t] = new Thread("FingerprintMerge-" + t)
+      {
+        public void run()
+        {
+          FingerprintTable part_table = new FingerprintTable(part_budget);
+          while (true)
+          {
+            int part;
+            synchronized (next_part)
+            {
+              part = next_part[0]++;
+            }
+            if (part >= PARTITIONS)
+              break;
+
+            results.accum(mergePartition(part, part_table));
+          }
+        }
+      };
+      mergers[t].start();
+    }
+
+    for (int t = 0; t < mergers.length; t++)
+    {
+      try
+      {
+        mergers[t].join();
+      }
+      catch (InterruptedException e)
+      {
+        common.failure(e);
+      }
+    }
+
+    return results;
+  }
+
+
+  private Results mergePartition(int part, FingerprintTable part_table)
+  {
+    String fname = spillName(part);
+
+    /* Only clear (and later scan) the part of the table this partition needs: */
+    part_table.reset(spill_records[part]);
+    try
+    {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fname), 65536));
+      for (long i = 0; i < spill_records[part]; i++)
+      {
+        long hi    = input.readLong();
+        long lo    = input.readLong();
+        long count = input.readLong();
+        if (part_table.isFull())
+          common.failure("FingerprintIndex: spill partition %d has more than %,d unique "+
+                         "fingerprints. Increase the memory budget ('-m').",
+                         part, part_table.limit());
+        part_table.add(hi, lo, count);
+      }
+      input.close();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+
+    new File(fname).delete();
+    return part_table.scan();
+  }
+}
+
+
+/**
+ * Open-addressing (linear probing) table of 24 byte slots in direct
+ * ByteBuffers: fingerprint high, fingerprint low, reference count.
+ * A slot with a zero count is empty.
+ *
+ * Not synchronized.
+ */
+class FingerprintTable
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int  SLOT      = 24;
+  private static final int  SEG_SHIFT = 25;   /* 32m slots, 768m bytes per segment */
+  private static final long SEG_MASK  = (1l << SEG_SHIFT) - 1;
+
+  private ByteBuffer[] segments;
+  private long         max_capacity;
+  private long         capacity;          /* Slots currently in use, see reset() */
+  private long         mask;
+  private long         limit;
+  private long         size = 0;
+
+
+  /**
+   * The largest power of two slot count that fits in the budget.
+   */
+  FingerprintTable(long budget)
+  {
+    capacity = 1024;
+    while (capacity * 2 * SLOT <= budget)
+      capacity *= 2;
+    mask  = capacity - 1;
+    limit = capacity / 4 * 3;
+    max_capacity = capacity;
+
+    long seg_slots = Math.min(capacity, 1l << SEG_SHIFT);
+    segments = new ByteBuffer[(int) (capacity / seg_slots)];
+    for (int i = 0; i < segments.length; i++)
+      segments[i] = ByteBuffer.allocateDirect((int) (seg_slots * SLOT));
+  }
+
+
+  long capacity()
+  {
+    return capacity;
+  }
+  long limit()
+  {
+    return limit;
+  }
+  long size()
+  {
+    return size;
+  }
+  boolean isFull()
+  {
+    return size >= limit;
+  }
+
+
+  /**
+   * The low half of an MD5 fingerprint is as random as it gets, so it can be
+   * used directly as the slot number.
+   */
+  void add(long hi, long lo, long count)
+  {
+    long idx = lo & mask;
+    while (true)
+    {
+      ByteBuffer seg = segments[(int) (idx >>> SEG_SHIFT)];
+      int        off = (int) (idx & SEG_MASK) * SLOT;
+      long       old = seg.getLong(off + 16);
+
+      if (old == 0)
+      {
+        seg.putLong(off,      hi);
+        seg.putLong(off + 8,  lo);
+        seg.putLong(off + 16, count);
+        size++;
+        return;
+      }
+
+      if (seg.getLong(off) == hi && seg.getLong(off + 8) == lo)
+      {
+        seg.putLong(off + 16, old + count);
+        return;
+      }
+
+      idx = (idx + 1) & mask;
+    }
+  }
+
+
+  /**
+   * Return hi, lo and count of a slot, or false if it is empty.
+   */
+  boolean get(long idx, long[] slot)
+  {
+    ByteBuffer seg = segments[(int) (idx >>> SEG_SHIFT)];
+    int        off = (int) (idx & SEG_MASK) * SLOT;
+    slot[2] = seg.getLong(off + 16);
+    if (slot[2] == 0)
+      return false;
+    slot[0] = seg.getLong(off);
+    slot[1] = seg.getLong(off + 8);
+    return true;
+  }
+
+
+  void clear()
+  {
+    zero(capacity);
+    size = 0;
+  }
+
+
+  /**
+   * Clear the table and use only as many slots as are needed to hold
+   * 'entries' fingerprints, up to the full table.
+   * Merging a spill partition then only costs the size of that partition,
+   * not the size of the whole table.
+   */
+  void reset(long entries)
+  {
+    long slots = 1024;
+    while (slots < max_capacity && slots / 4 * 3 < entries)
+      slots *= 2;
+
+    zero(Math.max(slots, capacity));
+    capacity = slots;
+    mask     = capacity - 1;
+    limit    = capacity / 4 * 3;
+    size     = 0;
+  }
+
+
+  /**
+   * Zero the first 'slots' slots.
+   */
+  private void zero(long slots)
+  {
+    byte[] zeros = new byte[65536];
+    long   bytes = slots * SLOT;
+    for (ByteBuffer seg : segments)
+    {
+      if (bytes <= 0)
+        break;
+      int end = (int) Math.min(seg.capacity(), bytes);
+      seg.clear();
+      while (seg.position() < end)
+        seg.put(zeros, 0, Math.min(zeros.length, end - seg.position()));
+      seg.clear();
+      bytes -= end;
+    }
+  }
+
+
+  FingerprintIndex.Results scan()
+  {
+    FingerprintIndex.Results res = new FingerprintIndex.Results();
+    long bytes = capacity * SLOT;
+    for (ByteBuffer seg : segments)
+    {
+      if (bytes <= 0)
+        break;
+      int end = (int) Math.min(seg.capacity(), bytes);
+      bytes  -= end;
+      for (int off = 0; off < end; off += SLOT)
+      {
+        long count = seg.getLong(off + 16);
+        if (count == 0)
+          continue;
+        res.distinct++;
+        if (count > 1)
+        {
+          res.dedup_sets++;
+          res.duplicate_blocks += count;
+        }
+        res.max_collisions = Math.max(res.max_collisions, count);
+      }
+    }
+    return res;
+  }
+}
@@ -37,12 +37,21 @@ public class Flat
   private static Vector flat_list = new Vector(32,0);
   private static PrintWriter flatfile_html = null;
   private static boolean first_print = true;
+  private static FlatBinary flatfile_bin = null;
 
 
 
   public static void createFlatFile()
   {
     flatfile_html = Report.createHmtlFile("flatfile.html");
+    if (FlatBinary.isRequested())
+      flatfile_bin = new FlatBinary(Vdbmain.output_dir);
+  }
+
+  public static void closeFlatFile()
+  {
+    if (flatfile_bin != null)
+      flatfile_bin.close();
   }
 
   /**
@@ -136,6 +145,21 @@ public class Flat
     /* Note: the first byte in this line must be blank for ParseFlat to recognize it.*/
     String line = String.format("%12s %23s ", "tod", "timestamp");
 
+    /* The binary file must start with its column dictionary, before the */
+    /* text lines below are written to it:                               */
+    if (flatfile_bin != null)
+    {
+      String[] labels = new String[flat_list.size()];
+      String[] texts  = new String[flat_list.size()];
+      for (int i = 0; i < flat_list.size(); i++)
+      {
+        Flat flt  = (Flat) flat_list.elementAt(i);
+        labels[i] = flt.label;
+        texts[i]  = flt.text;
+      }
+      flatfile_bin.writeHeader(labels, texts);
+    }
+
     println("*");
     println("* 'flatfile.html' contains Vdbench generated information in a column by column ASCII format. ");
     println("* The first line in the file contains a one word 'column header name'; the rest of the file ");
@@ -176,6 +200,8 @@ public class Flat
     }
 
     flatfile_html.println(txt);
+    if (flatfile_bin != null)
+      flatfile_bin.writeText(txt);
   }
 
   /**
@@ -214,6 +240,22 @@ public class Flat
 
     flatfile_html.println(line2);
     //common.ptod(line, flatfile_html);
+
+    if (flatfile_bin != null)
+    {
+      Object[] values = new Object[flat_list.size()];
+      for (int i = 0; i < flat_list.size(); i++)
+      {
+        Flat flt = (Flat) flat_list.elementAt(i);
+        if (flt.type == 1)
+          values[i] = Long.valueOf(flt.longval);
+        else if (flt.type == 2)
+          values[i] = Double.valueOf(flt.dblval);
+        else if (flt.type == 3)
+          values[i] = flt.strval;
+      }
+      flatfile_bin.addRow(now.getTime(), values);
+    }
   }
 
   /**
@@ -288,6 +330,14 @@ public class Flat
       add_col("compratio",   "Requested compression ratio");
       add_col("dedupratio",  "Requested dedup ratio");
     }
+
+    /* Percentiles, see HdrHistogram: */
+    if (HdrHistogram.getRequestedDigits() > 0)
+    {
+      for (int i = 0; i < HdrHistogram.PCT_LABELS.length; i++)
+        add_col("resp_" + HdrHistogram.PCT_LABELS[i],
+                "Response time percentile " + HdrHistogram.PERCENTILES[i]);
+    }
   }
 
 
@@ -0,0 +1,520 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import Utils.Format;
+
+
+/**
+ * Binary, columnar version of flatfile.html, requested using
+ * 'misc=(flatformat=binary)'. It is written next to flatfile.html as
+ * 'flatfile.bin', and is used instead of flatfile.html by ParseFlat and by
+ * WlComp (VdbComp.ParseFlat) when present.
+ *
+ * Layout:
+ *
+ *   header:   int MAGIC, int column count, and for each column its label
+ *             and description.
+ *   blocks:   byte 'T' followed by one line of text, or
+ *             byte 'G' followed by a row group:
+ *               int  row count
+ *               long tod (milliseconds) for each row
+ *               for each column: a type byte for each row, followed by the
+ *               values of the rows that have one (long, double or UTF).
+ *   end:      byte 'E'
+ *
+ * A group holds up to GROUP_ROWS rows. It is written when full, before a
+ * text line, and when the file is closed. The 'tod' and 'timestamp' columns
+ * are not stored but are recreated from each row's tod.
+ */
+public class FlatBinary
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int  MAGIC      = 0x56464231;   /* 'VFB1' */
+  private static final int  GROUP_ROWS = 32;
+
+  private static final byte NA         = 0;
+  private static final byte LONG       = 1;
+  private static final byte DOUBLE     = 2;
+  private static final byte STRING     = 3;
+  private static final byte SAME       = 4;   /* Same value as previous row */
+
+  public  static final String FNAME    = "flatfile.bin";
+
+  private DataOutputStream out;
+  private int              columns;
+  private long[]           tods;
+  private Object[][]       rows;
+  private int              row_count = 0;
+
+  /* Text written before the header, written right after the header: */
+  private ArrayList <String> early_text = new ArrayList(16);
+
+
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("flatformat");
+    if (parm == null)
+      return false;
+    if (parm.equalsIgnoreCase("binary"))
+      return true;
+    if (!parm.equalsIgnoreCase("text"))
+      common.failure("misc=(flatformat=%s): only 'binary' or 'text' allowed", parm);
+    return false;
+  }
+
+
+  public FlatBinary(String dir)
+  {
+    try
+    {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, FNAME)), 65536));
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * The column dictionary. Once written, the columns are fixed.
+   */
+  public synchronized void writeHeader(String[] labels, String[] texts)
+  {
+    columns = labels.length;
+    tods    = new long[GROUP_ROWS];
+    rows    = new Object[GROUP_ROWS][];
+
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(columns);
+      for (int i = 0; i < columns; i++)
+      {
+        out.writeUTF(labels[i]);
+        out.writeUTF((texts[i] == null) ? "" : texts[i]);
+      }
+
+      for (String line : early_text)
+      {
+        out.writeByte('T');
+        out.writeUTF(line);
+      }
+      early_text = null;
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * Add a row. Values must be Long, Double, String, or null for 'n/a'.
+   */
+  public synchronized void addRow(long tod, Object[] values)
+  {
+    if (rows == null)
+      common.failure("FlatBinary: data row received before the column header");
+    if (values.length != columns)
+      common.failure("FlatBinary: expecting %d columns, receiving %d", columns, values.length);
+
+    tods[row_count]   = tod;
+    rows[row_count++] = values;
+    if (row_count == GROUP_ROWS)
+      writeGroup();
+  }
+
+
+  public synchronized void writeText(String line)
+  {
+    if (rows == null)
+    {
+      early_text.add(line);
+      return;
+    }
+
+    try
+    {
+      writeGroup();
+      out.writeByte('T');
+      out.writeUTF(line);
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  public synchronized void close()
+  {
+    if (out == null)
+      return;
+
+    try
+    {
+      /* Without a header the file stays empty, see Reader.findBinary(): */
+      if (rows != null)
+      {
+        writeGroup();
+        out.writeByte('E');
+      }
+      out.close();
+      out = null;
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  private void writeGroup()
+  {
+    if (row_count == 0)
+      return;
+
+    try
+    {
+      out.writeByte('G');
+      out.writeInt(row_count);
+      for (int r = 0; r < row_count; r++)
+        out.writeLong(tods[r]);
+
+      byte[] types = new byte[row_count];
+      for (int col = 0; col < columns; col++)
+      {
+        for (int r = 0; r < row_count; r++)
+          types[r] = typeOf(rows[r][col], (r == 0) ? null : rows[r-1][col]);
+        out.write(types);
+
+        for (int r = 0; r < row_count; r++)
+        {
+          Object value = rows[r][col];
+          if (types[r] == LONG)
+            out.writeLong(((Long) value).longValue());
+          else if (types[r] == DOUBLE)
+            out.writeDouble(((Double) value).doubleValue());
+          else if (types[r] == STRING)
+            out.writeUTF((String) value);
+        }
+      }
+
+      out.flush();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+
+    for (int r = 0; r < row_count; r++)
+      rows[r] = null;
+    row_count = 0;
+  }
+
+
+  private static byte typeOf(Object value, Object previous)
+  {
+    if (value == null)
+      return NA;
+    if (value.equals(previous))
+      return SAME;
+    if (value instanceof Long)
+      return LONG;
+    if (value instanceof Double)
+      return DOUBLE;
+    return STRING;
+  }
+
+
+
+  /**
+   * Sequential reader for flatfile.bin.
+   *
+   * Each next() returns either a text line (isText()) or a data row.
+   * getValues() returns the typed row values, with 'tod' and 'timestamp'
+   * formatted as in flatfile.html, getStrings() returns all values exactly
+   * as they would appear in flatfile.html.
+   */
+  public static class Reader
+  {
+    private DataInputStream  input;
+    private String           fname;
+    private String[]         names;
+    private String[]         texts;
+    private int              columns;
+
+    private long[]           group_tods   = new long[0];
+    private Object[][]       group_values = new Object[0][];
+    private int              group_rows   = 0;
+    private int              group_index  = 0;
+
+    private String           text = null;
+    private boolean          eof  = false;
+
+    private SimpleDateFormat time      = new SimpleDateFormat("HH:mm:ss.SSS");
+    private SimpleDateFormat date_time = new SimpleDateFormat("MM/dd/yyyy-HH:mm:ss-zzz");
+
+
+    /**
+     * Is this a binary flatfile?
+     */
+    public static boolean isBinary(String fname)
+    {
+      if (!new File(fname).isFile())
+        return false;
+
+      try
+      {
+        DataInputStream dis = new DataInputStream(new FileInputStream(fname));
+        int magic = dis.readInt();
+        dis.close();
+        return magic == MAGIC;
+      }
+      catch (IOException e)
+      {
+        return false;
+      }
+    }
+
+
+    /**
+     * Return the name of the binary file to be used instead of this
+     * flatfile.html, or null.
+     *
+     * A flatfile.bin that does not start with MAGIC is not silently ignored:
+     * the text file would then be parsed while the user asked for the
+     * binary one. An empty file (a run that ended before its first
+     * interval) is ignored.
+     */
+    public static String findBinary(String fname)
+    {
+      if (isBinary(fname))
+        return fname;
+      if (new File(fname).getName().equals(FNAME))
+        malformed(fname);
+
+      String bin = new File(new File(fname).getAbsoluteFile().getParentFile(), FNAME).getAbsolutePath();
+      if (isBinary(bin))
+        return bin;
+      if (new File(bin).length() > 0)
+        malformed(bin);
+      return null;
+    }
+
+    private static void malformed(String fname)
+    {
+      common.failure("FlatBinary: %s is not a valid binary flatfile; it does not "+
+                     "start with the expected header. Remove or rename it to use "+
+                     "the text flatfile.", fname);
+    }
+
+
+    public Reader(String fname)
+    {
+      this.fname = fname;
+      try
+      {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(fname), 65536));
+        if (input.readInt() != MAGIC)
+          common.failure("FlatBinary: not a binary flatfile: " + fname);
+
+        columns = input.readInt();
+        names   = new String[columns + 2];
+        texts   = new String[columns + 2];
+        names[0] = "tod";
+        names[1] = "timestamp";
+        for (int i = 0; i < columns; i++)
+        {
+          names[i + 2] = input.readUTF();
+          texts[i + 2] = input.readUTF();
+        }
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+    }
+
+
+    /**
+     * Column names, starting with 'tod' and 'timestamp'.
+     */
+    public String[] getColumnNames()
+    {
+      return names;
+    }
+
+
+    public boolean next()
+    {
+      text = null;
+      if (group_index < group_rows)
+      {
+        group_index++;
+        if (group_index < group_rows)
+          return true;
+      }
+
+      if (eof)
+        return false;
+
+      try
+      {
+        int kind = input.readByte();
+        if (kind == 'T')
+        {
+          text = input.readUTF();
+          return true;
+        }
+        else if (kind == 'G')
+        {
+          readGroup();
+          return true;
+        }
+        else if (kind == 'E')
+        {
+          eof = true;
+          return false;
+        }
+        common.failure("FlatBinary: invalid block type %d in %s", kind, fname);
+      }
+
+      /* A run that was killed has no end marker: */
+      catch (EOFException e)
+      {
+        eof = true;
+        return false;
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+
+      return false;
+    }
+
+
+    private void readGroup() throws IOException
+    {
+      group_rows  = input.readInt();
+      group_index = 0;
+      if (group_tods.length < group_rows)
+      {
+        group_tods   = new long[group_rows];
+        group_values = new Object[group_rows][];
+      }
+
+      for (int r = 0; r < group_rows; r++)
+      {
+        group_tods[r]   = input.readLong();
+        group_values[r] = new Object[columns];
+      }
+
+      byte[] types = new byte[group_rows];
+      for (int col = 0; col < columns; col++)
+      {
+        input.readFully(types, 0, group_rows);
+        for (int r = 0; r < group_rows; r++)
+        {
+          switch (types[r])
+          {
+          case NA:
+            break;
+          case LONG:
+            group_values[r][col] = Long.valueOf(input.readLong());
+            break;
+          case DOUBLE:
+            group_values[r][col] = Double.valueOf(input.readDouble());
+            break;
+          case STRING:
+            group_values[r][col] = input.readUTF();
+            break;
+          case SAME:
+            group_values[r][col] = group_values[r-1][col];
+            break;
+          default:
+            common.failure("FlatBinary: invalid column type %d in %s", types[r], fname);
+          }
+        }
+      }
+    }
+
+
+    public boolean isText()
+    {
+      return text != null;
+    }
+    public String getText()
+    {
+      return text;
+    }
+
+
+    /**
+     * Long, Double, String or null ('n/a') for each column.
+     */
+    public Object[] getValues()
+    {
+      Object[] values = new Object[columns + 2];
+      Date     now    = new Date(group_tods[group_index]);
+      values[0] = time.format(now);
+      values[1] = date_time.format(now);
+      System.arraycopy(group_values[group_index], 0, values, 2, columns);
+      return values;
+    }
+
+
+    public String[] getStrings()
+    {
+      Object[] values  = getValues();
+      String[] strings = new String[values.length];
+      for (int i = 0; i < values.length; i++)
+        strings[i] = toString(values[i]);
+      return strings;
+    }
+
+
+    /**
+     * Same format as used by Flat.printInterval().
+     */
+    public static String toString(Object value)
+    {
+      if (value == null)
+        return "n/a";
+      if (value instanceof Long)
+        return Format.f("%10d", ((Long) value).longValue()).trim();
+      if (value instanceof Double)
+        return Format.f("%10.4f", ((Double) value).doubleValue()).trim();
+      return Format.f("%10s", (String) value).trim();
+    }
+
+
+    public void close()
+    {
+      try
+      {
+        input.close();
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+    }
+  }
+}
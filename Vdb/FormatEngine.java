@@ -0,0 +1,321 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Format engine for file system anchors, requested using
+ * 'misc=(formatengine=yes)', or implicitly by requesting a format rate using
+ * 'misc=(formatmb=nn)' (MB/sec) and/or 'misc=(formatfiles=nn)' (files/sec).
+ * Rates are for the whole format and are divided over all slaves.
+ *
+ * Directories: instead of every OpFormat thread going round-robin through
+ * the synchronized FileAnchor.getDir() and then one thread creating a whole
+ * depth=1 tree by itself, each OpFormat thread of the anchor owns a deque of
+ * directories. A thread creates the directory at the tail of its own deque
+ * and adds its children there (depth first, so the parent directory is still
+ * warm in the file system cache); an idle thread steals from the head of an
+ * other thread's deque, which is where the large, not yet touched, subtrees
+ * are. This keeps all threads busy no matter how unbalanced the tree is.
+ *
+ * Files: the files are still created and filled by OpCreate using large
+ * sequential writes of 'fwd=format,xfersize=', but each write and each file
+ * completion is paced against the requested rates.
+ *
+ * Progress with an ETA is reported to the summary every PROGRESS seconds.
+ */
+public class FormatEngine
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private FileAnchor anchor;
+  private ConcurrentLinkedDeque <Directory>[] deques;
+  private AtomicLong pending     = new AtomicLong(0); /* Directories queued, not done */
+  private boolean    seeded      = false;
+  private boolean    file_phase  = false;
+
+  private volatile long next_report = 0;
+  private long       phase_start = 0;
+  private long       phase_base  = 0;
+
+  private static int PROGRESS = 30;
+
+  /* Pacing, shared by all anchors on this slave: */
+  private static Object pace_lock     = new Object();
+  private static double bytes_per_sec = 0;
+  private static double files_per_sec = 0;
+  private static long   pace_start    = 0;
+  private static double paced_bytes   = 0;
+  private static double paced_files   = 0;
+
+
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("formatengine");
+    if (parm != null)
+    {
+      if ("yes".startsWith(parm.toLowerCase()))
+        return true;
+      if (!"no".startsWith(parm.toLowerCase()))
+        common.failure("misc=(formatengine=%s): only 'yes' or 'no' allowed", parm);
+      return false;
+    }
+
+    return getRate("formatmb") > 0 || getRate("formatfiles") > 0;
+  }
+
+
+  private static double getRate(String keyword)
+  {
+    String parm = MiscParms.getMiscValue(keyword);
+    if (parm == null)
+      return 0;
+    if (!common.isNumeric(parm))
+      common.failure("misc=(%s=%s): numeric value expected", keyword, parm);
+    return Double.parseDouble(parm);
+  }
+
+
+  /**
+   * Called once for each format run from FwgRun.setupFormatCounters().
+   * With multiple slaves each slave gets its share of the requested rates.
+   */
+  public static void setupPacing()
+  {
+    int slaves = Math.max(1, SlaveWorker.work.slave_count);
+
+    synchronized (pace_lock)
+    {
+      bytes_per_sec = getRate("formatmb")    * 1024 * 1024 / slaves;
+      files_per_sec = getRate("formatfiles") / slaves;
+      pace_start    = 0;
+      paced_bytes   = 0;
+      paced_files   = 0;
+    }
+  }
+
+
+  public FormatEngine(FileAnchor anchor, int threads)
+  {
+    this.anchor = anchor;
+    deques      = new ConcurrentLinkedDeque[threads];
+    for (int i = 0; i < threads; i++)
+      deques[i] = new ConcurrentLinkedDeque();
+  }
+
+
+  /**
+   * Spread the depth=1 directories over all threads.
+   * This is not done in the constructor, to make sure that the directory
+   * list has been completed.
+   */
+  private synchronized void seed()
+  {
+    if (seeded)
+      return;
+
+    int next = 0;
+    Vector <Directory> dirs = anchor.getDirList();
+    for (Directory dir : dirs)
+    {
+      if (dir.getDepth() != 1)
+        continue;
+      pending.incrementAndGet();
+      deques[next++ % deques.length].addLast(dir);
+    }
+
+    phase_start = System.currentTimeMillis();
+    phase_base  = anchor.total_directories - anchor.anyMoreDirectories();
+    next_report = phase_start + PROGRESS * 1000;
+    seeded      = true;
+  }
+
+
+  /**
+   * Called by each OpFormat thread of this anchor.
+   * Returns when there are no more directories to create.
+   */
+  public void createDirectories(FwgEntry fwg, int thread_number)
+  {
+    seed();
+    int me = thread_number % deques.length;
+
+    while (!SlaveJvm.isWorkloadDone())
+    {
+      Directory dir = deques[me].pollLast();
+      if (dir == null)
+        dir = steal(me);
+
+      if (dir == null)
+      {
+        /* Others may still be adding children: */
+        if (pending.get() == 0)
+          return;
+        common.sleep_some_usecs(200);
+        continue;
+      }
+
+      /* Nobody else is working on directories during format, but be safe: */
+      if (!dir.exist())
+      {
+        while (!dir.setBusy(true));
+        if (!dir.exist() && dir.createDir())
+          fwg.blocked.count(Blocked.DIRECTORY_CREATES);
+        dir.setBusy(false);
+      }
+
+      /* Children must be added before the parent is counted as done: */
+      Directory[] children = dir.getChildren();
+      if (children != null)
+      {
+        pending.addAndGet(children.length);
+        for (Directory child : children)
+          deques[me].addLast(child);
+      }
+      pending.decrementAndGet();
+
+      if (progressDue())
+        reportProgress("Created", "directories", anchor.total_directories,
+                       anchor.total_directories - anchor.anyMoreDirectories());
+    }
+  }
+
+
+  private Directory steal(int me)
+  {
+    for (int i = 1; i < deques.length; i++)
+    {
+      Directory dir = deques[(me + i) % deques.length].pollFirst();
+      if (dir != null)
+        return dir;
+    }
+    return null;
+  }
+
+
+  /**
+   * Called from OpFormat before the first file is created.
+   */
+  public synchronized void startFilePhase()
+  {
+    if (file_phase)
+      return;
+    file_phase  = true;
+    phase_start = System.currentTimeMillis();
+    phase_base  = anchor.getFullFileCount();
+    next_report = phase_start + PROGRESS * 1000;
+  }
+
+
+  public void reportFiles()
+  {
+    if (progressDue())
+      reportProgress("Formatted", "files", anchor.getFileCount(), anchor.getFullFileCount());
+  }
+
+
+  /**
+   * Only one thread gets 'true' for each reporting interval.
+   * The unsynchronized check keeps this cheap for every directory and file.
+   */
+  private boolean progressDue()
+  {
+    long now = System.currentTimeMillis();
+    if (now < next_report)
+      return false;
+
+    synchronized (this)
+    {
+      if (now < next_report)
+        return false;
+      next_report = now + PROGRESS * 1000;
+      return true;
+    }
+  }
+
+
+  /**
+   * Report progress and ETA, using the rate observed since the start of
+   * the current phase.
+   */
+  private void reportProgress(String task, String what, long total, long done)
+  {
+    if (total == 0)
+      return;
+
+    double secs = (System.currentTimeMillis() - phase_start) / 1000.;
+    double rate = (secs > 0) ? (done - phase_base) / secs : 0;
+    String eta  = (rate > 0) ? formatEta((long) ((total - done) / rate)) : "n/a";
+
+    SlaveJvm.sendMessageToSummary("anchor=%s: %s %d of %d %s (%.2f%%); %.1f/sec; ETA %s",
+                                  anchor.getAnchorName(), task, done, total, what,
+                                  done * 100. / total, rate, eta);
+  }
+
+
+  private static String formatEta(long seconds)
+  {
+    return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+  }
+
+
+  /**
+   * Called after each format write.
+   */
+  public static void paceBytes(long bytes)
+  {
+    if (bytes_per_sec > 0)
+      pace(bytes, 0);
+  }
+
+
+  /**
+   * Called after each formatted file.
+   */
+  public static void paceFile()
+  {
+    if (files_per_sec > 0)
+      pace(0, 1);
+  }
+
+
+  /**
+   * Sleep until the amount of bytes and files done so far is no longer
+   * ahead of the requested rates.
+   */
+  private static void pace(long bytes, long files)
+  {
+    long wait_ms;
+    synchronized (pace_lock)
+    {
+      long now = System.currentTimeMillis();
+      if (pace_start == 0)
+        pace_start = now;
+
+      paced_bytes += bytes;
+      paced_files += files;
+
+      double due_ms = 0;
+      if (bytes_per_sec > 0)
+        due_ms = Math.max(due_ms, paced_bytes * 1000 / bytes_per_sec);
+      if (files_per_sec > 0)
+        due_ms = Math.max(due_ms, paced_files * 1000 / files_per_sec);
+
+      wait_ms = pace_start + (long) due_ms - now;
+    }
+
+    if (wait_ms > 0)
+      common.sleep_some(wait_ms);
+  }
+}
@@ -98,7 +98,7 @@ public class FwdStats implements java.io.Serializable
     if (start > end)
       start = timeTravel(start, end);
 
-    FwgThread thread = (FwgThread) Thread.currentThread();
+    FwgThread thread = FwgThread.current();
     thread.per_thread_stats.add(operation, end - start, 0);
   }
 
@@ -116,7 +116,7 @@ public class FwdStats implements java.io.Serializable
     if (start > end)
       start = timeTravel(start, end);
 
-    FwgThread thread = (FwgThread) Thread.currentThread();
+    FwgThread thread = FwgThread.current();
     thread.per_thread_stats.add(operation, end - start, xfersize);
 
   }
@@ -595,6 +595,7 @@ public class FwdStats implements java.io.Serializable
     Flat.put_col("Copy_resp",    copy.resp());
     Flat.put_col("Move_rate",    move.rate());
     Flat.put_col("Move_resp",    move.resp());
+    Report.writeFlatPercentiles(getTotalHistogram());
 
     if (compratio < 0)
       Flat.put_col("compratio", "n/a");
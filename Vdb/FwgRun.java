@@ -197,7 +197,7 @@ class FwgRun
           common.failure("Operation not supported (yet?): " + operation);
 
         starts++;
-        ft.start();
+        ft.startThread();
         threads_started.add(ft);
       }
 
@@ -297,10 +297,14 @@ class FwgRun
     /* sure that we can switch between mkdir, create, and write together: */
     FileAnchor[] anchors = (FileAnchor[]) anchor_map.keySet().toArray(new FileAnchor[0]);
     Integer[]    threads = (Integer[])    anchor_map.values().toArray(new Integer[0]);
+    boolean      engine  = FormatEngine.isRequested();
+    if (engine)
+      FormatEngine.setupPacing();
     for (int i = 0; i < anchors.length; i++)
     {
       anchors[i].mkdir_threads_running  = new FormatCounter(threads[i].intValue());
       anchors[i].create_threads_running = new FormatCounter(threads[i].intValue());
+      anchors[i].format_engine          = (engine) ? new FormatEngine(anchors[i], threads[i].intValue()) : null;
     }
 
   }
@@ -65,6 +65,9 @@ abstract class FwgThread extends Thread
   private   static int BLOCK_KILL = (fast_block_kill) ? 100 : 10000;
   private   static int thread_number = 0;
 
+  /* With 'misc=(fwgthreads=virtual)' the FwgThread is not the running Thread: */
+  private   static ThreadLocal <FwgThread> virtual_owner = new ThreadLocal();
+
 
 
   /**
@@ -142,6 +145,48 @@ abstract class FwgThread extends Thread
 
   }
 
+  /**
+   * Start this work loop, either as this platform thread or on a virtual
+   * thread; see VirtualThreads.
+   */
+  public void startThread()
+  {
+    if (VirtualThreads.isRequested())
+      VirtualThreads.start(getName(), new VirtualRunner(this));
+    else
+      start();
+  }
+
+
+  /**
+   * The FwgThread whose work loop is running in the current thread.
+   */
+  public static FwgThread current()
+  {
+    Thread thread = Thread.currentThread();
+    if (thread instanceof FwgThread)
+      return (FwgThread) thread;
+    return virtual_owner.get();
+  }
+
+
+  private static class VirtualRunner implements Runnable
+  {
+    private FwgThread owner;
+
+    VirtualRunner(FwgThread owner)
+    {
+      this.owner = owner;
+    }
+
+    public void run()
+    {
+      virtual_owner.set(owner);
+      owner.run();
+    }
+  }
+
+
   /**
    * Finalize, to make sure buffers are cleaned up.
    */
@@ -383,6 +428,10 @@ abstract class FwgThread extends Thread
 
     afe.writeBlock();
 
+    /* 'misc=(formatmb=nn)': */
+    if (format)
+      FormatEngine.paceBytes(afe.xfersize);
+
     /* Determine if we've done enough: */
     afe.checkEnough();
 
@@ -0,0 +1,302 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.ArrayList;
+
+
+/**
+ * Log-linear response time histogram, requested using
+ * 'misc=(percentiles=n)', where 'n' is the amount of significant digits
+ * (1-3) that must be maintained from 1 microsecond up to one hour.
+ *
+ * The value range is split in power-of-two 'buckets', and each bucket is
+ * split in a fixed amount of linear 'sub buckets', enough to keep the
+ * requested precision. The counter index for a response time is calculated
+ * from its leading zero count, a shift and an add: no searching at all.
+ *
+ * This is the same layout as used by Gil Tene's HdrHistogram, with the
+ * lowest trackable value fixed at one microsecond. The identical calculation
+ * is done in JNI (vdb.c) for SD workloads, so the counters maintained there
+ * can be copied straight into this array.
+ *
+ * Since all instances with the same precision have identical counters,
+ * accumulating interval histograms into a run total loses nothing: the
+ * percentiles of the total are as exact as those of each interval.
+ */
+public class HdrHistogram implements java.io.Serializable, Cloneable
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final long serialVersionUID = 1l;
+
+  private int    digits;
+  private int    half_magnitude;   /* log2 of half the sub bucket count     */
+  private int    half_count;       /* Half the amount of sub buckets         */
+  private long   sub_mask;         /* All sub bucket bits                    */
+  private int    lz_base;          /* Leading zero count of bucket zero      */
+  private int    length;           /* Amount of counters                     */
+  private long[] counts = null;    /* Only allocated when needed             */
+  private long   total  = 0;
+
+  public  static final long     HIGHEST     = 3600l * 1000000l;   /* one hour */
+
+  public  static final double[] PERCENTILES = { 50, 99, 99.9, 99.99};
+  public  static final String[] PCT_LABELS  = { "p50", "p99", "p99.9", "p99.99"};
+
+
+  public HdrHistogram(int digits)
+  {
+    if (digits < 1 || digits > 3)
+      common.failure("HdrHistogram: only 1-3 significant digits allowed: " + digits);
+
+    this.digits = digits;
+
+    /* Enough sub buckets to have 'digits' precision in each bucket: */
+    long largest_single_unit = 2 * (long) Math.pow(10, digits);
+    int  sub_magnitude       = (int) Math.ceil(Math.log(largest_single_unit) / Math.log(2));
+    half_magnitude           = Math.max(sub_magnitude, 1) - 1;
+
+    int sub_count = 1 << (half_magnitude + 1);
+    half_count    = sub_count / 2;
+    sub_mask      = sub_count - 1;
+    lz_base       = 64 - half_magnitude - 1;
+
+    /* How many buckets are needed to reach HIGHEST? */
+    long smallest_untrackable = sub_count;
+    int  buckets              = 1;
+    while (smallest_untrackable <= HIGHEST)
+    {
+      smallest_untrackable <<= 1;
+      buckets++;
+    }
+
+    length = (buckets + 1) * half_count;
+  }
+
+
+  /**
+   * Return the amount of significant digits requested with
+   * 'misc=(percentiles=n)', or zero when not requested.
+   */
+  public static int getRequestedDigits()
+  {
+    String parm = MiscParms.getMiscValue("percentiles");
+    if (parm == null)
+      return 0;
+    if (!common.isNumeric(parm))
+      common.failure("misc=(percentiles=%s): expecting 1, 2 or 3", parm);
+    int digits = Integer.parseInt(parm);
+    if (digits < 1 || digits > 3)
+      common.failure("misc=(percentiles=%s): expecting 1, 2 or 3", parm);
+    return digits;
+  }
+
+  public static HdrHistogram createIfRequested()
+  {
+    int digits = getRequestedDigits();
+    if (digits == 0)
+      return null;
+    return new HdrHistogram(digits);
+  }
+
+
+  public Object clone()
+  {
+    try
+    {
+      HdrHistogram hdr = (HdrHistogram) super.clone();
+      if (counts != null)
+        hdr.counts = counts.clone();
+
+      return hdr;
+    }
+    catch (Exception e)
+    {
+      common.failure(e);
+    }
+    return null;
+  }
+
+
+  public int getDigits()
+  {
+    return digits;
+  }
+  public int getHalfMagnitude()
+  {
+    return half_magnitude;
+  }
+  public int getLength()
+  {
+    return length;
+  }
+  public long getTotalCount()
+  {
+    return total;
+  }
+
+
+  /**
+   * Translate a response time to its counter index.
+   * Anything beyond HIGHEST is counted as HIGHEST.
+   */
+  public int countsIndex(long value)
+  {
+    if (value < 0)
+      value = 0;
+    else if (value > HIGHEST)
+      value = HIGHEST;
+
+    int bucket = lz_base - Long.numberOfLeadingZeros(value | sub_mask);
+    int sub    = (int) (value >>> bucket);
+    return ((bucket + 1) << half_magnitude) + (sub - half_count);
+  }
+
+
+  /**
+   * Lowest and highest response time counted in this counter index.
+   */
+  public long lowestValueAt(int index)
+  {
+    int bucket = (index >> half_magnitude) - 1;
+    int sub    = (index & (half_count - 1)) + half_count;
+    if (bucket < 0)
+    {
+      sub   -= half_count;
+      bucket = 0;
+    }
+    return (long) sub << bucket;
+  }
+  public long highestValueAt(int index)
+  {
+    int bucket = Math.max((index >> half_magnitude) - 1, 0);
+    return lowestValueAt(index) + (1l << bucket) - 1;
+  }
+
+
+  public void record(long value)
+  {
+    if (counts == null)
+      counts = new long[length];
+    counts[countsIndex(value)]++;
+    total++;
+  }
+
+
+  public void accum(HdrHistogram hdr)
+  {
+    if (hdr == null || hdr.counts == null)
+      return;
+
+    checkMatch(hdr);
+    if (counts == null)
+      counts = new long[length];
+
+    for (int i = 0; i < length; i++)
+      counts[i] += hdr.counts[i];
+    total += hdr.total;
+  }
+
+
+  public void delta(HdrHistogram nw, HdrHistogram old)
+  {
+    checkMatch(nw);
+    checkMatch(old);
+
+    counts = null;
+    total  = 0;
+    if (nw.counts == null)
+      return;
+
+    counts = nw.counts.clone();
+    total  = nw.total;
+    if (old.counts == null)
+      return;
+
+    for (int i = 0; i < length; i++)
+      counts[i] -= old.counts[i];
+    total -= old.total;
+  }
+
+
+  private void checkMatch(HdrHistogram hdr)
+  {
+    if (hdr.length != length)
+      common.failure("Unmatched HdrHistogram sizes: %d/%d", length, hdr.length);
+  }
+
+
+  /**
+   * Get a long[] array to be filled in by JNI, and store it afterwards.
+   */
+  public long[] getJniCountsArray()
+  {
+    return new long[length];
+  }
+  public void storeJniCountsArray(long[] array)
+  {
+    counts = array;
+    total  = 0;
+    for (int i = 0; i < length; i++)
+      total += counts[i];
+  }
+
+
+  /**
+   * Return the response time below which 'pct' percent of the requests fell,
+   * or -1 if there is nothing.
+   * The value returned is the highest value of the counter that was hit, so
+   * it is never lower than the true percentile.
+   */
+  public long getValueAtPercentile(double pct)
+  {
+    if (total == 0)
+      return -1;
+
+    long needed = Math.max(1, (long) (pct / 100. * total + 0.5));
+    long cumulative = 0;
+    for (int i = 0; i < length; i++)
+    {
+      cumulative += counts[i];
+      if (cumulative >= needed)
+        return highestValueAt(i);
+    }
+
+    return HIGHEST;
+  }
+
+
+  /**
+   * Percentile in milliseconds, as used for flatfile columns.
+   */
+  public double getMsAtPercentile(double pct)
+  {
+    long value = getValueAtPercentile(pct);
+    if (value < 0)
+      return 0;
+    return value / 1000.;
+  }
+
+
+  public ArrayList <String> printPercentiles()
+  {
+    ArrayList <String> output = new ArrayList(PERCENTILES.length + 2);
+    if (total == 0)
+      return output;
+
+    output.add(String.format(" Response time percentiles (ms; %d significant digits):", digits));
+    for (int i = 0; i < PERCENTILES.length; i++)
+      output.add(String.format(" %8s %12.3f", PCT_LABELS[i], getMsAtPercentile(PERCENTILES[i])));
+    output.add("");
+
+    return output;
+  }
+}
@@ -20,10 +20,12 @@ import Utils.Format;
 /**
  * Code to maintain response time histogram statistics.
  *
- * There is one thing still to do: run a separate thread that every 'n' seconds
- * sorts the bucket list, or instead, create an MRU list for the buckets.
- * May also want to remember the --last-- bucket used to possibly find a quick
- * match. However, if the list is sorted frequently that is implied.
+ * The bucket ranges are sorted and contiguous, so finding a bucket is a
+ * binary search in BucketRanges.
+ *
+ * With 'misc=(percentiles=n)' each Histogram also carries an HdrHistogram,
+ * which is maintained, accumulated and reported next to the regular buckets
+ * to provide response time percentiles.
  */
 public class Histogram implements java.io.Serializable, Cloneable
 {
@@ -35,6 +37,8 @@ public class Histogram implements java.io.Serializable, Cloneable
   private BucketRanges ranges;
   private BucketRanges sorted_ranges;
 
+  private HdrHistogram hdr;
+
   private boolean header_printed = false;
 
   private static DecimalFormat df = new DecimalFormat("#,###");
@@ -51,6 +55,8 @@ public class Histogram implements java.io.Serializable, Cloneable
     /* Create a clone of the ranges. That list may be sorted to help find */
     /* those bucket ranges that are used most quicker, saving cycles:     */
     sorted_ranges = (BucketRanges) ranges.clone();
+
+    hdr = HdrHistogram.createIfRequested();
   }
 
   public Object clone()
@@ -59,6 +65,8 @@ public class Histogram implements java.io.Serializable, Cloneable
     {
       Histogram hist = (Histogram) super.clone();
       hist.counters  = (long[]) counters.clone();
+      if (hdr != null)
+        hist.hdr = (HdrHistogram) hdr.clone();
 
       return hist;
     }
@@ -82,6 +90,8 @@ public class Histogram implements java.io.Serializable, Cloneable
   {
     int bucket = sorted_ranges.findBucket(value);
     counters[ bucket ] ++;
+    if (hdr != null)
+      hdr.record(value);
     //common.ptod("buckets[ bucket ]: " + bucket + " " + buckets[ bucket ]);
   }
 
@@ -91,6 +101,9 @@ public class Histogram implements java.io.Serializable, Cloneable
     {
       counters[i] = nw.counters[i] - old.counters[i];
     }
+
+    if (hdr != null && nw.hdr != null && old.hdr != null)
+      hdr.delta(nw.hdr, old.hdr);
   }
 
   public void accumBuckets(Histogram hist)
@@ -104,6 +117,9 @@ public class Histogram implements java.io.Serializable, Cloneable
     {
       counters[i] += hist.counters[i];
     }
+
+    if (hdr != null)
+      hdr.accum(hist.hdr);
   }
 
 
@@ -122,6 +138,15 @@ public class Histogram implements java.io.Serializable, Cloneable
   }
 
 
+  /**
+   * Percentile histogram, or null when 'misc=(percentiles=n)' is not used.
+   */
+  public HdrHistogram getHdr()
+  {
+    return hdr;
+  }
+
+
   public long[] getCounters()
   {
     return counters;
@@ -207,6 +232,9 @@ public class Histogram implements java.io.Serializable, Cloneable
 
     output.add("");
 
+    if (hdr != null)
+      output.addAll(hdr.printPercentiles());
+
     return output;
   }
 
@@ -54,6 +54,24 @@ public class IO_task extends Thread
   private UserCmd usercmd;   /* For User API. */
 
   private StreamContext stream_context = null;
+  private StreamContext.Reservation stream_reservation = null;
+
+  private IoTrace io_trace = null;   /* 'misc=(iotrace=yes)' */
+
+  private JavaIO  java_io  = null;   /* 'misc=(iobackend=java)' */
+
+  /* 'ioengine=async' fields. async_depth zero means synchronous i/o: */
+  private int       async_depth   = 0;
+  private long      async_context = 0;
+  private Cmd_entry async_cmds[];
+  private UserCmd   async_usercmds[];
+  private long      async_read_buffers[];
+  private long      async_write_buffers[];
+  private int       free_slots[];
+  private int       free_count;
+  private int       reap_slots[];
+  private long      reap_rcs[];
+  private long      async_trace_seq[];
 
 
   private ThreadMonitor tmonitor = null;
@@ -101,6 +119,7 @@ public class IO_task extends Thread
     tn.task_set_start_pending();
 
     fake_trace = Validate.showLba();
+    io_trace   = IoTrace.createIfRequested();
   }
 
 
@@ -125,6 +144,7 @@ public class IO_task extends Thread
     tn.task_set_start_pending();
 
     fake_trace = Validate.showLba();
+    io_trace   = IoTrace.createIfRequested();
   }
 
 
@@ -296,9 +316,12 @@ public class IO_task extends Thread
 
       initialize();
 
+      if (async_depth > 0)
+        runAsync();
+
       /* Process until all i/o requests have been completed: */
       int burst = 0;
-      while (true)
+      while (async_depth == 0)
       {
         try
         {
@@ -324,7 +347,10 @@ public class IO_task extends Thread
 
           /* A request to ignore the device after an i/o error? */
           if (remove_after_error && sd.sd_error_count > 0)
+          {
+            cmd_array[0].release();
             continue;
+          }
 
           // To test skip_after_io_error
           //if (remove_after_error && sd.sd_name.equals("sd1"))
@@ -339,6 +365,8 @@ public class IO_task extends Thread
           if (!processSingleIO(cmd_array[0]))
             break;
           iotime.after();
+
+          cmd_array[0].release();
         }
         catch (InterruptedException e)
         {
@@ -361,6 +389,9 @@ public class IO_task extends Thread
       /* See above! */
       Thread.interrupted();
 
+      if (io_trace != null)
+        io_trace.close();
+
       gettime.print();
       iotime.print();
 
@@ -377,6 +408,181 @@ public class IO_task extends Thread
   }
 
 
+  /**
+   * 'ioengine=async': keep up to 'async_depth' i/o's in flight from this
+   * single thread, harvesting the completions in batches.
+   *
+   * Only plain reads and writes get here (see SD_entry.checkAsyncIo()).
+   * Each slot has its own buffers; writes are done from the data pattern that
+   * was stored in the write buffer at startup, the same way that it is done
+   * for pattern files.
+   */
+  private void runAsync() throws InterruptedException
+  {
+    async_context = Native.asyncSetup(async_depth);
+    if (async_context == 0)
+      common.failure("ioengine=async: unable to create an async i/o context "+
+                     "for %d requests", async_depth);
+
+    async_cmds          = new Cmd_entry[async_depth];
+    async_usercmds      = new UserCmd[async_depth];
+    async_read_buffers  = new long[async_depth];
+    async_write_buffers = new long[async_depth];
+    free_slots          = new int[async_depth];
+    reap_slots          = new int[async_depth];
+    reap_rcs            = new long[async_depth];
+    async_trace_seq     = new long[async_depth];
+    for (int i = 0; i < async_depth; i++)
+    {
+      async_read_buffers[i] = Native.allocBuffer(allocated_buffer_size);
+      if (write_buffer != 0)
+      {
+        async_write_buffers[i] = Native.allocBuffer(allocated_buffer_size);
+        Patterns.storeStartingSdPattern(async_write_buffers[i], allocated_buffer_size);
+      }
+      free_slots[free_count++] = i;
+    }
+
+    boolean eof = false;
+    while (!SlaveJvm.isWorkloadDone())
+    {
+      /* Fill all free slots with whatever work is available right now: */
+      boolean fifo_empty = false;
+      while (!eof && free_count > 0)
+      {
+        /* Only wait for new work when there is nothing else to wait for: */
+        gettime.before();
+        if (ios_currently_active == 0)
+          get_from_fifo.getArray(cmd_array);
+        else if (get_from_fifo.getArrayNoWait(cmd_array) == 0)
+        {
+          fifo_empty = true;
+          gettime.after();
+          break;
+        }
+        tmonitor.add1();
+        gettime.after();
+
+        Cmd_entry cmd = cmd_array[0];
+        if (SlaveJvm.isWorkloadDone() || cmd == null || cmd.delta_tod == Long.MAX_VALUE)
+        {
+          eof = true;
+          break;
+        }
+
+        /* A request to ignore the device after an i/o error? */
+        if (remove_after_error && sd.sd_error_count > 0)
+        {
+          cmd.release();
+          continue;
+        }
+
+        if (cmd.sd_ptr.scsi_bus_reset != 0 || cmd.sd_ptr.scsi_lun_reset != 0)
+          cmd.sd_ptr.scsi_reset();
+
+        submitAsync(cmd);
+      }
+
+      if (ios_currently_active == 0)
+      {
+        if (eof)
+          break;
+        continue;
+      }
+
+      /* Harvest. Block only when we can not submit anything else: */
+      iotime.before();
+      reapAsync((free_count == 0 || fifo_empty || eof) ? 1 : 0);
+      iotime.after();
+    }
+
+    /* Nothing may be freed while the kernel still owns the buffers: */
+    while (ios_currently_active > 0)
+      reapAsync(1);
+
+    Native.asyncDestroy(async_context);
+    for (int i = 0; i < async_depth; i++)
+    {
+      Native.freeBuffer(allocated_buffer_size, async_read_buffers[i]);
+      if (async_write_buffers[i] != 0)
+        Native.freeBuffer(allocated_buffer_size, async_write_buffers[i]);
+    }
+  }
+
+
+  /**
+   * Start one asynchronous i/o in a free slot.
+   * If the submit itself fails JNI has already reported and counted the
+   * error, so we complete the request right away.
+   */
+  private void submitAsync(Cmd_entry cmd)
+  {
+    int slot = free_slots[--free_count];
+    async_cmds[slot] = cmd;
+
+    /* Optional user processing needed? */
+    if (cmd.cmd_wg.user_class != null)
+    {
+      async_usercmds[slot] = new UserCmd(cmd);
+      cmd.cmd_wg.user_class.preIO(async_usercmds[slot]);
+      async_usercmds[slot].updateCommand();
+      if (cmd.cmd_lba == 0 && !cmd.cmd_read_flag && !cmd.sd_ptr.canWeUseBlockZero())
+        common.failure("Attempting to read or write to lba 0");
+    }
+
+    ios_currently_active++;
+    if (io_trace != null)
+      async_trace_seq[slot] = io_trace.begin();
+    long buffer = (cmd.cmd_read_flag) ? async_read_buffers[slot] : async_write_buffers[slot];
+    long rc     = Native.asyncSubmit(async_context, slot,
+                                     cmd.sd_ptr.fhandle, cmd.cmd_lba, cmd.cmd_xfersize,
+                                     buffer, (cmd.cmd_read_flag) ? 1 : 0, cmd.jni_index);
+    if (rc != 0)
+      completeAsync(slot, rc);
+  }
+
+
+  /**
+   * Harvest completed asynchronous i/o, waiting for at least 'min_nr'.
+   */
+  private void reapAsync(int min_nr)
+  {
+    int count = Native.asyncReap(async_context, min_nr, reap_slots, reap_rcs);
+    for (int i = 0; i < count; i++)
+      completeAsync(reap_slots[i], reap_rcs[i]);
+  }
+
+
+  private void completeAsync(int slot, long rc)
+  {
+    Cmd_entry cmd = async_cmds[slot];
+    async_cmds[slot] = null;
+    free_slots[free_count++] = slot;
+    ios_currently_active--;
+
+    if (cmd.cmd_wg.user_class != null)
+    {
+      cmd.cmd_wg.user_class.postIO(async_usercmds[slot]);
+      async_usercmds[slot] = null;
+    }
+
+    /* For sequential stuff we need to keep track of i/o count: */
+    cmd.cmd_wg.subtract_io(cmd);
+
+    if (print_io_comp)
+      cmd.cmd_print("print_io_comp2");
+
+    if (io_trace != null)
+      io_trace.end(async_trace_seq[slot], cmd, rc);
+
+    /* For debugging, see ShowLba.java: */
+    if (fake_trace)
+      ShowLba.writeRecord(cmd);
+
+    cmd.release();
+  }
+
+
   /**
    * Issue a single i/o.
    *
@@ -397,7 +603,7 @@ public class IO_task extends Thread
     /* When requested, allow override of lba for sequential streaming: */
     if (stream_context != null)
     {
-      cmd.cmd_lba = stream_context.getNextSequentialLba(cmd);
+      cmd.cmd_lba = stream_context.getNextSequentialLba(cmd, stream_reservation);
       if (cmd.cmd_lba < 0)
       {
         cmd.cmd_wg.sequentials_lower();
@@ -422,6 +628,8 @@ public class IO_task extends Thread
     }
 
 
+    long trace_seq = (io_trace == null) ? 0 : io_trace.begin();
+
     /* Now go do the i/o: ('while (true)' just for break) */
     while (true)
     {
@@ -434,8 +642,20 @@ public class IO_task extends Thread
       /* Simple straight-forward read:                 */
       if (cmd.cmd_read_flag && !Validate.isRealValidate())
       {
-        rc = Native.readFile(cmd.sd_ptr.fhandle, cmd.cmd_lba,
-                             cmd.cmd_xfersize,   read_buffer, cmd.jni_index);
+        if (java_io != null)
+          rc = java_io.read(cmd);
+        else
+          rc = Native.readFile(cmd.sd_ptr.fhandle, cmd.cmd_lba,
+                               cmd.cmd_xfersize,   read_buffer, cmd.jni_index);
+        break;
+      }
+
+
+      /* 'iobackend=java': without DV or Dedup write the starting pattern. */
+      /* DV and Dedup writes go through JavaIO in patternWrite():            */
+      if (!cmd.cmd_read_flag && java_io != null && !Validate.isValidate() && !Dedup.isDedup())
+      {
+        rc = java_io.write(cmd);
         break;
       }
 
@@ -490,6 +710,9 @@ public class IO_task extends Thread
     /* Keep track of outstanding i/o to prevent interrupt during shutdown: */
     ios_currently_active--;
 
+    if (io_trace != null)
+      io_trace.end(trace_seq, cmd, rc);
+
 
     if (cmd.cmd_wg.user_class != null)
       cmd.cmd_wg.user_class.postIO(usercmd);
@@ -604,8 +827,11 @@ public class IO_task extends Thread
     /* this block only read and forget about the contents:                 */
     if (!key_map.anyDataToCompare())
     {
-      rc = Native.readFile(cmd.sd_ptr.fhandle, cmd.cmd_lba,
-                           cmd.cmd_xfersize,   read_buffer, cmd.jni_index);
+      if (java_io != null)
+        rc = java_io.read(cmd);
+      else
+        rc = Native.readFile(cmd.sd_ptr.fhandle, cmd.cmd_lba,
+                             cmd.cmd_xfersize,   read_buffer, cmd.jni_index);
       return;
     }
 
@@ -617,18 +843,7 @@ public class IO_task extends Thread
     }
 
     /* This call reads and validates 'n' key blocks: */
-    rc = Native.multiKeyReadAndValidateBlock(cmd.sd_ptr.fhandle,
-                                             data_flag | cmd.type_of_dv_read,
-                                             0,
-                                             cmd.cmd_lba,
-                                             (int) cmd.cmd_xfersize,
-                                             read_buffer,
-                                             key_map.getKeyCount(),
-                                             key_map.getKeys(),
-                                             key_map.getCompressions(),
-                                             key_map.getDedupsets(),
-                                             cmd.sd_ptr.sd_name8,
-                                             cmd.jni_index);
+    rc = multiKeyReadAndValidate(cmd);
 
     if (cmd.type_of_dv_read == Validate.FLAG_PENDING_READ && rc == 0)
     {
@@ -682,17 +897,7 @@ public class IO_task extends Thread
 
         /* Read the block again, corruptions will be thrown out by BadSector: */
         cmd.type_of_dv_read = Validate.FLAG_PENDING_REREAD;
-        rc = Native.multiKeyReadAndValidateBlock(cmd.sd_ptr.fhandle,
-                                                 data_flag | cmd.type_of_dv_read,
-                                                 0, cmd.cmd_lba,
-                                                 (int) cmd.cmd_xfersize,
-                                                 read_buffer,
-                                                 key_map.getKeyCount(),
-                                                 key_map.getKeys(),
-                                                 key_map.getCompressions(),
-                                                 key_map.getDedupsets(),
-                                                 cmd.sd_ptr.sd_name8,
-                                                 cmd.jni_index);
+        rc = multiKeyReadAndValidate(cmd);
       }
     }
 
@@ -701,6 +906,29 @@ public class IO_task extends Thread
   }
 
 
+  /**
+   * Read and validate 'n' key blocks, using JNI or 'iobackend=java'.
+   */
+  private long multiKeyReadAndValidate(Cmd_entry cmd)
+  {
+    if (java_io != null)
+      return java_io.readAndValidate(cmd, data_flag | cmd.type_of_dv_read, key_map);
+
+    return Native.multiKeyReadAndValidateBlock(cmd.sd_ptr.fhandle,
+                                               data_flag | cmd.type_of_dv_read,
+                                               0,
+                                               cmd.cmd_lba,
+                                               (int) cmd.cmd_xfersize,
+                                               read_buffer,
+                                               key_map.getKeyCount(),
+                                               key_map.getKeys(),
+                                               key_map.getCompressions(),
+                                               key_map.getDedupsets(),
+                                               cmd.sd_ptr.sd_name8,
+                                               cmd.jni_index);
+  }
+
+
 
   /**
    * Write with required data patterns, including DV.
@@ -750,21 +978,24 @@ public class IO_task extends Thread
     /* When this triggers during a write of a duplicate, nobody will notice! */
     if (!HelpDebug.doAfterCount("skipWriteAfter"))
     {
-      rc  = Native.multiKeyFillAndWriteBlock(cmd.sd_ptr.fhandle,
-                                             tod,
-                                             data_flag,               // int
-                                             0,                       // file_start_lba
-                                             cmd.cmd_lba,             // file_lba
-                                             (int) cmd.cmd_xfersize,  // data_length
-                                             key_map.pattern_lba,
-                                             key_map.pattern_length,
-                                             write_buffer,
-                                             key_map.getKeyCount(),
-                                             key_map.getKeys(),
-                                             key_map.getCompressions(),
-                                             key_map.getDedupsets(),
-                                             cmd.sd_ptr.sd_name8,
-                                             cmd.jni_index);
+      if (java_io != null)
+        rc = java_io.fillAndWrite(cmd, tod, data_flag, key_map);
+      else
+        rc = Native.multiKeyFillAndWriteBlock(cmd.sd_ptr.fhandle,
+                                              tod,
+                                              data_flag,               // int
+                                              0,                       // file_start_lba
+                                              cmd.cmd_lba,             // file_lba
+                                              (int) cmd.cmd_xfersize,  // data_length
+                                              key_map.pattern_lba,
+                                              key_map.pattern_length,
+                                              write_buffer,
+                                              key_map.getKeyCount(),
+                                              key_map.getKeys(),
+                                              key_map.getCompressions(),
+                                              key_map.getDedupsets(),
+                                              cmd.sd_ptr.sd_name8,
+                                              cmd.jni_index);
     }
 
     if (HelpDebug.doAfterCount("corruptAfterWrite"))
@@ -791,9 +1022,14 @@ public class IO_task extends Thread
   {
     return pid_and_lwp;
   }
+  public void setAsyncDepth(int depth)
+  {
+    async_depth = depth;
+  }
   public void setStreamContext(StreamContext sc, int thread)
   {
-    stream_context = sc;
+    stream_context     = sc;
+    stream_reservation = new StreamContext.Reservation();
     if (stream_context != null)
       common.ptod("StreamContext for thread=%02d; %s", thread, sc);
   }
@@ -850,6 +1086,9 @@ public class IO_task extends Thread
       Patterns.storeStartingSdPattern(write_buffer, (int) allocated_buffer_size);
     }
 
+    if (JavaIO.isRequested())
+      java_io = new JavaIO(allocated_buffer_size, write_buffer);
+
     tmonitor = new ThreadMonitor("IO_task", (sd != null) ? sd.sd_name : "shared", null);
 
     /* Communicate status of task: */
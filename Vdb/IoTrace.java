@@ -0,0 +1,402 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+import Utils.Bin;
+import Utils.Flat_record;
+import Utils.Fput;
+
+
+/**
+ * Per-i/o trace, requested using 'misc=(iotrace=yes)'.
+ *
+ * Each IO_task owns one IoTrace, so nothing is shared or locked while
+ * running. For each completed i/o a fixed size binary record is added to a
+ * buffer that is written to a per-thread file when full:
+ *
+ *   start      8  microseconds since start of run
+ *   resp       8  microseconds
+ *   lba        8
+ *   device     4  SD number, SD_entry.relative_sd_num
+ *   xfersize   4
+ *   rc         4  zero or the error number
+ *   read       1
+ *   (spare)    3
+ *
+ * Records are written in the order in which the i/o's were started. With
+ * synchronous i/o that is the completion order; with 'ioengine=async' the
+ * completed records wait in a small window until all older i/o's from the
+ * same thread have completed as well.
+ *
+ * At the end of a run all thread files of the slave are merged into one
+ * time-ordered file '<slave>.<rd>.iotrace.bin', containing Flat_record
+ * records that can be used directly as 'replay' input. Since Flat_record
+ * has no room for a return code, failed i/o's are also listed in
+ * '<slave>.<rd>.iotrace.errors.txt'.
+ */
+public class IoTrace
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int RECORD_SIZE = 40;
+  private static final int BUFFER_SIZE = RECORD_SIZE * 16384;
+
+  private String      fname;
+  private int         thread_no;
+  private FileChannel channel;
+  private ByteBuffer  buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  /* Window of i/o's started but not yet written, indexed by sequence number: */
+  private long[]      w_start = new long[16];
+  private long[]      w_resp  = new long[16];
+  private long[]      w_lba   = new long[16];
+  private int[]       w_sd    = new int[16];
+  private int[]       w_xfer  = new int[16];
+  private int[]       w_rc    = new int[16];
+  private boolean[]   w_read  = new boolean[16];
+  private boolean[]   w_done  = new boolean[16];
+  private long        head    = 0;    /* Oldest i/o not yet written */
+  private long        tail    = 0;    /* Next sequence number       */
+
+  private static long   trace_start = 0;
+  private static int    thread_count = 0;
+  private static Vector <IoTrace> traces = new Vector(64);
+
+
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("iotrace");
+    return parm != null && parm.toLowerCase().startsWith("y");
+  }
+
+
+  /**
+   * Called at the start of each run, before the IO_task threads are created.
+   */
+  public static synchronized void openTraces()
+  {
+    traces.removeAllElements();
+    thread_count = 0;
+  }
+
+
+  /**
+   * Start times are relative to the moment the IO_tasks are told to go.
+   */
+  public static void startClock()
+  {
+    trace_start = Native.get_simple_tod();
+  }
+
+
+  public static synchronized IoTrace createIfRequested()
+  {
+    if (!isRequested())
+      return null;
+
+    IoTrace trace = new IoTrace(thread_count++);
+    traces.add(trace);
+    return trace;
+  }
+
+
+  private IoTrace(int thread_no)
+  {
+    this.thread_no = thread_no;
+    fname = SlaveJvm.getSlaveLabel() + ".iotrace." + thread_no + ".tmp";
+    try
+    {
+      channel = new FileOutputStream(fname).getChannel();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * Remember the start of an i/o. The returned sequence number must be
+   * passed to end() when the i/o is complete.
+   */
+  public long begin()
+  {
+    if (tail - head == w_done.length)
+      growWindow();
+
+    int idx      = (int) (tail & (w_done.length - 1));
+    w_start[idx] = Native.get_simple_tod();
+    w_done[idx]  = false;
+    return tail++;
+  }
+
+
+  public void end(long seqno, Cmd_entry cmd, long rc)
+  {
+    int idx     = (int) (seqno & (w_done.length - 1));
+    w_resp[idx] = Native.get_simple_tod() - w_start[idx];
+    w_read[idx] = cmd.cmd_read_flag;
+    w_rc[idx]   = (int) rc;
+    w_xfer[idx] = (int) cmd.cmd_xfersize;
+    if (!Validate.sdConcatenation())
+    {
+      w_sd[idx]  = cmd.sd_ptr.relative_sd_num;
+      w_lba[idx] = cmd.cmd_lba;
+    }
+    else
+    {
+      w_sd[idx]  = cmd.concat_sd.relative_sd_num;
+      w_lba[idx] = cmd.concat_lba;
+    }
+    w_done[idx] = true;
+
+    /* Write everything that no longer waits for an older i/o: */
+    while (head < tail)
+    {
+      int h = (int) (head & (w_done.length - 1));
+      if (!w_done[h])
+        break;
+      writeRecord(h);
+      head++;
+    }
+  }
+
+
+  private void writeRecord(int idx)
+  {
+    if (buffer.remaining() < RECORD_SIZE)
+      flush();
+
+    buffer.putLong(w_start[idx] - trace_start);
+    buffer.putLong(w_resp[idx]);
+    buffer.putLong(w_lba[idx]);
+    buffer.putInt(w_sd[idx]);
+    buffer.putInt(w_xfer[idx]);
+    buffer.putInt(w_rc[idx]);
+    buffer.put((byte) (w_read[idx] ? 1 : 0));
+    buffer.put((byte) 0);
+    buffer.putShort((short) 0);
+  }
+
+
+  /**
+   * An i/o that takes very long can hold up a lot of later completions.
+   * Just make the window bigger.
+   */
+  private void growWindow()
+  {
+    int old_len = w_done.length;
+    int new_len = old_len * 2;
+
+    long[]    start = new long[new_len];
+    long[]    resp  = new long[new_len];
+    long[]    lba   = new long[new_len];
+    int[]     sd    = new int[new_len];
+    int[]     xfer  = new int[new_len];
+    int[]     rc    = new int[new_len];
+    boolean[] read  = new boolean[new_len];
+    boolean[] done  = new boolean[new_len];
+
+    for (long seq = head; seq < tail; seq++)
+    {
+      int from  = (int) (seq & (old_len - 1));
+      int to    = (int) (seq & (new_len - 1));
+      start[to] = w_start[from];
+      resp[to]  = w_resp[from];
+      lba[to]   = w_lba[from];
+      sd[to]    = w_sd[from];
+      xfer[to]  = w_xfer[from];
+      rc[to]    = w_rc[from];
+      read[to]  = w_read[from];
+      done[to]  = w_done[from];
+    }
+
+    w_start = start;
+    w_resp  = resp;
+    w_lba   = lba;
+    w_sd    = sd;
+    w_xfer  = xfer;
+    w_rc    = rc;
+    w_read  = read;
+    w_done  = done;
+  }
+
+
+  private void flush()
+  {
+    try
+    {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      buffer.clear();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * Called by the IO_task when it is done. I/O's that never completed
+   * (there should be none) are not written.
+   */
+  public void close()
+  {
+    try
+    {
+      flush();
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * Merge all thread files for this run into one time-ordered replay file.
+   */
+  public static synchronized void mergeTraces(String rd_name)
+  {
+    if (traces.size() == 0)
+      return;
+
+    String prefix = SlaveJvm.getSlaveLabel() + "." + rd_name + ".iotrace";
+    Bin    bin    = new Bin(prefix + ".bin");
+    Fput   errors = null;
+    long   count  = 0;
+    bin.output();
+
+    PriorityQueue <TraceReader> queue = new PriorityQueue <TraceReader> (Math.max(1, traces.size()));
+    for (IoTrace trace : traces)
+    {
+      TraceReader reader = new TraceReader(trace);
+      if (reader.next())
+        queue.add(reader);
+    }
+
+    Flat_record flat = new Flat_record();
+    while (queue.size() > 0)
+    {
+      TraceReader reader = queue.poll();
+
+      flat.start    = reader.start;
+      flat.resp     = reader.resp;
+      flat.device   = reader.device;
+      flat.lba      = reader.lba;
+      flat.xfersize = reader.xfersize;
+      flat.pid      = reader.thread_no;
+      flat.flag     = reader.read;
+      flat.export(bin);
+      count++;
+
+      if (reader.rc != 0)
+      {
+        if (errors == null)
+          errors = new Fput(prefix + ".errors.txt");
+        errors.println("start: %d resp: %d sd: %d lba: %d xfersize: %d read: %d rc: %d",
+                       reader.start, reader.resp, reader.device, reader.lba,
+                       reader.xfersize, reader.read, reader.rc);
+      }
+
+      if (reader.next())
+        queue.add(reader);
+    }
+
+    bin.close();
+    if (errors != null)
+      errors.close();
+
+    for (IoTrace trace : traces)
+      new File(trace.fname).delete();
+    traces.removeAllElements();
+
+    common.ptod("IoTrace: %,d i/o records written to %s.bin", count, prefix);
+  }
+
+
+  /**
+   * Sequential reader for one thread file, ordered by start time.
+   */
+  private static class TraceReader implements Comparable <TraceReader>
+  {
+    private DataInputStream input;
+    private int  thread_no;
+
+    long start;
+    long resp;
+    long lba;
+    int  device;
+    int  xfersize;
+    int  rc;
+    byte read;
+
+    TraceReader(IoTrace trace)
+    {
+      thread_no = trace.thread_no;
+      try
+      {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(trace.fname), 65536));
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+    }
+
+    boolean next()
+    {
+      try
+      {
+        start    = input.readLong();
+        resp     = input.readLong();
+        lba      = input.readLong();
+        device   = input.readInt();
+        xfersize = input.readInt();
+        rc       = input.readInt();
+        read     = input.readByte();
+        input.skipBytes(3);
+        return true;
+      }
+      catch (EOFException e)
+      {
+        try
+        {
+          input.close();
+        }
+        catch (IOException e2)
+        {
+        }
+        return false;
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+      return false;
+    }
+
+    public int compareTo(TraceReader other)
+    {
+      if (start != other.start)
+        return (start < other.start) ? -1 : 1;
+      return thread_no - other.thread_no;
+    }
+  }
+}
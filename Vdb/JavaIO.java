@@ -0,0 +1,495 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+
+/**
+ * Pure java i/o backend, requested using 'misc=(iobackend=java)'.
+ * The default is 'iobackend=jni'.
+ *
+ * Plain reads and writes issued by IO_task are done using positional
+ * FileChannel reads and writes from a direct ByteBuffer owned by the
+ * IO_task, instead of through Native.readFile() and Native.writeFile().
+ * Writes are done from the SD's starting data pattern, copied once from the
+ * native write buffer, the same way that it is done for 'ioengine=async'.
+ *
+ * The SD is still opened (and closed) using JNI, so all open flags, file
+ * handle bookkeeping and error reporting stay the same; the FileChannel is
+ * opened next to it on first use and closed when the JNI handle is closed.
+ * It is opened for read and write when the SD is opened for write, so that
+ * the channel, once opened, never changes while other IO_tasks use it.
+ * When the SD or RD asks for 'openflags=o_direct' or 'directio' the channel
+ * is opened using ExtendedOpenOption.DIRECT. All buffers therefore are
+ * aligned to ALIGN bytes, the same as the valloc() buffers used by JNI.
+ *
+ * Since the JNI statistics are maintained inside of JNI, this class keeps
+ * the same statistics, calculated the same way, for each JNI index.
+ * WG_stats adds them to what it gets from JNI, so reporting does not know
+ * the difference.
+ *
+ * There is no JVM-wide lock on the data path: each instance remembers the
+ * channel and statistics of the last i/o, and only on a change looks them
+ * up in a ConcurrentHashMap.
+ *
+ * Data Validation and Dedup data patterns are still created and compared by
+ * JNI, but directly in the ByteBuffers of this class: the i/o itself is done
+ * here, and JNI is called with the native address of the buffer: to only
+ * fill it, and with a negative handle (no read) to compare it.
+ */
+public class JavaIO
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final long EIO   = 5;
+  private static final int  ALIGN = 4096;
+
+  private ByteBuffer read_buffer;
+  private ByteBuffer write_buffer;
+  private long       read_address;
+  private long       write_address;
+  private boolean    starting_pattern = false;
+
+  /* Channel and statistics used by the last i/o of this IO_task: */
+  private FileChannel  last_channel = null;
+  private long         last_fhandle = 0;
+  private JavaIoStats  last_stats   = null;
+  private int          last_index   = -1;
+  private ConcurrentHashMap <Integer, JavaIoStats> last_stats_map = null;
+
+  private static ConcurrentHashMap <Long, FileChannel> channel_map = new ConcurrentHashMap(64);
+
+  /* Replaced at the start of each run: */
+  private static volatile ConcurrentHashMap <Integer, JavaIoStats> stats_map = new ConcurrentHashMap(64);
+
+
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("iobackend");
+    if (parm == null)
+      return false;
+    if (parm.equalsIgnoreCase("java"))
+      return true;
+    if (!parm.equalsIgnoreCase("jni"))
+      common.failure("misc=(iobackend=%s): only 'java' or 'jni' allowed", parm);
+    return false;
+  }
+
+
+  /**
+   * Buffers for one IO_task. The native write buffer, if any, already
+   * contains the data pattern to be written.
+   */
+  public JavaIO(int buffer_size, long native_write_buffer)
+  {
+    read_buffer   = alignedBuffer(buffer_size);
+    write_buffer  = alignedBuffer(buffer_size);
+    read_address  = Native.getDirectBufferAddress(read_buffer);
+    write_address = Native.getDirectBufferAddress(write_buffer);
+
+    if (native_write_buffer != 0)
+    {
+      int[] pattern = new int[buffer_size / 4];
+      Native.buffer_to_array(pattern, native_write_buffer, pattern.length * 4);
+      IntBuffer ib = write_buffer.asIntBuffer();
+      ib.put(pattern);
+      starting_pattern = true;
+    }
+  }
+
+
+  /**
+   * A direct buffer of at least 'size' bytes, starting and ending on an
+   * ALIGN boundary as required for direct i/o.
+   */
+  private static ByteBuffer alignedBuffer(int size)
+  {
+    int rounded = (size + ALIGN - 1) / ALIGN * ALIGN;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(rounded + ALIGN).alignedSlice(ALIGN);
+    return buffer.order(ByteOrder.nativeOrder());
+  }
+
+
+  public long read(Cmd_entry cmd)
+  {
+    return doIO(cmd, true, read_buffer, 0);
+  }
+
+  public long write(Cmd_entry cmd)
+  {
+    if (!starting_pattern)
+      common.failure("JavaIO: no write buffer available for sd=%s", cmd.sd_ptr.sd_name);
+    return doIO(cmd, false, write_buffer, 0);
+  }
+
+
+  /**
+   * Data Validation and Dedup: read the block and have JNI compare it.
+   * The negative file handle tells JNI that the data already has been read,
+   * and jni_index -1 that the statistics have been done here.
+   */
+  public long readAndValidate(Cmd_entry cmd, int data_flag, KeyMap key_map)
+  {
+    long rc = doIO(cmd, true, read_buffer, 0);
+    if (rc != 0)
+      return rc;
+
+    return Native.multiKeyReadAndValidateBlock(-cmd.sd_ptr.fhandle,
+                                               data_flag,
+                                               0,
+                                               cmd.cmd_lba,
+                                               (int) cmd.cmd_xfersize,
+                                               read_address,
+                                               key_map.getKeyCount(),
+                                               key_map.getKeys(),
+                                               key_map.getCompressions(),
+                                               key_map.getDedupsets(),
+                                               cmd.sd_ptr.sd_name8,
+                                               -1);
+  }
+
+
+  /**
+   * Data Validation and Dedup: have JNI fill the write buffer with the
+   * data patterns for all key blocks, then write it.
+   */
+  public long fillAndWrite(Cmd_entry cmd, long tod, int data_flag, KeyMap key_map)
+  {
+    int offset = Native.multiKeyFillBlock(cmd.sd_ptr.fhandle,
+                                          tod,
+                                          data_flag,
+                                          0,
+                                          cmd.cmd_lba,
+                                          (int) cmd.cmd_xfersize,
+                                          key_map.pattern_lba,
+                                          key_map.pattern_length,
+                                          write_address,
+                                          key_map.getKeyCount(),
+                                          key_map.getKeys(),
+                                          key_map.getCompressions(),
+                                          key_map.getDedupsets(),
+                                          cmd.sd_ptr.sd_name8);
+
+    return doIO(cmd, false, write_buffer, offset);
+  }
+
+
+  private long doIO(Cmd_entry cmd, boolean read, ByteBuffer buffer, int offset)
+  {
+    JavaIoStats st  = getStats(cmd.jni_index);
+    long        tod = st.start();
+    long        rc  = 0;
+
+    buffer.clear();
+    buffer.limit(offset + (int) cmd.cmd_xfersize);
+    buffer.position(offset);
+    try
+    {
+      FileChannel channel = getChannel(cmd.sd_ptr);
+      long        pos     = cmd.cmd_lba;
+      while (buffer.hasRemaining())
+      {
+        int bytes = (read) ? channel.read(buffer, pos) : channel.write(buffer, pos);
+        if (bytes < 0)
+        {
+          rc = EIO;
+          break;
+        }
+        pos += bytes;
+      }
+    }
+    catch (IOException e)
+    {
+      common.ptod("JavaIO: " + e.toString());
+      rc = EIO;
+    }
+
+    if (rc != 0)
+      IO_task.io_error_report(read ? 1 : 0, cmd.sd_ptr.fhandle, cmd.cmd_lba,
+                              cmd.cmd_xfersize, rc,
+                              (read ? read_address : write_address) + offset);
+
+    st.end(read, (int) cmd.cmd_xfersize, tod, rc);
+    return rc;
+  }
+
+
+  /**
+   * The FileChannel for the SD's JNI file handle.
+   * Though the handle of the last i/o normally is the same, an IO_task may be
+   * shared by several SDs, and a closed SD may be reopened with the same
+   * handle.
+   */
+  private FileChannel getChannel(SD_entry sd) throws IOException
+  {
+    if (last_channel != null && last_fhandle == sd.fhandle && last_channel.isOpen())
+      return last_channel;
+
+    FileChannel channel = channel_map.get(sd.fhandle);
+    if (channel == null)
+    {
+      channel = openChannel(sd);
+      FileChannel other = channel_map.putIfAbsent(sd.fhandle, channel);
+      if (other != null)
+      {
+        channel.close();
+        channel = other;
+      }
+    }
+
+    last_channel = channel;
+    last_fhandle = sd.fhandle;
+    return channel;
+  }
+
+
+  /**
+   * Open the channel for reads, or for reads and writes when the SD is
+   * opened for write.
+   */
+  private static FileChannel openChannel(SD_entry sd) throws IOException
+  {
+    Path    path  = Paths.get(File_handles.getFileName(sd.fhandle));
+    boolean write = sd.open_for_write;
+
+    OpenOption[] options;
+    if (sd.getActiveOpenFlags().isDirectIO())
+      options = (write) ?
+                new OpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT } :
+                new OpenOption[] { StandardOpenOption.READ, ExtendedOpenOption.DIRECT };
+    else
+      options = (write) ?
+                new OpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE } :
+                new OpenOption[] { StandardOpenOption.READ };
+
+    try
+    {
+      return FileChannel.open(path, options);
+    }
+    catch (UnsupportedOperationException e)
+    {
+      common.failure("JavaIO: direct i/o is not supported for sd=%s,lun=%s: %s",
+                     sd.sd_name, path, e.toString());
+      return null;
+    }
+  }
+
+
+  /**
+   * Called from Native.closeFile().
+   */
+  public static void closeChannel(long fhandle)
+  {
+    FileChannel channel = channel_map.remove(fhandle);
+    if (channel == null)
+      return;
+
+    try
+    {
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      common.ptod("JavaIO.closeChannel(): " + e.toString());
+    }
+  }
+
+
+  /**
+   * The statistics for this JNI index, remembered for the next i/o.
+   */
+  private JavaIoStats getStats(int jni_index)
+  {
+    ConcurrentHashMap <Integer, JavaIoStats> map = stats_map;
+    if (last_stats != null && last_index == jni_index && last_stats_map == map)
+      return last_stats;
+
+    JavaIoStats st = map.get(jni_index);
+    if (st == null)
+    {
+      st = new JavaIoStats();
+      JavaIoStats other = map.putIfAbsent(jni_index, st);
+      if (other != null)
+        st = other;
+    }
+
+    last_stats     = st;
+    last_index     = jni_index;
+    last_stats_map = map;
+    return st;
+  }
+
+
+  /**
+   * Called at the start of each run, together with the JNI shared memory
+   * allocation that clears the JNI statistics.
+   */
+  public static void resetStatistics()
+  {
+    stats_map = new ConcurrentHashMap(64);
+  }
+
+
+  /**
+   * Add the cumulative java statistics for this JNI index to what was
+   * obtained from JNI.
+   */
+  public static void addStatistics(int jni_index, SdStats sd_stats)
+  {
+    JavaIoStats st = stats_map.get(jni_index);
+    if (st != null)
+      st.addTo(sd_stats, true);
+  }
+
+  /**
+   * The same, without starting new maximums; see MetricsSampler.
+   */
+  public static void peekStatistics(int jni_index, SdStats sd_stats)
+  {
+    JavaIoStats st = stats_map.get(jni_index);
+    if (st != null)
+      st.addTo(sd_stats, false);
+  }
+
+  public static void addHistograms(int jni_index, SdStats sd_stats)
+  {
+    JavaIoStats st = stats_map.get(jni_index);
+    if (st != null)
+      st.addHistograms(sd_stats);
+  }
+
+
+
+  /**
+   * The same statistics as maintained by vdb.c start_workload_stats() and
+   * update_workload_stats().
+   */
+  private static class JavaIoStats
+  {
+    long reads;
+    long r_resptime;
+    long r_resptime2;
+    long r_max;
+    long r_bytes;
+    long r_errors;
+    long writes;
+    long w_resptime;
+    long w_resptime2;
+    long w_max;
+    long w_bytes;
+    long w_errors;
+    long rtime;
+    long rlentime;
+    long rlastupdate;
+    long q_depth;
+
+    Histogram read_hist  = new Histogram("default");
+    Histogram write_hist = new Histogram("default");
+
+
+    synchronized long start()
+    {
+      /* kstat_runq_enter */
+      long tod   = Native.get_simple_tod();
+      long delta = tod - rlastupdate;
+      rlastupdate = tod;
+      if (q_depth++ != 0)
+      {
+        rlentime += delta * (q_depth - 1);
+        rtime    += delta;
+      }
+      return tod;
+    }
+
+
+    synchronized void end(boolean read, int xfersize, long tod1, long rc)
+    {
+      long tod      = Native.get_simple_tod();
+      long response = Math.max(0, tod - tod1);
+      long square   = response * response;
+
+      if (read)
+      {
+        r_max        = Math.max(r_max, response);
+        r_resptime  += response;
+        r_resptime2 += square;
+        r_bytes     += xfersize;
+        reads++;
+        if (rc != 0) r_errors++;
+        read_hist.addToBucket(response);
+      }
+      else
+      {
+        w_max        = Math.max(w_max, response);
+        w_resptime  += response;
+        w_resptime2 += square;
+        w_bytes     += xfersize;
+        writes++;
+        if (rc != 0) w_errors++;
+        write_hist.addToBucket(response);
+      }
+
+      /* kstat_runq_exit */
+      long delta  = tod - rlastupdate;
+      rlastupdate = tod;
+      rlentime   += delta * q_depth--;
+      rtime      += delta;
+    }
+
+
+    synchronized void addTo(SdStats sd, boolean new_interval)
+    {
+      /* Close off the interval, as done by close_workload_interval(): */
+      long tod   = Native.get_simple_tod();
+      long delta = tod - rlastupdate;
+      rlastupdate = tod;
+      if (q_depth != 0)
+      {
+        rlentime += delta * q_depth;
+        rtime    += delta;
+      }
+
+      sd.reads       += reads;
+      sd.r_resptime  += r_resptime;
+      sd.r_resptime2 += r_resptime2;
+      sd.r_max        = Math.max(sd.r_max, r_max);
+      sd.r_bytes     += r_bytes;
+      sd.r_errors    += r_errors;
+      sd.writes      += writes;
+      sd.w_resptime  += w_resptime;
+      sd.w_resptime2 += w_resptime2;
+      sd.w_max        = Math.max(sd.w_max, w_max);
+      sd.w_bytes     += w_bytes;
+      sd.w_errors    += w_errors;
+      sd.rtime       += rtime;
+      sd.rlentime    += rlentime;
+
+      /* Maximum response times are per interval: */
+      if (new_interval)
+        r_max = w_max = 0;
+    }
+
+
+    synchronized void addHistograms(SdStats sd)
+    {
+      sd.read_hist .accumBuckets(read_hist);
+      sd.write_hist.accumBuckets(write_hist);
+    }
+  }
+}
@@ -11,6 +11,7 @@ package Vdb;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 import Utils.Format;
 
@@ -112,6 +113,23 @@ public class Jnl_entry
   private long   journal_max;
   private HashMap <Long, Integer> pending_writes = null;
 
+  /* Group commit ('journal=group'): journal records are staged in a batch   */
+  /* at their relative file position and written by the JournalWriter.       */
+  /* The JournalWriter swaps the staged batch with the spare one and writes  */
+  /* it without the Jnl_entry lock, so staging continues during the write.   */
+  /* write_lock is held during every batch write, and is always obtained     */
+  /* while holding the Jnl_entry lock, so batches are written in order.      */
+  private JournalWriter writer        = null;
+  private int[]  batch_array          = null;
+  private int[]  spare_array          = null;
+  private long   batch_buffer         = 0;
+  private ReentrantLock write_lock    = new ReentrantLock();
+  private long   batch_offset         = 0;   /* File offset of first record   */
+  private int    batch_records        = 0;   /* 512-byte records in the batch */
+  private long   staged_seq           = 0;   /* Last staged journal update    */
+  private long   committed_seq        = 0;   /* Last update written to disk   */
+  private static final int BATCH_RECORDS = 64;
+
   /* Note: these values can be overridden to allow for a larger journal entry */
   /* size, containing a timestamp.                                            */
   /* A journal created with this will have array[7] set in the MAP header.    */
@@ -203,6 +221,15 @@ public class Jnl_entry
 
     /* Open the journal and map files here (use 'fast' access): */
     openFiles(true);
+
+    if (Validate.isJournalGroupCommit())
+    {
+      batch_array  = new int[ BATCH_RECORDS * 512 / 4 ];
+      spare_array  = new int[ BATCH_RECORDS * 512 / 4 ];
+      batch_buffer = Native.allocBuffer(BATCH_RECORDS * 512);
+      writer       = new JournalWriter(this);
+      writer.start();
+    }
   }
 
 
@@ -244,6 +271,7 @@ public class Jnl_entry
       Jnl_entry jnl = map.journal;
       if (jnl != null)
       {
+        jnl.stopWriter();
         File_handles.remove(jnl.jnl_handle);
         File_handles.remove(jnl.map_handle);
         Native.closeFile(jnl.jnl_handle);
@@ -484,10 +512,14 @@ public class Jnl_entry
   }
 
 
-  public void dumpOneMap(DV_map map)
+  public synchronized void dumpOneMap(DV_map map)
   {
+    /* Anything still staged must be on disk before the map is rewritten: */
+    writeBatch();
+
     /* Locking is needed to allow dumping after 'max_journal': */
-    synchronized (map)
+    map.lockAllStripes();
+    try
     {
       /* Remember when: */
       dump_journal_tod = System.currentTimeMillis();
@@ -510,6 +542,10 @@ public class Jnl_entry
       /* For the next go-around our index must start clean again: */
       jnl_index = 0;
     }
+    finally
+    {
+      map.unlockAllStripes();
+    }
   }
 
 
@@ -605,6 +641,12 @@ public class Jnl_entry
     /* No EOF record needed?: */
     if (jnl_index < JNL_ENTRIES)
     {
+      if (writer != null)
+      {
+        stageRecords(1);
+        return;
+      }
+
       /* It turns out that each time I copy 1024bytes, not 512! */
       /* It turns out that each time I copy 1024bytes, not 512! */
       /* It turns out that each time I copy 1024bytes, not 512! */
@@ -620,8 +662,13 @@ public class Jnl_entry
       jnl_array[128+2] = (int) jnl_offset / 512;
       jnl_array[128+3] = (int) dump_journal_tod;
 
-      Native.arrayToBuffer(jnl_array, jnl_native_buffer);
-      jnl_write(jnl_handle, jnl_offset, 1024, jnl_native_buffer);
+      if (writer != null)
+        stageRecords(2);
+      else
+      {
+        Native.arrayToBuffer(jnl_array, jnl_native_buffer);
+        jnl_write(jnl_handle, jnl_offset, 1024, jnl_native_buffer);
+      }
 
       jnl_offset += 512;
       jnl_index   = 0;
@@ -640,8 +687,17 @@ public class Jnl_entry
    * KeyMap.key_block_size)
    *
    * When the key is zero it implies an AFTER image.
+   *
+   * With group commit the returned value must be passed to waitForCommit()
+   * after the journal lock has been released.
    */
-  public synchronized void writeJournalEntry(int key, long key_block, boolean last)
+  public synchronized long writeJournalEntry(int key, long key_block, boolean last)
+  {
+    addJournalEntry(key, key_block, last);
+    return staged_seq;
+  }
+
+  private void addJournalEntry(int key, long key_block, boolean last)
   {
     if (jnl_index == JNL_ENTRIES)
       common.failure("Invalid jnl_index: " + jnl_index);
@@ -720,7 +776,160 @@ public class Jnl_entry
     {
       long    block      = blocks[i];
       boolean last_block = (i == blocks.length - 1);
-      writeJournalEntry(pending_writes.get(block) | 0x80000000, block, last_block);
+      addJournalEntry(pending_writes.get(block) | 0x80000000, block, last_block);
+    }
+  }
+
+
+  /**
+   * Copy the current journal record, and for a full record also its EOF
+   * record, into the batch at its position relative to the batch start.
+   * A partial record is staged again each time it grows, overlaying the
+   * previous copy, just like it is rewritten in the file without group commit.
+   */
+  private void stageRecords(int records)
+  {
+    /* Batch full, or not contiguous (only after a map dump)? Write it now: */
+    if (batch_records > 0)
+    {
+      long slot = (jnl_offset - batch_offset) / 512;
+      if (slot < 0 || slot + records > BATCH_RECORDS)
+        writeBatch();
+    }
+
+    if (batch_records == 0)
+      batch_offset = jnl_offset;
+
+    int slot = (int) ((jnl_offset - batch_offset) / 512);
+    System.arraycopy(jnl_array, 0, batch_array, slot * 128, records * 128);
+    batch_records = Math.max(batch_records, slot + records);
+
+    staged_seq++;
+    notifyAll();
+  }
+
+
+  /**
+   * Write all staged records with one write, after any batch that the
+   * JournalWriter is still writing.
+   * Must be called while holding the Jnl_entry lock; used when the batch is
+   * full, before a map dump, and at the end.
+   */
+  private void writeBatch()
+  {
+    if (batch_records == 0)
+      return;
+
+    write_lock.lock();
+    try
+    {
+      Native.arrayToBuffer(batch_array, batch_buffer, batch_records * 512);
+      jnl_write(jnl_handle, batch_offset, batch_records * 512, batch_buffer);
+    }
+    finally
+    {
+      write_lock.unlock();
+    }
+
+    batch_records = 0;
+    committed_seq = staged_seq;
+    notifyAll();
+  }
+
+
+  /**
+   * Called by the JournalWriter: wait for something to be staged, take it
+   * out of the way of the stagers, and write it without holding the
+   * Jnl_entry lock. Whoever stages entries in the mean time will be part of
+   * the next batch.
+   */
+  void writeNextBatch() throws InterruptedException
+  {
+    int[] array;
+    long  offset;
+    int   records;
+    long  seq;
+
+    synchronized (this)
+    {
+      while (batch_records == 0)
+        wait();
+
+      /* Obtained before the lock is released, so no other write can go first: */
+      write_lock.lock();
+
+      array         = batch_array;
+      offset        = batch_offset;
+      records       = batch_records;
+      seq           = staged_seq;
+      batch_array   = spare_array;
+      spare_array   = null;
+      batch_records = 0;
+    }
+
+    try
+    {
+      Native.arrayToBuffer(array, batch_buffer, records * 512);
+      jnl_write(jnl_handle, offset, records * 512, batch_buffer);
+    }
+    finally
+    {
+      write_lock.unlock();
+    }
+
+    synchronized (this)
+    {
+      spare_array   = array;
+      committed_seq = Math.max(committed_seq, seq);
+      notifyAll();
+    }
+  }
+
+
+  /**
+   * Wait until the journal update returned by writeJournalEntry() is on disk.
+   * Without group commit this returns immediately.
+   *
+   * An interrupt here can not just return: the caller would then write its
+   * data block before the journal entry describing it is on disk.
+   */
+  public synchronized void waitForCommit(long seq)
+  {
+    try
+    {
+      while (committed_seq < seq)
+        wait();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      common.failure("Interrupted while waiting for journal commit of sequence %d", seq);
+    }
+  }
+
+
+  /**
+   * Write what is left and terminate the JournalWriter.
+   */
+  public synchronized void stopWriter()
+  {
+    if (writer == null)
+      return;
+
+    writeBatch();
+    writer.interrupt();
+    writer = null;
+
+    /* The JournalWriter may still be busy with its last write: */
+    write_lock.lock();
+    try
+    {
+      Native.freeBuffer(BATCH_RECORDS * 512, batch_buffer);
+      batch_buffer = 0;
+    }
+    finally
+    {
+      write_lock.unlock();
     }
   }
 
@@ -0,0 +1,53 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+
+/**
+ * Group commit thread for one journal, used with 'journal=group'.
+ *
+ * Writers no longer do their own synchronous journal write. They stage their
+ * entries in Jnl_entry and then wait until this thread has written the batch
+ * containing their entry. All entries staged while the previous batch was
+ * being written are written together with one (synchronous) write.
+ */
+public class JournalWriter extends Thread
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private Jnl_entry jnl;
+
+  public JournalWriter(Jnl_entry jnl)
+  {
+    this.jnl = jnl;
+    setName("JournalWriter " + jnl.jnl_file_name);
+    setDaemon(true);
+  }
+
+
+  public void run()
+  {
+    try
+    {
+      while (true)
+        jnl.writeNextBatch();
+    }
+
+    /* Interrupt is done by Jnl_entry.stopWriter() after the last batch: */
+    catch (InterruptedException e)
+    {
+    }
+
+    catch (Throwable t)
+    {
+      common.abnormal_term(t);
+    }
+  }
+}
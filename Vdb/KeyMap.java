@@ -277,7 +277,10 @@ public class KeyMap
 
       sum_of_keys = 0;
 
-      synchronized (dv_map)
+      long first_lba = file_start_lba + file_lba;
+      long last_lba  = first_lba + (key_count - 1) * key_block_size;
+      dv_map.lockRange(first_lba, last_lba);
+      try
       {
         for (int i = 0; i < key_count; i++)
         {
@@ -313,6 +316,10 @@ public class KeyMap
           }
         }
       }
+      finally
+      {
+        dv_map.unlockRange(first_lba, last_lba);
+      }
     }
     catch (Exception e)
     {
@@ -509,7 +516,10 @@ public class KeyMap
     if (!Validate.isRealValidate() && !Validate.isValidateForDedup())
       common.failure("Invalid call for Key manipulation");
 
-    synchronized (dv_map)
+    long first_lba = file_start_lba + file_lba;
+    long last_lba  = first_lba + (key_count - 1) * key_block_size;
+    dv_map.lockRange(first_lba, last_lba);
+    try
     {
       // Problem!!!! ????
       // if the first key block of this Data block is NOT in error, but a
@@ -553,6 +563,10 @@ public class KeyMap
           dv_map.dv_set(lba, DV_map.DV_ERROR);
       }
     }
+    finally
+    {
+      dv_map.unlockRange(first_lba, last_lba);
+    }
   }
 
   public void markDataBlockBad(DV_map dvmap, long data_lba)
@@ -736,6 +750,7 @@ public class KeyMap
     if (Validate.isMapOnly()) // || format)
       return;
 
+    long commit = 0;
     synchronized (dv_map.journal)
     {
       for (int i = 0; i < key_count; i++)
@@ -745,10 +760,13 @@ public class KeyMap
         if (key_map[i] == 0)
           common.failure("writeBeforeJournalImage trying to write a zero key");
 
-        dv_map.journal.writeJournalEntry(key_map[i], block, (i + 1) == key_count);
+        commit = dv_map.journal.writeJournalEntry(key_map[i], block, (i + 1) == key_count);
       }
     }
 
+    /* With 'journal=group' the before image must be on disk before the write: */
+    dv_map.journal.waitForCommit(commit);
+
     HelpDebug.abortAfterCount("writeBeforeJournalImage");
   }
 
@@ -764,15 +782,17 @@ public class KeyMap
 
     HelpDebug.abortAfterCount("writeAfterJournalImage");
 
+    long commit = 0;
     synchronized (dv_map.journal)
     {
       for (int i = 0; i < key_count; i++)
       {
         long lba   = file_start_lba + file_lba;
         long block = (lba / key_block_size + i);
-        dv_map.journal.writeJournalEntry(0, block, (i + 1) == key_count);
+        commit = dv_map.journal.writeJournalEntry(0, block, (i + 1) == key_count);
       }
     }
+    dv_map.journal.waitForCommit(commit);
   }
 
 
@@ -126,7 +126,7 @@ public class MapFile extends Thread
   public static MapFile[] openOldFile(String jnl_dir_name, String fname, long total_len)
   {
     /* See how many maps we need: */
-    int count = (int) (total_len + MAX_BYTES - 1);
+    int count = (int) ((total_len + MAX_BYTES - 1) / MAX_BYTES);
     MapFile[] maps = new MapFile[ count ];
 
     for (int map = 0; map < count; map++)
@@ -145,13 +145,13 @@ public class MapFile extends Thread
       if (file_map.get(fullname) != null)
         common.failure("Map file still open: " + fullname);
 
-      MapFile mf  = new MapFile();
+      MapFile mf = maps[ map ] = new MapFile();
       try
       {
         mf.filename     = fullname;
         mf.bytes_in_map = bytes_to_get;
-        mf.bbuffer      = new RandomAccessFile(mf.filename, "rw").getChannel().
-                          map(FileChannel.MapMode.READ_WRITE, 0, mf.bytes_in_map);
+        mf.channel      = new RandomAccessFile(mf.filename, "rw").getChannel();
+        mf.bbuffer      = mf.channel.map(FileChannel.MapMode.READ_WRITE, 0, mf.bytes_in_map);
         file_map.put(mf.filename, mf);
       }
 
@@ -179,6 +179,30 @@ public class MapFile extends Thread
     return ret;
   }
 
+  /**
+   * Two and four byte entries, used by Timestamp.
+   */
+  public void put2(int index, int val)
+  {
+    bbuffer.putShort(index, (short) val);
+  }
+  public int get2(int index)
+  {
+    return bbuffer.getShort(index) & 0xffff;
+  }
+  public void put4(int index, int val)
+  {
+    bbuffer.putInt(index, val);
+  }
+  public int get4(int index)
+  {
+    return bbuffer.getInt(index);
+  }
+  public void put8(int index, long val)
+  {
+    bbuffer.putLong(index, val);
+  }
+
   public long get8(int index)
   {
     try
@@ -220,6 +244,15 @@ public class MapFile extends Thread
   }
 
 
+  /**
+   * Is there an old map that openOldFile() can use?
+   */
+  public static boolean oldFileExists(String jnl_dir_name, String fname)
+  {
+    return new File(createMapFileName(jnl_dir_name, fname, 0)).exists();
+  }
+
+
   /**
    * Determine what the map's file name will be.
    *
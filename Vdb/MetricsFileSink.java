@@ -0,0 +1,62 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+
+
+/**
+ * 'misc=(metricsfile=yes|name)': line protocol file.
+ * A relative file name is placed in the output directory.
+ * Each sample is flushed, so the file can be followed while running.
+ */
+class MetricsFileSink extends MetricsSink
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private PrintWriter pw;
+  private File        file;
+
+
+  MetricsFileSink(String parm)
+  {
+    if (parm.equalsIgnoreCase("yes"))
+      parm = "metrics.lp";
+
+    file = new File(parm);
+    if (!file.isAbsolute())
+      file = new File(Vdbmain.output_dir, parm);
+
+    try
+    {
+      pw = new PrintWriter(new BufferedWriter(new FileWriter(file), 64*1024));
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+
+    common.ptod("Line protocol metrics: " + file.getAbsolutePath());
+  }
+
+
+  protected void publish(String slave, String rd, MetricsSample sample)
+  {
+    for (String line : lineProtocol(slave, rd, sample))
+      pw.println(line);
+    pw.flush();
+  }
+
+
+  protected void close()
+  {
+    pw.close();
+  }
+}
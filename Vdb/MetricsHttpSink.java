@@ -0,0 +1,297 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.*;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+
+/**
+ * 'misc=(metricsport=nnnn)': Prometheus text format, served by the master
+ * on http://master:nnnn/metrics.
+ *
+ * Prometheus scrapes far less often than the samples come in, so for each
+ * slave and SD or FSD this exposes the most recent sample, the run's
+ * cumulative counters, and the highest sample response time and percentiles
+ * seen since the previous scrape. The last ones are what make a stall of a
+ * few milliseconds visible at a one second (or longer) scrape interval.
+ */
+class MetricsHttpSink extends MetricsSink implements Runnable
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private ServerSocket server;
+  private Thread       thread;
+  private volatile boolean closing = false;
+
+  private LinkedHashMap <String, Series> series = new LinkedHashMap(64);
+
+
+  private static class Series
+  {
+    String              labels;
+    MetricsSample.Entry last;
+    long                usecs;
+    long                ops;
+    long                reads;
+    long                writes;
+    long                r_bytes;
+    long                w_bytes;
+    double              max_resp = 0;
+    double[]            max_pct  = null;
+  }
+
+
+  MetricsHttpSink(String parm)
+  {
+    if (!common.isNumeric(parm))
+      common.failure("misc=(metricsport=%s): numeric port number expected", parm);
+
+    try
+    {
+      server = new ServerSocket(Integer.parseInt(parm));
+    }
+    catch (IOException e)
+    {
+      common.failure("misc=(metricsport=%s): %s", parm, e.toString());
+    }
+
+    thread = new Thread(this, "MetricsHttpSink");
+    thread.setDaemon(true);
+    thread.start();
+
+    common.ptod("Prometheus metrics on http://%s:%s/metrics", common.getCurrentIP(), parm);
+  }
+
+
+  protected synchronized void publish(String slave, String rd, MetricsSample sample)
+  {
+    String type = (sample.fsd) ? "fsd" : "sd";
+    for (MetricsSample.Entry entry : sample.entries)
+    {
+      String key = slave + " " + type + " " + entry.name;
+      Series ser = series.get(key);
+      if (ser == null)
+      {
+        ser        = new Series();
+        ser.labels = String.format("slave=\"%s\",%s=\"%s\"", slave, type, entry.name);
+        series.put(key, ser);
+      }
+
+      ser.last     = entry;
+      ser.usecs    = sample.usecs;
+      ser.ops     += entry.ops;
+      ser.reads   += entry.reads;
+      ser.writes  += entry.writes;
+      ser.r_bytes += entry.r_bytes;
+      ser.w_bytes += entry.w_bytes;
+      ser.max_resp = Math.max(ser.max_resp, entry.resp());
+
+      if (entry.pct != null)
+      {
+        if (ser.max_pct == null)
+          ser.max_pct = new double[entry.pct.length];
+        for (int i = 0; i < entry.pct.length; i++)
+          ser.max_pct[i] = Math.max(ser.max_pct[i], entry.pct[i]);
+      }
+    }
+  }
+
+
+  public void run()
+  {
+    while (!closing)
+    {
+      Socket socket = null;
+      try
+      {
+        socket = server.accept();
+        socket.setSoTimeout(5000);
+        answer(socket);
+      }
+      catch (IOException e)
+      {
+        if (!closing)
+          common.ptod("MetricsHttpSink: " + e.toString());
+      }
+      finally
+      {
+        try
+        {
+          if (socket != null)
+            socket.close();
+        }
+        catch (IOException e)
+        {
+        }
+      }
+    }
+  }
+
+
+  private void answer(Socket socket) throws IOException
+  {
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    String request = in.readLine();
+    if (request == null)
+      return;
+
+    /* Skip the headers: */
+    String line;
+    while ((line = in.readLine()) != null && line.length() > 0);
+
+    String[] split  = request.split(" +");
+    String   status = "200 OK";
+    String   body;
+    if (split.length < 2 || !split[0].equals("GET"))
+    {
+      status = "405 Method Not Allowed";
+      body   = "";
+    }
+    else if (!split[1].equals("/metrics") && !split[1].equals("/"))
+    {
+      status = "404 Not Found";
+      body   = "";
+    }
+    else
+      body = scrape();
+
+    byte[] data = body.getBytes("UTF-8");
+    OutputStream out = socket.getOutputStream();
+    out.write(("HTTP/1.0 " + status + "\r\n" +
+               "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n" +
+               "Content-Length: " + data.length + "\r\n" +
+               "Connection: close\r\n\r\n").getBytes("UTF-8"));
+    out.write(data);
+    out.flush();
+  }
+
+
+  /**
+   * Create the Prometheus text output, and start new maximums.
+   */
+  private synchronized String scrape()
+  {
+    StringBuilder sb = new StringBuilder(4096);
+
+    header(sb, "vdbench_rate", "gauge", "Operations per second during the last sample");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_rate", ser.labels, ser.last.rate(ser.usecs));
+
+    header(sb, "vdbench_mb_per_second", "gauge", "MB per second during the last sample");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_mb_per_second", ser.labels, ser.last.mbps(ser.usecs));
+
+    header(sb, "vdbench_response_ms", "gauge", "Average response time during the last sample");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_response_ms", ser.labels, ser.last.resp());
+
+    header(sb, "vdbench_read_response_ms", "gauge", "Average read response time during the last sample");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_read_response_ms", ser.labels, ser.last.readResp());
+
+    header(sb, "vdbench_write_response_ms", "gauge", "Average write response time during the last sample");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_write_response_ms", ser.labels, ser.last.writeResp());
+
+    header(sb, "vdbench_queue_depth", "gauge", "Average queue depth during the last sample (SD only)");
+    for (Series ser : series.values())
+    {
+      if (ser.labels.contains(",sd="))
+        metric(sb, "vdbench_queue_depth", ser.labels, ser.last.qdepth);
+    }
+
+    header(sb, "vdbench_max_sample_response_ms", "gauge", "Highest sample average response time since the previous scrape");
+    for (Series ser : series.values())
+    {
+      metric(sb, "vdbench_max_sample_response_ms", ser.labels, ser.max_resp);
+      ser.max_resp = 0;
+    }
+
+    header(sb, "vdbench_max_sample_percentile_ms", "gauge", "Highest sample response time percentile since the previous scrape");
+    for (Series ser : series.values())
+    {
+      if (ser.max_pct == null)
+        continue;
+      for (int i = 0; i < ser.max_pct.length; i++)
+      {
+        String labels = ser.labels + String.format(",quantile=\"%s\"", quantile(i));
+        metric(sb, "vdbench_max_sample_percentile_ms", labels, ser.max_pct[i]);
+        ser.max_pct[i] = 0;
+      }
+    }
+
+    header(sb, "vdbench_operations_total", "counter", "Operations since the start of Vdbench");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_operations_total", ser.labels, ser.ops);
+
+    header(sb, "vdbench_reads_total", "counter", "Reads since the start of Vdbench");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_reads_total", ser.labels, ser.reads);
+
+    header(sb, "vdbench_writes_total", "counter", "Writes since the start of Vdbench");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_writes_total", ser.labels, ser.writes);
+
+    header(sb, "vdbench_read_bytes_total", "counter", "Bytes read since the start of Vdbench");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_read_bytes_total", ser.labels, ser.r_bytes);
+
+    header(sb, "vdbench_write_bytes_total", "counter", "Bytes written since the start of Vdbench");
+    for (Series ser : series.values())
+      metric(sb, "vdbench_write_bytes_total", ser.labels, ser.w_bytes);
+
+    return sb.toString();
+  }
+
+
+  /**
+   * PERCENTILES[i] as a fraction, without binary rounding noise.
+   */
+  private static String quantile(int i)
+  {
+    return new BigDecimal(Double.toString(HdrHistogram.PERCENTILES[i]))
+           .movePointLeft(2).stripTrailingZeros().toPlainString();
+  }
+
+
+  private static void header(StringBuilder sb, String name, String type, String help)
+  {
+    sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+    sb.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+  }
+
+  private static void metric(StringBuilder sb, String name, String labels, double value)
+  {
+    sb.append(name).append("{").append(labels).append("} ");
+    sb.append(String.format(Locale.ROOT, "%.3f", value)).append("\n");
+  }
+
+  private static void metric(StringBuilder sb, String name, String labels, long value)
+  {
+    sb.append(name).append("{").append(labels).append("} ").append(value).append("\n");
+  }
+
+
+  protected void close()
+  {
+    closing = true;
+    try
+    {
+      server.close();
+    }
+    catch (IOException e)
+    {
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.Serializable;
+
+
+/**
+ * One MetricsSampler sample: the delta statistics of each SD or FSD on one
+ * slave for the last 'misc=(metricsinterval=)' milliseconds.
+ * Created on the slave, published on the master by MetricsSink.
+ */
+public class MetricsSample implements Serializable
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+  private static final long serialVersionUID = 1l;
+
+  public long     tod;        /* System.currentTimeMillis() at end of sample */
+  public long     usecs;      /* Duration of the sample                      */
+  public boolean  fsd;        /* 'sd' or 'fsd' entries                       */
+  public Entry[]  entries;
+
+
+  public static class Entry implements Serializable
+  {
+    private static final long serialVersionUID = 1l;
+
+    public String   name;
+    public long     reads;
+    public long     writes;
+    public long     r_bytes;
+    public long     w_bytes;
+    public long     r_resp;     /* usecs */
+    public long     w_resp;
+    public long     ops;        /* All operations, including reads and writes */
+    public long     resp;
+    public double   qdepth;     /* SD only */
+    public double[] pct = null; /* HdrHistogram.PERCENTILES, in ms            */
+
+
+    public Entry(String name)
+    {
+      this.name = name;
+    }
+
+    public double rate(long usecs)
+    {
+      return (usecs > 0) ? ops * 1000000. / usecs : 0;
+    }
+    public double mbps(long usecs)
+    {
+      return (usecs > 0) ? (r_bytes + w_bytes) * 1000000. / usecs / 1048576. : 0;
+    }
+    public double resp()
+    {
+      return (ops > 0) ? resp / 1000. / ops : 0;
+    }
+    public double readResp()
+    {
+      return (reads > 0) ? r_resp / 1000. / reads : 0;
+    }
+    public double writeResp()
+    {
+      return (writes > 0) ? w_resp / 1000. / writes : 0;
+    }
+  }
+}
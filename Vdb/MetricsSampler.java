@@ -0,0 +1,406 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+
+/**
+ * Sub-second sampling of SD and FSD statistics on a slave, active when any
+ * MetricsSink has been requested.
+ *
+ * The regular reporting interval ('interval=') stays in whole seconds: the
+ * html reports, flatfile, warmup, elapsed time checks and the master/slave
+ * statistics exchange all depend on it. Next to it this thread takes a
+ * sample every 'misc=(metricsinterval=ms)' milliseconds (default 100, at
+ * least 10) and sends the delta statistics of each SD or FSD to the master.
+ *
+ * SD statistics are taken from JNI using peek_statistics_snapshot(), which
+ * takes no locks and does not start new maximums, so the regular intervals
+ * are not disturbed. FSD statistics are read from each FwgThread's counters
+ * without locking, the same way CollectSlaveStats does.
+ *
+ * With 'misc=(percentiles=n)' each sample also contains the percentiles of
+ * the response times within the sample.
+ */
+class MetricsSampler extends Thread
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static MetricsSampler sampler = null;
+
+  private long             interval_ms;
+  private boolean          fsd;
+  private int              digits;
+  private volatile boolean stop = false;
+
+  private String[]         names;
+  private MetricsSample.Entry[] old_totals = null;
+  private HdrHistogram[]   old_hdrs      = null;
+  private long             old_tod;
+
+  /* SD only: */
+  private JniIndex[]       jnis;
+  private int[]            jni_indexes;
+  private int[]            jni_names;
+  private long[]           snapshot;
+
+  /* Make sure you synchronize this with SNAPSHOT_LONGS in vdbjni.h!!! */
+  private static final int SNAPSHOT_LONGS = 16;
+
+
+  public static long getInterval()
+  {
+    String parm = MiscParms.getMiscValue("metricsinterval");
+    if (parm == null)
+      return 100;
+    if (!common.isNumeric(parm))
+      common.failure("misc=(metricsinterval=%s): numeric value in milliseconds expected", parm);
+    long ms = Long.parseLong(parm);
+    if (ms < 10)
+      common.failure("misc=(metricsinterval=%s): minimum is 10 milliseconds", parm);
+    return ms;
+  }
+
+
+  /**
+   * Called after all work has been started.
+   */
+  public static void startSampler(Work work)
+  {
+    if (!MetricsSink.isRequested())
+      return;
+
+    sampler = new MetricsSampler(work);
+    sampler.start();
+  }
+
+  /**
+   * Called when the workload is done.
+   */
+  public static void stopSampler()
+  {
+    if (sampler == null)
+      return;
+
+    sampler.stop = true;
+    sampler.interrupt();
+    try
+    {
+      sampler.join();
+    }
+    catch (InterruptedException e)
+    {
+    }
+    sampler = null;
+  }
+
+
+  private MetricsSampler(Work work)
+  {
+    setName("MetricsSampler");
+    setDaemon(true);
+
+    interval_ms = getInterval();
+    fsd         = work.wgs_for_slave == null;
+    digits      = HdrHistogram.getRequestedDigits();
+
+    if (!fsd)
+      setupSds(work);
+  }
+
+
+  /**
+   * All JNI indexes, and which SD each one belongs to.
+   */
+  private void setupSds(Work work)
+  {
+    ArrayList <JniIndex>   list = new ArrayList(64);
+    HashMap <String, Integer> map = new HashMap(64);
+    ArrayList <String>     sds  = new ArrayList(64);
+    for (WG_entry wg : work.wgs_for_slave)
+      list.addAll(wg.jni_index_list);
+
+    jnis        = list.toArray(new JniIndex[0]);
+    jni_indexes = new int[jnis.length];
+    jni_names   = new int[jnis.length];
+    snapshot    = new long[jnis.length * SNAPSHOT_LONGS];
+    for (int i = 0; i < jnis.length; i++)
+    {
+      Integer idx = map.get(jnis[i].sd_name);
+      if (idx == null)
+      {
+        map.put(jnis[i].sd_name, idx = sds.size());
+        sds.add(jnis[i].sd_name);
+      }
+      jni_indexes[i] = jnis[i].jni_index;
+      jni_names[i]   = idx;
+    }
+    names = sds.toArray(new String[0]);
+  }
+
+
+  public void run()
+  {
+    try
+    {
+      old_tod       = Native.get_simple_tod();
+      long next_tod = System.currentTimeMillis() + interval_ms;
+
+      while (!stop)
+      {
+        long wait = next_tod - System.currentTimeMillis();
+        if (wait > 0)
+          common.sleep_some(wait);
+        if (stop)
+          break;
+
+        /* Don't try to catch up after a stall; that is what we want to see: */
+        next_tod = Math.max(next_tod + interval_ms, System.currentTimeMillis());
+
+        long tod = Native.get_simple_tod();
+        MetricsSample.Entry[] totals;
+        HdrHistogram[]        hdrs   = null;
+        if (fsd)
+        {
+          Vector threads = FwgRun.getThreads();
+          if (threads == null)
+            continue;
+          if (names == null)
+            names = getFsdNames(threads);
+          totals = new MetricsSample.Entry[names.length];
+          if (digits > 0)
+            hdrs = new HdrHistogram[names.length];
+          getFsdTotals(threads, totals, hdrs);
+        }
+        else
+        {
+          totals = new MetricsSample.Entry[names.length];
+          if (digits > 0)
+            hdrs = new HdrHistogram[names.length];
+          try
+          {
+            getSdTotals(tod, totals, hdrs);
+          }
+          catch (UnsatisfiedLinkError e)
+          {
+            common.ptod("JNI peek_statistics_snapshot() not available; metrics sampling stopped.");
+            break;
+          }
+        }
+
+        if (old_totals != null)
+          sendSample(tod, totals, hdrs);
+
+        old_totals = totals;
+        old_hdrs   = hdrs;
+        old_tod    = tod;
+      }
+    }
+    catch (Exception e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * Cumulative statistics per SD.
+   */
+  private void getSdTotals(long                  tod,
+                           MetricsSample.Entry[] totals,
+                           HdrHistogram[]        hdrs)
+  {
+    Native.peek_statistics_snapshot(jni_indexes, jnis.length, snapshot);
+
+    SdStats sd = new SdStats();
+    long[] read_counts  = null;
+    long[] write_counts = null;
+    HdrHistogram tmp    = null;
+    if (hdrs != null)
+    {
+      tmp          = new HdrHistogram(digits);
+      read_counts  = tmp.getJniCountsArray();
+      write_counts = tmp.getJniCountsArray();
+    }
+
+    for (int i = 0; i < names.length; i++)
+    {
+      totals[i] = new MetricsSample.Entry(names[i]);
+      if (hdrs != null)
+        hdrs[i] = new HdrHistogram(digits);
+    }
+
+    for (int i = 0; i < jnis.length; i++)
+    {
+      int o = i * SNAPSHOT_LONGS;
+      sd.reads       = snapshot[ o + 0  ];
+      sd.r_resptime  = snapshot[ o + 1  ];
+      sd.r_bytes     = snapshot[ o + 4  ];
+      sd.writes      = snapshot[ o + 6  ];
+      sd.w_resptime  = snapshot[ o + 7  ];
+      sd.w_bytes     = snapshot[ o + 10 ];
+      sd.rlentime    = snapshot[ o + 13 ];
+
+      /* Close off the interval, as done by close_workload_interval(): */
+      long rlastupdate = snapshot[ o + 14 ];
+      long q_depth     = snapshot[ o + 15 ];
+      if (q_depth != 0 && tod > rlastupdate)
+        sd.rlentime += (tod - rlastupdate) * q_depth;
+
+      /* i/o done by 'misc=(iobackend=java)' is not known to JNI: */
+      JavaIO.peekStatistics(jni_indexes[i], sd);
+
+      MetricsSample.Entry total = totals[jni_names[i]];
+      total.reads   += sd.reads;
+      total.writes  += sd.writes;
+      total.r_bytes += sd.r_bytes;
+      total.w_bytes += sd.w_bytes;
+      total.r_resp  += sd.r_resptime;
+      total.w_resp  += sd.w_resptime;
+      total.ops     += sd.reads + sd.writes;
+      total.resp    += sd.r_resptime + sd.w_resptime;
+      total.qdepth  += sd.rlentime;
+
+      if (hdrs != null)
+      {
+        Native.get_hdr_histogram(jni_indexes[i], read_counts, write_counts);
+        tmp.storeJniCountsArray(read_counts);
+        hdrs[jni_names[i]].accum(tmp);
+        tmp.storeJniCountsArray(write_counts);
+        hdrs[jni_names[i]].accum(tmp);
+      }
+    }
+  }
+
+
+  private String[] getFsdNames(Vector threads)
+  {
+    ArrayList <String> fsds = new ArrayList(16);
+    for (int i = 0; i < threads.size(); i++)
+    {
+      FwgThread thread = (FwgThread) threads.elementAt(i);
+      if (!fsds.contains(thread.fwg.fsd_name))
+        fsds.add(thread.fwg.fsd_name);
+    }
+    return fsds.toArray(new String[0]);
+  }
+
+
+  /**
+   * Cumulative statistics per FSD.
+   */
+  private void getFsdTotals(Vector                threads,
+                            MetricsSample.Entry[] totals,
+                            HdrHistogram[]        hdrs)
+  {
+    for (int i = 0; i < names.length; i++)
+    {
+      totals[i] = new MetricsSample.Entry(names[i]);
+      if (hdrs != null)
+        hdrs[i] = new HdrHistogram(digits);
+    }
+
+    for (int i = 0; i < threads.size(); i++)
+    {
+      FwgThread thread = (FwgThread) threads.elementAt(i);
+      FwdStats  st     = thread.per_thread_stats;
+      int       idx    = indexOf(thread.fwg.fsd_name);
+      if (idx < 0)
+        continue;
+
+      MetricsSample.Entry total = totals[idx];
+      total.reads   += st.read.operations;
+      total.writes  += st.write.operations;
+      total.r_bytes += st.getTotalBytesRead();
+      total.w_bytes += st.getTotalBytesWritten();
+      total.r_resp  += st.read.response;
+      total.w_resp  += st.write.response;
+
+      FwdCounter[] counters = { st.read,   st.write,   st.mkdir,  st.create,
+                                st.getattr, st.setattr, st.access, st.open,
+                                st.close,  st.copy,    st.move,   st.delete,
+                                st.rmdir};
+      for (FwdCounter counter : counters)
+      {
+        total.ops  += counter.operations;
+        total.resp += counter.response;
+        if (hdrs != null)
+          hdrs[idx].accum(counter.getHistogram().getHdr());
+      }
+    }
+  }
+
+
+  private int indexOf(String name)
+  {
+    for (int i = 0; i < names.length; i++)
+    {
+      if (names[i].equals(name))
+        return i;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Turn the cumulative statistics into the delta for this sample and
+   * send them to the master.
+   */
+  private void sendSample(long                  tod,
+                          MetricsSample.Entry[] totals,
+                          HdrHistogram[]        hdrs)
+  {
+    MetricsSample sample = new MetricsSample();
+    sample.tod     = System.currentTimeMillis();
+    sample.usecs   = tod - old_tod;
+    sample.fsd     = fsd;
+    sample.entries = new MetricsSample.Entry[totals.length];
+
+    if (sample.usecs <= 0)
+      return;
+
+    for (int i = 0; i < totals.length; i++)
+    {
+      MetricsSample.Entry nw  = totals[i];
+      MetricsSample.Entry old = old_totals[i];
+      MetricsSample.Entry dlt = new MetricsSample.Entry(nw.name);
+
+      dlt.reads   = nw.reads   - old.reads;
+      dlt.writes  = nw.writes  - old.writes;
+      dlt.r_bytes = nw.r_bytes - old.r_bytes;
+      dlt.w_bytes = nw.w_bytes - old.w_bytes;
+      dlt.r_resp  = nw.r_resp  - old.r_resp;
+      dlt.w_resp  = nw.w_resp  - old.w_resp;
+      dlt.ops     = nw.ops     - old.ops;
+      dlt.resp    = nw.resp    - old.resp;
+      if (!fsd)
+        dlt.qdepth = (nw.qdepth - old.qdepth) / sample.usecs;
+
+      if (hdrs != null)
+      {
+        HdrHistogram hdr = new HdrHistogram(digits);
+        hdr.delta(hdrs[i], old_hdrs[i]);
+        if (hdr.getTotalCount() > 0)
+        {
+          dlt.pct = new double[HdrHistogram.PERCENTILES.length];
+          for (int p = 0; p < dlt.pct.length; p++)
+            dlt.pct[p] = hdr.getMsAtPercentile(HdrHistogram.PERCENTILES[p]);
+        }
+      }
+
+      sample.entries[i] = dlt;
+    }
+
+    SlaveJvm.sendMessageToMaster(SocketMessage.METRICS_SAMPLE, sample);
+  }
+}
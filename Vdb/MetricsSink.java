@@ -0,0 +1,148 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+
+/**
+ * Streaming destination on the master for the sub-second samples taken by
+ * MetricsSampler on each slave. Sinks are requested using:
+ *
+ * - 'misc=(metricsfile=yes|name)': line protocol file, default 'metrics.lp'
+ *   in the output directory.
+ * - 'misc=(metricsudp=host:port)': the same lines as UDP datagrams, e.g.
+ *   for a Telegraf or InfluxDB socket listener.
+ * - 'misc=(metricsport=nnnn)': Prometheus text format on
+ *   http://master:nnnn/metrics.
+ *
+ * 'misc=(metricsinterval=ms)' sets the sample interval, default 100ms.
+ *
+ * A new sink only needs to extend this class and be added to openSinks().
+ */
+public abstract class MetricsSink
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static ArrayList <MetricsSink> sinks = new ArrayList(4);
+
+
+  /**
+   * Publish one sample received from a slave.
+   */
+  protected abstract void publish(String slave, String rd, MetricsSample sample);
+
+  protected void close()
+  {
+  }
+
+
+  public static boolean isRequested()
+  {
+    return MiscParms.getMiscValue("metricsfile") != null ||
+           MiscParms.getMiscValue("metricsudp")  != null ||
+           MiscParms.getMiscValue("metricsport") != null;
+  }
+
+
+  /**
+   * Called once on the master after all parameters have been read.
+   */
+  public static void openSinks()
+  {
+    if (!isRequested())
+      return;
+
+    /* Validate it here instead of on each slave: */
+    long interval = MetricsSampler.getInterval();
+
+    String parm;
+    if ((parm = MiscParms.getMiscValue("metricsfile")) != null)
+      sinks.add(new MetricsFileSink(parm));
+    if ((parm = MiscParms.getMiscValue("metricsudp")) != null)
+      sinks.add(new MetricsUdpSink(parm));
+    if ((parm = MiscParms.getMiscValue("metricsport")) != null)
+      sinks.add(new MetricsHttpSink(parm));
+
+    common.ptod("Streaming metrics every %d milliseconds.", interval);
+  }
+
+
+  /**
+   * Called from SlaveOnMaster for each METRICS_SAMPLE message.
+   */
+  public static void publishAll(String slave, MetricsSample sample)
+  {
+    String rd = (RD_entry.next_rd == null) ? "" : RD_entry.next_rd.rd_name;
+    synchronized (sinks)
+    {
+      for (MetricsSink sink : sinks)
+        sink.publish(slave, rd, sample);
+    }
+  }
+
+
+  public static void closeSinks()
+  {
+    synchronized (sinks)
+    {
+      for (MetricsSink sink : sinks)
+        sink.close();
+      sinks.clear();
+    }
+  }
+
+
+  /**
+   * One InfluxDB line protocol line per SD or FSD, timestamp in nanoseconds.
+   */
+  protected static ArrayList <String> lineProtocol(String slave, String rd, MetricsSample sample)
+  {
+    ArrayList <String> lines = new ArrayList(sample.entries.length);
+    String             type  = (sample.fsd) ? "fsd" : "sd";
+
+    for (MetricsSample.Entry entry : sample.entries)
+    {
+      StringBuilder line = new StringBuilder(256);
+      line.append("vdbench");
+      line.append(",rd=").append(escape(rd));
+      line.append(",slave=").append(escape(slave));
+      line.append(",").append(type).append("=").append(escape(entry.name));
+
+      line.append(String.format(Locale.ROOT, " rate=%.3f,mbps=%.3f,resp=%.3f,read_resp=%.3f,write_resp=%.3f",
+                                entry.rate(sample.usecs), entry.mbps(sample.usecs),
+                                entry.resp(), entry.readResp(), entry.writeResp()));
+      line.append(String.format(Locale.ROOT, ",reads=%di,writes=%di,ops=%di,usecs=%di",
+                                entry.reads, entry.writes, entry.ops, sample.usecs));
+      if (!sample.fsd)
+        line.append(String.format(Locale.ROOT, ",qdepth=%.3f", entry.qdepth));
+
+      if (entry.pct != null)
+      {
+        for (int i = 0; i < entry.pct.length; i++)
+          line.append(String.format(Locale.ROOT, ",%s=%.3f", HdrHistogram.PCT_LABELS[i], entry.pct[i]));
+      }
+
+      line.append(" ").append(sample.tod * 1000000);
+      lines.add(line.toString());
+    }
+
+    return lines;
+  }
+
+
+  private static String escape(String tag)
+  {
+    if (tag.length() == 0)
+      return "-";
+    return tag.replace(",", "\\,").replace("=", "\\=").replace(" ", "\\ ");
+  }
+}
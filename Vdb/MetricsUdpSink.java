@@ -0,0 +1,94 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.IOException;
+import java.net.*;
+
+
+/**
+ * 'misc=(metricsudp=host:port)': line protocol lines sent as UDP datagrams.
+ * Lines are packed into datagrams of at most MAX_DATAGRAM bytes, a line is
+ * never split. A lost datagram or a listener that is not there is never
+ * reported as an error, but a summary of send failures is given at the end.
+ */
+class MetricsUdpSink extends MetricsSink
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private DatagramSocket    socket;
+  private InetSocketAddress address;
+  private long              failures = 0;
+
+  private static int MAX_DATAGRAM = 1400;
+
+
+  MetricsUdpSink(String parm)
+  {
+    String[] split = parm.split(":");
+    if (split.length != 2 || !common.isNumeric(split[1]))
+      common.failure("misc=(metricsudp=%s): expecting 'host:port'", parm);
+
+    try
+    {
+      address = new InetSocketAddress(split[0], Integer.parseInt(split[1]));
+      if (address.isUnresolved())
+        common.failure("misc=(metricsudp=%s): unknown host", parm);
+      socket  = new DatagramSocket();
+    }
+    catch (SocketException e)
+    {
+      common.failure(e);
+    }
+
+    common.ptod("Line protocol metrics to udp://%s", parm);
+  }
+
+
+  protected void publish(String slave, String rd, MetricsSample sample)
+  {
+    StringBuilder packet = new StringBuilder(MAX_DATAGRAM);
+    for (String line : lineProtocol(slave, rd, sample))
+    {
+      if (packet.length() > 0 && packet.length() + line.length() + 1 > MAX_DATAGRAM)
+      {
+        send(packet);
+        packet.setLength(0);
+      }
+      packet.append(line).append('\n');
+    }
+
+    if (packet.length() > 0)
+      send(packet);
+  }
+
+
+  private void send(StringBuilder packet)
+  {
+    byte[] data = packet.toString().getBytes();
+    try
+    {
+      socket.send(new DatagramPacket(data, data.length, address));
+    }
+    catch (IOException e)
+    {
+      if (failures++ == 0)
+        common.ptod("MetricsUdpSink: " + e.toString());
+    }
+  }
+
+
+  protected void close()
+  {
+    socket.close();
+    if (failures > 0)
+      common.ptod("MetricsUdpSink: %d datagrams could not be sent to %s", failures, address);
+  }
+}
@@ -356,6 +356,24 @@ public class MiscParms
     return null;
   }
 
+  /**
+   * Return the value of a 'keyword=value' pair coded anywhere inside of
+   * 'misc=(...)', or null if it is not there.
+   */
+  public static String getMiscValue(String keyword)
+  {
+    for (String[] array : miscellaneous)
+    {
+      for (String parm : array)
+      {
+        String[] split = parm.trim().split("=");
+        if (split.length == 2 && split[0].equalsIgnoreCase(keyword))
+          return split[1];
+      }
+    }
+    return null;
+  }
+
   /**
    *
    * loop=nn parameter.
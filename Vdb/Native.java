@@ -10,6 +10,7 @@ package Vdb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 
 import Utils.Format;
 
@@ -135,6 +136,7 @@ public class Native
         common.failure("Failed call to directio: " + Errno.xlate_errno(rc));
     }
 
+    JavaIO.closeChannel(fhandle);
     long rc = closefile(fhandle);
 
     if (rc != 0)
@@ -217,6 +219,18 @@ public class Native
     return rc;
   }
 
+  /**
+   * Linux only: asynchronous i/o for 'ioengine=async'.
+   * asyncSubmit() starts one i/o in a context slot, asyncReap() harvests
+   * completions, returning slot numbers and return codes. Statistics are
+   * maintained in JNI the same way as for readFile() and writeFile().
+   */
+  static native long asyncSetup(int depth);
+  static native long asyncSubmit(long context, int slot, long fhandle, long seek,
+                                 long length, long buffer, int read_flag, int wkl);
+  static native int  asyncReap(long context, int min_nr, int[] slots, long[] rcs);
+  static native void asyncDestroy(long context);
+
   /**
   * Blocks written this way will have each 4k of the buffer overlaid with the
   * current TOD in microseconds, xor'ed with the lba.
@@ -336,6 +350,31 @@ public class Native
                                               long[] read_hist,
                                               long[] write_hist);
 
+  /**
+   * Statistics for 'count' workloads without locking; see WG_stats.
+   */
+  static native void get_statistics_snapshot(int[]  jni_indexes,
+                                             int    count,
+                                             long[] snapshot);
+
+  /**
+   * The same, without starting new maximums; see MetricsSampler.
+   */
+  static native void peek_statistics_snapshot(int[]  jni_indexes,
+                                              int    count,
+                                              long[] snapshot);
+
+
+  /**
+   * Percentile histograms for one workload, see HdrHistogram.
+   */
+  static native void setup_hdr_histogram(int    jni_index,
+                                         int    half_magnitude,
+                                         int    length);
+  static native void get_hdr_histogram(int    jni_index,
+                                       long[] read_counts,
+                                       long[] write_counts);
+
 
   /**
    * Allocate shared memory.
@@ -446,6 +485,53 @@ public class Native
     return rc;
   }
 
+  private static native long multiKeyFill(long   handle,
+                                          long   tod,
+                                          int    data_flag,
+                                          long   file_start_lba,
+                                          long   file_lba,
+                                          int    data_length,
+                                          long   pattern_lba,
+                                          int    pattern_length,
+                                          long   buffer,
+                                          int    key_count,
+                                          int[]  keys,
+                                          long[] compressions,
+                                          long[] dedup_sets,
+                                          String name);
+
+  /**
+   * Fill a block the same way as multiKeyFillAndWriteBlock(), but without
+   * writing it. Returns the offset in the buffer of the first byte to write.
+   */
+  public static int multiKeyFillBlock(long   handle,
+                                      long   tod,
+                                      int    data_flag,
+                                      long   file_start_lba,
+                                      long   file_lba,
+                                      int    data_length,
+                                      long   pattern_lba,
+                                      int    pattern_length,
+                                      long   buffer,
+                                      int    key_count,
+                                      int[]  keys,
+                                      long[] compressions,
+                                      long[] dedup_sets,
+                                      String name)
+
+  {
+    if (name.length() != 8)
+      common.failure("multiKeyFillBlock(): 'name' must be 8 characters long: >>>" + name + "<<<");
+    long offset = multiKeyFill(handle, tod, data_flag, file_start_lba,
+                               file_lba, data_length, pattern_lba,
+                               pattern_length, buffer, key_count,
+                               keys, compressions, dedup_sets, name);
+    return (int) offset;
+  }
+
+  /* The native address of a direct ByteBuffer: */
+  static native long getDirectBufferAddress(ByteBuffer buffer);
+
   static native void fillLfsrArray  (int[] sector_array, long lba, int key, String name);
   static native void fillLfsrBuffer (long  buffer,       int  xfersize, long lba, int key, String name);
 
@@ -66,6 +66,15 @@ class OpFormat extends FwgThread
     // With this we then no longer will need (I think) the FWG suspension!
     //  TBD.
 
+    /* 'misc=(formatengine=yes)' creates all directories in one call: */
+    FormatEngine engine = fwg.anchor.format_engine;
+    if (engine != null && fwg.anchor.mkdir_threads_running.notZero())
+    {
+      engine.createDirectories(fwg, format_thread_number);
+      waitForAllOtherThreads(fwg, fwg.anchor.mkdir_threads_running, "mkdir");
+      return true;
+    }
+
     /* Do 'mkdir' as long as needed: */
     if (fwg.anchor.mkdir_threads_running.notZero())
     {
@@ -96,8 +105,19 @@ class OpFormat extends FwgThread
     if (fwg.anchor.create_threads_running.notZero())
     {
       /* (This reports info for every X:) */
-      reportStuff("Created", fwg.anchor.getFileCount(), fwg.anchor.getExistingFileCount());
-      if (!create.doOperation() || !fwg.anchor.anyFilesToFormat())
+      if (engine != null)
+      {
+        engine.startFilePhase();
+        engine.reportFiles();
+      }
+      else
+        reportStuff("Created", fwg.anchor.getFileCount(), fwg.anchor.getExistingFileCount());
+
+      boolean created = create.doOperation();
+      if (created)
+        FormatEngine.paceFile();
+
+      if (!created || !fwg.anchor.anyFilesToFormat())
       {
         waitForAllOtherThreads(fwg, fwg.anchor.create_threads_running, "create");
 
@@ -96,6 +96,21 @@ public class OpenFlags implements java.io.Serializable, Cloneable
     return(otherflags & mask) != 0;
   }
 
+  /**
+   * Was 'o_direct' or 'directio' requested, independent of platform?
+   * Used by JavaIO, which does not use the translated flags.
+   */
+  public boolean isDirectIO()
+  {
+    for (int i = 0; i < parm_list.length; i++)
+    {
+      String tmp = parm_list[i].toLowerCase();
+      if (tmp.equals("o_direct") || tmp.equals("directio"))
+        return true;
+    }
+    return false;
+  }
+
   /**
    * Translate an array (usually just one) of open flags to an int.
    *
@@ -62,6 +62,14 @@ public class ParseFlat
 
   private static void readColumnHeadersAndData()
   {
+    /* A binary flatfile needs no parsing at all: */
+    String bin = FlatBinary.Reader.findBinary(input_file);
+    if (bin != null)
+    {
+      readBinary(bin);
+      return;
+    }
+
     /* Find the first line that starts with a blank: */
     Fget fg = new Fget(input_file);
     String line = null;
@@ -102,6 +110,21 @@ public class ParseFlat
     fg.close();
   }
 
+  private static void readBinary(String bin)
+  {
+    FlatBinary.Reader reader = new FlatBinary.Reader(bin);
+    for (String name : reader.getColumnNames())
+      column_names.add(name);
+
+    while (reader.next())
+    {
+      if (!reader.isText())
+        split_data.add(reader.getStrings());
+    }
+
+    reader.close();
+  }
+
   private static void checkColumnNames(Vector list)
   {
     loop:
@@ -50,7 +50,8 @@ public class RD_entry implements Serializable, Cloneable
 
   String  rd_mount = null;
 
-  public  int rd_stream_count = 0;
+  public  int rd_stream_count   = 0;
+  public  int rd_stream_reserve = 1;
 
   /* Don't ever set a default iorate. Code depends on not having a default!   */
   double  iorate;              /* io rate to generate:                        */
@@ -1874,7 +1875,10 @@ public class RD_entry implements Serializable, Cloneable
       /* Pick it up only ONCE, since this  code is run multiple times and   */
       /* we want to keep the (possibly) adjusted value from the first time. */
       if (rd.rd_stream_count == 0)
-        rd.rd_stream_count = wd.stream_count;
+      {
+        rd.rd_stream_count   = wd.stream_count;
+        rd.rd_stream_reserve = wd.stream_reserve;
+      }
 
 
 
@@ -2611,7 +2615,8 @@ public class RD_entry implements Serializable, Cloneable
             if (stream_list.get(i) == null)
             {
               /* Create the stream: */
-              StreamContext sc = new StreamContext(sd, stream_count, current_stream);
+              StreamContext sc = new StreamContext(sd, stream_count, current_stream,
+                                                   rd_stream_reserve);
               printWgInfo("Stream: slave: %s threads: %2d %s",
                           slave.getLabel(), threads_per_stream, sc);
 
@@ -49,6 +49,10 @@ public class ReplayDevice implements java.io.Serializable, Cloneable
 
   private  ArrayList <ReplayExtent> extent_list  = new ArrayList (32);
 
+  /* Non-empty extents sorted by replay lba, with their starting lbas: */
+  private  transient volatile ReplayExtent[] extent_index = null;
+  private  transient volatile long[]         extent_lows  = null;
+
   private  ReplayGroup group;      /* Which group owns this device? */
 
   private  transient Bin split_bin_out = null;
@@ -167,6 +171,10 @@ public class ReplayDevice implements java.io.Serializable, Cloneable
   {
     return device_number;
   }
+  public long getDevno()
+  {
+    return devno;
+  }
   public void countRecords()
   {
     records++;
@@ -199,6 +207,8 @@ public class ReplayDevice implements java.io.Serializable, Cloneable
   public void addExtent(ReplayExtent extent)
   {
     extent_list.add(extent);
+    extent_index = null;
+    extent_lows  = null;
   }
 
   public static int countUsedDevices()
@@ -260,26 +270,87 @@ public class ReplayDevice implements java.io.Serializable, Cloneable
    */
   public SD_entry findExtentForLba(Cmd_entry cmd, long replay_lba)
   {
-    for (int i = 0; i < extent_list.size(); i++)
-    {
-      ReplayExtent re = (ReplayExtent) extent_list.get(i);
-      if (re.findLbaInExtent(cmd, replay_lba))
-        return cmd.sd_ptr;
-    }
+    ReplayExtent re = findExtent(replay_lba);
+    if (re != null && re.findLbaInExtent(cmd, replay_lba))
+      return cmd.sd_ptr;
 
     return null;
   }
 
   public SD_entry findExtentForLbaFlat(SD_entry sd_used, Flat_record flat)
   {
+    ReplayExtent re = findExtent(flat.lba);
+    if (re != null)
+      return re.findLbaInExtentFlat(sd_used, flat);
+
+    return null;
+  }
+
+
+  /**
+   * Binary search for the extent that may contain this replay lba.
+   * Extents do not overlap, so this is the last extent starting at or
+   * below the lba. The caller still checks the upper end.
+   */
+  private ReplayExtent findExtent(long replay_lba)
+  {
+    ReplayExtent[] index = extent_index;
+    long[]         lows  = extent_lows;
+    if (index == null)
+    {
+      buildExtentIndex();
+      index = extent_index;
+      lows  = extent_lows;
+    }
+
+    int low  = 0;
+    int high = lows.length - 1;
+    int found = -1;
+    while (low <= high)
+    {
+      int mid = (low + high) >>> 1;
+      if (lows[mid] <= replay_lba)
+      {
+        found = mid;
+        low   = mid + 1;
+      }
+      else
+        high  = mid - 1;
+    }
+
+    return (found < 0) ? null : index[found];
+  }
+
+
+  /**
+   * The extent list is complete before the first lookup; it is only ever
+   * read by the ReplayGen threads, which may share this device.
+   */
+  private synchronized void buildExtentIndex()
+  {
+    if (extent_index != null)
+      return;
+
+    ArrayList <ReplayExtent> list = new ArrayList(extent_list.size());
     for (ReplayExtent re : extent_list)
     {
-      SD_entry sd = re.findLbaInExtentFlat(sd_used, flat);
-      if (sd != null)
-        return sd;
+      if (re.getHighReplayLba() > re.getLowReplayLba())
+        list.add(re);
     }
+    Collections.sort(list, new Comparator <ReplayExtent>()
+    {
+      public int compare(ReplayExtent a, ReplayExtent b)
+      {
+        return Long.compare(a.getLowReplayLba(), b.getLowReplayLba());
+      }
+    });
 
-    return null;
+    long[] lows = new long[list.size()];
+    for (int i = 0; i < lows.length; i++)
+      lows[i] = list.get(i).getLowReplayLba();
+
+    extent_lows  = lows;
+    extent_index = list.toArray(new ReplayExtent[list.size()]);
   }
   /*
 
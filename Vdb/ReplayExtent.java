@@ -49,6 +49,14 @@ class ReplayExtent implements Serializable
   {
     return rsd_name;
   }
+  public long getLowReplayLba()
+  {
+    return low_replay_lba;
+  }
+  public long getHighReplayLba()
+  {
+    return high_replay_lba;
+  }
 
   /**
    * See if requested lba fits inside of the extent return values needed.
@@ -35,6 +35,7 @@ public class ReplayGen extends UserClass
 
   private Bin[]         split_bin_files;
   private Flat_record[] split_records;
+  private ReplayStream.Reader[] stream_readers = null;
   private int           lowest_index;
   private long          begin_offset;
 
@@ -191,7 +192,21 @@ public class ReplayGen extends UserClass
     split_bin_files  = new Bin[numbers.length];
     split_records    = new Flat_record[numbers.length];
 
-    for (int i = 0; i < numbers.length; i++)
+    /* With 'source=mmap' the records come straight from the trace file: */
+    if (ReplayStream.isRequested())
+    {
+      ReplayStream stream = ReplayStream.getIndex();
+      stream_readers      = new ReplayStream.Reader[numbers.length];
+      for (int i = 0; i < numbers.length; i++)
+      {
+        ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(numbers[i]);
+        stream_readers[i] = stream.createReader(rdev);
+        split_records[i]  = new Flat_record();
+        emportBinRecord(i);
+      }
+    }
+
+    for (int i = 0; stream_readers == null && i < numbers.length; i++)
     {
       ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(numbers[i]);
 
@@ -219,6 +234,14 @@ public class ReplayGen extends UserClass
   {
     long[] numbers  = ReplayDevice.getDeviceNumbersForSd(sd_used.sd_name);
 
+    if (stream_readers != null)
+    {
+      for (int i = 0; i < stream_readers.length; i++)
+        stream_readers[i].close();
+      stream_readers = null;
+      return;
+    }
+
     for (int i = 0; i < split_bin_files.length; i++)
     {
       split_bin_files[i].close();
@@ -236,7 +259,9 @@ public class ReplayGen extends UserClass
   private boolean getNextReplayRecord()
   {
     /* Read the next record from the file whose record we just scheduled an i/o for: */
-    if (!split_bin_files[lowest_index].read_record())
+    if (stream_readers != null)
+      emportBinRecord(lowest_index);
+    else if (!split_bin_files[lowest_index].read_record())
       split_records[lowest_index].start = Long.MAX_VALUE;
     else
       emportBinRecord(lowest_index);
@@ -280,10 +305,21 @@ public class ReplayGen extends UserClass
   /**
    * 'Generalized' Bin_record.emport to facilitate a 'stagger' adjustment to the
    * device start time.
+   * With 'source=mmap' the record is read here; at the end of a device's
+   * records its start time is set to Long.MAX_VALUE.
    */
   private void emportBinRecord(int index)
   {
-    split_records[index].emport(split_bin_files[index]);
+    if (stream_readers != null)
+    {
+      if (!stream_readers[index].next(split_records[index]))
+      {
+        split_records[index].start = Long.MAX_VALUE;
+        return;
+      }
+    }
+    else
+      split_records[index].emport(split_bin_files[index]);
     long stagger = (sd_used.duplicate_number - 1) * ReplayInfo.getStagger();
     //common.ptod("stagger: " + stagger);
     split_records[index].start += stagger;
@@ -36,6 +36,9 @@ public class ReplayInfo implements Serializable
   private boolean duplication = false;
   private long    stagger     = 0;
   private boolean compress   = true;
+  private boolean mmap_source = false;
+  private int     split_threads = 1;
+  private double  speed      = 0;      /* 0: not requested; -1: 'max' */
 
   private long    low_start_filter  = 0;
   private long    high_start_filter = Long.MAX_VALUE;
@@ -164,6 +167,11 @@ public class ReplayInfo implements Serializable
    * - stagger=n:     for duplicates, how many milliseconds to stagger start
    *   time
    * - compress=no   (do not gzip).
+   * - source=mmap:   no split files, read the (uncompressed) replay file
+   *   directly using ReplayStream. 'source=split' is the default.
+   * - threads=n:     use 'n' threads for writing the split files.
+   * - speed=n:       replay 'n' times faster than traced (e.g. 2.5), or
+   *   'speed=max' to replay as fast as the SD thread counts allow.
    *
    * This method could be static, but I am too lazy to change the code... :-)
    */
@@ -204,6 +212,33 @@ public class ReplayInfo implements Serializable
         else if ("compress".startsWith(split[0]))
           compress = split[1].toLowerCase().startsWith("y");
 
+        else if ("source".startsWith(split[0]))
+        {
+          if (split[1].equalsIgnoreCase("mmap"))
+            mmap_source = true;
+          else if (!split[1].equalsIgnoreCase("split"))
+            common.failure("Replay parameter 'source=%s': only 'mmap' or 'split' allowed", split[1]);
+        }
+
+        else if ("speed".startsWith(split[0]))
+        {
+          if (split[1].equalsIgnoreCase("max"))
+            speed = -1;
+          else
+          {
+            speed = Double.parseDouble(split[1]);
+            if (speed <= 0)
+              common.failure("Replay parameter 'speed=%s' must be larger than zero", split[1]);
+          }
+        }
+
+        else if ("threads".startsWith(split[0]))
+        {
+          split_threads = Integer.parseInt(split[1]);
+          if (split_threads < 1)
+            common.failure("Replay parameter 'threads=%d' must be at least 1", split_threads);
+        }
+
         else
           common.failure("Unknown Replay parameter: " + parm);
       }
@@ -251,6 +286,22 @@ public class ReplayInfo implements Serializable
   {
     return info.compress;
   }
+  public static boolean useMmapSource()
+  {
+    return info.mmap_source;
+  }
+  public static int getSplitThreads()
+  {
+    return info.split_threads;
+  }
+  public static double getSpeed()
+  {
+    return info.speed;
+  }
+  public static boolean isSpeedMax()
+  {
+    return info.speed < 0;
+  }
 
 
   /**
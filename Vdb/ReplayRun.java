@@ -123,10 +123,33 @@ public class ReplayRun
     common.ptod("Replay selected i/o count: %,d; traced elapsed time %.2f seconds; traced i/o rate: %.6f",
                 ReplayDevice.getTotalIoCount(), secs, iorate_found);
 
+    /* 'speed=' replaces 'iorate=': */
+    if (ReplayInfo.getSpeed() != 0)
+    {
+      if (rd.iorate_req != 0)
+        common.failure("Replay 'speed=' and 'iorate=' can not be used together");
+
+      /* 'max': all i/o is due immediately, only the SD thread counts limit it: */
+      if (ReplayInfo.isSpeedMax())
+      {
+        rd.iorate_req = iorate_found;
+        ReplayInfo.setAdjustValue(0);
+        common.ptod("Replay speed: as fast as possible");
+      }
+      else
+      {
+        rd.iorate_req = iorate_found * ReplayInfo.getSpeed();
+        ReplayInfo.setAdjustValue(1 / ReplayInfo.getSpeed());
+        common.ptod(Format.f("Replay speed: %.2f times the traced i/o rate", ReplayInfo.getSpeed()));
+      }
+      ReplaySpeed.create(iorate_found);
+    }
+
     /* Create an arrival time adjustment factor: */
     if (rd.iorate_req == 0)
       rd.iorate_req = iorate_found;
-    ReplayInfo.setAdjustValue(iorate_found / rd.iorate_req);
+    if (ReplayInfo.getSpeed() == 0)
+      ReplayInfo.setAdjustValue(iorate_found / rd.iorate_req);
     common.ptod(Format.f("Replay arrival time adjustment: %.8f", ReplayInfo.getAdjustValue()));
   }
 
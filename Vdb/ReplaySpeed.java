@@ -0,0 +1,114 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import Utils.Format;
+
+
+/**
+ * Report for 'replay=(...,speed=n)' and 'replay=(...,speed=max)'.
+ *
+ * For each interval the observed i/o rate is compared with the average i/o
+ * rate found in the trace, giving the speedup that was actually achieved,
+ * next to the response times at that speed. When the storage can not keep
+ * up with the requested speed the achieved speedup will be lower and the
+ * queue depth and response times will go up.
+ *
+ * Since the trace's i/o rate is not constant, the speedup of a single
+ * interval is only an approximation; the cumulative speedup gets more
+ * accurate as the run progresses.
+ */
+public class ReplaySpeed
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static Report report       = null;
+  private static double traced_rate  = 0;
+  private static long   total_ios    = 0;
+  private static long   total_usecs  = 0;
+
+  private static String mask = "%-12s %8s %10s %10s %8s %8s %8s %8s %7s";
+
+
+  /**
+   * Called from ReplayRun.setupTraceRun() when 'speed=' is used.
+   */
+  public static void create(double rate)
+  {
+    traced_rate = rate;
+    total_ios   = 0;
+    total_usecs = 0;
+
+    report = new Report("replay_speed", "Replay speed report");
+    Report.getSummaryReport().printHtmlLink("Link to replay speed report",
+                                            report.getFileName(), "replay_speed");
+
+    String requested = (ReplayInfo.isSpeedMax()) ? "max" :
+                       Format.f("%.2f", ReplayInfo.getSpeed());
+    report.println(String.format("Requested speed: %s; traced i/o rate: %.2f", requested, traced_rate));
+    report.println("");
+  }
+
+
+  /**
+   * Called from SdReport.reportSdStats() with the interval's run totals.
+   */
+  public static void reportInterval(SdStats stats)
+  {
+    if (report == null || stats == null)
+      return;
+
+    if (Report.getInterval() % 30 == 1)
+      printHeaders();
+
+    total_ios   += stats.reads + stats.writes;
+    total_usecs += stats.elapsed;
+
+    report.println(line(Report.getInterval() + "", stats.rate(),
+                        (total_usecs > 0) ? total_ios * 1000000. / total_usecs : 0,
+                        stats));
+  }
+
+
+  /**
+   * Called at the end of the run with the run totals.
+   */
+  public static void reportTotal(SdStats stats)
+  {
+    if (report == null || stats == null)
+      return;
+
+    report.println(line(Report.getAvgLabel(), stats.rate(), stats.rate(), stats));
+  }
+
+
+  private static void printHeaders()
+  {
+    report.println("");
+    report.println(String.format(mask, "interval", "i/o", "speedup", "speedup", "resp", "resp", "read", "write", "queue"));
+    report.println(String.format(mask, "", "rate", "interval", "cumul.", "time", "max", "resp", "resp", "depth"));
+  }
+
+
+  private static String line(String label, double rate, double cumulative_rate, SdStats stats)
+  {
+    String speedup = (traced_rate > 0) ? Format.f("%.2f", rate / traced_rate) : "n/a";
+    String cumul   = (traced_rate > 0) ? Format.f("%.2f", cumulative_rate / traced_rate) : "n/a";
+    return String.format(mask, label,
+                         Format.f("%.1f", rate),
+                         speedup,
+                         cumul,
+                         Format.f("%.3f", stats.respTime()),
+                         Format.f("%.3f", stats.respMax()),
+                         Format.f("%.3f", stats.readResp()),
+                         Format.f("%.3f", stats.writeResp()),
+                         Format.f("%.1f", stats.qdepth()));
+  }
+}
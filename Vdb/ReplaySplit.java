@@ -10,6 +10,7 @@ package Vdb;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
 
 import Utils.*;
@@ -59,6 +60,13 @@ public class ReplaySplit
     long   high_start_filter = ReplayInfo.getHighFilter();
     long   lba_fold_size     = ReplayInfo.getFoldSize();
 
+    /* 'source=mmap': no split files, just a scan to create or load the index: */
+    if (ReplayStream.isRequested())
+    {
+      ReplayStream.scanTraceFile();
+      return;
+    }
+
     boolean rebuild = doWeNeedToReadReplayFile();
     common.ptod("doWeNeedToReadReplayFile: " + rebuild);
     if (!rebuild)
@@ -82,6 +90,17 @@ public class ReplaySplit
     Flat_record flat = new Flat_record();
     Signal signal    = new Signal(5);  // must be smaller than SHORTER_HEARTBEAT
 
+    /* 'threads=n': devices are handed out round robin to the split threads: */
+    ReplaySplitWorker[] workers = null;
+    HashMap <ReplayDevice, ReplaySplitWorker> owners = new HashMap(64);
+    if (ReplayInfo.getSplitThreads() > 1)
+    {
+      workers = new ReplaySplitWorker[ReplayInfo.getSplitThreads()];
+      for (int i = 0; i < workers.length; i++)
+        (workers[i] = new ReplaySplitWorker(i)).start();
+      common.ptod("Splitting replay file using %d threads", workers.length);
+    }
+
     read_record:
     while (bin.read_record())
     {
@@ -122,6 +141,17 @@ public class ReplaySplit
 
       /* Look for device: */
       ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(flat.device);
+
+      /* The owning split thread does the rest: */
+      if (workers != null)
+      {
+        ReplaySplitWorker worker = owners.get(rdev);
+        if (worker == null)
+          owners.put(rdev, worker = workers[owners.size() % workers.length]);
+        worker.add(rdev, flat);
+        continue read_record;
+      }
+
       rdev.countRecords();
 
       /* Dedup requires everything to be on dedupunit boundaries: */
@@ -150,6 +180,8 @@ public class ReplaySplit
 
 
     bin.close();
+    for (int i = 0; workers != null && i < workers.length; i++)
+      workers[i].finish();
     ReplayDevice.closeSplitFiles();
     saveReplayFileInformation();
     common.ptod("Reading replay file completed: " + fname);
@@ -173,7 +205,7 @@ public class ReplaySplit
   /** While looking to see if we have to split the files again we may have left
    *  some things that must be cleared if we end up having the split anyway.
   */
-  private static void resetCounters()
+  static void resetCounters()
   {
 
     Vector device_list = ReplayInfo.getInfo().getDeviceList();
@@ -0,0 +1,193 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import Utils.Flat_record;
+
+
+/**
+ * One of the 'replay=(...,threads=n)' split threads.
+ *
+ * ReplaySplit still reads the trace file sequentially, but instead of
+ * collecting the statistics and writing the split file for each record
+ * itself it adds the record to a batch for the worker that owns its device.
+ * A device is always owned by the same worker, so each worker can update
+ * its devices' lba, xfersize and time statistics and write their split files
+ * without any locking, and the records of a device are still written in
+ * trace order.
+ *
+ * Batches are recycled through a second queue, so after startup no more
+ * memory is allocated.
+ */
+class ReplaySplitWorker extends Thread
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int BATCH_SIZE = 8192;
+  private static final int BATCHES    = 8;
+
+  private ArrayBlockingQueue <Batch> full_queue = new ArrayBlockingQueue(BATCHES);
+  private ArrayBlockingQueue <Batch> free_queue = new ArrayBlockingQueue(BATCHES);
+  private Batch                      current;
+
+
+  /**
+   * A set of (already filtered and adjusted) records.
+   * A batch without records tells the worker to stop.
+   */
+  private static class Batch
+  {
+    ReplayDevice[] rdevs    = new ReplayDevice[BATCH_SIZE];
+    long[]         start    = new long[BATCH_SIZE];
+    long[]         resp     = new long[BATCH_SIZE];
+    long[]         device   = new long[BATCH_SIZE];
+    long[]         lba      = new long[BATCH_SIZE];
+    int[]          xfersize = new int[BATCH_SIZE];
+    int[]          pid      = new int[BATCH_SIZE];
+    byte[]         flag     = new byte[BATCH_SIZE];
+    int            count    = 0;
+  }
+
+
+  public ReplaySplitWorker(int number)
+  {
+    super("ReplaySplitWorker-" + number);
+    for (int i = 0; i < BATCHES; i++)
+      free_queue.add(new Batch());
+    current = takeBatch(free_queue);
+  }
+
+
+  /**
+   * Called by the reading thread.
+   */
+  public void add(ReplayDevice rdev, Flat_record flat)
+  {
+    int idx = current.count++;
+    current.rdevs[idx]    = rdev;
+    current.start[idx]    = flat.start;
+    current.resp[idx]     = flat.resp;
+    current.device[idx]   = flat.device;
+    current.lba[idx]      = flat.lba;
+    current.xfersize[idx] = flat.xfersize;
+    current.pid[idx]      = flat.pid;
+    current.flag[idx]     = flat.flag;
+
+    if (current.count == BATCH_SIZE)
+    {
+      putBatch(current);
+      current = takeBatch(free_queue);
+    }
+  }
+
+
+  /**
+   * Called by the reading thread: pass on what is left, then the
+   * (empty) end of work batch, and wait for the worker to finish.
+   */
+  public void finish()
+  {
+    if (current.count > 0)
+    {
+      putBatch(current);
+      current = takeBatch(free_queue);
+    }
+    putBatch(current);
+
+    try
+    {
+      join();
+    }
+    catch (InterruptedException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  public void run()
+  {
+    try
+    {
+      Flat_record flat = new Flat_record();
+
+      while (true)
+      {
+        Batch batch = takeBatch(full_queue);
+        if (batch.count == 0)
+          break;
+
+        for (int i = 0; i < batch.count; i++)
+        {
+          ReplayDevice rdev = batch.rdevs[i];
+          batch.rdevs[i] = null;
+
+          flat.start    = batch.start[i];
+          flat.resp     = batch.resp[i];
+          flat.device   = batch.device[i];
+          flat.lba      = batch.lba[i];
+          flat.xfersize = batch.xfersize[i];
+          flat.pid      = batch.pid[i];
+          flat.flag     = batch.flag[i];
+
+          /* Same as done by ReplaySplit.readAndSplitTraceFile(): */
+          rdev.countRecords();
+          rdev.setMinLba(flat.lba);
+          rdev.setMaxLba(flat.lba + flat.xfersize);
+          rdev.setMaxXfersize(flat.xfersize);
+
+          if (rdev.isReportingOnly())
+            continue;
+
+          if (rdev.getFirstTod() == Long.MAX_VALUE)
+            rdev.setFirstTod(flat.start);
+          rdev.setLastTod(flat.start);
+
+          rdev.writeSplitRecord(flat);
+        }
+
+        batch.count = 0;
+        free_queue.put(batch);
+      }
+    }
+    catch (Exception e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  private void putBatch(Batch batch)
+  {
+    try
+    {
+      full_queue.put(batch);
+    }
+    catch (InterruptedException e)
+    {
+      common.failure(e);
+    }
+  }
+
+  private static Batch takeBatch(ArrayBlockingQueue <Batch> queue)
+  {
+    try
+    {
+      return queue.take();
+    }
+    catch (InterruptedException e)
+    {
+      common.failure(e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,630 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import Utils.Flat_record;
+
+
+/**
+ * Streaming replay source, requested using 'replay=(trace.bin,source=mmap)'.
+ *
+ * Instead of ReplaySplit copying the trace into one split file per device
+ * number, the (uncompressed) trace file is memory mapped and scanned once,
+ * read-only, to collect the device statistics that ReplaySplit collects.
+ * At the same time, for each device number the list of trace 'chunks'
+ * (CHUNK bytes of the trace) that contain at least one of its records is
+ * remembered, together with the offset of the first record in each chunk.
+ *
+ * ReplayGen then reads its records straight from the mapped trace file,
+ * visiting only the chunks that contain something for its device. One
+ * mapped window of read-ahead is loaded in the background for each reader.
+ *
+ * The index is saved as 'replay_index.bin' in the split directory and is
+ * reused as long as the trace file and the filter parameters do not change,
+ * so only the first run against a trace pays for the scan.
+ */
+public class ReplayStream
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int    CHUNK       = 1024 * 1024;
+  private static final int    WINDOW      = 64 * CHUNK;
+  private static final int    SLACK       = 65536;    /* Room for the last record in a window */
+  private static final int    MAGIC       = 0x52504931;   /* 'RPI1' */
+  private static final String INDEX_NAME  = "replay_index.bin";
+
+  private static final long   EYE_CATCHER = 0xEEEE;
+  private static final int    FLAT_TYPE   = 5;
+
+  private String   trace;
+  private long     trace_size;
+  private long     trace_modified;
+  private long     low_filter;
+  private long     high_filter;
+  private long     fold_size;
+  private long     end_offset;          /* Records from here on are past the high filter */
+  private long[]   chunk_first;         /* Offset of first record in chunk, or -1         */
+  private HashMap <Long, ChunkList> device_chunks = new HashMap(64);
+
+  private static ReplayStream index = null;
+
+  private static ArrayBlockingQueue <MappedByteBuffer> prefetch_queue = null;
+
+
+  public static boolean isRequested()
+  {
+    return ReplayInfo.useMmapSource();
+  }
+
+
+  /**
+   * Called by ReplaySplit instead of splitting the trace.
+   */
+  public static synchronized void scanTraceFile()
+  {
+    ReplayStream stream = loadIndex(true);
+    if (stream != null)
+    {
+      common.ptod("Reading replay file bypassed, using %s", INDEX_NAME);
+      index = stream;
+      return;
+    }
+
+    ReplaySplit.resetCounters();
+    stream = new ReplayStream();
+    stream.scan();
+    stream.saveIndex();
+    index = stream;
+  }
+
+
+  /**
+   * The index for ReplayGen. On a slave that did not do the scan itself it
+   * is read from the split directory.
+   */
+  public static synchronized ReplayStream getIndex()
+  {
+    if (index == null)
+      index = loadIndex(false);
+    if (index == null)
+      common.failure("ReplayStream: no valid %s found in %s",
+                     INDEX_NAME, ReplayInfo.getSplitDirectory());
+    return index;
+  }
+
+
+  private ReplayStream()
+  {
+    trace          = ReplayInfo.getReplayFile();
+    trace_size     = new File(trace).length();
+    trace_modified = new File(trace).lastModified();
+    low_filter     = ReplayInfo.getLowFilter();
+    high_filter    = ReplayInfo.getHighFilter();
+    fold_size      = ReplayInfo.getFoldSize();
+    end_offset     = trace_size;
+  }
+
+
+  /**
+   * Read all records once, doing what ReplaySplit.readAndSplitTraceFile()
+   * does, except for writing the split files.
+   */
+  private void scan()
+  {
+    if (trace.endsWith(".gz") || trace.endsWith(".jz1") || new File(trace + ".jz1").exists())
+      common.failure("'source=mmap' requires an uncompressed replay file: " + trace);
+
+    common.ptod("+");
+    common.ptod("+Scanning replay file " + trace);
+    common.ptod("+");
+
+    chunk_first = new long[(int) ((trace_size + CHUNK - 1) / CHUNK)];
+    java.util.Arrays.fill(chunk_first, -1);
+
+    long   records_read = 0;
+    Signal signal       = new Signal(5);  // must be smaller than SHORTER_HEARTBEAT
+
+    try
+    {
+      FileChannel channel = new RandomAccessFile(trace, "r").getChannel();
+      long        base    = 0;
+
+      scan:
+      while (base < trace_size)
+      {
+        long             len = Math.min(WINDOW + SLACK, trace_size - base);
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, base, len);
+        int              pos = 0;
+
+        while (pos < WINDOW || base + len == trace_size)
+        {
+          int rlen = recordLength(buf, pos, len);
+          if (rlen == 0)
+            break;
+
+          long offset = base + pos;
+          pos += rlen;
+
+          if (++records_read % 100000 == 0 && signal.go())
+          {
+            SlaveJvm.sendMessageToMaster(SocketMessage.HEARTBEAT_MESSAGE);
+            SlaveJvm.getMasterSocket().setlastHeartBeat();
+            SlaveJvm.sendMessageToConsole("Scanning replay file. %,d records processed.", records_read);
+          }
+
+          if (recordType(buf, offset - base) != FLAT_TYPE)
+            continue;
+
+          int  rel      = (int) (offset - base);
+          long start    = buf.getLong(rel + 8);
+          long device   = buf.getLong(rel + 24);
+          long lba      = buf.getLong(rel + 32);
+          int  xfersize = (int) (buf.getLong(rel + 40) >>> 32);
+
+          /* Same filtering and adjustments as done by ReplaySplit: */
+          if (start < low_filter)
+            continue;
+          if (start > high_filter)
+          {
+            end_offset = offset;
+            break scan;
+          }
+          if (fold_size != Long.MAX_VALUE)
+            lba %= fold_size;
+          xfersize = (xfersize + 511) & ~0x1ff;
+
+          ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(device);
+          rdev.countRecords();
+          rdev.setMinLba(lba);
+          rdev.setMaxLba(lba + xfersize);
+          rdev.setMaxXfersize(xfersize);
+
+          int chunk = (int) (offset / CHUNK);
+          if (chunk_first[chunk] < 0)
+            chunk_first[chunk] = offset;
+
+          ChunkList list = device_chunks.get(device);
+          if (list == null)
+            device_chunks.put(device, list = new ChunkList());
+          list.add(chunk);
+
+          if (rdev.isReportingOnly())
+            continue;
+
+          if (rdev.getFirstTod() == Long.MAX_VALUE)
+            rdev.setFirstTod(start);
+          rdev.setLastTod(start);
+        }
+
+        /* Nothing usable left, e.g. a partial record at the end: */
+        if (pos == 0)
+          break;
+        base += pos;
+      }
+
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+
+    common.ptod("Scanning replay file completed: %s; %,d records; %,d devices",
+                trace, records_read, device_chunks.size());
+  }
+
+
+  /**
+   * Length in bytes of the Bin record at this position, or zero if there
+   * is no complete record.
+   */
+  private static int recordLength(MappedByteBuffer buf, int pos, long len)
+  {
+    if (pos + 8 > len)
+      return 0;
+
+    long header = buf.getLong(pos);
+    if (header >>> 48 != EYE_CATCHER)
+      common.failure("ReplayStream: invalid Bin record header %016x", header);
+
+    int rlen = (int) (header & 0xffffff) * 8;
+    if (rlen == 0 || pos + rlen > len)
+      return 0;
+    return rlen;
+  }
+
+  private static int recordType(MappedByteBuffer buf, long pos)
+  {
+    return (int) (buf.getLong((int) pos) >>> 40) & 0xff;
+  }
+
+
+  private void saveIndex()
+  {
+    try
+    {
+      File fptr = new File(ReplayInfo.getSplitDirectory(), INDEX_NAME);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fptr), 65536));
+
+      out.writeInt(MAGIC);
+      out.writeUTF(trace);
+      out.writeLong(trace_size);
+      out.writeLong(trace_modified);
+      out.writeLong(low_filter);
+      out.writeLong(high_filter);
+      out.writeLong(fold_size);
+      out.writeLong(end_offset);
+
+      out.writeInt(chunk_first.length);
+      for (long first : chunk_first)
+        out.writeLong(first);
+
+      out.writeInt(device_chunks.size());
+      for (Long device : device_chunks.keySet())
+      {
+        ReplayDevice rdev = ReplayDevice.findExistingDevice(device);
+        ChunkList    list = device_chunks.get(device);
+        out.writeLong(device);
+        out.writeLong(rdev.getMinLba());
+        out.writeLong(rdev.getMaxLba());
+        out.writeInt(rdev.getMaxXfersize());
+        out.writeLong(rdev.getFirstTod());
+        out.writeLong(rdev.getLastTod());
+        out.writeLong(rdev.getRecordCount());
+
+        /* Chunk numbers only go up, so store the deltas: */
+        out.writeInt(list.count);
+        int previous = 0;
+        for (int i = 0; i < list.count; i++)
+        {
+          writeVarInt(out, list.chunks[i] - previous);
+          previous = list.chunks[i];
+        }
+      }
+
+      out.close();
+      common.ptod("Created replay index %s", fptr.getAbsolutePath());
+    }
+    catch (IOException e)
+    {
+      common.failure(e);
+    }
+  }
+
+
+  /**
+   * Read a previously saved index, if it still matches the trace file and
+   * the replay parameters. Optionally store the device statistics.
+   */
+  private static ReplayStream loadIndex(boolean set_stats)
+  {
+    File fptr = new File(ReplayInfo.getSplitDirectory(), INDEX_NAME);
+    if (!fptr.exists())
+      return null;
+
+    if (set_stats && common.get_debug(common.FORCE_REPLAY_SPLIT))
+      return null;
+
+    ReplayStream stream = new ReplayStream();
+    try
+    {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fptr), 65536));
+      if (in.readInt()                    != MAGIC                 ||
+          !in.readUTF().equals(stream.trace)                       ||
+          in.readLong()                   != stream.trace_size     ||
+          in.readLong()                   != stream.trace_modified ||
+          in.readLong()                   != stream.low_filter     ||
+          in.readLong()                   != stream.high_filter    ||
+          in.readLong()                   != stream.fold_size)
+      {
+        in.close();
+        common.plog("ReplayStream: %s does not match the current replay parameters", INDEX_NAME);
+        return null;
+      }
+
+      stream.end_offset  = in.readLong();
+      stream.chunk_first = new long[in.readInt()];
+      for (int i = 0; i < stream.chunk_first.length; i++)
+        stream.chunk_first[i] = in.readLong();
+
+      int devices = in.readInt();
+      for (int d = 0; d < devices; d++)
+      {
+        long device  = in.readLong();
+        long minlba  = in.readLong();
+        long maxlba  = in.readLong();
+        int  maxxfer = in.readInt();
+        long first   = in.readLong();
+        long last    = in.readLong();
+        long records = in.readLong();
+
+        ChunkList list = new ChunkList();
+        int count      = in.readInt();
+        int chunk      = 0;
+        for (int i = 0; i < count; i++)
+        {
+          chunk += readVarInt(in);
+          list.add(chunk);
+        }
+        stream.device_chunks.put(device, list);
+
+        if (set_stats)
+        {
+          ReplayDevice rdev = ReplayDevice.findDeviceAndCreate(device);
+          rdev.setMinLba(minlba);
+          rdev.setMaxLba(maxlba);
+          rdev.setMaxXfersize(maxxfer);
+          rdev.setFirstTod(first);
+          rdev.setLastTod(last);
+          rdev.setRecordCount(records);
+        }
+      }
+
+      in.close();
+    }
+    catch (IOException e)
+    {
+      common.plog("ReplayStream: unable to read %s: %s", INDEX_NAME, e.toString());
+      return null;
+    }
+
+    return stream;
+  }
+
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException
+  {
+    while ((value & ~0x7f) != 0)
+    {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+  private static int readVarInt(DataInputStream in) throws IOException
+  {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7)
+    {
+      int b = in.readByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    common.failure("ReplayStream: invalid variable length value");
+    return 0;
+  }
+
+
+  public Reader createReader(ReplayDevice rdev)
+  {
+    return new Reader(rdev.getDevno());
+  }
+
+
+  /**
+   * Background loading of the next window of each reader.
+   * The queue is bounded: if it is full, no read-ahead is done.
+   */
+  private static synchronized void prefetch(MappedByteBuffer buf)
+  {
+    if (prefetch_queue == null)
+    {
+      prefetch_queue = new ArrayBlockingQueue(16);
+      Thread prefetcher = new Thread("ReplayPrefetch")
+      {
+        public void run()
+        {
+          try
+          {
+            while (true)
+              prefetch_queue.take().load();
+          }
+          catch (InterruptedException e)
+          {
+          }
+        }
+      };
+      prefetcher.setDaemon(true);
+      prefetcher.start();
+    }
+
+    prefetch_queue.offer(buf);
+  }
+
+
+
+  /**
+   * Returns the records of one device number, in trace order.
+   */
+  public class Reader
+  {
+    private long             devno;
+    private ChunkList        chunks;
+    private int              chunk_index = -1;
+    private long             pos         = 0;
+    private long             chunk_end   = 0;
+
+    private FileChannel      channel;
+    private MappedByteBuffer window      = null;
+    private long             window_base = -1;
+    private long             window_len  = 0;
+    private MappedByteBuffer ahead       = null;
+    private long             ahead_base  = -1;
+
+
+    private Reader(long devno)
+    {
+      this.devno = devno;
+      chunks     = device_chunks.get(devno);
+      if (chunks == null)
+        chunks = new ChunkList();
+
+      try
+      {
+        channel = new RandomAccessFile(trace, "r").getChannel();
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+    }
+
+
+    /**
+     * Fill in the next record for this device, or return false at the end.
+     */
+    public boolean next(Flat_record flat)
+    {
+      while (true)
+      {
+        /* Go to the next chunk that has something for us: */
+        if (pos >= chunk_end)
+        {
+          if (++chunk_index >= chunks.count)
+            return false;
+
+          int chunk = chunks.chunks[chunk_index];
+          pos       = chunk_first[chunk];
+          chunk_end = Math.min((long) (chunk + 1) * CHUNK, end_offset);
+          if (pos < 0)
+          {
+            pos = chunk_end;
+            continue;
+          }
+        }
+
+        mapWindow(pos);
+        int rel  = (int) (pos - window_base);
+        int rlen = recordLength(window, rel, window_len);
+        if (rlen == 0)
+        {
+          pos = chunk_end;
+          continue;
+        }
+        pos += rlen;
+
+        if (recordType(window, rel) != FLAT_TYPE)
+          continue;
+        if (window.getLong(rel + 24) != devno)
+          continue;
+
+        flat.start = window.getLong(rel + 8);
+        if (flat.start < low_filter)
+          continue;
+
+        long ints     = window.getLong(rel + 40);
+        flat.resp     = window.getLong(rel + 16);
+        flat.device   = devno;
+        flat.lba      = window.getLong(rel + 32);
+        flat.xfersize = (int) (ints >>> 32);
+        flat.pid      = (int) ints;
+        flat.flag     = (byte) (window.getLong(rel + 48) >>> 56);
+
+        /* Same adjustments as done by ReplaySplit: */
+        if (fold_size != Long.MAX_VALUE)
+          flat.lba %= fold_size;
+        flat.xfersize = (flat.xfersize + 511) & ~0x1ff;
+
+        return true;
+      }
+    }
+
+
+    /**
+     * Make sure the record at this offset is inside the current window.
+     * Windows start at a chunk boundary; the next one is mapped ahead.
+     */
+    private void mapWindow(long offset)
+    {
+      if (window != null && offset >= window_base &&
+          offset + SLACK <= window_base + window_len)
+        return;
+      if (window != null && offset >= window_base &&
+          window_base + window_len == trace_size)
+        return;
+
+      long base = offset / CHUNK * CHUNK;
+      try
+      {
+        if (ahead != null && ahead_base == base)
+        {
+          window      = ahead;
+          window_base = ahead_base;
+        }
+        else
+        {
+          window      = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                                    Math.min(WINDOW + SLACK, trace_size - base));
+          window_base = base;
+        }
+        window_len = window.capacity();
+
+        /* Read-ahead of the next window: */
+        ahead      = null;
+        ahead_base = base + WINDOW;
+        if (ahead_base < end_offset)
+        {
+          ahead = channel.map(FileChannel.MapMode.READ_ONLY, ahead_base,
+                              Math.min(WINDOW + SLACK, trace_size - ahead_base));
+          prefetch(ahead);
+        }
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+    }
+
+
+    public void close()
+    {
+      try
+      {
+        channel.close();
+      }
+      catch (IOException e)
+      {
+        common.failure(e);
+      }
+      window = ahead = null;
+    }
+  }
+
+
+
+  /**
+   * Growing list of chunk numbers, each one only added once.
+   */
+  private static class ChunkList
+  {
+    int[] chunks = new int[16];
+    int   count  = 0;
+
+    void add(int chunk)
+    {
+      if (count > 0 && chunks[count - 1] == chunk)
+        return;
+      if (count == chunks.length)
+      {
+        int[] nchunks = new int[count * 2];
+        System.arraycopy(chunks, 0, nchunks, 0, count);
+        chunks = nchunks;
+      }
+      chunks[count++] = chunk;
+    }
+  }
+}
@@ -1218,6 +1218,8 @@ public class Report
 
   public static void closeAllReports()
   {
+    Flat.closeFlatFile();
+
     for (PrintWriter pw : all_writers)
     {
       /* We can't close stdout. That causes problems some times: */
@@ -1438,6 +1440,7 @@ public class Report
     Flat.put_col("resp_max",    stats.respMax());
     Flat.put_col("resp_std",    stats.resptime_std());
     Flat.put_col("queue_depth", stats.qdepth());
+    writeFlatPercentiles(stats.histogram);
 
     if (compratio < 0)
       Flat.put_col("compratio", "n/a");
@@ -1445,6 +1448,26 @@ public class Report
       Flat.put_col("compratio", compratio);
   }
 
+  /**
+   * Response time percentiles, if requested and available.
+   * SD histograms are only available for the run totals.
+   */
+  public static void writeFlatPercentiles(Histogram hist)
+  {
+    if (HdrHistogram.getRequestedDigits() == 0)
+      return;
+
+    HdrHistogram hdr = (hist == null) ? null : hist.getHdr();
+    for (int i = 0; i < HdrHistogram.PCT_LABELS.length; i++)
+    {
+      String label = "resp_" + HdrHistogram.PCT_LABELS[i];
+      if (hdr == null || hdr.getTotalCount() == 0)
+        Flat.put_col(label);
+      else
+        Flat.put_col(label, hdr.getMsAtPercentile(HdrHistogram.PERCENTILES[i]));
+    }
+  }
+
   protected static void writeFlatCpu(Kstat_cpu kc)
   {
     double cpu_idle   = Math.max(0, kc.cpu_idle   * 100. / kc.cpu_total);
@@ -398,6 +398,7 @@ public class Reporter extends Thread
       }
 
       Report.writeFlat(run_totals, Report.getAvgLabel());
+      ReplaySpeed.reportTotal(run_totals);
     }
 
     else // if (Report.sdDetailNeeded())
@@ -0,0 +1,284 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Bounded lock-free ring buffer, usable with any number of producers and
+ * consumers.
+ *
+ * Each slot has a sequence number telling whose turn it is:
+ * - sequence == position:      slot is free for the producer of 'position'
+ * - sequence == position + 1:  slot is filled for the consumer of 'position'
+ * Producers and consumers claim positions with a compare-and-swap on 'tail'
+ * and 'head'. After claiming, the slot is filled or emptied without any
+ * further contention, and its sequence is then advanced.
+ *
+ * The batch calls claim a whole range of ready slots with one CAS, so that
+ * the cost of the handoff is paid once per batch instead of once per entry.
+ *
+ * When there is nothing to do, callers wait using the requested wait
+ * strategy: SPIN only yields the cpu, PARK spins for a short while and then
+ * parks for increasing periods up to 100 microseconds.
+ */
+public class RingBuffer
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  public  static final int SPIN = 1;
+  public  static final int PARK = 2;
+
+  private final Object[]        slots;
+  private final AtomicLongArray sequences;
+  private final int             mask;
+  private final int             wait_strategy;
+
+  private final AtomicLong      head = new AtomicLong(0);  /* Next to get */
+  private final AtomicLong      tail = new AtomicLong(0);  /* Next to put */
+
+  private static final int  SPIN_TRIES = 100;
+  private static final long MAX_PARK   = 100 * 1000;       /* nanoseconds */
+
+
+  /**
+   * The ring size is rounded up to the next power of two.
+   */
+  public RingBuffer(int count, int strategy)
+  {
+    int size = 1;
+    while (size < count)
+      size <<= 1;
+
+    slots         = new Object[size];
+    sequences     = new AtomicLongArray(size);
+    mask          = size - 1;
+    wait_strategy = strategy;
+
+    for (int i = 0; i < size; i++)
+      sequences.set(i, i);
+  }
+
+
+  public int capacity()
+  {
+    return slots.length;
+  }
+
+
+  /**
+   * Number of entries in the ring. This is a snapshot only.
+   */
+  public int size()
+  {
+    long size = tail.get() - head.get();
+    if (size < 0)
+      return 0;
+    return (int) Math.min(size, slots.length);
+  }
+
+
+  /**
+   * Add one entry. Returns false if the ring is full.
+   */
+  public boolean offer(Object obj)
+  {
+    while (true)
+    {
+      long pos  = tail.get();
+      int  idx  = (int) (pos & mask);
+      long diff = sequences.get(idx) - pos;
+
+      if (diff == 0)
+      {
+        if (tail.compareAndSet(pos, pos + 1))
+        {
+          slots[idx] = obj;
+          sequences.lazySet(idx, pos + 1);
+          return true;
+        }
+      }
+
+      /* The consumer of the previous round did not free this slot yet: */
+      else if (diff < 0)
+        return false;
+    }
+  }
+
+
+  /**
+   * Remove one entry. Returns null if the ring is empty.
+   */
+  public Object poll()
+  {
+    while (true)
+    {
+      long pos  = head.get();
+      int  idx  = (int) (pos & mask);
+      long diff = sequences.get(idx) - (pos + 1);
+
+      if (diff == 0)
+      {
+        if (head.compareAndSet(pos, pos + 1))
+        {
+          Object obj = slots[idx];
+          slots[idx] = null;
+          sequences.lazySet(idx, pos + slots.length);
+          return obj;
+        }
+      }
+
+      /* The producer did not fill this slot yet: */
+      else if (diff < 0)
+        return null;
+    }
+  }
+
+
+  /**
+   * Add up to 'count' entries from 'array' with one position claim.
+   * Returns the amount of entries added, which is zero when the ring is full.
+   */
+  public int offerBatch(Object[] array, int offset, int count)
+  {
+    while (true)
+    {
+      long pos = tail.get();
+
+      /* How many consecutive free slots do we have? */
+      int ready = 0;
+      while (ready < count && sequences.get((int) ((pos + ready) & mask)) == pos + ready)
+        ready++;
+      if (ready == 0)
+      {
+        if (sequences.get((int) (pos & mask)) - pos < 0)
+          return 0;
+        continue;
+      }
+
+      if (!tail.compareAndSet(pos, pos + ready))
+        continue;
+
+      for (int i = 0; i < ready; i++)
+      {
+        int idx = (int) ((pos + i) & mask);
+        slots[idx] = array[offset + i];
+        sequences.lazySet(idx, pos + i + 1);
+      }
+      return ready;
+    }
+  }
+
+
+  /**
+   * Remove up to 'count' entries into 'array' with one position claim.
+   * Returns the amount of entries removed, which is zero when the ring is empty.
+   */
+  public int pollBatch(Object[] array, int count)
+  {
+    while (true)
+    {
+      long pos = head.get();
+
+      /* How many consecutive filled slots do we have? */
+      int ready = 0;
+      while (ready < count && sequences.get((int) ((pos + ready) & mask)) == pos + ready + 1)
+        ready++;
+      if (ready == 0)
+      {
+        if (sequences.get((int) (pos & mask)) - (pos + 1) < 0)
+          return 0;
+        continue;
+      }
+
+      if (!head.compareAndSet(pos, pos + ready))
+        continue;
+
+      for (int i = 0; i < ready; i++)
+      {
+        int idx  = (int) ((pos + i) & mask);
+        array[i] = slots[idx];
+        slots[idx] = null;
+        sequences.lazySet(idx, pos + i + slots.length);
+      }
+      return ready;
+    }
+  }
+
+
+  /**
+   * Add one entry, waiting for room if needed.
+   * The wait is abandoned with an InterruptedException at end of run.
+   */
+  public void put(Object obj) throws InterruptedException
+  {
+    int tries = 0;
+    while (!offer(obj))
+      tries = pause(tries);
+  }
+
+
+  /**
+   * Add all 'count' entries, waiting for room if needed.
+   */
+  public void putBatch(Object[] array, int count) throws InterruptedException
+  {
+    int tries = 0;
+    int done  = 0;
+    while (done < count)
+    {
+      int added = offerBatch(array, done, count - done);
+      if (added == 0)
+        tries = pause(tries);
+      else
+      {
+        done += added;
+        tries = 0;
+      }
+    }
+  }
+
+
+  /**
+   * Remove one entry, waiting for one to arrive if needed.
+   */
+  public Object take() throws InterruptedException
+  {
+    int tries = 0;
+    while (true)
+    {
+      Object obj = poll();
+      if (obj != null)
+        return obj;
+      tries = pause(tries);
+    }
+  }
+
+
+  /**
+   * Wait a little bit, depending on the wait strategy and on how long we
+   * already have been waiting.
+   */
+  public int pause(int tries) throws InterruptedException
+  {
+    if (Thread.interrupted() || SlaveJvm.isWorkloadDone())
+      throw new InterruptedException();
+
+    if (wait_strategy == SPIN || tries < SPIN_TRIES)
+      Thread.yield();
+    else
+      LockSupport.parkNanos(Math.min(MAX_PARK, 1000L << Math.min(tries - SPIN_TRIES, 7)));
+
+    return tries + 1;
+  }
+}
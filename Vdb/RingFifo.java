@@ -0,0 +1,156 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Lock-free version of Fifo, requested using 'misc=(fifotype=ring)' or
+ * 'misc=(fifotype=ringspin)'.
+ *
+ * All the Fifo semantics are kept: FifoList still has one RingFifo per
+ * priority, getArray() still leaves work for the other IO_task threads, and
+ * waitForRoom() still holds off a producer at 90% full until the consumers
+ * have brought it back down to 30%.
+ * The only difference is that no monitor or Semaphore is involved, and that
+ * batches of entries are passed with a single atomic operation.
+ *
+ * The put/get counters are not atomic. They are only used for the
+ * 'FIFO_STATS' debugging output, so an occasional lost count is acceptable.
+ */
+public class RingFifo extends Fifo
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private RingBuffer ring;
+
+  private static final long ROOM_WAIT = 1000 * 1000;   /* nanoseconds */
+
+
+  public RingFifo(String lbl, int count, int strategy)
+  {
+    super(lbl, count, false);
+    ring = new RingBuffer(count, strategy);
+  }
+
+
+  public void put(Object obj) throws InterruptedException
+  {
+    ring.put(obj);
+    puts++;
+  }
+
+
+  public void putBatch(Object[] array, int count) throws InterruptedException
+  {
+    ring.putBatch(array, count);
+    puts += count;
+  }
+
+
+  /**
+   * Wait for an entry. As with Fifo.get(), an interrupt during shutdown
+   * returns null.
+   */
+  public Object get() throws InterruptedException
+  {
+    Object obj = ring.poll();
+    if (obj != null)
+    {
+      gets++;
+      return obj;
+    }
+
+    try
+    {
+      obj = ring.take();
+      getw++;
+      gets++;
+      return obj;
+    }
+    catch (InterruptedException e)
+    {
+      return null;
+    }
+  }
+
+
+  public int getArray(Object[] array, boolean wait) throws InterruptedException
+  {
+    /* Leave enough entries so that other threads don't have to wait: */
+    int avail = ring.size();
+    if (avail > 0)
+    {
+      int max = Math.min(array.length, (avail + threads - 1) / threads);
+      int got = ring.pollBatch(array, max);
+      if (got > 0)
+      {
+        gets += got;
+        return got;
+      }
+    }
+
+    if (!wait)
+      return 0;
+
+    array[0] = get();
+    return 1;
+  }
+
+
+  public int getQueueDepth()
+  {
+    return ring.size();
+  }
+
+
+  public boolean isGettingFull()
+  {
+    return ring.size() > entries_high;
+  }
+
+
+  /**
+   * When the fifo gets to 90% full, wait (a little) until it drops back to 30%.
+   */
+  public void waitForRoom() throws InterruptedException
+  {
+    if (ring.size() <= entries_high)
+      return;
+
+    long end   = System.nanoTime() + ROOM_WAIT;
+    int  tries = 0;
+    while (ring.size() > entries_low && System.nanoTime() < end)
+      tries = ring.pause(tries);
+  }
+
+
+  public void waitUntilEmpty()
+  {
+    int tries = 0;
+    try
+    {
+      while (ring.size() > 0)
+        tries = ring.pause(tries);
+    }
+    catch (InterruptedException e)
+    {
+    }
+  }
+
+
+  public void drainFifo()
+  {
+    common.ptod("ring entries: " + ring.size());
+    while (ring.poll() != null)
+      gets++;
+  }
+}
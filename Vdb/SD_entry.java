@@ -59,6 +59,8 @@ public class SD_entry implements Serializable, Cloneable
   public long   csd_end_lba   = 0; /* Logical end lba within concatenated SD  */
 
   int    threads = 8;          /* Thread count for this SD                    */
+  boolean async_io = false;    /* ioengine=async                              */
+  int    io_depth  = 32;       /* Max outstanding i/o per async IO_task       */
   String jnl_dir_name = null;
 
   public SdDedup     sdd                   = null;
@@ -216,9 +218,7 @@ public class SD_entry implements Serializable, Cloneable
       return;
 
     /* Open the file after getting the requested open flags: */
-    OpenFlags flags = open_flags;
-    if (SlaveWorker.work.rd_open_flags != null)
-      flags = SlaveWorker.work.rd_open_flags;
+    OpenFlags flags = getActiveOpenFlags();
 
 
     common.ptod("Opening sd=%s,lun=%s; write: %b; flags: %s",
@@ -297,6 +297,16 @@ public class SD_entry implements Serializable, Cloneable
     }
   }
 
+  /**
+   * The open flags used for this SD: those of the RD override those of the SD.
+   */
+  public OpenFlags getActiveOpenFlags()
+  {
+    if (SlaveWorker.work.rd_open_flags != null)
+      return SlaveWorker.work.rd_open_flags;
+    return open_flags;
+  }
+
   private void closeOneSd()
   {
     if (concatenated_sd)
@@ -307,9 +317,7 @@ public class SD_entry implements Serializable, Cloneable
       return;
 
     /* Which open flag to use for possible fsync? */
-    OpenFlags flags = open_flags;
-    if (SlaveWorker.work.rd_open_flags != null)
-      flags = SlaveWorker.work.rd_open_flags;
+    OpenFlags flags = getActiveOpenFlags();
 
     //common.ptod("closed: " + fhandle);
     long rc = Native.closeFile(fhandle, flags);
@@ -451,6 +459,24 @@ public class SD_entry implements Serializable, Cloneable
           else if ("instance".startsWith(prm.keyword))
             sd.instance = prm.alphas[0];
 
+          else if ("ioengine".startsWith(prm.keyword))
+          {
+            if (prm.alphas[0].equalsIgnoreCase("async"))
+              sd.async_io = true;
+            else if (prm.alphas[0].equalsIgnoreCase("sync"))
+              sd.async_io = false;
+            else
+              common.failure("Invalid contents for ioengine=%s; only 'sync' or 'async' allowed",
+                             prm.alphas[0]);
+          }
+
+          else if ("iodepth".startsWith(prm.keyword))
+          {
+            sd.io_depth = (int) prm.numerics[0];
+            if (sd.io_depth < 1)
+              common.failure("'iodepth=' must be at least 1");
+          }
+
           else if ("replay".startsWith(prm.keyword))
           {
             RD_entry.dflt.setNoElapsed();
@@ -1107,6 +1133,35 @@ public class SD_entry implements Serializable, Cloneable
     return open_for_write;
   }
 
+  public boolean isAsyncIo()
+  {
+    return async_io && !concatenated_sd;
+  }
+  public int getIoDepth()
+  {
+    return io_depth;
+  }
+
+  /**
+   * 'ioengine=async' only handles plain reads and writes.
+   * This check is done on the slave, since that is where the i/o runs.
+   */
+  public void checkAsyncIo(Work work)
+  {
+    if (!common.onLinux())
+      common.failure("sd=%s: 'ioengine=async' is only supported on Linux", sd_name);
+
+    if (Validate.isValidate() || Dedup.isDedup())
+      common.failure("sd=%s: 'ioengine=async' and Data Validation or Dedup are "+
+                     "mutually exclusive", sd_name);
+
+    if (work.getStreamForSlave(sd_name, 0) != null)
+      common.failure("sd=%s: 'ioengine=async' and 'streams=' are mutually exclusive", sd_name);
+
+    if (JavaIO.isRequested())
+      common.failure("sd=%s: 'ioengine=async' and 'misc=(iobackend=java)' are mutually exclusive", sd_name);
+  }
+
 
   /**
    * Read/write log for raw i/o functions.
@@ -225,6 +225,8 @@ public class SdReport extends Report
 
       if (!Vdbmain.kstat_console)
         getStdoutReport().reportDetail(stats, kc_total);
+
+      ReplaySpeed.reportInterval(stats);
     }
 
     writeFlat(stats, "" + getInterval());
@@ -222,6 +222,9 @@ public class SlaveOnMaster extends ThreadControl
         else if (msgno == SocketMessage.ANCHOR_SIZES)
           ((AnchorReport) sm.getData()).printNumbers();
 
+        else if (msgno == SocketMessage.METRICS_SAMPLE)
+          MetricsSink.publishAll(slave.getLabel(), (MetricsSample) sm.getData());
+
         else
           common.failure("unexpected message from slave: " + sm.getMessageText());
       }
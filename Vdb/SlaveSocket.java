@@ -37,6 +37,13 @@ public class SlaveSocket implements Serializable
 
   private long               last_heartbeat_received = System.currentTimeMillis();
 
+  /* For 'misc=(statsformat=binary)'. One each way, see StatsCodec: */
+  private transient StatsCodec stats_codec = null;
+
+  /* Each message starts with one of these, see putMessage(): */
+  private static final int FRAME_OBJECT = 0;   /* A serialized SocketMessage */
+  private static final int FRAME_BINARY = 1;   /* See writeFrame()           */
+
   private static Object bytes_lock = new Object();
   private static long bytes_raw    = 0;
   private static long bytes_zip    = 0;
@@ -129,6 +136,14 @@ public class SlaveSocket implements Serializable
   }
 
 
+  private synchronized StatsCodec getStatsCodec()
+  {
+    if (stats_codec == null)
+      stats_codec = new StatsCodec();
+    return stats_codec;
+  }
+
+
   public SocketMessage getMessage()
   {
     SocketMessage sm = null;
@@ -136,12 +151,16 @@ public class SlaveSocket implements Serializable
     {
       try
       {
-        sm = (SocketMessage) istream.readObject();
+        if (istream.readByte() == FRAME_BINARY)
+          sm = readFrame();
+        else
+        {
+          sm = (SocketMessage) istream.readObject();
+          if (!dont_zip)
+            sm.setData(unCompressObj((byte[]) sm.getData()));
+        }
         sm.receive_time = System.currentTimeMillis();
 
-        if (!dont_zip)
-          sm.setData(unCompressObj((byte[]) sm.getData()));
-
         long delta = sm.receive_time - sm.send_time;
         if (delta < shortest_delta)
         {
@@ -323,13 +342,22 @@ public class SlaveSocket implements Serializable
 
         try
         {
-          if (!dont_zip)
-            sm.setData(compressObj(sm.getData()));
-
           long start = System.currentTimeMillis();
           sm.send_time = System.currentTimeMillis();
-          ostream.reset();
-          ostream.writeObject(sm);
+
+          /* Heartbeats, and optionally interval statistics, use a compact frame: */
+          byte[] frame = getFrameData(sm);
+          if (frame != null)
+            writeFrame(sm, frame);
+
+          else
+          {
+            if (!dont_zip)
+              sm.setData(compressObj(sm.getData()));
+            ostream.reset();
+            ostream.writeByte(FRAME_OBJECT);
+            ostream.writeObject(sm);
+          }
           ostream.flush();
           long end = System.currentTimeMillis();
 
@@ -402,6 +430,56 @@ public class SlaveSocket implements Serializable
   }
 
 
+  /**
+   * The data for a compact frame, or null if the message must be serialized:
+   * - a heartbeat has no data.
+   * - interval statistics with 'misc=(statsformat=binary)', see StatsCodec.
+   */
+  private byte[] getFrameData(SocketMessage sm) throws IOException
+  {
+    if (sm.getMessageNum() == SocketMessage.HEARTBEAT_MESSAGE && sm.getData() == null)
+      return new byte[0];
+
+    if (sm.getMessageNum() == SocketMessage.SLAVE_STATISTICS &&
+        StatsCodec.isRequested()                            &&
+        StatsCodec.canEncode((SlaveStats) sm.getData()))
+      return getStatsCodec().encode((SlaveStats) sm.getData());
+
+    return null;
+  }
+
+
+  /**
+   * A compact frame: the SocketMessage fields and the data as primitives,
+   * without the serialized object graph and class descriptors.
+   */
+  private void writeFrame(SocketMessage sm, byte[] data) throws IOException
+  {
+    ostream.writeByte(FRAME_BINARY);
+    ostream.writeByte(sm.getMessageNum());
+    ostream.writeInt(sm.getSeqno());
+    ostream.writeLong(sm.getInfo());
+    ostream.writeLong(sm.send_time);
+    ostream.writeInt(data.length);
+    ostream.write(data);
+  }
+
+  private SocketMessage readFrame() throws IOException
+  {
+    SocketMessage sm = new SocketMessage(istream.readByte());
+    sm.setSeqno(istream.readInt());
+    sm.setInfo(istream.readLong());
+    sm.send_time = istream.readLong();
+
+    byte[] data = new byte[istream.readInt()];
+    istream.readFully(data);
+    if (sm.getMessageNum() == SocketMessage.SLAVE_STATISTICS)
+      sm.setData(getStatsCodec().decode(data));
+
+    return sm;
+  }
+
+
   public long getlastHeartBeat()
   {
     return last_heartbeat_received;
@@ -83,6 +83,10 @@ public class SlaveStats implements Serializable
   {
     return block_counters;
   }
+  public void setBlockCounters(long[] counters)
+  {
+    block_counters = counters;
+  }
 
   public long getNumber()
   {
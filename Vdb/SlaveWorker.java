@@ -236,11 +236,12 @@ public class SlaveWorker extends ThreadControl
     /* Start Waiter task(s): */
     //common.plog("work.use_waiter: " + work.use_waiter);
     if (work.use_waiter)
-      new WT_task(new Task_num("WT_task")).start();
+      WT_task.startWaiters();
 
     Patterns.createPattern((int) work.maximum_xfersize);
 
     /* Start IO tasks: */
+    IoTrace.openTraces();
     StartIoThreads(work);
 
 
@@ -255,10 +256,13 @@ public class SlaveWorker extends ThreadControl
 
     /* Tell WG_task threads to go ahead and start working: */
     ShowLba.openTrace();
+    IoTrace.startClock();
     Task_num.task_run_all();
+    MetricsSampler.startSampler(work);
 
     /* Now wait for the 'workload done' signal: */
     SlaveJvm.waitForWorkloadDone();
+    MetricsSampler.stopSampler();
 
     Task_num.interrupt_tasks("WG_task");
     Task_num.interrupt_tasks("WT_task");
@@ -272,6 +276,7 @@ public class SlaveWorker extends ThreadControl
     /* Note that these closes can take a bit if flush() is implied! */
     SD_entry.closeAllSds();
     ShowLba.closeTrace();
+    IoTrace.mergeTraces(work.work_rd_name);
 
     /* Cleanup maps and journals: */
     if (Validate.isValidate())
@@ -304,9 +309,11 @@ public class SlaveWorker extends ThreadControl
     SlaveJvm.waitToGo();
 
     Task_num.task_run_all();
+    MetricsSampler.startSampler(work);
 
     /* Now wait for all tasks to complete: */
     SlaveJvm.waitForWorkloadDone();
+    MetricsSampler.stopSampler();
     Task_num.interrupt_tasks("FwgWaiter");
 
     /* May never be done. See comments in Task_num.interrupt_tasks() */
@@ -360,6 +367,12 @@ public class SlaveWorker extends ThreadControl
     {
       SD_entry sd = (SD_entry) sd_list.elementAt(i);
 
+      if (sd.isAsyncIo())
+      {
+        startAsyncThreads(work, sd);
+        continue;
+      }
+
       /* Create one IO_task per thread requested: */
       int threads_started = 0;
       for (int j = 0; j < work.getThreadsForSlave(sd.sd_name); j++)
@@ -386,6 +399,33 @@ public class SlaveWorker extends ThreadControl
   }
 
 
+  /**
+   * 'ioengine=async': the thread count now is the amount of i/o to keep
+   * outstanding. Spread that over as few IO_tasks as possible, each of them
+   * keeping up to 'iodepth=' requests in flight.
+   */
+  private static void startAsyncThreads(Work work, SD_entry sd)
+  {
+    sd.checkAsyncIo(work);
+
+    int threads = work.getThreadsForSlave(sd.sd_name);
+    int depth   = sd.getIoDepth();
+    int tasks   = 0;
+    for (int remaining = threads; remaining > 0; remaining -= depth)
+    {
+      Task_num tn  = new Task_num("IO_task " + sd.lun);
+      IO_task task = new IO_task(tn, sd);
+      task.setAsyncDepth(Math.min(depth, remaining));
+      list_of_io_tasks.add(task);
+      task.start();
+      tasks++;
+    }
+
+    common.ptod("Started %2d async i/o threads for %s; %d i/o's outstanding",
+                tasks, sd.sd_name, threads);
+  }
+
+
   private static void startSharedThreads(Work work)
   {
     list_of_io_tasks.removeAllElements();
@@ -63,6 +63,7 @@ public class SocketMessage implements Serializable
   public static int READY_FOR_MORE_WORK        = 30;  //
   public static int ANCHOR_SIZES               = 31;  //
   public static int USER_DATA_TO_SLAVES        = 32;  //
+  public static int METRICS_SAMPLE             = 33;  //          <
 
 
   private static String[] text=
@@ -100,6 +101,7 @@ public class SocketMessage implements Serializable
     ,"READY_FOR_MORE_WORK       "
     ,"ANCHOR_SIZES              "
     ,"USER_DATA_TO_SLAVES       "
+    ,"METRICS_SAMPLE            "
   };
 
   private static int seqno = 0;
@@ -153,6 +155,12 @@ public class SocketMessage implements Serializable
   }
 
 
+  /* For a message received in a SlaveSocket compact frame: */
+  void setSeqno(int seq)
+  {
+    message_seqno = seq;
+  }
+
   public int getSeqno()
   {
     return message_seqno;
@@ -0,0 +1,501 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Vector;
+
+
+/**
+ * Compact binary encoding of the interval statistics sent from slave to
+ * master, requested using 'misc=(statsformat=binary)'.
+ *
+ * With many SDs the SdStats array is by far the largest part of a
+ * SLAVE_STATISTICS message. Instead of serializing and gzipping an object
+ * graph for each interval, each SdStats counter, and the Kstat_cpu, Kstat
+ * and block counters, is written as a variable length delta against the
+ * value that was sent for the same slot the previous interval. Names are
+ * only sent when a slot changes. The thread monitor data is written as is.
+ * SlaveSocket sends the result in a compact frame, without serializing the
+ * SocketMessage.
+ *
+ * Both sides of a SlaveSocket keep one StatsCodec, and since socket messages
+ * arrive in the order sent, the 'previous' values always are in sync.
+ * Messages that can not be encoded use the old path and do not touch the
+ * codec state: the last interval, which carries the histograms, and
+ * statistics with file system workload, NFS or user data.
+ */
+public class StatsCodec
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static final int MAGIC        = 0x53544132;   /* 'STA2' */
+  private static final int SD_FIELDS    = 18;
+  private static final int CPU_FIELDS   = 7;
+  private static final int KSTAT_FIELDS = 11;
+  private static final int TMON_FIELDS  = 8;
+
+  private String[] prev_sd      = new String[0];
+  private String[] prev_wd      = new String[0];
+  private long[][] prev_vals    = new long[0][];
+  private long[]   prev_cpu     = new long[CPU_FIELDS];
+  private long[][] prev_kstat   = new long[0][];
+  private long[]   prev_blocked = new long[0];
+
+
+  /**
+   * Is the binary format requested? This is only looked at on the slave;
+   * the master recognizes a binary message by its SlaveSocket frame.
+   */
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("statsformat");
+    if (parm == null)
+      return false;
+    if (parm.equalsIgnoreCase("binary"))
+      return true;
+    if (!parm.equalsIgnoreCase("object"))
+      common.failure("misc=(statsformat=%s): only 'binary' or 'object' allowed", parm);
+    return false;
+  }
+
+
+  /**
+   * Histograms are only sent with the last interval. Don't bother encoding
+   * them, just let that interval go the old way.
+   * The same for the file system workload, NFS, and user data, which are
+   * not sent for SD workloads, or not every interval.
+   */
+  public static boolean canEncode(SlaveStats sts)
+  {
+    SdStats[] sds = sts.getSdStats();
+    if (sds == null)
+      return false;
+    for (SdStats sd : sds)
+    {
+      if (sd.histogram != null || sd.read_hist != null || sd.write_hist != null)
+        return false;
+    }
+
+    if (sts.getSlaveIntervalStats() != null || sts.getFsdMap() != null ||
+        sts.getFwdMap() != null || sts.getNfs3() != null ||
+        sts.getNfs4() != null || sts.getUserData() != null)
+      return false;
+
+    if (sts.tmonitor_deltas != null && sts.tmonitor_deltas.map.size() > 0)
+      return false;
+
+    Vector kstats = sts.getKstatData();
+    if (kstats != null)
+    {
+      for (Object ks : kstats)
+      {
+        if (!(ks instanceof Kstat_data))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
+
+  public byte[] encode(SlaveStats sts) throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+    DataOutputStream      dos = new DataOutputStream(bos);
+
+    dos.writeInt(MAGIC);
+
+    /* SD statistics: */
+    SdStats[] sds = sts.getSdStats();
+    growState(sds.length);
+    writeVarLong(dos, sds.length);
+    long[] vals = new long[SD_FIELDS];
+    for (int i = 0; i < sds.length; i++)
+    {
+      SdStats sd = sds[i];
+      if (!same(sd.sd_name, prev_sd[i]) || !same(sd.wd_name, prev_wd[i]))
+      {
+        dos.writeByte(1);
+        writeString(dos, sd.sd_name);
+        writeString(dos, sd.wd_name);
+        prev_sd[i] = sd.sd_name;
+        prev_wd[i] = sd.wd_name;
+      }
+      else
+        dos.writeByte(0);
+
+      getSdFields(sd, vals);
+      writeDeltas(dos, vals, prev_vals[i]);
+    }
+
+    /* CPU statistics: */
+    Kstat_cpu cpu = sts.getCpuStats();
+    dos.writeBoolean(cpu != null);
+    if (cpu != null)
+      writeDeltas(dos, getCpuFields(cpu), prev_cpu);
+
+    /* Kstat statistics: */
+    Vector kstats = sts.getKstatData();
+    dos.writeBoolean(kstats != null);
+    if (kstats != null)
+    {
+      growKstat(kstats.size());
+      writeVarLong(dos, kstats.size());
+      for (int i = 0; i < kstats.size(); i++)
+        writeDeltas(dos, getKstatFields((Kstat_data) kstats.get(i)), prev_kstat[i]);
+    }
+
+    /* The rest of SlaveStats: */
+    writeVarLong(dos, sts.getNumber());
+
+    long[] blocked = sts.getBlockCounters();
+    dos.writeBoolean(blocked != null);
+    if (blocked != null)
+    {
+      growBlocked(blocked.length);
+      writeVarLong(dos, blocked.length);
+      writeDeltas(dos, blocked, prev_blocked);
+    }
+
+    ThreadMonList tmon = sts.tmonitor_deltas;
+    dos.writeBoolean(tmon != null);
+    if (tmon != null)
+    {
+      writeVarLong(dos, tmon.elapsed);
+      writeVarLong(dos, tmon.processors);
+      writeVarLong(dos, tmon.list.size());
+      for (ThreadMonData td : tmon.list)
+      {
+        writeString(dos, td.label);
+        for (long val : getTmonFields(td))
+          writeVarLong(dos, zigzag(val));
+      }
+    }
+
+    dos.flush();
+
+    return bos.toByteArray();
+  }
+
+
+  public SlaveStats decode(byte[] array) throws IOException
+  {
+    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(array));
+
+    if (dis.readInt() != MAGIC)
+      common.failure("StatsCodec: invalid binary statistics message");
+
+    /* SD statistics: */
+    int count = (int) readVarLong(dis);
+    growState(count);
+    SdStats[] sds  = new SdStats[count];
+    long[]    vals = new long[SD_FIELDS];
+    for (int i = 0; i < count; i++)
+    {
+      if (dis.readByte() != 0)
+      {
+        prev_sd[i] = readString(dis);
+        prev_wd[i] = readString(dis);
+      }
+
+      readDeltas(dis, vals, prev_vals[i]);
+      SdStats sd = new SdStats();
+      sd.clearHistograms();
+      sd.sd_name = prev_sd[i];
+      sd.wd_name = prev_wd[i];
+      setSdFields(sd, vals);
+      sds[i] = sd;
+    }
+
+    /* CPU statistics: */
+    Kstat_cpu cpu = null;
+    if (dis.readBoolean())
+    {
+      long[] cvals = new long[CPU_FIELDS];
+      readDeltas(dis, cvals, prev_cpu);
+      cpu = new Kstat_cpu();
+      setCpuFields(cpu, cvals);
+    }
+
+    /* Kstat statistics: */
+    Vector kstats = null;
+    if (dis.readBoolean())
+    {
+      int kcount = (int) readVarLong(dis);
+      growKstat(kcount);
+      kstats = new Vector(kcount);
+      long[] kvals = new long[KSTAT_FIELDS];
+      for (int i = 0; i < kcount; i++)
+      {
+        readDeltas(dis, kvals, prev_kstat[i]);
+        Kstat_data kd = new Kstat_data();
+        setKstatFields(kd, kvals);
+        kstats.add(kd);
+      }
+    }
+
+    /* The rest of SlaveStats: */
+    SlaveStats sts = new SlaveStats(readVarLong(dis));
+
+    long[] blocked = null;
+    if (dis.readBoolean())
+    {
+      blocked = new long[(int) readVarLong(dis)];
+      growBlocked(blocked.length);
+      readDeltas(dis, blocked, prev_blocked);
+    }
+
+    ThreadMonList tmon = null;
+    if (dis.readBoolean())
+    {
+      tmon            = new ThreadMonList();
+      tmon.elapsed    = readVarLong(dis);
+      tmon.processors = (int) readVarLong(dis);
+      int tcount      = (int) readVarLong(dis);
+      long[] tvals    = new long[TMON_FIELDS];
+      for (int i = 0; i < tcount; i++)
+      {
+        ThreadMonData td = new ThreadMonData(readString(dis));
+        for (int f = 0; f < TMON_FIELDS; f++)
+          tvals[f] = unzigzag(readVarLong(dis));
+        setTmonFields(td, tvals);
+        tmon.list.add(td);
+      }
+    }
+
+    sts.setSdStats(sds);
+    sts.setCpuStats(cpu);
+    sts.setKstatData(kstats);
+    sts.setBlockCounters(blocked);
+    sts.setThreadMonData(tmon);
+
+    return sts;
+  }
+
+
+  private void growState(int count)
+  {
+    if (count <= prev_vals.length)
+      return;
+
+    String[] sd   = new String[count];
+    String[] wd   = new String[count];
+    long[][] vals = new long[count][];
+    System.arraycopy(prev_sd,   0, sd,   0, prev_sd.length);
+    System.arraycopy(prev_wd,   0, wd,   0, prev_wd.length);
+    System.arraycopy(prev_vals, 0, vals, 0, prev_vals.length);
+    for (int i = prev_vals.length; i < count; i++)
+      vals[i] = new long[SD_FIELDS];
+
+    prev_sd   = sd;
+    prev_wd   = wd;
+    prev_vals = vals;
+  }
+
+
+  private void growKstat(int count)
+  {
+    if (count <= prev_kstat.length)
+      return;
+
+    long[][] vals = new long[count][];
+    System.arraycopy(prev_kstat, 0, vals, 0, prev_kstat.length);
+    for (int i = prev_kstat.length; i < count; i++)
+      vals[i] = new long[KSTAT_FIELDS];
+    prev_kstat = vals;
+  }
+
+  private void growBlocked(int count)
+  {
+    if (count > prev_blocked.length)
+      prev_blocked = Arrays.copyOf(prev_blocked, count);
+  }
+
+
+  /**
+   * Write each value as a delta against its previous value, and remember it.
+   */
+  private static void writeDeltas(DataOutputStream dos, long[] vals, long[] prev) throws IOException
+  {
+    for (int f = 0; f < vals.length; f++)
+    {
+      writeVarLong(dos, zigzag(vals[f] - prev[f]));
+      prev[f] = vals[f];
+    }
+  }
+  private static void readDeltas(DataInputStream dis, long[] vals, long[] prev) throws IOException
+  {
+    for (int f = 0; f < vals.length; f++)
+    {
+      vals[f] = prev[f] + unzigzag(readVarLong(dis));
+      prev[f] = vals[f];
+    }
+  }
+
+
+  private static void getSdFields(SdStats sd, long[] vals)
+  {
+    vals[ 0] = sd.last_ts;
+    vals[ 1] = sd.elapsed;
+    vals[ 2] = sd.reads;
+    vals[ 3] = sd.r_resptime;
+    vals[ 4] = sd.r_resptime2;
+    vals[ 5] = sd.r_max;
+    vals[ 6] = sd.r_bytes;
+    vals[ 7] = sd.r_errors;
+    vals[ 8] = sd.writes;
+    vals[ 9] = sd.w_resptime;
+    vals[10] = sd.w_resptime2;
+    vals[11] = sd.w_max;
+    vals[12] = sd.w_bytes;
+    vals[13] = sd.w_errors;
+    vals[14] = sd.val_count;
+    vals[15] = sd.val_error;
+    vals[16] = sd.rtime;
+    vals[17] = sd.rlentime;
+  }
+  private static void setSdFields(SdStats sd, long[] vals)
+  {
+    sd.last_ts     = vals[ 0];
+    sd.elapsed     = vals[ 1];
+    sd.reads       = vals[ 2];
+    sd.r_resptime  = vals[ 3];
+    sd.r_resptime2 = vals[ 4];
+    sd.r_max       = vals[ 5];
+    sd.r_bytes     = vals[ 6];
+    sd.r_errors    = vals[ 7];
+    sd.writes      = vals[ 8];
+    sd.w_resptime  = vals[ 9];
+    sd.w_resptime2 = vals[10];
+    sd.w_max       = vals[11];
+    sd.w_bytes     = vals[12];
+    sd.w_errors    = vals[13];
+    sd.val_count   = vals[14];
+    sd.val_error   = vals[15];
+    sd.rtime       = vals[16];
+    sd.rlentime    = vals[17];
+  }
+
+
+  private static long[] getCpuFields(Kstat_cpu cpu)
+  {
+    return new long[] { cpu.cpu_count, cpu.cpu_total, cpu.cpu_idle, cpu.cpu_user,
+                        cpu.cpu_kernel, cpu.cpu_wait, cpu.cpu_hertz};
+  }
+  private static void setCpuFields(Kstat_cpu cpu, long[] vals)
+  {
+    cpu.cpu_count  = vals[0];
+    cpu.cpu_total  = vals[1];
+    cpu.cpu_idle   = vals[2];
+    cpu.cpu_user   = vals[3];
+    cpu.cpu_kernel = vals[4];
+    cpu.cpu_wait   = vals[5];
+    cpu.cpu_hertz  = vals[6];
+  }
+
+
+  private static long[] getKstatFields(Kstat_data kd)
+  {
+    return new long[] { kd.nread, kd.nwritten, kd.reads, kd.writes, kd.wlentime,
+                        kd.rtime, kd.rlentime, kd.totalio, kd.tod, kd.elapsed,
+                        kd.devices};
+  }
+  private static void setKstatFields(Kstat_data kd, long[] vals)
+  {
+    kd.nread    = vals[ 0];
+    kd.nwritten = vals[ 1];
+    kd.reads    = vals[ 2];
+    kd.writes   = vals[ 3];
+    kd.wlentime = vals[ 4];
+    kd.rtime    = vals[ 5];
+    kd.rlentime = vals[ 6];
+    kd.totalio  = vals[ 7];
+    kd.tod      = vals[ 8];
+    kd.elapsed  = vals[ 9];
+    kd.devices  = (int) vals[10];
+  }
+
+
+  private static long[] getTmonFields(ThreadMonData td)
+  {
+    return new long[] { td.cputime, td.usertime, td.blockedtime, td.waitedtime,
+                        td.blockedcount, td.counter1, td.counter2, td.counter3};
+  }
+  private static void setTmonFields(ThreadMonData td, long[] vals)
+  {
+    td.cputime      = vals[0];
+    td.usertime     = vals[1];
+    td.blockedtime  = vals[2];
+    td.waitedtime   = vals[3];
+    td.blockedcount = vals[4];
+    td.counter1     = vals[5];
+    td.counter2     = vals[6];
+    td.counter3     = vals[7];
+  }
+
+
+  /* Small negative deltas must also end up small: */
+  private static long zigzag(long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+  private static long unzigzag(long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+
+  /**
+   * Seven bits per byte, high bit set means 'more to come'.
+   */
+  private static void writeVarLong(DataOutputStream dos, long value) throws IOException
+  {
+    while ((value & ~0x7fL) != 0)
+    {
+      dos.writeByte((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    dos.writeByte((int) value);
+  }
+  private static long readVarLong(DataInputStream dis) throws IOException
+  {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7)
+    {
+      int b = dis.readByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    common.failure("StatsCodec: invalid variable length value");
+    return 0;
+  }
+
+
+  private static void writeString(DataOutputStream dos, String str) throws IOException
+  {
+    dos.writeBoolean(str != null);
+    if (str != null)
+      dos.writeUTF(str);
+  }
+  private static String readString(DataInputStream dis) throws IOException
+  {
+    if (!dis.readBoolean())
+      return null;
+    return dis.readUTF();
+  }
+
+  private static boolean same(String a, String b)
+  {
+    return (a == null) ? b == null : a.equals(b);
+  }
+}
@@ -12,6 +12,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -19,6 +20,17 @@ import java.util.Vector;
  * to have his own sequential stream.
  * This was introduced to make it easier to find out a performance curve of
  * running 'n' sequential streams against the same file/lun.
+ *
+ * All threads of a stream share one StreamContext. The next lba is reserved
+ * using compareAndSet() instead of a lock, so that many threads on the same
+ * stream do not serialize on it.
+ *
+ * With 'streams=(n,reserve)' each thread reserves 'reserve' sequential
+ * blocks at the time and uses them before coming back, making the shared
+ * counter 'reserve' times less busy. Each thread then reads or writes a
+ * sequential chunk of its own, so the stream as a whole is only sequential
+ * per chunk. When the xfersize changes within a chunk what is left of the
+ * chunk is skipped.
  */
 class StreamContext implements Serializable
 {
@@ -27,13 +39,24 @@ class StreamContext implements Serializable
 
   private String sd_name       = null;
   private long   low_lba       = 0;
-  private long   next_lba      = -1;
+  private AtomicLong next_lba  = new AtomicLong(-1);
+  private int    reserve       = 1;
   private long   high_lba      = 0;
   private long   stream_size   = 0;
   private int    which_context = 0;
 
 
-  public StreamContext(SD_entry sd, int stream_count, int streamno)
+  /**
+   * Per-thread part of a 'streams=(n,reserve)' reservation.
+   */
+  public static class Reservation
+  {
+    private long next = 0;
+    private long end  = 0;
+  }
+
+
+  public StreamContext(SD_entry sd, int stream_count, int streamno, int reserve)
   {
     /* Calculate size of each stream, truncated to xfersize: */
     stream_size  = sd.end_lba / stream_count;
@@ -43,8 +66,8 @@ class StreamContext implements Serializable
 
     low_lba       = stream_size * streamno + block0;
     high_lba      = low_lba + stream_size - block0;
-    next_lba      = -1;
     which_context = streamno;
+    this.reserve  = reserve;
     sd_name       = sd.sd_name;
 
     /* The true stream size must be lowered if we can't use block0: */
@@ -64,44 +87,63 @@ class StreamContext implements Serializable
 
   public String toString()
   {
-    String txt = String.format("stream=%d: sd=%s; low: %8s; high: %8s size: %8s",
+    String txt = String.format("stream=%d: sd=%s; low: %8s; high: %8s size: %8s reserve: %d",
                                which_context,
                                sd_name,
                                FileAnchor.whatSize(low_lba),
                                FileAnchor.whatSize(high_lba),
-                               FileAnchor.whatSize(stream_size));
+                               FileAnchor.whatSize(stream_size),
+                               reserve);
     return txt;
   }
 
 
   /**
-   * Get the next sequential lba.
+   * Get the next sequential lba, from the calling thread's reservation if
+   * there is anything left in it.
    */
-  public synchronized long getNextSequentialLba(Cmd_entry cmd)
+  public long getNextSequentialLba(Cmd_entry cmd, Reservation res)
   {
-    /* First time setting: */
-    if (next_lba < 0)
-      next_lba = low_lba;
+    long xfersize = cmd.cmd_xfersize;
 
-    /* If this new block won't fit, reset to the beginning: */
-    if (next_lba + cmd.cmd_xfersize > high_lba)
+    if (res.next + xfersize <= res.end)
     {
-      /* Except for when doing seekpct=eof: */
-      if (cmd.cmd_wg.seekpct < 0)
-        return -1;
-      next_lba = low_lba;
+      long lba_to_use = res.next;
+      res.next       += xfersize;
+      return lba_to_use;
     }
 
-    long lba_to_use = next_lba;
+    while (true)
+    {
+      long current = next_lba.get();
+
+      /* First time setting: */
+      long lba_to_use = (current < 0) ? low_lba : current;
 
-    /* Prepare for the next go-around: */
-    next_lba += cmd.cmd_xfersize;
+      /* If this new block won't fit, reset to the beginning: */
+      if (lba_to_use + xfersize > high_lba)
+      {
+        /* Except for when doing seekpct=eof: */
+        if (cmd.cmd_wg.seekpct < 0)
+          return -1;
+        lba_to_use = low_lba;
+      }
 
-    //common.ptod("getNextSequentialLba: context: %2d %12d high_lba: %12d use_lba: %12d",
-    //            which_context, low_lba, high_lba, lba_to_use);
+      /* Reserve as many blocks as requested and as still fit: */
+      long blocks = Math.min(reserve, (high_lba - lba_to_use) / xfersize);
+      long end    = lba_to_use + blocks * xfersize;
 
-    return lba_to_use;
-  }
-}
+      /* Someone else got there first? Try again: */
+      if (!next_lba.compareAndSet(current, end))
+        continue;
+
+      res.next = lba_to_use + xfersize;
+      res.end  = end;
 
+      //common.ptod("getNextSequentialLba: context: %2d %12d high_lba: %12d use_lba: %12d",
+      //            which_context, low_lba, high_lba, lba_to_use);
 
+      return lba_to_use;
+    }
+  }
+}
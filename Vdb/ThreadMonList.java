@@ -0,0 +1,33 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.io.Serializable;
+import java.util.*;
+
+
+
+/**
+ * Collection of interval-level ThreadMonitor statistics.
+ *
+ * The list either contains interval data from all monitors, or it can also
+ * contain a lits of the accumulates totals picked up from the map.
+ */
+class ThreadMonList implements Serializable
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  long elapsed;   /* In nano seconds */
+  int  processors = ThreadMonitor.processors;
+
+  ArrayList <ThreadMonData>         list   = new ArrayList(8);
+
+  HashMap   <String, ThreadMonData> map    = new HashMap(8);
+}
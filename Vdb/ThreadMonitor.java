@@ -8,7 +8,6 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
-import java.io.Serializable;
 import java.lang.management.*;
 import java.util.*;
 
@@ -286,158 +285,3 @@ public class ThreadMonitor
     }
   }
 }
-
-
-
-class ThreadMonData implements Comparable, Serializable
-{
-  public String label;
-
-  public long   cputime;        /* Nano seconds */
-  public long   usertime;
-
-  public long   blockedtime;    /* Milliseconds */
-  public long   waitedtime;
-  public long   blockedcount;
-
-  public long   counter1;       /* Optional user fields */
-  public long   counter2;
-  public long   counter3;
-
-  public ThreadMonData(String lbl)
-  {
-    label = lbl;
-  }
-
-  public void getThreadData(long thread_id)
-  {
-    ThreadInfo thread_info = ThreadMonitor.threadMXBean.getThreadInfo(thread_id, 8);
-    if (thread_info == null)
-    {
-      blockedcount = 0;
-      blockedtime  = 0;
-      waitedtime   = 0;
-      cputime      = 0;
-      usertime     = 0;
-      return;
-    }
-
-    blockedcount = thread_info.getBlockedCount();
-    blockedtime  = thread_info.getBlockedTime();
-    waitedtime   = thread_info.getWaitedTime();
-    cputime      = ThreadMonitor.threadMXBean.getThreadCpuTime( thread_id);
-    usertime     = ThreadMonitor.threadMXBean.getThreadUserTime(thread_id);
-
-    /* This piece of extra diagnostic info gets very expensive, so never keep it active */
-    if (false)
-    {
-      String lock = thread_info.getLockName();
-      if (lock != null)
-      {
-        StackTraceElement[] stack = thread_info.getStackTrace();
-        String txt = label + " is blocked at: ";
-        for (int i = 0; stack != null && i < stack.length; i++)
-          txt += " " + stack[i].toString();
-        common.ptod(txt);
-        // common.ptod("lock: " + lock + " " + thread_info.getLockInfo().getClassName());
-      }
-
-      thread_info = ThreadMonitor.threadMXBean.getThreadInfo(new long[] { thread_id}, true, true)[0];
-      MonitorInfo[] infos = thread_info.getLockedMonitors();
-      //common.ptod("info: " + infos.length);
-      for (MonitorInfo info : infos)
-      {
-        StackTraceElement ste = info.getLockedStackFrame();
-        common.ptod("%s blocked by lock owner: %s", label, ste.toString());
-      }
-    }
-  }
-
-
-
-  public String toString()
-  {
-    return String.format("cpu: %6d user: %6d wait: %6d %s",
-                         cputime / 1000000, usertime / 1000000, waitedtime / 1000000, label);
-  }
-
-  public void calcDelta(ThreadMonData prev, ThreadMonData latest)
-  {
-    blockedcount = latest.blockedcount - prev.blockedcount;
-    blockedtime  = latest.blockedtime  - prev.blockedtime;
-    waitedtime   = latest.waitedtime   - prev.waitedtime;
-    cputime      = latest.cputime      - prev.cputime;
-    usertime     = latest.usertime     - prev.usertime;
-
-    counter1     = latest.counter1     - prev.counter1;
-    counter2     = latest.counter2     - prev.counter2;
-    counter3     = latest.counter3     - prev.counter3;
-  }
-
-  public void copyData(ThreadMonData source)
-  {
-    blockedcount = source.blockedcount;
-    blockedtime  = source.blockedtime;
-    waitedtime   = source.waitedtime;
-    cputime      = source.cputime;
-    usertime     = source.usertime;
-
-    counter1     = source.counter1;
-    counter2     = source.counter2;
-    counter3     = source.counter3;
-  }
-
-  public void accum(ThreadMonData source)
-  {
-    blockedcount += source.blockedcount;
-    blockedtime  += source.blockedtime;
-    waitedtime   += source.waitedtime;
-    cputime      += source.cputime;
-    usertime     += source.usertime;
-
-    counter1     += source.counter1;
-    counter2     += source.counter2;
-    counter3     += source.counter3;
-  }
-
-
-  /**
-   * Sort in descending order of cputime.
-   */
-  public int compareTo(Object o1)
-  {
-    ThreadMonData tmon1 = (ThreadMonData) o1;
-
-    long rc = tmon1.cputime - cputime;
-    if (rc < 0)
-      return -1;
-    else if (rc > 0)
-      return +1;
-
-    /* Equal, look at 'blocked': */
-    rc = tmon1.blockedtime - blockedtime;
-    if (rc == 0)
-      return 0;
-    else if (rc < 0)
-      return -1;
-    else
-      return +1;
-  }
-}
-
-
-/**
- * Collection of interval-level ThreadMonitor statistics.
- *
- * The list either contains interval data from all monitors, or it can also
- * contain a lits of the accumulates totals picked up from the map.
- */
-class ThreadMonList implements Serializable
-{
-  long elapsed;   /* In nano seconds */
-  int  processors = ThreadMonitor.processors;
-
-  ArrayList <ThreadMonData>         list   = new ArrayList(8);
-
-  HashMap   <String, ThreadMonData> map    = new HashMap(8);
-}
@@ -20,25 +20,41 @@ import Utils.*;
  * timestamps.
  * From 'validate=time'.
  *
- * This is the first version, still using 8 bytes per block.
- * Next planned version: 4 bytes per block which leaves 32-4=28 bits for a
- * millisecond timestamp, or about 75 hours of run time.
- * We can improve on that by storing less detail:
- * - every 2ms:  150 hours
- * - every 10ms: 750 hours or 31 days.
+ * The first version used a long[] in java heap, 8 bytes per block, and was
+ * limited to Integer.MAX_VALUE blocks.
  *
- * We'll still have a limit of Integer.MAX_VALUE blocks though unless we tackle
- * that also.
+ * Each block now gets 4 bytes (or 2 with 'misc=(timestampbits=16)') in a
+ * memory mapped file, using the same 1GB MapFile segments as the Data
+ * Validation byte map, so there is no heap usage and no block count limit.
+ * The high 4 bits contain the operation flag, the remaining 28 (or 12) bits
+ * the time since the creation of the map, in units of
+ * 'misc=(timestampms=nn)' milliseconds:
+ * - 32 bits, default 10ms: 28 bits, about 31 days.
+ * - 16 bits, default 60000ms: 12 bits, about 68 hours.
+ * A time beyond that range is stored as the highest possible value; a
+ * warning is given when that happens.
+ *
+ * The map starts with a small header containing the creation time and the
+ * layout. With journaling and 'validate=continue_old_map' the map of the
+ * previous execution is reused, so that the timestamps survive a restart.
  */
 public class Timestamp
 {
   private final static String c =
   "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
 
-  private long[] stamps = null;
-  private int    entries = 0;
+  private MapFile[] maps;
+  private long      entries     = 0;
+  private int       entry_bytes = 4;
+  private int       value_bits;
+  private long      max_units;
+  private long      granularity;
+  private long      base_tod;
+  private boolean   overflow_warned = false;
 
-  private static int MAX_SIZE = Integer.MAX_VALUE;
+  /* Header: magic, entry bytes, granularity, base tod: */
+  private static final int HEADER = 24;
+  private static final int MAGIC  = 0x76647473;
 
   /**
    * If the 'validate=time' option is used, save the last successful TS.
@@ -54,36 +70,144 @@ public class Timestamp
   public static long PENDING_REREAD = 0x6000000000000000l;
 
 
-  public Timestamp(long blocks)
+  public Timestamp(String jnl_dir_name, String map_name, long blocks)
   {
+    entry_bytes = getRequestedBits() / 8;
+    granularity = getRequestedGranularity(entry_bytes);
+    value_bits  = entry_bytes * 8 - 4;
+    max_units   = (1l << value_bits) - 1;
+    entries     = blocks;
+
+    String name     = map_name + ".ts";
+    long   map_size = HEADER + blocks * entry_bytes;
+
     common.ptod("Data Validation. Allocating timestamp map "+
-                "requiring 8 * %,d = %.3fMB of java heap space.",
-                blocks, blocks * 8. / 1024. / 1024.);
+                "requiring %d * %,d = %.3fMB of memory mapped file space.",
+                entry_bytes, blocks, map_size / 1024. / 1024.);
+
+    if (Validate.isContinueOldMap() && MapFile.oldFileExists(jnl_dir_name, name))
+    {
+      maps = MapFile.openOldFile(jnl_dir_name, name, map_size);
+      if (maps[0].get4(0) != MAGIC || maps[0].get4(4) != entry_bytes)
+        common.failure("Timestamp map %s does not match 'misc=(timestampbits=%d)'",
+                       maps[0].getFilename(), entry_bytes * 8);
+
+      /* Continue with the original granularity and starting point: */
+      granularity = maps[0].get8(8);
+      base_tod    = maps[0].get8(16);
+      ErrorLog.plog("Reusing timestamp map created %s", new Date(base_tod));
+    }
+
+    else
+    {
+      maps     = MapFile.createNewFile(jnl_dir_name, name, map_size);
+      base_tod = System.currentTimeMillis();
+      maps[0].put4(0, MAGIC);
+      maps[0].put4(4, entry_bytes);
+      maps[0].put8(8, granularity);
+      maps[0].put8(16, base_tod);
+    }
+
+    ErrorLog.plog("Timestamp map: %d bits per block, %dms granularity, covering %s.",
+                  entry_bytes * 8, granularity,
+                  whatDuration(max_units * granularity / 1000));
+  }
+
+
+  private static int getRequestedBits()
+  {
+    String parm = MiscParms.getMiscValue("timestampbits");
+    if (parm == null || parm.equals("32"))
+      return 32;
+    if (parm.equals("16"))
+      return 16;
+    common.failure("misc=(timestampbits=%s): only '32' or '16' allowed", parm);
+    return 0;
+  }
 
-    if (blocks > MAX_SIZE)
-      common.failure("Timestamp map only supports %,d entries", MAX_SIZE);
+  private static long getRequestedGranularity(int entry_bytes)
+  {
+    String parm = MiscParms.getMiscValue("timestampms");
+    if (parm == null)
+      return (entry_bytes == 4) ? 10 : 60000;
+    if (!common.isNumeric(parm) || Long.parseLong(parm) < 1)
+      common.failure("misc=(timestampms=%s): a positive amount of milliseconds expected", parm);
+    return Long.parseLong(parm);
+  }
 
-    entries = (int) blocks;
-    stamps  = new long[ entries ];
+  private static String whatDuration(long seconds)
+  {
+    if (seconds < 2 * 3600)
+      return String.format("%d minutes", seconds / 60);
+    if (seconds < 3 * 86400)
+      return String.format("%d hours", seconds / 3600);
+    return String.format("%d days", seconds / 86400);
   }
 
 
   public static void main(String[] args)
   {
     long blocks = common.parseSize(args[0]);
-    Timestamp ts = new Timestamp(blocks);
+    Timestamp ts = new Timestamp(null, "test", blocks);
   }
 
+
   /**
-   *  Store timestamp of last successful i/o, including flags
+   * Translate a block number to its map and the offset in that map.
    */
-  public void storeTime(long block, long type)
+  private long offsetFor(long block)
   {
-    if (block > entries)
+    if (block >= entries)
       common.failure("Timestamp: requesting block %,d which is larger than the "+
                      "current size of %,d", block, entries);
 
-    stamps[ (int) block ] = System.currentTimeMillis() | type;
+    return HEADER + block * entry_bytes;
+  }
+
+
+  /**
+   *  Store timestamp of last successful i/o, including flags
+   */
+  public void storeTime(long block, long type)
+  {
+    long offset = offsetFor(block);
+    long units  = (System.currentTimeMillis() - base_tod) / granularity;
+
+    if (units < 0)
+      units = 0;
+    else if (units > max_units)
+    {
+      if (!overflow_warned)
+      {
+        overflow_warned = true;
+        ErrorLog.ptod("Timestamp map: run time exceeds the %s covered by the map. "+
+                      "Use a larger 'misc=(timestampms=)' value.",
+                      whatDuration(max_units * granularity / 1000));
+      }
+      units = max_units;
+    }
+
+    int     value = (int) (((type >>> 60) << value_bits) | units);
+    MapFile map   = maps[ (int) (offset >> MapFile.BYTE_SHIFT) ];
+    int     index = (int) (offset & MapFile.BYTE_AND);
+
+    if (entry_bytes == 4)
+      map.put4(index, value);
+    else
+      map.put2(index, value);
+  }
+
+
+  private long getValue(long block)
+  {
+    long    offset = offsetFor(block);
+    MapFile map    = maps[ (int) (offset >> MapFile.BYTE_SHIFT) ];
+    int     index  = (int) (offset & MapFile.BYTE_AND);
+
+    if (entry_bytes == 4)
+      return map.get4(index) & 0xffffffffl;
+    else
+      return map.get2(index);
   }
 
 
@@ -92,24 +216,19 @@ public class Timestamp
    */
   public long getTime(long block)
   {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the "+
-                     "current size of %,d", block, entries);
+    long value = getValue(block);
 
-    long value = stamps [ (int) block ];
+    /* Never stored: */
+    if ((value >>> value_bits) == 0)
+      return 0;
 
-    /* Remove the (possible) flags: */
-    return(value & 0x00ffffffffffffffl);
+    /* Remove the flags: */
+    return base_tod + (value & max_units) * granularity;
   }
 
   public String getLastOperation(long block)
   {
-    if (block > entries)
-      common.failure("Timestamp: requesting block %,d which is larger than the "+
-                     "current size of %,d", block, entries);
-
-    long value = stamps [ (int) block ];
-    long type  = value & 0xff00000000000000l;
+    long type = (getValue(block) >>> value_bits) << 60;
     if (type == READ_ONLY )   return "read";
     if (type == PRE_READ  )   return "pre_read";
     if (type == READ_IMMED)   return "read_after_write";
@@ -117,5 +236,21 @@ public class Timestamp
     if (type == PENDING_READ) return "journal pending read";
     return "unkown_operation";
   }
-}
 
+
+  /**
+   * Close and delete the map files, done together with the DV byte map.
+   */
+  public void deleteMapFiles()
+  {
+    if (maps == null)
+      return;
+
+    for (MapFile map : maps)
+    {
+      map.closeMapFile();
+      new File(map.getFilename()).delete();
+    }
+    maps = null;
+  }
+}
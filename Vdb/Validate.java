@@ -26,6 +26,7 @@ public class Validate implements java.io.Serializable
   private boolean journal_rec_only   = false;
   private boolean journal_maponly    = false;
   private boolean journal_recovered  = false;
+  private boolean journal_group      = false;
 
   private boolean validate           = false;
   private boolean for_dedup          = false;
@@ -134,6 +135,10 @@ public class Validate implements java.io.Serializable
   {
     options.journal_flush = false;
   }
+  public static void setJournalGroupCommit()
+  {
+    options.journal_group = true;
+  }
   public static void setJournalRecovery()
   {
     options.journal_recovery = true;
@@ -252,6 +257,10 @@ public class Validate implements java.io.Serializable
   {
     return options.journal_flush;
   }
+  public static boolean isJournalGroupCommit()
+  {
+    return options.journal_group;
+  }
   public static boolean isJournalRecoveryActive()
   {
     return options.journal_recovery && !options.journal_recovered;
@@ -398,6 +407,9 @@ public class Validate implements java.io.Serializable
       else if ("noflush".startsWith(parm))
         Validate.setNoJournalFlush();
 
+      else if ("group".startsWith(parm))
+        Validate.setJournalGroupCommit();
+
       else if ("maponly".compareTo(parm) == 0)
         Validate.setMapOnly();
 
@@ -596,6 +596,7 @@ public class Vdbmain
 
       Flat.createFlatFile();
       Flat.define_column_headers();
+      MetricsSink.openSinks();
 
 
       masterRun();
@@ -623,6 +624,7 @@ public class Vdbmain
       Tnfe_data.close();
 
       Host.closeAdmMessagesFiles();
+      MetricsSink.closeSinks();
     }
 
 
@@ -154,14 +154,14 @@ public class VerifyPending
 
     int lba_index  = 0;
     int file_index = 0;
-    Vector files   = anchor.getFileList();
+    FileList files = anchor.getFileList();
 
     /* Scan through all files, looking for matching lbas: */
     for (file_index = 0;
         file_index < files.size() && lba_index < before_map.pending_write_lbas.length;
         file_index++)
     {
-      FileEntry fe   = (FileEntry) files.elementAt(file_index);
+      FileEntry fe   = files.elementAt(file_index);
       long start_lba = fe.getFileStartLba();
       long end_lba   = start_lba + fe.getCurrentSize();
       while (before_map.pending_write_lbas[lba_index] < fe.getFileStartLba())
@@ -0,0 +1,117 @@
+package Vdb;
+
+/*
+ * Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.
+ */
+
+/*
+ * Author: Henk Vandenbergh.
+ */
+
+import java.lang.reflect.Method;
+
+
+/**
+ * Run the FwgThread work loops on java virtual threads, requested using
+ * 'misc=(fwgthreads=virtual)'. The default is 'fwgthreads=platform'.
+ *
+ * This allows fsd/fwd 'threads=' in the thousands to emulate many clients
+ * without one platform thread (and its stack) for each of them.
+ *
+ * Virtual threads need Java 21 or higher; they are obtained through
+ * reflection so that Vdbench itself still builds and runs with older JDKs.
+ *
+ * A thread waiting for its next operation (FwgWaiter semaphores) releases its
+ * carrier thread, but a JNI file system call keeps its carrier busy until it
+ * returns. The amount of carrier threads therefore is the maximum amount of
+ * file system operations that can be outstanding at any time. It is set
+ * using 'misc=(fwgcarriers=nn)', default 64.
+ */
+public class VirtualThreads
+{
+  private final static String c =
+  "Copyright (c) 2000, 2016, Oracle and/or its affiliates. All rights reserved.";
+
+  private static Method  of_virtual   = null;
+  private static Method  builder_name = null;
+  private static Method  builder_run  = null;
+
+  private static int     DEFAULT_CARRIERS = 64;
+
+
+  public static boolean isRequested()
+  {
+    String parm = MiscParms.getMiscValue("fwgthreads");
+    if (parm == null)
+      return false;
+    if (parm.equalsIgnoreCase("virtual"))
+      return true;
+    if (!parm.equalsIgnoreCase("platform"))
+      common.failure("misc=(fwgthreads=%s): only 'virtual' or 'platform' allowed", parm);
+    return false;
+  }
+
+
+  /**
+   * Find the virtual thread API and size the carrier pool.
+   * The scheduler reads its properties when the first virtual thread is
+   * created, so this must be called before that.
+   */
+  private static synchronized void setup()
+  {
+    if (of_virtual != null)
+      return;
+
+    try
+    {
+      of_virtual   = Thread.class.getMethod("ofVirtual");
+      Class builder = Class.forName("java.lang.Thread$Builder");
+      builder_name = builder.getMethod("name", String.class);
+      builder_run  = builder.getMethod("start", Runnable.class);
+    }
+    catch (Exception e)
+    {
+      common.failure("'misc=(fwgthreads=virtual)' requires Java 21 or higher. " +
+                     "Current java version: " + System.getProperty("java.version"));
+    }
+
+    int carriers = DEFAULT_CARRIERS;
+    String parm  = MiscParms.getMiscValue("fwgcarriers");
+    if (parm != null)
+    {
+      if (!common.isNumeric(parm) || Integer.parseInt(parm) < 1)
+        common.failure("misc=(fwgcarriers=%s): positive numeric value expected", parm);
+      carriers = Integer.parseInt(parm);
+    }
+
+    if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null)
+      System.setProperty("jdk.virtualThreadScheduler.parallelism", "" + carriers);
+    if (System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null)
+      System.setProperty("jdk.virtualThreadScheduler.maxPoolSize",
+                         "" + Math.max(carriers, 256));
+
+    common.ptod("Running FwgThreads as virtual threads using %s carrier threads.",
+                System.getProperty("jdk.virtualThreadScheduler.parallelism"));
+  }
+
+
+  /**
+   * Start a new virtual thread.
+   */
+  public static Thread start(String name, Runnable runnable)
+  {
+    setup();
+
+    try
+    {
+      Object builder = of_virtual.invoke(null);
+      builder        = builder_name.invoke(builder, name);
+      return (Thread) builder_run.invoke(builder, runnable);
+    }
+    catch (Exception e)
+    {
+      common.failure(e);
+      return null;
+    }
+  }
+}
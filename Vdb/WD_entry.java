@@ -29,7 +29,8 @@ public class WD_entry implements Cloneable, Serializable
 
   int      wd_threads      = 0;
 
-  int      stream_count = 0;
+  int      stream_count   = 0;
+  int      stream_reserve = 1; /* streams=(n,reserve): lbas reserved per call */
 
   int      priority  = Integer.MAX_VALUE;
   double   wd_iorate = 0;
@@ -268,6 +269,13 @@ public class WD_entry implements Cloneable, Serializable
           wd.stream_count = (int) prm.numerics[0];
           if (wd.stream_count < 2)
             common.failure("'streams=' parameter must specific a minimum of two streams");
+          if (prm.getNumCount() > 1)
+          {
+            wd.stream_reserve = (int) prm.numerics[1];
+            if (wd.stream_reserve < 1)
+              common.failure("'streams=(%d,%d)': the amount of lbas to reserve must be at least one",
+                             wd.stream_count, wd.stream_reserve);
+          }
         }
 
         else
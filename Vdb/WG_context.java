@@ -57,6 +57,7 @@ class WG_context implements Serializable, Cloneable
     RD_entry rd = RD_entry.next_rd;
 
     Native.allocSharedMemory();
+    JavaIO.resetStatistics();
 
     index_map = new HashMap(16);
 
@@ -98,6 +99,7 @@ class WG_context implements Serializable, Cloneable
                                  sd.sd_name8,
                                  jni.old_stats.read_hist.getJniBucketArray(),
                                  jni.old_stats.write_hist.getJniBucketArray());
+        setupHdr(jni);
         checkIndexMap(jni.jni_index);
       }
 
@@ -113,6 +115,7 @@ class WG_context implements Serializable, Cloneable
                                    sd.sd_name8,
                                    jni.old_stats.read_hist.getJniBucketArray(),
                                    jni.old_stats.write_hist.getJniBucketArray());
+          setupHdr(jni);
           checkIndexMap(jni.jni_index);
         }
       }
@@ -128,6 +131,16 @@ class WG_context implements Serializable, Cloneable
     }
   }
 
+  /**
+   * With 'misc=(percentiles=n)' JNI also maintains an HdrHistogram.
+   */
+  private static void setupHdr(JniIndex jni)
+  {
+    HdrHistogram hdr = jni.old_stats.read_hist.getHdr();
+    if (hdr != null)
+      Native.setup_hdr_histogram(jni.jni_index, hdr.getHalfMagnitude(), hdr.getLength());
+  }
+
   /**
    * Just double checking to make sure we do not pass the same index twice.
    */
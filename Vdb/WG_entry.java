@@ -1240,7 +1240,7 @@ public class WG_entry implements Serializable, Cloneable, Comparable
     {
       for (WG_entry wg : work.wgs_for_slave)
       {
-        wg.fifo_to_wait = new Fifo("to_waiter_" + wg.sd_used.sd_name + "_" + wg.wd_name, fifosize);
+        wg.fifo_to_wait = Fifo.createFifo("to_waiter_" + wg.sd_used.sd_name + "_" + wg.wd_name, fifosize);
       }
     }
 
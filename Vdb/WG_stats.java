@@ -8,6 +8,7 @@ package Vdb;
  * Author: Henk Vandenbergh.
  */
 
+import java.util.ArrayList;
 import java.util.Vector;
 
 public class WG_stats
@@ -21,12 +22,25 @@ public class WG_stats
   private static Histogram static_write_hist = new Histogram("default");
   private static Histogram static_total_hist = new Histogram("default");
 
+  /* Make sure you synchronize this with SNAPSHOT_LONGS in vdbjni.h!!! */
+  private static final int SNAPSHOT_LONGS = 16;
+
+  private static boolean    use_snapshot   = true;
+  private static Object     snapshot_owner = null;
+  private static JniIndex[] snapshot_jnis  = null;
+  private static int[]      snapshot_index = null;
+  private static long[]     snapshot       = null;
+  private static SdStats    snapshot_stats = new SdStats();
+
   /**
    * Get JNI statistics for each workload.
    * Delta statistics will be stored in wg.jni_index_list
    */
   public static void get_jni_statistics(boolean workload_done)
   {
+    /* Histograms are only needed at the end; until then use the snapshot: */
+    if (!workload_done && use_snapshot && getSnapshotStatistics())
+      return;
 
     long tod = Native.get_simple_tod();
     SdStats  sd_stats = new SdStats();
@@ -69,6 +83,9 @@ public class WG_stats
         sd_stats.rtime       = Long.parseLong(split[ 25 ]);
         sd_stats.rlentime    = Long.parseLong(split[ 27 ]);
 
+        /* i/o done by 'misc=(iobackend=java)' is not known to JNI: */
+        JavaIO.addStatistics(jni.jni_index, sd_stats);
+
 
         /* Since histograms are reported ONLY after normal completion, */
         /* why even bother to send them to the master? With loads of   */
@@ -89,6 +106,20 @@ public class WG_stats
           sd_stats.read_hist .storeJniBucketArray(read_hist );
           sd_stats.write_hist.storeJniBucketArray(write_hist);
 
+          /* Percentile histograms, if requested: */
+          HdrHistogram read_hdr  = sd_stats.read_hist .getHdr();
+          HdrHistogram write_hdr = sd_stats.write_hist.getHdr();
+          if (read_hdr != null)
+          {
+            long[] read_counts  = read_hdr .getJniCountsArray();
+            long[] write_counts = write_hdr.getJniCountsArray();
+            Native.get_hdr_histogram(jni.jni_index, read_counts, write_counts);
+            read_hdr .storeJniCountsArray(read_counts);
+            write_hdr.storeJniCountsArray(write_counts);
+          }
+
+          JavaIO.addHistograms(jni.jni_index, sd_stats);
+
           /* JNI no longer creates a read+write histogram. Just create one: */
           sd_stats.histogram = (Histogram) sd_stats.read_hist.clone();
           sd_stats.histogram.accumBuckets(sd_stats.write_hist);
@@ -100,4 +131,100 @@ public class WG_stats
       }
     }
   }
+
+
+  /**
+   * Get the statistics of all workloads with one JNI call into a reused
+   * long[], without locking and without the text conversion done by
+   * get_one_set_statistics(). The cost of a JNI call per workload is gone,
+   * and apart from the delta SdStats sent to the master nothing is
+   * allocated.
+   *
+   * Returns false if the JNI library does not have this function yet.
+   */
+  private static boolean getSnapshotStatistics()
+  {
+    JniIndex[] jnis = getSnapshotList();
+
+    try
+    {
+      Native.get_statistics_snapshot(snapshot_index, jnis.length, snapshot);
+    }
+    catch (UnsatisfiedLinkError e)
+    {
+      common.ptod("JNI statistics snapshot not available, using get_one_set_statistics().");
+      use_snapshot = false;
+      return false;
+    }
+
+    long    tod = Native.get_simple_tod();
+    SdStats sd  = snapshot_stats;
+    for (int i = 0; i < jnis.length; i++)
+    {
+      JniIndex jni = jnis[i];
+      int      o   = i * SNAPSHOT_LONGS;
+
+      sd.last_ts     = tod;
+      sd.reads       = snapshot[ o + 0  ];
+      sd.r_resptime  = snapshot[ o + 1  ];
+      sd.r_resptime2 = snapshot[ o + 2  ];
+      sd.r_max       = snapshot[ o + 3  ];
+      sd.r_bytes     = snapshot[ o + 4  ];
+      sd.r_errors    = snapshot[ o + 5  ];
+
+      sd.writes      = snapshot[ o + 6  ];
+      sd.w_resptime  = snapshot[ o + 7  ];
+      sd.w_resptime2 = snapshot[ o + 8  ];
+      sd.w_max       = snapshot[ o + 9  ];
+      sd.w_bytes     = snapshot[ o + 10 ];
+      sd.w_errors    = snapshot[ o + 11 ];
+
+      sd.rtime       = snapshot[ o + 12 ];
+      sd.rlentime    = snapshot[ o + 13 ];
+
+      /* Close off the interval, as done by close_workload_interval(): */
+      long rlastupdate = snapshot[ o + 14 ];
+      long q_depth     = snapshot[ o + 15 ];
+      if (q_depth != 0 && tod > rlastupdate)
+      {
+        sd.rlentime += (tod - rlastupdate) * q_depth;
+        sd.rtime    += (tod - rlastupdate);
+      }
+
+      /* i/o done by 'misc=(iobackend=java)' is not known to JNI: */
+      JavaIO.addStatistics(jni.jni_index, sd);
+
+      jni.dlt_stats = new SdStats();
+      jni.dlt_stats.clearHistograms();
+
+      /* Change statistics to delta values: */
+      jni.dlt_stats.stats_delta(sd, jni.old_stats);
+      jni.old_stats.stats_copy(sd);
+    }
+
+    return true;
+  }
+
+
+  /**
+   * The list of JNI indexes only changes with a new workload.
+   */
+  private static JniIndex[] getSnapshotList()
+  {
+    if (snapshot_owner == SlaveWorker.work.wgs_for_slave)
+      return snapshot_jnis;
+
+    ArrayList <JniIndex> list = new ArrayList(64);
+    for (WG_entry wg : SlaveWorker.work.wgs_for_slave)
+      list.addAll(wg.jni_index_list);
+
+    snapshot_jnis  = list.toArray(new JniIndex[0]);
+    snapshot_index = new int[snapshot_jnis.length];
+    snapshot       = new long[snapshot_jnis.length * SNAPSHOT_LONGS];
+    for (int i = 0; i < snapshot_jnis.length; i++)
+      snapshot_index[i] = snapshot_jnis[i].jni_index;
+    snapshot_owner = SlaveWorker.work.wgs_for_slave;
+
+    return snapshot_jnis;
+  }
 }
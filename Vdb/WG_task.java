@@ -43,6 +43,11 @@ public class WG_task extends Thread
   private HashMap   <Long, Byte> pending_data_map = null;
   private ArrayList <Long>       pending_lbas     = null;
 
+  /* 'misc=(cmdbatch=nn)': recycled Cmd_entries, handed off nn at the time: */
+  private CmdPool     pool    = null;
+  private Cmd_entry[] batch   = null;
+  private int         batched = 0;
+
   /**
    * Initialization of the Workload Generator task.
    */
@@ -143,8 +148,10 @@ public class WG_task extends Thread
       if (wg.bursts != null)
         start_ts = wg.bursts.getArrivalTime(start_ts, distribution);
 
+      setupBatching();
+
       /* First new cmd entry: */
-      cmd = new Cmd_entry();
+      cmd = newCmd();
 
       //common.ptod("ios_on_the_way: " + wg.ios_on_the_way);
 
@@ -174,7 +181,10 @@ public class WG_task extends Thread
         /* This greatly eliminates context switches.                   */
         try
         {
-          if (use_waiter)
+          if (batch != null)
+            addToBatch(cmd);
+
+          else if (use_waiter)
             wg.fifo_to_wait.waitAndPut(cmd);
 
           else
@@ -191,7 +201,7 @@ public class WG_task extends Thread
         start_ts = calculateNextStartTime(start_ts);
 
         /* Next new cmd entry: */
-        cmd = new Cmd_entry();
+        cmd = newCmd();
       }
 
       /* Send an EOF cmd entry: */
@@ -356,11 +366,67 @@ public class WG_task extends Thread
   }
 
 
+  /**
+   * With 'misc=(cmdbatch=nn)' Cmd_entries come from a pool and are handed to
+   * the next fifo 'nn' at the time, making the fifo synchronization a
+   * per-batch instead of a per-i/o cost.
+   */
+  private void setupBatching()
+  {
+    String parm = MiscParms.getMiscValue("cmdbatch");
+    if (parm == null)
+      return;
+
+    int size = Integer.parseInt(parm);
+    if (size < 2)
+      return;
+
+    /* The pool must be able to cover all fifos and i/o in flight: */
+    pool  = new CmdPool(Fifo.getSizeNeeded(0) * 4);
+    batch = new Cmd_entry[size];
+  }
+
+  private Cmd_entry newCmd()
+  {
+    return (pool == null) ? new Cmd_entry() : pool.take();
+  }
+
+  private void addToBatch(Cmd_entry cmd) throws InterruptedException
+  {
+    batch[batched++] = cmd;
+    if (batched == batch.length)
+      flushBatch();
+  }
+
+  private void flushBatch() throws InterruptedException
+  {
+    if (batched == 0)
+      return;
+
+    if (use_waiter)
+    {
+      wg.fifo_to_wait.waitForRoom();
+      wg.fifo_to_wait.putBatch(batch, batched);
+    }
+    else
+    {
+      batch[0].sd_ptr.fifo_to_iot.waitForRoom(wg.getpriority());
+      batch[0].sd_ptr.fifo_to_iot.putBatch(batch, batched, wg.getpriority());
+    }
+
+    batched = 0;
+  }
+
+
   private void sendEOF()
   {
     /* Send an EOF cmd entry: */
     try
     {
+      /* Anything left in the batch must go before the EOF: */
+      if (batch != null)
+        flushBatch();
+
       Cmd_entry cmd = new Cmd_entry();
       cmd.sd_ptr    = wg.sd_used;
       cmd.delta_tod = Long.MAX_VALUE;
@@ -42,6 +42,17 @@ public class WT_task extends Thread
 
   private static boolean list_sort = common.get_debug(common.WT_TASK_LIST_SORT);
 
+  /* 'misc=(waiter=heap)': this thread's shard of the WG_entries: */
+  private ArrivalHeap heap    = null;
+  private int         shard   = 0;
+  private int         shards  = 1;
+  private int         heap_version = -1;
+  private WG_entry[]  parked  = new WG_entry[16];
+
+  private static volatile int search_list_version = 0;
+  private static boolean      first_tod_set       = false;
+
+
   /**
    * Setup of Waiter task
    */
@@ -51,7 +62,69 @@ public class WT_task extends Thread
     tn            = tn_in;
     tn.task_set_start_pending();
     sd_concatenation = Validate.sdConcatenation();
-    setName("WT_task");
+    setName(tn.task_name);
+  }
+
+
+  /**
+   * Start the Waiter task(s).
+   *
+   * By default there is one WT_task scanning all WG_entries.
+   * With 'misc=(waiter=heap)' the WG_entries are kept in an ArrivalHeap, and
+   * with 'misc=(waiters=n)' they are divided over 'n' WT_task threads,
+   * each handling all WG_entries for a subset of the SDs.
+   */
+  public static void startWaiters()
+  {
+    first_tod_set = false;
+
+    String parm = MiscParms.getMiscValue("waiter");
+    if (parm == null || !parm.equalsIgnoreCase("heap"))
+    {
+      if (parm != null && !parm.equalsIgnoreCase("scan"))
+        common.failure("misc=(waiter=%s): only 'scan' or 'heap' allowed", parm);
+      new WT_task(new Task_num("WT_task")).start();
+      return;
+    }
+
+    int count = 1;
+    parm = MiscParms.getMiscValue("waiters");
+    if (parm != null)
+    {
+      if (!common.isNumeric(parm) || Integer.parseInt(parm) < 1)
+        common.failure("misc=(waiters=%s): expecting a positive number", parm);
+      count = Integer.parseInt(parm);
+    }
+
+    /* With priorities all SDs must be compared with each other: */
+    if (FifoList.countPriorities(SlaveWorker.work.wgs_for_slave) > 1 && count > 1)
+    {
+      common.ptod("misc=(waiters=%d) ignored for workload priorities", count);
+      count = 1;
+    }
+
+    for (int i = 0; i < count; i++)
+    {
+      WT_task wt = new WT_task(new Task_num((count == 1) ? "WT_task" : "WT_task " + i));
+      wt.heap    = new ArrivalHeap(SlaveWorker.work.wgs_for_slave.size() / count + 1);
+      wt.shard   = i;
+      wt.shards  = count;
+      wt.start();
+    }
+  }
+
+
+  /**
+   * With multiple WT_task threads all must use the same first_tod.
+   */
+  private static synchronized long setFirstTod()
+  {
+    if (!first_tod_set)
+    {
+      SlaveWorker.first_tod = Native.get_simple_tod();
+      first_tod_set         = true;
+    }
+    return SlaveWorker.first_tod;
   }
 
 
@@ -73,6 +146,7 @@ public class WT_task extends Thread
   public void run()
   {
     Cmd_entry lowcmd = null;
+    WG_entry  lowwg  = null;
     wgs_to_scan      = new ArrayList(SlaveWorker.work.wgs_for_slave);
     sorted_list.clear();
 
@@ -98,8 +172,16 @@ public class WT_task extends Thread
       //common.plog("Starting WT_task");
 
       buildFifoSearchList();
-      long tod              = Native.get_simple_tod();
-      SlaveWorker.first_tod = tod;
+
+      if (heap != null)
+      {
+        runHeap();
+        common.plog("Ended " + tn.task_name);
+        tn.task_set_terminating(0);
+        return;
+      }
+
+      long tod = setFirstTod();
 
       long tsleep = 0;
 
@@ -175,6 +257,9 @@ public class WT_task extends Thread
           if (lowcmd.cmd_wg == null)
             common.failure("WT_task error4");
 
+          /* Once handed to IO_task, a pooled Cmd_entry may be recycled: */
+          lowwg = lowcmd.cmd_wg;
+
           /* Using waitAndPut is a huge improvement over just using put(), */
           /* allowing the IO_task fifo to use its high water marks.        */
           /* I am not sure though if this will have an impact on priority  */
@@ -199,11 +284,11 @@ public class WT_task extends Thread
         {
           if (!list_sort)
           {
-            lowcmd.cmd_wg.pending_cmd = (Cmd_entry) lowcmd.cmd_wg.fifo_to_wait.get();
-            if (lowcmd.cmd_wg.pending_cmd == null)
+            lowwg.pending_cmd = (Cmd_entry) lowwg.fifo_to_wait.get();
+            if (lowwg.pending_cmd == null)
               break;
-            if (lowcmd.cmd_wg.pending_cmd.delta_tod == Long.MAX_VALUE)
-              wgs_to_scan.remove(lowcmd.cmd_wg);
+            if (lowwg.pending_cmd.delta_tod == Long.MAX_VALUE)
+              wgs_to_scan.remove(lowwg);
           }
         }
 
@@ -241,6 +326,153 @@ public class WT_task extends Thread
   }
 
 
+  /**
+   * 'misc=(waiter=heap)' version of the loop in run().
+   *
+   * The WG_entry with the lowest pending start time is always on top of the
+   * heap. Once its time has arrived it is sent, and it is added back with
+   * its next pending command. All commands that are due by then are sent
+   * right away without getting a new time of day, so everything that is due
+   * in the same microsecond window is released in one burst.
+   */
+  private void runHeap() throws InterruptedException
+  {
+    long tod = setFirstTod();
+
+    while (!SlaveJvm.isWorkloadDone())
+    {
+      /* The User API may have changed the list of WG_entries: */
+      if (heap_version != search_list_version)
+        rebuildHeap();
+
+      if (heap.size() == 0)
+        break;
+
+      WG_entry wg = pickFromHeap();
+      if (wg == null)
+      {
+        /* All target SD fifos are almost full. Try again later: */
+        if (!spin)
+          common.sleep_some_usecs(1);
+        tod = Native.get_simple_tod();
+        continue;
+      }
+
+      /* Wait until correct timestamp arrives: */
+      Cmd_entry cmd      = wg.pending_cmd;
+      long      next_tod = cmd.delta_tod + SlaveWorker.first_tod;
+      if (tod < next_tod)
+      {
+        tod = Native.get_simple_tod();
+        if (tod < next_tod)
+        {
+          heap.add(wg);
+          if (!spin)
+          {
+            common.sleep_some_usecs((priorities > 1) ? 1 : Math.min(1000000, next_tod - tod));
+            tmonitor.add2();
+          }
+          if (Thread.interrupted())
+          {
+            common.plog("WT Task interrupted at sleep");
+            break;
+          }
+          continue;
+        }
+      }
+
+      /* Send to fifo: */
+      try
+      {
+        if (priorities == 1)
+          cmd.sd_ptr.fifo_to_iot.waitAndPut(cmd, wg.getpriority());
+        else
+          cmd.sd_ptr.fifo_to_iot.put(cmd, wg.getpriority());
+        tmonitor.add1();
+
+        /* Get the following entry for this WG_entry: */
+        wg.pending_cmd = (Cmd_entry) wg.fifo_to_wait.get();
+      }
+      catch (InterruptedException e)
+      {
+        common.plog("WT Task interrupted at put or get");
+        break;
+      }
+
+      if (wg.pending_cmd == null)
+        break;
+
+      /* End-of-fifo: this WG_entry is done: */
+      if (wg.pending_cmd.delta_tod != Long.MAX_VALUE)
+        heap.add(wg);
+    }
+  }
+
+
+  /**
+   * Take the WG_entry with the lowest start time from the heap.
+   * With workload priorities those whose target SD fifo is getting full are
+   * bypassed, the same as is done by getLowestOne().
+   * Returns null if they all are getting full.
+   */
+  private WG_entry pickFromHeap()
+  {
+    if (priorities == 1)
+      return heap.poll();
+
+    int      count = 0;
+    WG_entry found = null;
+    while (heap.size() > 0)
+    {
+      WG_entry wg = heap.poll();
+      if (!wg.pending_cmd.sd_ptr.fifo_to_iot.isGettingFull(wg.getpriority()))
+      {
+        found = wg;
+        break;
+      }
+
+      if (count == parked.length)
+      {
+        WG_entry[] bigger = new WG_entry[count * 2];
+        System.arraycopy(parked, 0, bigger, 0, count);
+        parked = bigger;
+      }
+      parked[count++] = wg;
+    }
+
+    for (int i = 0; i < count; i++)
+    {
+      heap.add(parked[i]);
+      parked[i] = null;
+    }
+
+    return found;
+  }
+
+
+  /**
+   * (Re)load the heap with this thread's share of the WG_entries that are
+   * currently in use. WG_entries are divided over the WT_task threads by SD,
+   * so that each SD fifo is fed by only one WT_task.
+   */
+  private void rebuildHeap()
+  {
+    synchronized (WT_task.class)
+    {
+      heap.clear();
+      heap_version = search_list_version;
+      for (WG_entry wg : wgs_to_scan)
+      {
+        int sdnum = (wg.sd_used == null) ? 0 : wg.sd_used.relative_sd_num;
+        if (sdnum % shards != shard)
+          continue;
+        if (wg.pending_cmd != null && wg.pending_cmd.delta_tod != Long.MAX_VALUE)
+          heap.add(wg);
+      }
+    }
+  }
+
+
   /**
    * GetLowest needs to run synchronized to allow buildFifoSearchList() to be
    * run from User.WorkloadInfo without breaking the scan of wgs_to_scan.
@@ -539,6 +771,7 @@ public class WT_task extends Thread
     }
 
     wgs_to_scan = use_wgs;
+    search_list_version++;
   }
 
   private void waitForAllFifosActive()
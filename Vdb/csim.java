@@ -10,8 +10,10 @@ package Vdb;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
 
+import Utils.Fput;
 import Utils.Getopt;
 
 public class csim
@@ -37,6 +39,17 @@ public class csim
 
   private static long             bytes_read = 0;
   private static long             bytes_out  = 0;
+
+  private static int              max_readers = 2;
+  private static int              max_workers = Runtime.getRuntime().availableProcessors();
+  private static long             max_memory  = 64 * 1024 * 1024;
+  private static long             seed        = 0;
+  private static Fput             flat        = null;
+  private static int              next_file   = 0;
+
+  /* Fixed size read buffers; their count caps the memory in use: */
+  protected static ArrayBlockingQueue <byte[]>    free_buffers;
+  protected static ArrayBlockingQueue <CsimBlock> work_queue;
   private static int              file_line_length = 0;
   private static int              null_files = 0;
 
@@ -45,23 +58,27 @@ public class csim
   private static String level_splitter = (common.onWindows()) ? "\\+" : "/+";
 
 
-  private static Random randomizer = new Random(0); // maybe create seed?
   private static int max_fname_length = 0;
 
 
   public static void main(String[] args)
   {
-    Getopt g = new Getopt(args, "l:p:u:d:r:s:", 10000);
+    Getopt g = new Getopt(args, "l:p:u:d:r:s:f:w:m:e:o:", 10000);
     //g.print("csim");
 
     if (!g.isOK() || g.get_positionals().size() == 0)
     {
-      common.ptod("Usage: ./vdbench csim [-l nnn] [-p nnn] [-x nnn] [-s nnn] disk1, disk2, file1, file2, .....");
+      common.ptod("Usage: ./vdbench csim [-l nnn] [-p nnn] [-x nnn] [-s nnn] [-f nn] [-w nn] [-m nnn] [-e nnn] [-o file] disk1, disk2, file1, file2, .....");
       common.ptod("Where: ");
       common.ptod("     -l nnn: gzip compression level to use, default 1");
       common.ptod("     -p nnn: which percentage of data to read, default 0.1%");
       common.ptod("     -s nnn: subset percentage. e.g. -s10 reports compression for each 10% of the volume");
       common.ptod("     -u nnn: transfer size unit in bytes for blocks to be read and compressed. Default 128k");
+      common.ptod("     -f nnn: How many 'lun/file threads' reading luns and files. Default 2");
+      common.ptod("     -w nnn: How many 'worker threads' compressing a block. Default one per cpu");
+      common.ptod("     -m nnn: Maximum memory used for read buffers. Default 64m");
+      common.ptod("     -e nnn: Seed used for selecting the random samples. Default 0");
+      common.ptod("     -o fff: Flatfile receiving the results of each file and extent");
       common.ptod("     disk1, file1, ...: up to 10000 disk or file names or windows drive letters (c)");
 
       common.failure("parameter error");
@@ -75,6 +92,15 @@ public class csim
     if (g.check('u'))
       xfersize = g.extractInt();
 
+    if (g.check('f')) max_readers = (int) g.get_long();
+    if (g.check('w')) max_workers = (int) g.get_long();
+    if (g.check('m')) max_memory  =       g.extractLong();
+    if (g.check('e')) seed        =       g.get_long();
+    if (g.check('o')) flat        = new Fput(g.get_string());
+
+    if (max_readers < 1 || max_workers < 1)
+      common.failure("'-f' and '-w' need at least one thread");
+
     /* Find all the files: */
     file_line_length = 29;
     createFileList(g);
@@ -85,35 +111,171 @@ public class csim
   }
 
 
+  /**
+   * Reader threads pick up the next file, select its samples, and hand each
+   * block read to the compressor workers. A reader has to wait for a free
+   * buffer, so no matter how fast the reads are, never more than '-m' bytes
+   * of data are waiting to be compressed.
+   *
+   * Results are reported as soon as the last sample of an extent has been
+   * compressed, so with multiple readers the order of files varies.
+   */
   private static void doFiles()
   {
-    /* Go through each file/volume: */
-    for (int i = 0; i < file_list.size(); i++)
+    /* '-m' is a cap; a small pool only throttles the readers: */
+    int buffers  = (int) Math.max(1, Math.min(max_workers * 2, max_memory / xfersize));
+    free_buffers = new ArrayBlockingQueue(buffers);
+    work_queue   = new ArrayBlockingQueue(buffers);
+    for (int i = 0; i < buffers; i++)
+      free_buffers.add(new byte[xfersize]);
+
+    if (flat != null)
+      flat.println("file extent start size samples bytes_in bytes_out pct compratio");
+
+    ArrayList <CsimWorker> workers = new ArrayList(max_workers);
+    for (int i = 0; i < max_workers; i++)
     {
-      CsimEntry ce = file_list.get(i);
+      CsimWorker worker = new CsimWorker(xfersize, level);
+      worker.start();
+      workers.add(worker);
+    }
 
-      for (int e = 0; e < ce.extents.size(); e++)
-      {
-        CsimExtent extent = ce.extents.get(e);
+    ArrayList <CsimReader> readers = new ArrayList(max_readers);
+    for (int i = 0; i < max_readers; i++)
+    {
+      CsimReader reader = new CsimReader();
+      reader.start();
+      readers.add(reader);
+    }
+
+    try
+    {
+      for (CsimReader reader : readers)
+        reader.join();
+
+      /* An empty buffer tells a worker that we're done: */
+      for (int i = 0; i < max_workers; i++)
+        work_queue.put(new CsimBlock(null, null, null, 0));
+      for (CsimWorker worker : workers)
+        worker.join();
+    }
+    catch (InterruptedException e)
+    {
+      common.failure(e);
+    }
 
-        long extent_blocks  = extent.size / xfersize;
-        long extent_samples = (pct >= 99) ? extent_blocks : (int) (extent_blocks * pct / 100) + 1;
+    common.ptod("");
+    common.ptod("Total: in: %6s out: %6s compratio: %7.2f:1",
+                whatSize(bytes_read), whatSize(bytes_out),
+                (bytes_out == 0) ? 0 : (double) bytes_read / bytes_out);
 
-        Long[] blocks_to_read = createSampleList(extent_blocks, extent_samples);
-        readExtent(blocks_to_read, ce, extent);
+    if (flat != null)
+      flat.close();
+  }
 
-        if (ce.extents.size() > 1)
-        {
-          if (extent.extno == 1)
-            common.ptod("");
-          printit(String.format("%s (%d)", ce.fname, extent.extno), extent);
-        }
-      }
 
-      printit(String.format("%s", ce.fname), ce.main_extent);
+  protected static synchronized CsimEntry getNextFile()
+  {
+    if (next_file >= file_list.size())
+      return null;
+    return file_list.get(next_file++);
+  }
+
+
+  /**
+   * Select and read the samples for each extent of this file.
+   */
+  protected static void doFile(CsimEntry ce)
+  {
+    for (int e = 0; e < ce.extents.size(); e++)
+    {
+      CsimExtent extent = ce.extents.get(e);
+
+      /* With one extent the main extent is reported by itself: */
+      if (ce.extents.size() > 1)
+        extent.parent = ce.main_extent;
+
+      long extent_blocks  = extent.size / xfersize;
+      long extent_samples = (pct >= 99) ? extent_blocks : (int) (extent_blocks * pct / 100) + 1;
+
+      Long[] blocks_to_read = createSampleList(extent_blocks, extent_samples);
+      readExtent(blocks_to_read, ce, extent);
+    }
+  }
+
+
+  /**
+   * A worker is done with a block: accumulate, and report the extent (and
+   * the file) once everything has been counted.
+   */
+  protected static void blockDone(CsimBlock block, long out)
+  {
+    CsimExtent extent = block.extent;
+    boolean    done;
+    synchronized (extent)
+    {
+      extent.bytes_in  += block.bytes;
+      extent.bytes_out += out;
+      extent.blocks_read++;
+      done = extent.isComplete();
+    }
+
+    synchronized (csim.class)
+    {
+      bytes_read += block.bytes;
+      bytes_out  += out;
+    }
+
+    if (done)
+      extentDone(block.ce, extent);
+  }
+
+
+  /**
+   * Called exactly once for each extent, either by the worker compressing
+   * its last block, or by the reader if there was nothing left to compress.
+   */
+  protected static void extentDone(CsimEntry ce, CsimExtent extent)
+  {
+    if (extent.parent == null)
+    {
+      report(ce.fname, ce, extent);
+      return;
+    }
+
+    report(String.format("%s (%d)", ce.fname, extent.extno), ce, extent);
+
+    CsimExtent main = extent.parent;
+    boolean    done;
+    synchronized (main)
+    {
+      main.bytes_in    += extent.bytes_in;
+      main.bytes_out   += extent.bytes_out;
+      main.blocks_read += extent.blocks_read;
+      done = (++main.extents_done == ce.extents.size());
     }
+
+    if (done)
+      report(ce.fname, ce, main);
   }
 
+
+  private static synchronized void report(String title, CsimEntry ce, CsimExtent extent)
+  {
+    printit(title, extent);
+
+    if (flat != null)
+    {
+      flat.println(String.format("%s %d %d %d %d %d %d %.1f %.2f",
+                                 ce.fname, extent.extno, extent.start_lba, extent.size,
+                                 extent.blocks_read, extent.bytes_in, extent.bytes_out,
+                                 (extent.bytes_out * 100. / extent.bytes_in),
+                                 ((double) extent.bytes_in / extent.bytes_out)));
+      flat.flush();
+    }
+  }
+
+
   private static void printit(String title, CsimExtent extent)
   {
     double cpct  = (extent.bytes_out * 100. / extent.bytes_in);
@@ -136,8 +298,7 @@ public class csim
   private static Long[] createSampleList(long extent_blocks, long extent_samples)
   {
 
-    randomizer = new Random(0); // maybe create seed?
-
+    Random randomizer = new Random(seed);
 
     int dups2 = 0;
     HashMap <Long, Long> sample_candidates = new HashMap((int) extent_samples * 2);
@@ -381,12 +542,14 @@ public class csim
 
 
   /**
-   * Read the samples
+   * Read the samples and queue them for the compressor workers.
    */
   private static void readExtent(Long[] blocks, CsimEntry ce, CsimExtent extent)
   {
-    byte[] input_buffer = new byte[xfersize];
-    long lba = 0;
+    RandomAccessFile raf = null;
+    byte[] input_buffer  = null;
+    long   lba           = 0;
+    int    queued        = 0;
 
     try
     {
@@ -398,33 +561,22 @@ public class csim
         lba = blocks[i] + extent.start_lba;
 
         /* Read this piece of the file that we need: */
+        input_buffer = free_buffers.take();
         raf.seek(lba);
         int bytes = raf.read(input_buffer, 0, xfersize);
 
-
         if (bytes < 0)
         {
           common.ptod("ce: " + ce);
           common.failure("problem reading file");
         }
 
+        work_queue.put(new CsimBlock(ce, extent, input_buffer, bytes));
+        input_buffer = null;
+        queued++;
 
-        long out          = compressBuffer(input_buffer);
-        extent.bytes_in  += bytes;
-        extent.bytes_out += out;
-        extent.blocks_read++;
-
-        if (ce.extents.size() > 1)
-        {
-          ce.main_extent.bytes_in  += bytes;
-          ce.main_extent.bytes_out += out;
-          ce.main_extent.blocks_read++;
-        }
-
-        //common.ptod("Just read: %-12s lba: %12d, read: %6d out: %6d", ce.fname, lba, bytes, out);
+        //common.ptod("Just read: %-12s lba: %12d, read: %6d", ce.fname, lba, bytes);
       }
-
-      raf.close();
     }
 
     catch (IOException ex)
@@ -433,6 +585,9 @@ public class csim
       common.ptod("extent.start_lba: " + extent.start_lba);
       common.ptod("lba:            %12d %16x  ", lba, lba);
       //e.printStackTrace();
+
+      if (input_buffer != null)
+        free_buffers.add(input_buffer);
     }
 
     catch (Exception ex)
@@ -440,42 +595,29 @@ public class csim
       common.ptod("");
       common.failure(ex);
     }
-  }
 
-
-  private static int compressBuffer(byte[] buffer)
-  {
     try
     {
-      ByteArrayOutputStream byteout = new ByteArrayOutputStream(xfersize);
-      BufferedOutputStream bostream = new BufferedOutputStream(byteout);
-      DataOutputStream  out_stream  = new DataOutputStream(bostream);
-      GZIPOutputStream  zip_out_stream;
-      zip_out_stream = new GZIPOutputStream(out_stream, (int) xfersize)
-      {
-        { def.setLevel(level);}
-      };
-
-      zip_out_stream.write(buffer, 0, xfersize);
-      zip_out_stream.close();
-
-      /* We take the zip results and accumulate them. */
-      /* We round upwards to 512, maybe will have to be 8k or larger. */
-      int bytes_out = byteout.size();
-
-      //common.ptod("bytes_out: " + bytes_out);
-      return bytes_out;
+      if (raf != null)
+        raf.close();
     }
-    catch (Exception e)
+    catch (IOException ex)
     {
-      common.ptod(e);
+      common.failure(ex);
     }
 
-    return 0;
+    /* Now we know how many blocks the workers must report: */
+    boolean done;
+    synchronized (extent)
+    {
+      extent.blocks_queued = queued;
+      done = extent.isComplete();
+    }
+    if (done)
+      extentDone(ce, extent);
   }
 
 
-
   private static double KB = 1024.;
   private static double MB = 1024. * 1024.;
   private static double GB = 1024. * 1024. * 1024.;
@@ -536,6 +678,10 @@ class CsimExtent
   long blocks_read;
   int  extno;
 
+  CsimExtent parent        = null;  /* Main extent when using subsets          */
+  long       blocks_queued = -1;    /* Set once the reader is done             */
+  int        extents_done  = 0;     /* For the main extent: subsets reported   */
+
   public CsimExtent(long start_lba, long size, int extno)
   {
     //common.ptod("size: %12d start: %12d", size, start_lba);
@@ -543,6 +689,101 @@ class CsimExtent
     this.size      = size;
     this.extno     = extno;
   }
+
+  /* Caller must synchronize on this extent: */
+  boolean isComplete()
+  {
+    return blocks_queued >= 0 && blocks_read == blocks_queued;
+  }
+}
+
+
+
+class CsimBlock
+{
+  CsimEntry  ce;
+  CsimExtent extent;
+  byte[]     buffer;
+  int        bytes;
+
+  public CsimBlock(CsimEntry ce, CsimExtent extent, byte[] buffer, int bytes)
+  {
+    this.ce     = ce;
+    this.extent = extent;
+    this.buffer = buffer;
+    this.bytes  = bytes;
+  }
+}
+
+
+
+class CsimReader extends Thread
+{
+  public void run()
+  {
+    CsimEntry ce;
+    while ((ce = csim.getNextFile()) != null)
+      csim.doFile(ce);
+  }
+}
+
+
+
+/**
+ * Compress blocks until an empty one arrives.
+ *
+ * Each worker keeps its own Deflater and output buffer. The result is the
+ * same as the GZIPOutputStream used before: raw deflate output plus the 10
+ * byte gzip header and 8 byte trailer.
+ */
+class CsimWorker extends Thread
+{
+  private Deflater deflater;
+  private byte[]   output;
+
+  private static final int GZIP_OVERHEAD = 18;
+
+  public CsimWorker(int xfersize, int level)
+  {
+    deflater = new Deflater(level, true);
+    output   = new byte[xfersize + xfersize / 8 + 64];
+  }
+
+  public void run()
+  {
+    try
+    {
+      while (true)
+      {
+        CsimBlock block = csim.work_queue.take();
+        if (block.buffer == null)
+          break;
+
+        long out = compressBuffer(block.buffer, block.bytes);
+        csim.free_buffers.put(block.buffer);
+        csim.blockDone(block, out);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      common.failure(e);
+    }
+
+    deflater.end();
+  }
+
+  private long compressBuffer(byte[] buffer, int bytes)
+  {
+    deflater.reset();
+    deflater.setInput(buffer, 0, bytes);
+    deflater.finish();
+
+    long out = 0;
+    while (!deflater.finished())
+      out += deflater.deflate(output);
+
+    return out + GZIP_OVERHEAD;
+  }
 }
 
 
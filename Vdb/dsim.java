@@ -10,7 +10,6 @@ package Vdb;
 
 import java.io.File;
 import java.io.RandomAccessFile;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.security.MessageDigest;
@@ -54,8 +53,7 @@ public class dsim
   private   static ArrayList <DsimFile> file_list = new ArrayList(1024);
   private   static long   cum_filesize = 0;
 
-  protected static HashMap <String, MessageDigest> dedup_map = new HashMap(16384);
-  protected static HashMap <String, Long>          count_map = new HashMap(16384);
+  protected static FingerprintIndex                fingerprints = null;
   protected static HashMap <Long,   Long>          set_map   = new HashMap(16384);
 
 
@@ -76,18 +74,20 @@ public class dsim
 
   public static void main(String[] args) throws NoSuchAlgorithmException
   {
-    Getopt getopt = new Getopt(args, "qn:u:d:w:f:x:s:e:", 10000);
+    Getopt getopt = new Getopt(args, "qn:u:d:w:f:x:s:e:m:t:", 10000);
     quiet = getopt.check('q');
     //getopt.print("dsim");
 
     if (!getopt.isOK() || getopt.get_positionals().size() == 0)
     {
-      common.ptod("Usage: ./vdbench dsim [-n sss] [-w nn] [-f nn] [-u nnnk] disk1, disk2, dir1, dir2, file1, file2, .....");
+      common.ptod("Usage: ./vdbench dsim [-n sss] [-w nn] [-f nn] [-u nnnk] [-m nnng] [-t dir] disk1, disk2, dir1, dir2, file1, file2, .....");
       common.ptod("Where: ");
       common.ptod("     -u nnn: dedup unit, amount of bytes to be used for deduplication");
       common.ptod("     -n sss: Notify about progress every 'sss' seconds, default 60.");
       common.ptod("     -w nnn: How many 'worker threads' hashing a block. Default 4");
       common.ptod("     -f nnn: How many 'lun/file threads' reading luns and files. Default 2");
+      common.ptod("     -m nnn: Memory budget for the fingerprint index. Default half of the java heap");
+      common.ptod("     -t dir: Directory for fingerprint index spill files. Default java.io.tmpdir");
       common.ptod("     disk1, file1, ...: up to 10000 disk or file names or windows drive letters (c)");
 
       common.failure("parameter error");
@@ -122,6 +122,17 @@ public class dsim
     if (getopt.check('x'))
       xfersize = getopt.get_int();
 
+    /* The fingerprint index spills to disk once it exceeds this budget: */
+    long   budget    = Runtime.getRuntime().maxMemory() / 2;
+    String spill_dir = System.getProperty("java.io.tmpdir");
+    if (getopt.check('m'))
+      budget = getopt.extractLong();
+    if (getopt.check('t'))
+      spill_dir = getopt.get_string();
+    if (!new File(spill_dir).isDirectory())
+      common.failure("'-t %s': directory does not exist", spill_dir);
+    fingerprints = new FingerprintIndex(budget, spill_dir);
+
     /* Find all the files: */
     if (!quiet)
     {
@@ -143,6 +154,7 @@ public class dsim
       common.ptod("Worker threads:         %14d", max_workers);
       common.ptod("Concurrent files:       %14d", max_files);
       common.ptod("Dedup unit:             %14d", dedupunit);
+      common.ptod("Fingerprint slots:      %,14d", fingerprints.getCapacity());
       common.ptod("");
     }
 
@@ -155,29 +167,17 @@ public class dsim
     readFiles();
 
     /* Find out how many hashes have collisions: those are duplicates: */
-    String[] hashes       = count_map.keySet().toArray(new String[0]);
-    long duplicate_blocks = 0;
-    long max_collisions   = 0;
-    long dedup_sets       = 0;
-    for (String hash : hashes)
-    {
-      long count = count_map.get(hash).longValue();
-      if (count > 1)
-      {
-        dedup_sets       ++;
-        duplicate_blocks += count;
-      }
-      max_collisions = Math.max(max_collisions, count);
-    }
-    long unique_blocks = blocks_hashed - duplicate_blocks;
-
-    //long   duplicate_blocks = blocks_hashed - dedup_map.size();
+    FingerprintIndex.Results results = fingerprints.finish(max_workers);
+    long duplicate_blocks = results.duplicate_blocks;
+    long max_collisions   = results.max_collisions;
+    long dedup_sets       = results.dedup_sets;
+    long unique_blocks    = blocks_hashed - duplicate_blocks;
 
     if (!quiet)
     {
       common.ptod("Reads done:       %,14d (of xfersize %d)", blocks_read, xfersize);
       common.ptod("Blocks_hashed:    %,14d (of dedupunit %d)", blocks_hashed, dedupunit);
-      common.ptod("Hash size:        %,14d", dedup_map.size());
+      common.ptod("Hash size:        %,14d", results.distinct);
       common.ptod("Dedup sets:       %,14d", dedup_sets);
       common.ptod("Duplicate blocks: %,14d", duplicate_blocks);
       common.ptod("Unique blocks:    %,14d", unique_blocks);
@@ -197,7 +197,7 @@ public class dsim
       if (duplicate_blocks > 0)
       {
         common.ptod("Average duplicate count per duplicate hash: %,8d",
-                    duplicate_blocks / duplicate_blocks);
+                    duplicate_blocks / dedup_sets);
         common.ptod("Maximum collisions:                         %,8d", max_collisions);
       }
     }
@@ -213,27 +213,6 @@ public class dsim
     }
 
     common.ptod("Number of sets found: %,d counting %,d duplicates", set_map.size(), total);
-
-    /* report here any hash that has more than 1 reference: */
-    /* it gets ugly with large files though.......          */
-    if (false)
-    {
-      /* First create Strings to sort later: */
-      ArrayList <String> lines = new ArrayList(hashes.length);
-      for (String hash : hashes)
-      {
-        long count = count_map.get(hash).longValue();
-        if (count > 1)
-          lines.add(String.format("Count: %06d hash: %s", count, hash));
-      }
-      Collections.sort(lines);
-
-      int printed = 0;
-      //for (int i = lines.size() - 1; i > 0 && printed++ < 30; i--)
-      for (int i = 0; i < lines.size() && printed++ < 300; i++)
-        common.ptod("lines: " + lines.get(i));
-      common.ptod("Stopped detailed hash count reporting after %d lines", printed);
-    }
   }
 
 
@@ -459,10 +438,10 @@ public class dsim
 
   public static void reportStats()
   {
-    long   duplicate_blocks = blocks_hashed - dedup_map.size();
+    long   distinct         = fingerprints.getDistinct();
     double elapsed          = System.currentTimeMillis() - sample_start;
     double mbsec            = (elapsed > 0) ? (bytes_read / (elapsed / 1000.) / 1000000.) : 0;
-    double ratio            = (blocks_hashed == 0) ? 0 : (double) blocks_hashed / dedup_map.size() ;
+    double ratio            = (blocks_hashed == 0) ? 0 : (double) blocks_hashed / distinct;
 
     common.ptod("Totals: Dedup ratio: %.2f:1 (%.5f) Files read: %,6d; Reads done: %,12d; mb/sec: %6.2f",
                 ratio, ratio, files_read, blocks_read, mbsec);
@@ -686,7 +665,7 @@ class DsimHash extends Thread
     /* Statistic reporting is checked each time we handle an MB of data: */
     if ((dsim.bytes_hashed / 1048576l) > dsim.last_mb_reported)
     {
-      synchronized (dsim.dedup_map)
+      synchronized (dsim.fingerprints)
       {
         if (dsim.signal.go())
           dsim.reportStats();
@@ -695,27 +674,13 @@ class DsimHash extends Thread
     }
 
     byte[] hash_array = hasher.digest();
-    String hash = new BigInteger(1, hash_array).toString(16);
 
-    synchronized (dsim.dedup_map)
+    synchronized (dsim.fingerprints)
     {
       dsim.blocks_hashed++;
 
-      /* if this is a new block, add it to the dedup_map: */
-      if (dsim.dedup_map.get(hash) == null)
-      {
-        //common.ptod("new hash for lba %,12d word1: %08x %s %s",
-        //            req.rel_lba, req.word1, dsf.fname, hash);
-        dsim.dedup_map.put(hash, hasher);
-        dsim.count_map.put(hash, 1l);
-      }
-      else
-      {
-        //common.ptod("dup hash for lba %,12d word1: %08x %s %s",
-        //            req.rel_lba, req.word1, dsf.fname, hash);
-        Long previous = dsim.count_map.get(hash);
-        dsim.count_map.put(hash, previous.longValue() + 1);
-      }
+      /* New blocks are added, known blocks get their count raised: */
+      dsim.fingerprints.add(hash_array);
 
       if (!req.unique)
       {
@@ -128,9 +128,17 @@ public class ownmath
   private static long last_100k  = 0;
   private static long offset     = 0;
   public  static long distPoisson(long max_value, double midpoint)
+  {
+    return distPoisson(max_value, midpoint, p_random);
+  }
+
+  /**
+   * Same, but using the caller's randomizer, e.g. a thread-local one.
+   */
+  public  static long distPoisson(long max_value, double midpoint, Random random)
   {
     /* pick a number from Zero to 1 */
-    double rand = p_random.nextDouble();
+    double rand = random.nextDouble();
 
     /* This is the big knob for skewing the file selection                          */
     /* average number picked is 1/3 of the number of files                          */
@@ -30,6 +30,14 @@ public class ParseFlat
    */
   public static void parseFlatFile(FlatFile ff, Vector all_runs)
   {
+    /* A binary flatfile needs no parsing at all: */
+    String bin = Vdb.FlatBinary.Reader.findBinary(ff.name);
+    if (bin != null)
+    {
+      parseBinaryFile(ff, bin, all_runs);
+      return;
+    }
+
     String fname = ff.name;
     Fget fg         = new Fget(fname);
     String line     = null;
@@ -156,6 +164,81 @@ public class ParseFlat
   }
 
 
+  /**
+   * Same as parseFlatFile(), but using the typed values from flatfile.bin.
+   * Numeric values are stored as Double, just like after parsing the text.
+   */
+  private static void parseBinaryFile(FlatFile ff, String bin, Vector all_runs)
+  {
+    Vdb.FlatBinary.Reader reader = new Vdb.FlatBinary.Reader(bin);
+    String[] headers = reader.getColumnNames();
+    String   last_rd  = null;
+    Run      last_run = null;
+
+    while (reader.next())
+    {
+      if (reader.isText())
+      {
+        if (reader.getText().indexOf("Starting RD=") != -1)
+          last_rd = reader.getText();
+        continue;
+      }
+
+      Object[] values = reader.getValues();
+      HashMap  data   = new HashMap(headers.length * 2);
+      for (int col = 0; col < headers.length; col++)
+      {
+        Object value = values[col];
+        if (value instanceof Long)
+          value = new Double(((Long) value).doubleValue());
+
+        /* Strings may still contain numbers, e.g. 'Interval': */
+        else if (value == null)
+          value = "n/a";
+        else if (value instanceof String)
+        {
+          try
+          {
+            value = new Double(Double.parseDouble((String) value));
+          }
+          catch (NumberFormatException e)
+          {
+          }
+        }
+        data.put(headers[col], value);
+      }
+
+      Object interval = data.get("Interval");
+      if (interval == null)
+      {
+        reader.close();
+        throw new CompException("Missing 'Interval' column in file " + bin);
+      }
+
+      /* See parseFlatFile(): */
+      if ((interval instanceof Double) &&
+          ((Double) interval).doubleValue() == 1 && last_run != null)
+      {
+        all_runs.add(last_run);
+        ff.runs.add(last_run);
+      }
+
+      last_run = new Run(ff.name, ff.base_dir, data, last_rd);
+    }
+
+    reader.close();
+
+    if (last_run != null)
+    {
+      all_runs.add(last_run);
+      ff.runs.add(last_run);
+    }
+
+    if (all_runs.size() == 0)
+      throw new CompException("No valid run averages found in file " + bin);
+  }
+
+
   /**
    * 'Temporary' functionality to parse summary.html for those files
    * where the 'Starting RD=' data is not in flatfile.html yet.